@@ -34,20 +34,20 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Parcelable;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.AggregationExceptions;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.Groups;
-import android.provider.ContactsContract.PinnedPositions;
 import android.provider.ContactsContract.Profile;
 import android.provider.ContactsContract.RawContacts;
 import android.provider.ContactsContract.RawContactsEntity;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.android.contacts.common.database.ContactUpdateUtils;
 import com.android.contacts.common.model.AccountTypeManager;
 import com.android.contacts.common.model.RawContactDelta;
 import com.android.contacts.common.model.RawContactDeltaList;
@@ -55,19 +55,34 @@ import com.android.contacts.common.model.RawContactModifier;
 import com.android.contacts.common.model.account.AccountWithDataSet;
 import com.android.contacts.util.CallerInfoCacheUtils;
 import com.android.contacts.util.ContactPhotoUtils;
+import com.android.contacts.util.LongHashSet;
+import com.android.contacts.util.LongIntHashMap;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A service responsible for saving changes to the content provider.
@@ -102,8 +117,26 @@ public class ContactSaveService extends IntentService {
     public static final String EXTRA_RAW_CONTACTS_TO_ADD = "rawContactsToAdd";
     public static final String EXTRA_RAW_CONTACTS_TO_REMOVE = "rawContactsToRemove";
 
+    /**
+     * Per-member outcome of a group update, reported in the callback intent as an int array
+     * parallel to {@link #EXTRA_RAW_CONTACTS_TO_ADD} and {@link #EXTRA_RAW_CONTACTS_TO_REMOVE}.
+     */
+    public static final String EXTRA_ADD_MEMBER_RESULTS = "addMemberResults";
+    public static final String EXTRA_REMOVE_MEMBER_RESULTS = "removeMemberResults";
+
+    /** The membership was added or removed. */
+    public static final int MEMBERSHIP_CHANGED = 0;
+    /** The raw contact was already (or was never) a member of the group. */
+    public static final int MEMBERSHIP_UNCHANGED = 1;
+    /** The membership could not be written. */
+    public static final int MEMBERSHIP_FAILED = 2;
+
     public static final String ACTION_SET_STARRED = "setStarred";
     public static final String ACTION_DELETE_CONTACT = "delete";
+    public static final String ACTION_DELETE_MULTIPLE_CONTACTS = "deleteMultipleContacts";
+    public static final String EXTRA_CONTACT_IDS = "contactIds";
+    /** The number of contacts deleted, reported in the callback intent of a batch delete. */
+    public static final String EXTRA_DELETED_COUNT = "deletedCount";
     public static final String EXTRA_CONTACT_URI = "contactUri";
     public static final String EXTRA_STARRED_FLAG = "starred";
 
@@ -116,6 +149,8 @@ public class ContactSaveService extends IntentService {
     public static final String EXTRA_CONTACT_ID2 = "contactId2";
     public static final String EXTRA_CONTACT_WRITABLE = "contactWritable";
 
+    public static final String ACTION_JOIN_SEVERAL_CONTACTS = "joinSeveralContacts";
+
     public static final String ACTION_SET_SEND_TO_VOICEMAIL = "sendToVoicemail";
     public static final String EXTRA_SEND_TO_VOICEMAIL_FLAG = "sendToVoicemailFlag";
 
@@ -142,7 +177,42 @@ public class ContactSaveService extends IntentService {
         Data.DATA15
     );
 
-    private static final int PERSIST_TRIES = 3;
+    private static final int PERSIST_TRIES = 5;
+
+    /** Initial delay between save attempts after a version conflict. */
+    private static final long PERSIST_BACKOFF_BASE_MILLIS = 50;
+    /**
+     * Maximum time a single save spends backing off. The worker thread sleeps while backing
+     * off, so this also bounds how long the intents queued behind the save are held up.
+     */
+    private static final long PERSIST_BACKOFF_TOTAL_MILLIS = 400;
+
+    /** Maximum number of raw-contact photos written concurrently after a save. */
+    private static final int MAX_PHOTO_SAVE_THREADS = 3;
+    private static final long PHOTO_SAVE_THREAD_KEEP_ALIVE_SECONDS = 5;
+
+    /**
+     * Maximum number of group members added or removed in a single batch. Adding a member takes
+     * two operations, which keeps each batch well below the provider's limit of operations
+     * between yield points. Batches have no yield points, so each one commits as a whole or not
+     * at all.
+     */
+    private static final int MEMBERSHIP_BATCH_SIZE = 100;
+
+    /** The number of contacts deleted by one {@link ContentResolver#applyBatch} call. */
+    private static final int DELETE_BATCH_SIZE = 100;
+
+    /**
+     * The number of raw contacts joined to the anchor by one {@link ContentResolver#applyBatch}
+     * call, which keeps each call well within the binder transaction limit.
+     */
+    static final int JOIN_BATCH_SIZE = 100;
+
+    /** Stays below SQLite's limit of 999 bound arguments. */
+    private static final int JOIN_QUERY_BATCH_SIZE = 500;
+
+    private static final String GROUP_MEMBERSHIP_SELECTION = Data.RAW_CONTACT_ID + "=? AND "
+            + Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?";
 
     public interface Listener {
         public void onServiceCompleted(Intent callbackIntent);
@@ -151,6 +221,18 @@ public class ContactSaveService extends IntentService {
     private static final CopyOnWriteArrayList<Listener> sListeners =
             new CopyOnWriteArrayList<Listener>();
 
+    /**
+     * Pending star, ringtone, send-to-voicemail and primary flag writes. Writes received back to
+     * back are merged on the worker thread and flushed before the next request is handled.
+     */
+    private static final ContactWriteQueue sWriteQueue = new ContactWriteQueue();
+
+    private static final SaveConflictStats sConflictStats = new SaveConflictStats(PERSIST_TRIES);
+    private static final Random sRandom = new Random();
+
+    /** Writes the photos of a multi-raw-contact save concurrently. Created on first use. */
+    private static ExecutorService sPhotoSaveExecutor;
+
     private Handler mMainHandler;
 
     public ContactSaveService() {
@@ -181,8 +263,25 @@ public class ContactSaveService extends IntentService {
         return getApplicationContext().getSystemService(name);
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Runs on the main thread, so this sees the intents in the order they are handled.
+        if (intent != null) {
+            sWriteQueue.onIntentReceived(isQueuedWrite(intent.getAction()));
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        sWriteQueue.dump("", writer);
+        sConflictStats.dump("", writer);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
+        final boolean writeNext = sWriteQueue.pollIntent();
+
         // Call an appropriate method. If we're sure it affects how incoming phone calls are
         // handled, then notify the fact to in-call screen.
         String action = intent.getAction();
@@ -200,23 +299,25 @@ public class ContactSaveService extends IntentService {
             deleteGroup(intent);
         } else if (ACTION_UPDATE_GROUP.equals(action)) {
             updateGroup(intent);
-        } else if (ACTION_SET_STARRED.equals(action)) {
-            setStarred(intent);
-        } else if (ACTION_SET_SUPER_PRIMARY.equals(action)) {
-            setSuperPrimary(intent);
-        } else if (ACTION_CLEAR_PRIMARY.equals(action)) {
-            clearPrimary(intent);
+        } else if (ACTION_SET_STARRED.equals(action)
+                || ACTION_SET_SUPER_PRIMARY.equals(action)
+                || ACTION_CLEAR_PRIMARY.equals(action)) {
+            handleWrite(intent, writeNext);
         } else if (ACTION_DELETE_CONTACT.equals(action)) {
             deleteContact(intent);
             CallerInfoCacheUtils.sendUpdateCallerInfoCacheIntent(this);
+        } else if (ACTION_DELETE_MULTIPLE_CONTACTS.equals(action)) {
+            deleteMultipleContacts(intent);
+            CallerInfoCacheUtils.sendUpdateCallerInfoCacheIntent(this);
         } else if (ACTION_JOIN_CONTACTS.equals(action)) {
             joinContacts(intent);
             CallerInfoCacheUtils.sendUpdateCallerInfoCacheIntent(this);
-        } else if (ACTION_SET_SEND_TO_VOICEMAIL.equals(action)) {
-            setSendToVoicemail(intent);
+        } else if (ACTION_JOIN_SEVERAL_CONTACTS.equals(action)) {
+            joinSeveralContacts(intent);
             CallerInfoCacheUtils.sendUpdateCallerInfoCacheIntent(this);
-        } else if (ACTION_SET_RINGTONE.equals(action)) {
-            setRingtone(intent);
+        } else if (ACTION_SET_SEND_TO_VOICEMAIL.equals(action)
+                || ACTION_SET_RINGTONE.equals(action)) {
+            handleWrite(intent, writeNext);
             CallerInfoCacheUtils.sendUpdateCallerInfoCacheIntent(this);
         }
     }
@@ -355,6 +456,7 @@ public class ContactSaveService extends IntentService {
 
         // Attempt to persist changes
         int tries = 0;
+        long backoffBudgetMillis = PERSIST_BACKOFF_TOTAL_MILLIS;
         while (tries++ < PERSIST_TRIES) {
             try {
                 // Build operations and try applying
@@ -419,32 +521,30 @@ public class ContactSaveService extends IntentService {
             } catch (OperationApplicationException e) {
                 // Version consistency failed, re-parent change and try again
                 Log.w(TAG, "Version consistency failed, re-parenting: " + e.toString());
-                final StringBuilder sb = new StringBuilder(RawContacts._ID + " IN(");
-                boolean first = true;
-                final int count = state.size();
-                for (int i = 0; i < count; i++) {
-                    Long rawContactId = state.getRawContactId(i);
-                    if (rawContactId != null && rawContactId != -1) {
-                        if (!first) {
-                            sb.append(',');
-                        }
-                        sb.append(rawContactId);
-                        first = false;
-                    }
-                }
-                sb.append(")");
-
-                if (first) {
+                final long mergeStart = SystemClock.elapsedRealtime();
+                final ArrayList<Long> existingIds = getExistingRawContactIds(state);
+                if (existingIds.isEmpty()) {
                     throw new IllegalStateException(
                             "Version consistency failed for a new contact", e);
                 }
 
-                final RawContactDeltaList newState = RawContactDeltaList.fromQuery(
-                        isProfile
-                                ? RawContactsEntity.PROFILE_CONTENT_URI
-                                : RawContactsEntity.CONTENT_URI,
-                        resolver, sb.toString(), null, null);
-                state = RawContactDeltaList.mergeAfter(newState, state);
+                // Usually only the raw contacts touched by a sync adapter in the meantime are
+                // out of date, so only re-read those.
+                final ArrayList<Long> staleIds =
+                        findStaleRawContactIds(resolver, state, existingIds, isProfile);
+                final boolean partial = !staleIds.isEmpty();
+                if (partial) {
+                    state = reparentRawContacts(resolver, state, staleIds, isProfile);
+                } else {
+                    // The versions look current, so we can't tell which assert failed.
+                    // Re-read everything.
+                    final RawContactDeltaList newState = RawContactDeltaList.fromQuery(
+                            isProfile
+                                    ? RawContactsEntity.PROFILE_CONTENT_URI
+                                    : RawContactsEntity.CONTENT_URI,
+                            resolver, buildIdSelection(existingIds), null, null);
+                    state = RawContactDeltaList.mergeAfter(newState, state);
+                }
 
                 // Update the new state to use profile URIs if appropriate.
                 if (isProfile) {
@@ -452,28 +552,25 @@ public class ContactSaveService extends IntentService {
                         delta.setProfileQueryUri();
                     }
                 }
+                final long mergeMillis = SystemClock.elapsedRealtime() - mergeStart;
+
+                // Back off before retrying, so we don't keep colliding with a sync adapter
+                // that is writing the same raw contacts.
+                final long backoffMillis =
+                        tries < PERSIST_TRIES ? backoff(tries, backoffBudgetMillis) : 0;
+                backoffBudgetMillis -= backoffMillis;
+                sConflictStats.onConflict(partial ? staleIds.size() : existingIds.size(),
+                        partial, mergeMillis, backoffMillis);
             }
         }
+        // The loop only runs out of tries after a conflict on the last one; errors break out.
+        sConflictStats.onSaveFinished(Math.min(tries, PERSIST_TRIES), succeeded,
+                tries > PERSIST_TRIES);
 
         // Now save any updated photos.  We do this at the end to ensure that
         // the ContactProvider already knows about newly-created contacts.
-        if (updatedPhotos != null) {
-            for (String key : updatedPhotos.keySet()) {
-                Uri photoUri = updatedPhotos.getParcelable(key);
-                long rawContactId = Long.parseLong(key);
-
-                // If the raw-contact ID is negative, we are saving a new raw-contact;
-                // replace the bogus ID with the new one that we actually saved the contact at.
-                if (rawContactId < 0) {
-                    rawContactId = insertedRawContactId;
-                    if (rawContactId == -1) {
-                        throw new IllegalStateException(
-                                "Could not determine RawContact ID for image insertion");
-                    }
-                }
-
-                if (!saveUpdatedPhoto(rawContactId, photoUri)) succeeded = false;
-            }
+        if (updatedPhotos != null && !updatedPhotos.isEmpty()) {
+            if (!saveUpdatedPhotos(updatedPhotos, insertedRawContactId)) succeeded = false;
         }
 
         Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
@@ -489,6 +586,180 @@ public class ContactSaveService extends IntentService {
         }
     }
 
+    /**
+     * @return the IDs of all raw contacts in the state that already exist in the provider.
+     *     Raw contacts inserted in the editor have negative placeholder IDs and are skipped.
+     */
+    private static ArrayList<Long> getExistingRawContactIds(RawContactDeltaList state) {
+        final ArrayList<Long> ids = new ArrayList<Long>(state.size());
+        final int count = state.size();
+        for (int i = 0; i < count; i++) {
+            Long rawContactId = state.getRawContactId(i);
+            if (rawContactId != null && rawContactId >= 0 && !state.get(i).isContactInsert()) {
+                ids.add(rawContactId);
+            }
+        }
+        return ids;
+    }
+
+    private static String buildIdSelection(List<Long> rawContactIds) {
+        final StringBuilder sb = new StringBuilder(RawContacts._ID + " IN(");
+        for (int i = 0; i < rawContactIds.size(); i++) {
+            if (i != 0) {
+                sb.append(',');
+            }
+            sb.append(rawContactIds.get(i));
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    /**
+     * Compares the version of each raw contact in the state against the provider, which is much
+     * cheaper than re-reading all of their data rows.
+     * @return the IDs of raw contacts that were modified or deleted since the state was loaded.
+     */
+    private static ArrayList<Long> findStaleRawContactIds(ContentResolver resolver,
+            RawContactDeltaList state, ArrayList<Long> rawContactIds, boolean isProfile) {
+        final HashMap<Long, Long> currentVersions = new HashMap<Long, Long>();
+        final Cursor c = resolver.query(
+                isProfile ? Profile.CONTENT_RAW_CONTACTS_URI : RawContacts.CONTENT_URI,
+                new String[] { RawContacts._ID, RawContacts.VERSION },
+                buildIdSelection(rawContactIds), null, null);
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    currentVersions.put(c.getLong(0), c.getLong(1));
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        final ArrayList<Long> staleIds = new ArrayList<Long>();
+        for (Long rawContactId : rawContactIds) {
+            final RawContactDelta delta = state.getByRawContactId(rawContactId);
+            final Long version = delta.getValues().getAsLong(RawContacts.VERSION);
+            if (version == null || !version.equals(currentVersions.get(rawContactId))) {
+                staleIds.add(rawContactId);
+            }
+        }
+        return staleIds;
+    }
+
+    /**
+     * Re-reads the given raw contacts and merges the user's changes to them on top. All other
+     * raw contacts in the state, and their position in it, are left untouched.
+     */
+    private static RawContactDeltaList reparentRawContacts(ContentResolver resolver,
+            RawContactDeltaList state, ArrayList<Long> staleIds, boolean isProfile) {
+        final RawContactDeltaList staleState = new RawContactDeltaList();
+        for (Long rawContactId : staleIds) {
+            staleState.add(state.getByRawContactId(rawContactId));
+        }
+        final RawContactDeltaList newState = RawContactDeltaList.fromQuery(
+                isProfile
+                        ? RawContactsEntity.PROFILE_CONTENT_URI
+                        : RawContactsEntity.CONTENT_URI,
+                resolver, buildIdSelection(staleIds), null, null);
+        final RawContactDeltaList merged = RawContactDeltaList.mergeAfter(newState, staleState);
+
+        for (int i = state.size() - 1; i >= 0; i--) {
+            final Long rawContactId = state.getRawContactId(i);
+            if (rawContactId == null || !staleIds.contains(rawContactId)) {
+                continue;
+            }
+            final RawContactDelta replacement = merged.getByRawContactId(rawContactId);
+            if (replacement != null) {
+                state.set(i, replacement);
+                merged.remove(replacement);
+            } else {
+                state.remove(i);
+            }
+        }
+        state.addAll(merged);
+        return state;
+    }
+
+    /**
+     * Sleeps before the next save attempt, using exponential backoff with random jitter.
+     * @param attempt the number of attempts made so far, starting at 1
+     * @param budgetMillis the backoff time this save has left, see
+     *     {@link #PERSIST_BACKOFF_TOTAL_MILLIS}
+     * @return the time slept in milliseconds
+     */
+    private static long backoff(int attempt, long budgetMillis) {
+        final long base = PERSIST_BACKOFF_BASE_MILLIS << (attempt - 1);
+        final long delay = Math.min(budgetMillis,
+                base / 2 + (long) (sRandom.nextDouble() * base / 2));
+        if (delay > 0) {
+            SystemClock.sleep(delay);
+        }
+        return Math.max(0, delay);
+    }
+
+    /**
+     * Saves all updated photos, writing the photos of different raw-contacts concurrently, and
+     * waits until every write has finished.
+     * @param updatedPhotos maps each raw-contact's ID to the uri of its new photo
+     * @param insertedRawContactId the ID of the newly-inserted raw-contact, or -1
+     * @return true if all photos were saved, false if any of them failed
+     */
+    private boolean saveUpdatedPhotos(Bundle updatedPhotos, long insertedRawContactId) {
+        final ArrayList<Long> rawContactIds = new ArrayList<Long>(updatedPhotos.size());
+        final ArrayList<Uri> photoUris = new ArrayList<Uri>(updatedPhotos.size());
+        for (String key : updatedPhotos.keySet()) {
+            long rawContactId = Long.parseLong(key);
+
+            // If the raw-contact ID is negative, we are saving a new raw-contact;
+            // replace the bogus ID with the new one that we actually saved the contact at.
+            if (rawContactId < 0) {
+                rawContactId = insertedRawContactId;
+                if (rawContactId == -1) {
+                    throw new IllegalStateException(
+                            "Could not determine RawContact ID for image insertion");
+                }
+            }
+            rawContactIds.add(rawContactId);
+            photoUris.add((Uri) updatedPhotos.getParcelable(key));
+        }
+
+        // Don't bother with a thread hop for the common case of a single photo.
+        if (rawContactIds.size() == 1) {
+            return saveUpdatedPhoto(rawContactIds.get(0), photoUris.get(0));
+        }
+
+        final ArrayList<Future<Boolean>> results =
+                new ArrayList<Future<Boolean>>(rawContactIds.size());
+        final ExecutorService executor = getPhotoSaveExecutor();
+        for (int i = 0; i < rawContactIds.size(); i++) {
+            final long rawContactId = rawContactIds.get(i);
+            final Uri photoUri = photoUris.get(i);
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return saveUpdatedPhoto(rawContactId, photoUri);
+                }
+            }));
+        }
+
+        boolean succeeded = true;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                if (!results.get(i).get()) succeeded = false;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Failed to save photo for raw contact " + rawContactIds.get(i), e);
+                succeeded = false;
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interrupted while saving photo for raw contact "
+                        + rawContactIds.get(i), e);
+                Thread.currentThread().interrupt();
+                succeeded = false;
+            }
+        }
+        return succeeded;
+    }
+
     /**
      * Save updated photo for the specified raw-contact.
      * @return true for success, false for failure
@@ -498,7 +769,32 @@ public class ContactSaveService extends IntentService {
                 ContentUris.withAppendedId(RawContacts.CONTENT_URI, rawContactId),
                 RawContacts.DisplayPhoto.CONTENT_DIRECTORY);
 
-        return ContactPhotoUtils.savePhotoFromUriToUri(this, photoUri, outputUri, true);
+        final long start = SystemClock.elapsedRealtime();
+        final boolean succeeded =
+                ContactPhotoUtils.savePhotoFromUriToUri(this, photoUri, outputUri, true);
+        Log.v(TAG, "Saved photo for raw contact " + rawContactId + " in "
+                + (SystemClock.elapsedRealtime() - start) + "ms, success=" + succeeded);
+        return succeeded;
+    }
+
+    private static synchronized ExecutorService getPhotoSaveExecutor() {
+        if (sPhotoSaveExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    MAX_PHOTO_SAVE_THREADS, MAX_PHOTO_SAVE_THREADS,
+                    PHOTO_SAVE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, "ContactPhotoSave #" + mCount.incrementAndGet());
+                        }
+                    });
+            // Don't keep idle threads around between saves.
+            executor.allowCoreThreadTimeOut(true);
+            sPhotoSaveExecutor = executor;
+        }
+        return sPhotoSaveExecutor;
     }
 
     /**
@@ -591,7 +887,8 @@ public class ContactSaveService extends IntentService {
         }
 
         // Add new group members
-        addMembersToGroup(resolver, rawContactsToAdd, ContentUris.parseId(groupUri));
+        final int[] addResults = addMembersToGroup(resolver, rawContactsToAdd,
+                ContentUris.parseId(groupUri));
 
         // TODO: Move this into the contact editor where it belongs. This needs to be integrated
         // with the way other intent extras that are passed to the {@link ContactEditorActivity}.
@@ -601,6 +898,7 @@ public class ContactSaveService extends IntentService {
 
         Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
         callbackIntent.setData(groupUri);
+        callbackIntent.putExtra(EXTRA_ADD_MEMBER_RESULTS, addResults);
         // TODO: This can be taken out when the above TODO is addressed
         callbackIntent.putExtra(ContactsContract.Intents.Insert.DATA, Lists.newArrayList(values));
         deliverCallback(callbackIntent);
@@ -720,79 +1018,237 @@ public class ContactSaveService extends IntentService {
         }
 
         // Add and remove members if necessary
-        addMembersToGroup(resolver, rawContactsToAdd, groupId);
-        removeMembersFromGroup(resolver, rawContactsToRemove, groupId);
+        final int[] addResults = addMembersToGroup(resolver, rawContactsToAdd, groupId);
+        final int[] removeResults = removeMembersFromGroup(resolver, rawContactsToRemove,
+                groupId);
 
         Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
         callbackIntent.setData(groupUri);
+        callbackIntent.putExtra(EXTRA_ADD_MEMBER_RESULTS, addResults);
+        callbackIntent.putExtra(EXTRA_REMOVE_MEMBER_RESULTS, removeResults);
         deliverCallback(callbackIntent);
     }
 
-    private static void addMembersToGroup(ContentResolver resolver, long[] rawContactsToAdd,
+    /**
+     * Adds the given raw contacts to the group, applying the inserts in batches of at most
+     * {@link #MEMBERSHIP_BATCH_SIZE} members.
+     *
+     * @return the outcome for each entry of {@code rawContactsToAdd}, one of
+     *     {@link #MEMBERSHIP_CHANGED}, {@link #MEMBERSHIP_UNCHANGED} or {@link #MEMBERSHIP_FAILED},
+     *     or null if there was nothing to add
+     */
+    private static int[] addMembersToGroup(ContentResolver resolver, long[] rawContactsToAdd,
             long groupId) {
         if (rawContactsToAdd == null) {
+            return null;
+        }
+        final int[] results = new int[rawContactsToAdd.length];
+        for (int start = 0; start < rawContactsToAdd.length; start += MEMBERSHIP_BATCH_SIZE) {
+            final int end = Math.min(start + MEMBERSHIP_BATCH_SIZE, rawContactsToAdd.length);
+            addMembersToGroupChunk(resolver, rawContactsToAdd, start, end, groupId, results);
+        }
+        return results;
+    }
+
+    private static void addMembersToGroupChunk(ContentResolver resolver, long[] rawContactIds,
+            int start, int end, long groupId, int[] results) {
+        // Skip raw contacts that are already members, so that a single existing membership
+        // doesn't abort the whole chunk. The asserts below still guard against races.
+        final HashSet<Long> existingMembers = queryGroupMembers(resolver, rawContactIds,
+                start, end, groupId);
+
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (int i = start; i < end; i++) {
+            final long rawContactId = rawContactIds[i];
+            if (existingMembers.contains(rawContactId)) {
+                results[i] = MEMBERSHIP_UNCHANGED;
+                continue;
+            }
+            buildAddMemberOperations(operations, rawContactId, groupId);
+        }
+        if (operations.isEmpty()) {
             return;
         }
-        for (long rawContactId : rawContactsToAdd) {
-            try {
-                final ArrayList<ContentProviderOperation> rawContactOperations =
-                        new ArrayList<ContentProviderOperation>();
-
-                // Build an assert operation to ensure the contact is not already in the group
-                final ContentProviderOperation.Builder assertBuilder = ContentProviderOperation
-                        .newAssertQuery(Data.CONTENT_URI);
-                assertBuilder.withSelection(Data.RAW_CONTACT_ID + "=? AND " +
-                        Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
-                        new String[] { String.valueOf(rawContactId),
-                        GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
-                assertBuilder.withExpectedCount(0);
-                rawContactOperations.add(assertBuilder.build());
 
-                // Build an insert operation to add the contact to the group
-                final ContentProviderOperation.Builder insertBuilder = ContentProviderOperation
-                        .newInsert(Data.CONTENT_URI);
-                insertBuilder.withValue(Data.RAW_CONTACT_ID, rawContactId);
-                insertBuilder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
-                insertBuilder.withValue(GroupMembership.GROUP_ROW_ID, groupId);
-                rawContactOperations.add(insertBuilder.build());
+        if (DEBUG) {
+            for (ContentProviderOperation operation : operations) {
+                Log.v(TAG, operation.toString());
+            }
+        }
 
-                if (DEBUG) {
-                    for (ContentProviderOperation operation : rawContactOperations) {
-                        Log.v(TAG, operation.toString());
-                    }
+        try {
+            resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+            for (int i = start; i < end; i++) {
+                if (!existingMembers.contains(rawContactIds[i])) {
+                    results[i] = MEMBERSHIP_CHANGED;
                 }
-
-                // Apply batch
-                if (!rawContactOperations.isEmpty()) {
-                    resolver.applyBatch(ContactsContract.AUTHORITY, rawContactOperations);
+            }
+        } catch (RemoteException e) {
+            // Something went wrong, bail without success
+            Log.e(TAG, "Problem persisting group members " + start + " to " + end
+                    + " of group " + groupId, e);
+            for (int i = start; i < end; i++) {
+                if (!existingMembers.contains(rawContactIds[i])) {
+                    results[i] = MEMBERSHIP_FAILED;
+                }
+            }
+        } catch (OperationApplicationException e) {
+            // One of the raw contacts was added concurrently (or appears twice in the request).
+            // Nothing of the chunk was committed, so retry it one member at a time to find out
+            // which ones are already members and still add the others.
+            Log.w(TAG, "Assert failed in adding group members " + start + " to " + end
+                    + " of group " + groupId + ", retrying individually");
+            for (int i = start; i < end; i++) {
+                if (!existingMembers.contains(rawContactIds[i])) {
+                    results[i] = addMemberToGroup(resolver, rawContactIds[i], groupId);
                 }
-            } catch (RemoteException e) {
-                // Something went wrong, bail without success
-                Log.e(TAG, "Problem persisting user edits for raw contact ID " +
-                        String.valueOf(rawContactId), e);
-            } catch (OperationApplicationException e) {
-                // The assert could have failed because the contact is already in the group,
-                // just continue to the next contact
-                Log.w(TAG, "Assert failed in adding raw contact ID " +
-                        String.valueOf(rawContactId) + ". Already exists in group " +
-                        String.valueOf(groupId), e);
             }
         }
     }
 
-    private static void removeMembersFromGroup(ContentResolver resolver, long[] rawContactsToRemove,
+    /**
+     * Adds a single raw contact to the group in its own transaction.
+     */
+    private static int addMemberToGroup(ContentResolver resolver, long rawContactId,
             long groupId) {
+        try {
+            final ArrayList<ContentProviderOperation> rawContactOperations =
+                    new ArrayList<ContentProviderOperation>();
+            buildAddMemberOperations(rawContactOperations, rawContactId, groupId);
+            resolver.applyBatch(ContactsContract.AUTHORITY, rawContactOperations);
+            return MEMBERSHIP_CHANGED;
+        } catch (RemoteException e) {
+            // Something went wrong, bail without success
+            Log.e(TAG, "Problem persisting user edits for raw contact ID " +
+                    String.valueOf(rawContactId), e);
+            return MEMBERSHIP_FAILED;
+        } catch (OperationApplicationException e) {
+            // The assert could have failed because the contact is already in the group,
+            // just continue to the next contact
+            Log.w(TAG, "Assert failed in adding raw contact ID " +
+                    String.valueOf(rawContactId) + ". Already exists in group " +
+                    String.valueOf(groupId), e);
+            return MEMBERSHIP_UNCHANGED;
+        }
+    }
+
+    private static void buildAddMemberOperations(ArrayList<ContentProviderOperation> operations,
+            long rawContactId, long groupId) {
+        // Build an assert operation to ensure the contact is not already in the group
+        final ContentProviderOperation.Builder assertBuilder = ContentProviderOperation
+                .newAssertQuery(Data.CONTENT_URI);
+        assertBuilder.withSelection(GROUP_MEMBERSHIP_SELECTION,
+                new String[] { String.valueOf(rawContactId),
+                GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
+        assertBuilder.withExpectedCount(0);
+        operations.add(assertBuilder.build());
+
+        // Build an insert operation to add the contact to the group
+        final ContentProviderOperation.Builder insertBuilder = ContentProviderOperation
+                .newInsert(Data.CONTENT_URI);
+        insertBuilder.withValue(Data.RAW_CONTACT_ID, rawContactId);
+        insertBuilder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
+        insertBuilder.withValue(GroupMembership.GROUP_ROW_ID, groupId);
+        operations.add(insertBuilder.build());
+    }
+
+    /**
+     * Returns which of the raw contacts in {@code rawContactIds[start..end)} are currently
+     * members of the group.
+     */
+    private static HashSet<Long> queryGroupMembers(ContentResolver resolver,
+            long[] rawContactIds, int start, int end, long groupId) {
+        final HashSet<Long> members = new HashSet<Long>();
+        final StringBuilder sb = new StringBuilder();
+        sb.append(Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=? AND "
+                + Data.RAW_CONTACT_ID + " IN(");
+        for (int i = start; i < end; i++) {
+            if (i != start) {
+                sb.append(',');
+            }
+            sb.append(rawContactIds[i]);
+        }
+        sb.append(')');
+
+        final Cursor c = resolver.query(Data.CONTENT_URI, new String[] { Data.RAW_CONTACT_ID },
+                sb.toString(), new String[] {
+                        GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId) },
+                null);
+        if (c == null) {
+            return members;
+        }
+        try {
+            while (c.moveToNext()) {
+                members.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        return members;
+    }
+
+    /**
+     * Removes the given raw contacts from the group, applying the deletes in batches of at most
+     * {@link #MEMBERSHIP_BATCH_SIZE} members.
+     *
+     * @return the outcome for each entry of {@code rawContactsToRemove}, one of
+     *     {@link #MEMBERSHIP_CHANGED}, {@link #MEMBERSHIP_UNCHANGED} or {@link #MEMBERSHIP_FAILED},
+     *     or null if there was nothing to remove
+     */
+    private static int[] removeMembersFromGroup(ContentResolver resolver,
+            long[] rawContactsToRemove, long groupId) {
         if (rawContactsToRemove == null) {
-            return;
+            return null;
         }
-        for (long rawContactId : rawContactsToRemove) {
-            // Apply the delete operation on the data row for the given raw contact's
-            // membership in the given group. If no contact matches the provided selection, then
-            // nothing will be done. Just continue to the next contact.
-            resolver.delete(Data.CONTENT_URI, Data.RAW_CONTACT_ID + "=? AND " +
-                    Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
-                    new String[] { String.valueOf(rawContactId),
-                    GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
+        final int[] results = new int[rawContactsToRemove.length];
+        for (int start = 0; start < rawContactsToRemove.length;
+                start += MEMBERSHIP_BATCH_SIZE) {
+            final int end = Math.min(start + MEMBERSHIP_BATCH_SIZE, rawContactsToRemove.length);
+            removeMembersFromGroupChunk(resolver, rawContactsToRemove, start, end, groupId,
+                    results);
+        }
+        return results;
+    }
+
+    private static void removeMembersFromGroupChunk(ContentResolver resolver,
+            long[] rawContactIds, int start, int end, long groupId, int[] results) {
+        // Delete the data row for each raw contact's membership in the given group. If no
+        // row matches the selection, then nothing is done for that contact.
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(end - start);
+        for (int i = start; i < end; i++) {
+            operations.add(ContentProviderOperation.newDelete(Data.CONTENT_URI)
+                    .withSelection(GROUP_MEMBERSHIP_SELECTION,
+                            new String[] { String.valueOf(rawContactIds[i]),
+                            GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)})
+                    .build());
+        }
+
+        try {
+            final ContentProviderResult[] batchResults =
+                    resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+            for (int i = start; i < end; i++) {
+                final Integer count = batchResults[i - start].count;
+                results[i] = count != null && count > 0
+                        ? MEMBERSHIP_CHANGED : MEMBERSHIP_UNCHANGED;
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Problem removing group members " + start + " to " + end
+                    + " of group " + groupId, e);
+            for (int i = start; i < end; i++) {
+                results[i] = MEMBERSHIP_FAILED;
+            }
+        } catch (OperationApplicationException e) {
+            // The batch was rolled back as a whole, fall back to deleting one member at a time.
+            Log.w(TAG, "Failed to remove group members " + start + " to " + end
+                    + " of group " + groupId + ", retrying individually", e);
+            for (int i = start; i < end; i++) {
+                final int count = resolver.delete(Data.CONTENT_URI, GROUP_MEMBERSHIP_SELECTION,
+                        new String[] { String.valueOf(rawContactIds[i]),
+                        GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
+                results[i] = count > 0 ? MEMBERSHIP_CHANGED : MEMBERSHIP_UNCHANGED;
+            }
         }
     }
 
@@ -808,34 +1264,69 @@ public class ContactSaveService extends IntentService {
         return serviceIntent;
     }
 
-    private void setStarred(Intent intent) {
-        Uri contactUri = intent.getParcelableExtra(EXTRA_CONTACT_URI);
-        boolean value = intent.getBooleanExtra(EXTRA_STARRED_FLAG, false);
-        if (contactUri == null) {
-            Log.e(TAG, "Invalid arguments for setStarred request");
-            return;
-        }
+    /**
+     * @return whether the action is a write that goes through {@link #sWriteQueue}.
+     */
+    private static boolean isQueuedWrite(String action) {
+        return ACTION_SET_STARRED.equals(action)
+                || ACTION_SET_SEND_TO_VOICEMAIL.equals(action)
+                || ACTION_SET_RINGTONE.equals(action)
+                || ACTION_SET_SUPER_PRIMARY.equals(action)
+                || ACTION_CLEAR_PRIMARY.equals(action);
+    }
 
-        final ContentValues values = new ContentValues(1);
-        values.put(Contacts.STARRED, value);
-        getContentResolver().update(contactUri, values, null, null);
+    /**
+     * Queues the write requested by the intent, and applies the queued writes unless the next
+     * intent in line is a write too, which then applies them all.
+     */
+    private void handleWrite(Intent intent, boolean writeNext) {
+        enqueueWrite(intent);
+        if (!writeNext) {
+            sWriteQueue.flush(getContentResolver());
+        }
+    }
 
-        // Undemote the contact if necessary
-        final Cursor c = getContentResolver().query(contactUri, new String[] {Contacts._ID},
-                null, null, null);
-        try {
-            if (c.moveToFirst()) {
-                final long id = c.getLong(0);
-
-                // Don't bother undemoting if this contact is the user's profile.
-                if (id < Profile.MIN_ID) {
-                    values.clear();
-                    values.put(String.valueOf(id), PinnedPositions.UNDEMOTE);
-                    getContentResolver().update(PinnedPositions.UPDATE_URI, values, null, null);
-                }
+    /**
+     * Adds the write requested by the intent to {@link #sWriteQueue}.
+     */
+    private void enqueueWrite(Intent intent) {
+        final String action = intent.getAction();
+        if (ACTION_SET_STARRED.equals(action)) {
+            Uri contactUri = intent.getParcelableExtra(EXTRA_CONTACT_URI);
+            if (contactUri == null) {
+                Log.e(TAG, "Invalid arguments for setStarred request");
+                return;
             }
-        } finally {
-            c.close();
+            sWriteQueue.setStarred(contactUri, intent.getBooleanExtra(EXTRA_STARRED_FLAG, false));
+        } else if (ACTION_SET_SEND_TO_VOICEMAIL.equals(action)) {
+            Uri contactUri = intent.getParcelableExtra(EXTRA_CONTACT_URI);
+            if (contactUri == null) {
+                Log.e(TAG, "Invalid arguments for setRedirectToVoicemail");
+                return;
+            }
+            sWriteQueue.setSendToVoicemail(contactUri,
+                    intent.getBooleanExtra(EXTRA_SEND_TO_VOICEMAIL_FLAG, false));
+        } else if (ACTION_SET_RINGTONE.equals(action)) {
+            Uri contactUri = intent.getParcelableExtra(EXTRA_CONTACT_URI);
+            if (contactUri == null) {
+                Log.e(TAG, "Invalid arguments for setRingtone");
+                return;
+            }
+            sWriteQueue.setRingtone(contactUri, intent.getStringExtra(EXTRA_CUSTOM_RINGTONE));
+        } else if (ACTION_SET_SUPER_PRIMARY.equals(action)) {
+            long dataId = intent.getLongExtra(EXTRA_DATA_ID, -1);
+            if (dataId == -1) {
+                Log.e(TAG, "Invalid arguments for setSuperPrimary request");
+                return;
+            }
+            sWriteQueue.setSuperPrimary(dataId);
+        } else if (ACTION_CLEAR_PRIMARY.equals(action)) {
+            long dataId = intent.getLongExtra(EXTRA_DATA_ID, -1);
+            if (dataId == -1) {
+                Log.e(TAG, "Invalid arguments for clearPrimary request");
+                return;
+            }
+            sWriteQueue.clearPrimary(dataId);
         }
     }
 
@@ -852,19 +1343,6 @@ public class ContactSaveService extends IntentService {
         return serviceIntent;
     }
 
-    private void setSendToVoicemail(Intent intent) {
-        Uri contactUri = intent.getParcelableExtra(EXTRA_CONTACT_URI);
-        boolean value = intent.getBooleanExtra(EXTRA_SEND_TO_VOICEMAIL_FLAG, false);
-        if (contactUri == null) {
-            Log.e(TAG, "Invalid arguments for setRedirectToVoicemail");
-            return;
-        }
-
-        final ContentValues values = new ContentValues(1);
-        values.put(Contacts.SEND_TO_VOICEMAIL, value);
-        getContentResolver().update(contactUri, values, null, null);
-    }
-
     /**
      * Creates an intent that can be sent to this service to save the contact's ringtone.
      */
@@ -878,18 +1356,6 @@ public class ContactSaveService extends IntentService {
         return serviceIntent;
     }
 
-    private void setRingtone(Intent intent) {
-        Uri contactUri = intent.getParcelableExtra(EXTRA_CONTACT_URI);
-        String value = intent.getStringExtra(EXTRA_CUSTOM_RINGTONE);
-        if (contactUri == null) {
-            Log.e(TAG, "Invalid arguments for setRingtone");
-            return;
-        }
-        ContentValues values = new ContentValues(1);
-        values.put(Contacts.CUSTOM_RINGTONE, value);
-        getContentResolver().update(contactUri, values, null, null);
-    }
-
     /**
      * Creates an intent that sets the selected data item as super primary (default)
      */
@@ -900,16 +1366,6 @@ public class ContactSaveService extends IntentService {
         return serviceIntent;
     }
 
-    private void setSuperPrimary(Intent intent) {
-        long dataId = intent.getLongExtra(EXTRA_DATA_ID, -1);
-        if (dataId == -1) {
-            Log.e(TAG, "Invalid arguments for setSuperPrimary request");
-            return;
-        }
-
-        ContactUpdateUtils.setSuperPrimary(this, dataId);
-    }
-
     /**
      * Creates an intent that clears the primary flag of all data items that belong to the same
      * raw_contact as the given data item. Will only clear, if the data item was primary before
@@ -922,22 +1378,6 @@ public class ContactSaveService extends IntentService {
         return serviceIntent;
     }
 
-    private void clearPrimary(Intent intent) {
-        long dataId = intent.getLongExtra(EXTRA_DATA_ID, -1);
-        if (dataId == -1) {
-            Log.e(TAG, "Invalid arguments for clearPrimary request");
-            return;
-        }
-
-        // Update the primary values in the data record.
-        ContentValues values = new ContentValues(1);
-        values.put(Data.IS_SUPER_PRIMARY, 0);
-        values.put(Data.IS_PRIMARY, 0);
-
-        getContentResolver().update(ContentUris.withAppendedId(Data.CONTENT_URI, dataId),
-                values, null, null);
-    }
-
     /**
      * Creates an intent that can be sent to this service to delete a contact.
      */
@@ -958,6 +1398,95 @@ public class ContactSaveService extends IntentService {
         getContentResolver().delete(contactUri, null, null);
     }
 
+    /**
+     * Creates an intent that can be sent to this service to delete many contacts at once.
+     *
+     * @param callbackActivity the activity to deliver the callback intent to, with the number
+     *     of deleted contacts in {@link #EXTRA_DELETED_COUNT}, or null for no callback
+     */
+    public static Intent createDeleteMultipleContactsIntent(Context context, long[] contactIds,
+            Class<? extends Activity> callbackActivity, String callbackAction) {
+        Intent serviceIntent = new Intent(context, ContactSaveService.class);
+        serviceIntent.setAction(ContactSaveService.ACTION_DELETE_MULTIPLE_CONTACTS);
+        serviceIntent.putExtra(ContactSaveService.EXTRA_CONTACT_IDS, contactIds);
+
+        if (callbackActivity != null) {
+            // Callback intent will be invoked by the service once the contacts are deleted.
+            Intent callbackIntent = new Intent(context, callbackActivity);
+            callbackIntent.setAction(callbackAction);
+            serviceIntent.putExtra(ContactSaveService.EXTRA_CALLBACK_INTENT, callbackIntent);
+        }
+        return serviceIntent;
+    }
+
+    private void deleteMultipleContacts(Intent intent) {
+        final long[] contactIds = intent.getLongArrayExtra(EXTRA_CONTACT_IDS);
+        if (contactIds == null) {
+            Log.e(TAG, "Invalid arguments for deleteMultipleContacts request");
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final int deletedCount = deleteContacts(getContentResolver(), contactIds);
+        Log.d(TAG, "Deleted " + deletedCount + " of " + contactIds.length + " contacts in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+        if (deletedCount < contactIds.length) {
+            showToast(R.string.contactsDeletedErrorToast);
+        }
+
+        final Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
+        if (callbackIntent != null) {
+            callbackIntent.putExtra(EXTRA_DELETED_COUNT, deletedCount);
+            deliverCallback(callbackIntent);
+        }
+    }
+
+    /**
+     * Deletes the given contacts, applying the deletes in batches of at most
+     * {@link #DELETE_BATCH_SIZE} contacts. The provider may yield between the contacts of a
+     * batch, so that other writers aren't blocked for the whole batch.
+     *
+     * @return the number of contacts deleted
+     */
+    static int deleteContacts(ContentResolver resolver, long[] contactIds) {
+        int deletedCount = 0;
+        for (int start = 0; start < contactIds.length; start += DELETE_BATCH_SIZE) {
+            final int end = Math.min(start + DELETE_BATCH_SIZE, contactIds.length);
+            deletedCount += deleteContactsChunk(resolver, contactIds, start, end);
+        }
+        return deletedCount;
+    }
+
+    private static int deleteContactsChunk(ContentResolver resolver, long[] contactIds,
+            int start, int end) {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(end - start);
+        for (int i = start; i < end; i++) {
+            operations.add(ContentProviderOperation.newDelete(
+                    ContentUris.withAppendedId(Contacts.CONTENT_URI, contactIds[i]))
+                    .withYieldAllowed(i != start)
+                    .build());
+        }
+
+        int deletedCount = 0;
+        try {
+            final ContentProviderResult[] batchResults =
+                    resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+            for (ContentProviderResult result : batchResults) {
+                if (result.count != null && result.count > 0) {
+                    deletedCount++;
+                }
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Problem deleting contacts " + start + " to " + end, e);
+        } catch (OperationApplicationException e) {
+            // Plain deletes have no expected counts, so this isn't expected to happen; a
+            // contact that is already gone just counts as not deleted.
+            Log.e(TAG, "Problem deleting contacts " + start + " to " + end, e);
+        }
+        return deletedCount;
+    }
+
     /**
      * Creates an intent that can be sent to this service to join two contacts.
      */
@@ -979,6 +1508,31 @@ public class ContactSaveService extends IntentService {
     }
 
 
+    /**
+     * Creates an intent that can be sent to this service to join several contacts into one.
+     *
+     * @param contactIds the contacts to join; the joined contact keeps the name of the first one
+     *     if {@code contactWritable} is true
+     * @param callbackActivity the activity to deliver the callback intent to, with the lookup
+     *     uri of the joined contact as data, or null for no callback
+     */
+    public static Intent createJoinSeveralContactsIntent(Context context, long[] contactIds,
+            boolean contactWritable, Class<? extends Activity> callbackActivity,
+            String callbackAction) {
+        Intent serviceIntent = new Intent(context, ContactSaveService.class);
+        serviceIntent.setAction(ContactSaveService.ACTION_JOIN_SEVERAL_CONTACTS);
+        serviceIntent.putExtra(ContactSaveService.EXTRA_CONTACT_IDS, contactIds);
+        serviceIntent.putExtra(ContactSaveService.EXTRA_CONTACT_WRITABLE, contactWritable);
+
+        if (callbackActivity != null) {
+            // Callback intent will be invoked by the service once the contacts are joined.
+            Intent callbackIntent = new Intent(context, callbackActivity);
+            callbackIntent.setAction(callbackAction);
+            serviceIntent.putExtra(ContactSaveService.EXTRA_CALLBACK_INTENT, callbackIntent);
+        }
+        return serviceIntent;
+    }
+
     private interface JoinContactQuery {
         String[] PROJECTION = {
                 RawContacts._ID,
@@ -987,14 +1541,25 @@ public class ContactSaveService extends IntentService {
                 RawContacts.DISPLAY_NAME_SOURCE,
         };
 
-        String SELECTION = RawContacts.CONTACT_ID + "=? OR " + RawContacts.CONTACT_ID + "=?";
-
         int _ID = 0;
         int CONTACT_ID = 1;
         int NAME_VERIFIED = 2;
         int DISPLAY_NAME_SOURCE = 3;
     }
 
+    private interface KeepApartQuery {
+        String[] PROJECTION = {
+                AggregationExceptions.RAW_CONTACT_ID1,
+                AggregationExceptions.RAW_CONTACT_ID2,
+        };
+
+        String SELECTION = AggregationExceptions.TYPE + "="
+                + AggregationExceptions.TYPE_KEEP_APART;
+
+        int RAW_CONTACT_ID1 = 0;
+        int RAW_CONTACT_ID2 = 1;
+    }
+
     private void joinContacts(Intent intent) {
         long contactId1 = intent.getLongExtra(EXTRA_CONTACT_ID1, -1);
         long contactId2 = intent.getLongExtra(EXTRA_CONTACT_ID2, -1);
@@ -1004,60 +1569,207 @@ public class ContactSaveService extends IntentService {
             return;
         }
 
+        joinContacts(new long[] { contactId1, contactId2 }, writable,
+                (Intent) intent.getParcelableExtra(EXTRA_CALLBACK_INTENT));
+    }
+
+    private void joinSeveralContacts(Intent intent) {
+        long[] contactIds = intent.getLongArrayExtra(EXTRA_CONTACT_IDS);
+        boolean writable = intent.getBooleanExtra(EXTRA_CONTACT_WRITABLE, false);
+        if (contactIds == null || contactIds.length < 2) {
+            Log.e(TAG, "Invalid arguments for joinSeveralContacts request");
+            return;
+        }
+
+        joinContacts(contactIds, writable,
+                (Intent) intent.getParcelableExtra(EXTRA_CALLBACK_INTENT));
+    }
+
+    /**
+     * Joins the given contacts into one. The name of the first contact is kept if
+     * {@code writable} is true.
+     */
+    private void joinContacts(long[] contactIds, boolean writable, Intent callbackIntent) {
+        final long start = SystemClock.elapsedRealtime();
         final ContentResolver resolver = getContentResolver();
 
         // Load raw contact IDs for all raw contacts involved - currently edited and selected
         // in the join UIs
-        Cursor c = resolver.query(RawContacts.CONTENT_URI,
-                JoinContactQuery.PROJECTION,
-                JoinContactQuery.SELECTION,
-                new String[]{String.valueOf(contactId1), String.valueOf(contactId2)}, null);
+        final ArrayList<Long> rawContactIdList = new ArrayList<Long>();
+        // Candidates for the display name of the joined contact, from the first contact.
+        final ArrayList<Long> nameCandidates = new ArrayList<Long>();
+        final ArrayList<Integer> nameCandidateSources = new ArrayList<Integer>();
+        final ArrayList<Boolean> nameCandidatesVerified = new ArrayList<Boolean>();
+        int maxDisplayNameSource = -1;
+        for (int i = 0; i < contactIds.length; i += JOIN_QUERY_BATCH_SIZE) {
+            final int end = Math.min(i + JOIN_QUERY_BATCH_SIZE, contactIds.length);
+            final String[] selectionArgs = new String[end - i];
+            final String[] placeholders = new String[end - i];
+            for (int j = i; j < end; j++) {
+                selectionArgs[j - i] = String.valueOf(contactIds[j]);
+                placeholders[j - i] = "?";
+            }
+            Cursor c = resolver.query(RawContacts.CONTENT_URI,
+                    JoinContactQuery.PROJECTION,
+                    RawContacts.CONTACT_ID + " IN (" + TextUtils.join(",", placeholders) + ")",
+                    selectionArgs, null);
+            if (c == null) {
+                continue;
+            }
+            try {
+                while (c.moveToNext()) {
+                    rawContactIdList.add(c.getLong(JoinContactQuery._ID));
+                    int nameSource = c.getInt(JoinContactQuery.DISPLAY_NAME_SOURCE);
+                    if (nameSource > maxDisplayNameSource) {
+                        maxDisplayNameSource = nameSource;
+                    }
+                    if (writable && c.getLong(JoinContactQuery.CONTACT_ID) == contactIds[0]) {
+                        nameCandidates.add(c.getLong(JoinContactQuery._ID));
+                        nameCandidateSources.add(nameSource);
+                        nameCandidatesVerified.add(c.getInt(JoinContactQuery.NAME_VERIFIED) != 0);
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+        if (rawContactIdList.isEmpty()) {
+            return;
+        }
 
-        long rawContactIds[];
+        // Find an appropriate display name for the joined contact:
+        // if should have a higher DisplayNameSource or be the name
+        // of the original contact that we are joining with another.
         long verifiedNameRawContactId = -1;
-        try {
-            if (c.getCount() == 0) {
-                return;
+        for (int i = 0; i < nameCandidates.size(); i++) {
+            if (nameCandidateSources.get(i) == maxDisplayNameSource
+                    && (verifiedNameRawContactId == -1 || nameCandidatesVerified.get(i))) {
+                verifiedNameRawContactId = nameCandidates.get(i);
             }
-            int maxDisplayNameSource = -1;
-            rawContactIds = new long[c.getCount()];
-            for (int i = 0; i < rawContactIds.length; i++) {
-                c.moveToPosition(i);
-                long rawContactId = c.getLong(JoinContactQuery._ID);
-                rawContactIds[i] = rawContactId;
-                int nameSource = c.getInt(JoinContactQuery.DISPLAY_NAME_SOURCE);
-                if (nameSource > maxDisplayNameSource) {
-                    maxDisplayNameSource = nameSource;
-                }
+        }
+
+        final long[] rawContactIds = new long[rawContactIdList.size()];
+        for (int i = 0; i < rawContactIds.length; i++) {
+            rawContactIds[i] = rawContactIdList.get(i);
+        }
+        final ArrayList<ArrayList<ContentProviderOperation>> batches = buildJoinContactsDiff(
+                rawContactIds, verifiedNameRawContactId,
+                queryKeptApartPairs(resolver, rawContactIds));
+
+        // Each batch commits as a whole and leaves a consistent contact behind, so a failure
+        // only stops the remaining raw contacts from being joined.
+        boolean success = true;
+        int operationCount = 0;
+        for (ArrayList<ContentProviderOperation> batch : batches) {
+            try {
+                resolver.applyBatch(ContactsContract.AUTHORITY, batch);
+                operationCount += batch.size();
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed to apply aggregation exception batch", e);
+                success = false;
+                break;
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, "Failed to apply aggregation exception batch", e);
+                success = false;
+                break;
             }
+        }
+        showToast(success ? R.string.contactsJoinedMessage : R.string.contactSavedErrorToast);
+        Log.d(TAG, "Joined " + contactIds.length + " contacts with " + rawContactIds.length
+                + " raw contacts using " + operationCount + " operations in " + batches.size()
+                + " batches in " + (SystemClock.elapsedRealtime() - start) + "ms");
 
-            // Find an appropriate display name for the joined contact:
-            // if should have a higher DisplayNameSource or be the name
-            // of the original contact that we are joining with another.
-            if (writable) {
-                for (int i = 0; i < rawContactIds.length; i++) {
-                    c.moveToPosition(i);
-                    if (c.getLong(JoinContactQuery.CONTACT_ID) == contactId1) {
-                        int nameSource = c.getInt(JoinContactQuery.DISPLAY_NAME_SOURCE);
-                        if (nameSource == maxDisplayNameSource
-                                && (verifiedNameRawContactId == -1
-                                        || c.getInt(JoinContactQuery.NAME_VERIFIED) != 0)) {
-                            verifiedNameRawContactId = c.getLong(JoinContactQuery._ID);
-                        }
-                    }
+        if (callbackIntent == null) {
+            return;
+        }
+        if (success) {
+            Uri uri = RawContacts.getContactLookupUri(resolver,
+                    ContentUris.withAppendedId(RawContacts.CONTENT_URI, rawContactIds[0]));
+            callbackIntent.setData(uri);
+        }
+        deliverCallback(callbackIntent);
+    }
+
+    /**
+     * Returns the pairs of the given raw contacts that are kept apart, e.g. because they were
+     * split before.
+     */
+    private static ArrayList<long[]> queryKeptApartPairs(ContentResolver resolver,
+            long[] rawContactIds) {
+        final ArrayList<long[]> pairs = new ArrayList<long[]>();
+        // Users rarely split contacts, so there are few of these and all of them are read.
+        final Cursor c = resolver.query(AggregationExceptions.CONTENT_URI,
+                KeepApartQuery.PROJECTION, KeepApartQuery.SELECTION, null, null);
+        if (c == null) {
+            return pairs;
+        }
+        try {
+            final LongHashSet joined = LongHashSet.of(rawContactIds);
+            while (c.moveToNext()) {
+                final long rawContactId1 = c.getLong(KeepApartQuery.RAW_CONTACT_ID1);
+                final long rawContactId2 = c.getLong(KeepApartQuery.RAW_CONTACT_ID2);
+                if (joined.contains(rawContactId1) && joined.contains(rawContactId2)) {
+                    pairs.add(new long[] { rawContactId1, rawContactId2 });
                 }
             }
         } finally {
             c.close();
         }
+        return pairs;
+    }
 
-        // For each pair of raw contacts, insert an aggregation exception
-        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
-        for (int i = 0; i < rawContactIds.length; i++) {
-            for (int j = 0; j < rawContactIds.length; j++) {
-                if (i != j) {
-                    buildJoinContactDiff(operations, rawContactIds[i], rawContactIds[j]);
-                }
+    /**
+     * Builds the operations that keep the given raw contacts together, split into batches that
+     * are to be applied in order, each with one {@link ContentResolver#applyBatch} call.
+     *
+     * Rather than an aggregation exception for every pair of raw contacts, which makes the
+     * provider re-aggregate quadratically often, only the exceptions of a star are written:
+     * each raw contact is kept together with one anchor. That is the smallest set that connects
+     * all of them. The anchor is the raw contact whose name is kept, as that is the one least
+     * likely to be deleted by the user.
+     *
+     * The provider lets {@link AggregationExceptions#TYPE_KEEP_APART} win over
+     * {@link AggregationExceptions#TYPE_KEEP_TOGETHER}, so the pairs that are kept apart are
+     * overwritten as well.
+     *
+     * Each batch joins up to {@link #JOIN_BATCH_SIZE} raw contacts to the anchor, and
+     * overwrites the pairs kept apart whose raw contacts are both joined by then. Applying a
+     * prefix of the batches therefore leaves a contact with some of the raw contacts fully
+     * joined, rather than one that is held apart inside. The name of the anchor is marked as
+     * verified in the first batch.
+     *
+     * @param verifiedNameRawContactId the raw contact to mark as name verified, or -1
+     * @param keptApartPairs the pairs of the raw contacts that are currently kept apart
+     */
+    static ArrayList<ArrayList<ContentProviderOperation>> buildJoinContactsDiff(
+            long[] rawContactIds, long verifiedNameRawContactId, List<long[]> keptApartPairs) {
+        final ArrayList<ArrayList<ContentProviderOperation>> batches =
+                new ArrayList<ArrayList<ContentProviderOperation>>();
+        final long anchor = verifiedNameRawContactId != -1
+                ? verifiedNameRawContactId : rawContactIds[0];
+        // The batch each raw contact is joined to the anchor in.
+        final LongIntHashMap batchIndexes = new LongIntHashMap(rawContactIds.length);
+        ArrayList<ContentProviderOperation> batch = null;
+        for (long rawContactId : rawContactIds) {
+            if (rawContactId == anchor) {
+                continue;
+            }
+            if (batch == null || batch.size() == JOIN_BATCH_SIZE) {
+                batch = new ArrayList<ContentProviderOperation>(JOIN_BATCH_SIZE);
+                batches.add(batch);
+            }
+            buildJoinContactDiff(batch, anchor, rawContactId);
+            batchIndexes.put(rawContactId, batches.size() - 1, -1);
+        }
+        if (batches.isEmpty()) {
+            batches.add(new ArrayList<ContentProviderOperation>());
+        }
+        for (long[] pair : keptApartPairs) {
+            // Pairs with the anchor were overwritten above.
+            if (pair[0] != anchor && pair[1] != anchor) {
+                final int index = Math.max(batchIndexes.get(pair[0], 0),
+                        batchIndexes.get(pair[1], 0));
+                buildJoinContactDiff(batches.get(index), pair[0], pair[1]);
             }
         }
 
@@ -1067,36 +1779,15 @@ public class ContactSaveService extends IntentService {
             Builder builder = ContentProviderOperation.newUpdate(
                     ContentUris.withAppendedId(RawContacts.CONTENT_URI, verifiedNameRawContactId));
             builder.withValue(RawContacts.NAME_VERIFIED, 1);
-            operations.add(builder.build());
-        }
-
-        boolean success = false;
-        // Apply all aggregation exceptions as one batch
-        try {
-            resolver.applyBatch(ContactsContract.AUTHORITY, operations);
-            showToast(R.string.contactsJoinedMessage);
-            success = true;
-        } catch (RemoteException e) {
-            Log.e(TAG, "Failed to apply aggregation exception batch", e);
-            showToast(R.string.contactSavedErrorToast);
-        } catch (OperationApplicationException e) {
-            Log.e(TAG, "Failed to apply aggregation exception batch", e);
-            showToast(R.string.contactSavedErrorToast);
+            batches.get(0).add(builder.build());
         }
-
-        Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
-        if (success) {
-            Uri uri = RawContacts.getContactLookupUri(resolver,
-                    ContentUris.withAppendedId(RawContacts.CONTENT_URI, rawContactIds[0]));
-            callbackIntent.setData(uri);
-        }
-        deliverCallback(callbackIntent);
+        return batches;
     }
 
     /**
      * Construct a {@link AggregationExceptions#TYPE_KEEP_TOGETHER} ContentProviderOperation.
      */
-    private void buildJoinContactDiff(ArrayList<ContentProviderOperation> operations,
+    private static void buildJoinContactDiff(ArrayList<ContentProviderOperation> operations,
             long rawContactId1, long rawContactId2) {
         Builder builder =
                 ContentProviderOperation.newUpdate(AggregationExceptions.CONTENT_URI);
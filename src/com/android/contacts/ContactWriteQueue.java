@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.PinnedPositions;
+import android.provider.ContactsContract.Profile;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Queue of small, idempotent writes (starred, ringtone, send-to-voicemail and primary flags)
+ * requested from {@link ContactSaveService}.
+ *
+ * Writes are added and flushed on the service's worker thread, in the order the service received
+ * them. When the next intent in line is another queued write, the flush waits for it, so a run
+ * of writes received back to back is merged, last writer wins, and applied as a single batch.
+ * Any other request is only handled after the writes received before it have been flushed.
+ */
+final class ContactWriteQueue {
+    private static final String TAG = "ContactWriteQueue";
+
+    /** Pending column values for each contact URI, in order of the most recent write. */
+    private final LinkedHashMap<Uri, ContentValues> mContactWrites =
+            new LinkedHashMap<Uri, ContentValues>();
+
+    /**
+     * Pending column values for each data row, in order of the most recent write. The order
+     * matters because making one data row super primary clears the flag on the others.
+     */
+    private final LinkedHashMap<Long, ContentValues> mDataWrites =
+            new LinkedHashMap<Long, ContentValues>();
+
+    /** Contacts that were starred or un-starred and need to be undemoted. */
+    private final LinkedHashSet<Uri> mStarredContacts = new LinkedHashSet<Uri>();
+
+    /** For each intent received by the service and not handled yet, whether it is a write. */
+    private final ArrayDeque<Boolean> mPendingIntents = new ArrayDeque<Boolean>();
+
+    // Metrics, guarded by this.
+    private int mEnqueuedCount;
+    private int mFlushedCount;
+    private int mFlushCount;
+    private int mMaxDepth;
+    private long mLastFlushMillis;
+    private long mMaxFlushMillis;
+    private long mTotalFlushMillis;
+
+    public synchronized void setStarred(Uri contactUri, boolean value) {
+        putContactValue(contactUri, Contacts.STARRED, value ? 1 : 0);
+        mStarredContacts.add(contactUri);
+        onEnqueued();
+    }
+
+    public synchronized void setSendToVoicemail(Uri contactUri, boolean value) {
+        putContactValue(contactUri, Contacts.SEND_TO_VOICEMAIL, value ? 1 : 0);
+        onEnqueued();
+    }
+
+    public synchronized void setRingtone(Uri contactUri, String value) {
+        ContentValues values = removeForUpdate(mContactWrites, contactUri);
+        values.put(Contacts.CUSTOM_RINGTONE, value);
+        mContactWrites.put(contactUri, values);
+        onEnqueued();
+    }
+
+    public synchronized void setSuperPrimary(long dataId) {
+        putDataPrimary(dataId, 1);
+        onEnqueued();
+    }
+
+    public synchronized void clearPrimary(long dataId) {
+        putDataPrimary(dataId, 0);
+        onEnqueued();
+    }
+
+    /**
+     * Called on the main thread for every intent the service receives, in order.
+     */
+    public synchronized void onIntentReceived(boolean write) {
+        mPendingIntents.addLast(write);
+    }
+
+    /**
+     * Called on the worker thread before handling the oldest intent received.
+     * @return whether the intent after it is a queued write too, in which case flushing can
+     *     wait for that one without letting any other request overtake the pending writes
+     */
+    public synchronized boolean pollIntent() {
+        mPendingIntents.pollFirst();
+        final Boolean next = mPendingIntents.peekFirst();
+        return next != null && next;
+    }
+
+    /**
+     * @return the number of distinct contacts and data rows with writes waiting to be flushed.
+     */
+    public synchronized int getDepth() {
+        return mContactWrites.size() + mDataWrites.size();
+    }
+
+    /**
+     * Applies all pending writes as a single batch. Safe to call when nothing is pending.
+     */
+    public void flush(ContentResolver resolver) {
+        final LinkedHashMap<Uri, ContentValues> contactWrites;
+        final LinkedHashMap<Long, ContentValues> dataWrites;
+        final LinkedHashSet<Uri> starredContacts;
+        final int depth;
+        synchronized (this) {
+            depth = getDepth();
+            if (depth == 0) {
+                return;
+            }
+            contactWrites = new LinkedHashMap<Uri, ContentValues>(mContactWrites);
+            dataWrites = new LinkedHashMap<Long, ContentValues>(mDataWrites);
+            starredContacts = new LinkedHashSet<Uri>(mStarredContacts);
+            mContactWrites.clear();
+            mDataWrites.clear();
+            mStarredContacts.clear();
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (Map.Entry<Uri, ContentValues> entry : contactWrites.entrySet()) {
+            operations.add(ContentProviderOperation.newUpdate(entry.getKey())
+                    .withValues(entry.getValue())
+                    .build());
+        }
+        for (Map.Entry<Long, ContentValues> entry : dataWrites.entrySet()) {
+            operations.add(ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(Data.CONTENT_URI, entry.getKey()))
+                    .withValues(entry.getValue())
+                    .build());
+        }
+        addUndemoteOperation(resolver, starredContacts, operations);
+
+        if (!applyBatch(resolver, operations)) {
+            // The writes come from unrelated requests, so don't let one of them, say an update
+            // to a contact deleted in the meantime, take the others down with it.
+            Log.w(TAG, "Failed to apply " + operations.size()
+                    + " queued writes as a batch, applying them one by one");
+            final ArrayList<ContentProviderOperation> single =
+                    new ArrayList<ContentProviderOperation>(1);
+            for (ContentProviderOperation operation : operations) {
+                single.clear();
+                single.add(operation);
+                applyBatch(resolver, single);
+            }
+        }
+
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        synchronized (this) {
+            mFlushCount++;
+            mFlushedCount += depth;
+            mLastFlushMillis = elapsed;
+            mMaxFlushMillis = Math.max(mMaxFlushMillis, elapsed);
+            mTotalFlushMillis += elapsed;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Flushed " + depth + " queued writes as " + operations.size()
+                    + " operations in " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * @return false if the batch failed, in which case none of it was applied
+     */
+    private static boolean applyBatch(ContentResolver resolver,
+            ArrayList<ContentProviderOperation> operations) {
+        try {
+            resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to apply " + operations.size() + " queued writes", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Failed to apply " + operations.size() + " queued writes", e);
+        } catch (IllegalArgumentException e) {
+            // This is thrown by applyBatch on malformed requests
+            Log.e(TAG, "Failed to apply " + operations.size() + " queued writes", e);
+        }
+        return false;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("ContactWriteQueue:");
+        writer.print(prefix);
+        writer.print("  depth=");
+        writer.print(getDepth());
+        writer.print(" maxDepth=");
+        writer.println(mMaxDepth);
+        writer.print(prefix);
+        writer.print("  enqueued=");
+        writer.print(mEnqueuedCount);
+        writer.print(" flushed=");
+        writer.print(mFlushedCount);
+        writer.print(" flushes=");
+        writer.println(mFlushCount);
+        writer.print(prefix);
+        writer.print("  flushLatencyMs last=");
+        writer.print(mLastFlushMillis);
+        writer.print(" max=");
+        writer.print(mMaxFlushMillis);
+        writer.print(" avg=");
+        writer.println(mFlushCount == 0 ? 0 : mTotalFlushMillis / mFlushCount);
+    }
+
+    private void putContactValue(Uri contactUri, String column, int value) {
+        ContentValues values = removeForUpdate(mContactWrites, contactUri);
+        values.put(column, value);
+        mContactWrites.put(contactUri, values);
+    }
+
+    private void putDataPrimary(long dataId, int value) {
+        // Setting and clearing the primary flags are mutually exclusive, so the latest
+        // request simply replaces whatever was pending for this row.
+        mDataWrites.remove(dataId);
+        ContentValues values = new ContentValues(2);
+        values.put(Data.IS_SUPER_PRIMARY, value);
+        values.put(Data.IS_PRIMARY, value);
+        mDataWrites.put(dataId, values);
+    }
+
+    /**
+     * Removes and returns the pending values for the key, so that re-inserting them moves the
+     * key to the end of the iteration order.
+     */
+    private static <K> ContentValues removeForUpdate(LinkedHashMap<K, ContentValues> map, K key) {
+        ContentValues values = map.remove(key);
+        return values != null ? values : new ContentValues();
+    }
+
+    private void onEnqueued() {
+        mEnqueuedCount++;
+        mMaxDepth = Math.max(mMaxDepth, getDepth());
+    }
+
+    /**
+     * Adds a single operation undemoting all the given contacts, skipping the user's profile.
+     */
+    private static void addUndemoteOperation(ContentResolver resolver, LinkedHashSet<Uri> contacts,
+            ArrayList<ContentProviderOperation> operations) {
+        if (contacts.isEmpty()) {
+            return;
+        }
+        final ContentValues values = new ContentValues();
+        for (Uri contactUri : contacts) {
+            final Cursor c = resolver.query(contactUri, new String[] {Contacts._ID},
+                    null, null, null);
+            if (c == null) {
+                continue;
+            }
+            try {
+                if (c.moveToFirst()) {
+                    final long id = c.getLong(0);
+                    // Don't bother undemoting if this contact is the user's profile.
+                    if (id < Profile.MIN_ID) {
+                        values.put(String.valueOf(id), PinnedPositions.UNDEMOTE);
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+        if (values.size() > 0) {
+            operations.add(ContentProviderOperation.newUpdate(PinnedPositions.UPDATE_URI)
+                    .withValues(values)
+                    .build());
+        }
+    }
+}
@@ -34,6 +34,12 @@ import com.android.contacts.common.list.ContactListFilterController;
 import com.android.contacts.common.model.AccountTypeManager;
 import com.android.contacts.common.test.InjectedServices;
 import com.android.contacts.common.util.Constants;
+import com.android.contacts.group.SuggestedMemberPhotoCache;
+import com.android.contacts.quickcontact.ResolveCache;
+import com.android.contacts.util.PhotoDecoder;
+import com.android.contacts.util.StreamItemTextCache;
+import com.android.contacts.util.TempPhotoManager;
+import com.android.contacts.util.VCardCache;
 import com.google.common.annotations.VisibleForTesting;
 
 public final class ContactsApplication extends Application {
@@ -130,6 +136,22 @@ public final class ContactsApplication extends Application {
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // Drop the bitmaps kept around for decoding the next contact photo into, the
+            // decoded group member suggestion thumbnails and stream item text, and the vCards
+            // composed for NFC.
+            PhotoDecoder.trimMemory();
+            SuggestedMemberPhotoCache.clear();
+            StreamItemTextCache.clear();
+            VCardCache.clear();
+            // Also a good time to delete temporary photos left behind by earlier sessions.
+            TempPhotoManager.getInstance(this).cleanUpInBackground();
+        }
+    }
+
     private class DelayedInitializer extends AsyncTask<Void, Void, Void> {
         @Override
         protected Void doInBackground(Void... params) {
@@ -139,6 +161,13 @@ public final class ContactsApplication extends Application {
             PreferenceManager.getDefaultSharedPreferences(context);
             AccountTypeManager.getInstance(context);
             getContentResolver().getType(ContentUris.withAppendedId(Contacts.CONTENT_URI, 1));
+
+            // Resolve the apps QuickContact offers for each kind of data, so that it doesn't
+            // have to query the package manager on the UI thread.
+            ResolveCache.getInstance(context).prewarm();
+
+            // Delete the temporary photos that cancelled or crashed photo picks left behind.
+            TempPhotoManager.getInstance(context).cleanUp();
             return null;
         }
 
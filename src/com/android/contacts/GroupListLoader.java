@@ -17,14 +17,21 @@ package com.android.contacts;
 
 import android.content.Context;
 import android.content.CursorLoader;
+import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.net.Uri;
 import android.provider.ContactsContract.Groups;
 
+import com.android.contacts.group.GroupListModel;
+
 /**
  * Group loader for the group list that includes details such as the number of contacts per group
  * and number of groups per account. This list is sorted by account type, account name, where the
  * group names are in alphabetical order. Note that the list excludes default, favorite, and deleted
  * groups.
+ *
+ * The loaded cursor is a {@link GroupListCursor}, which also carries the rows as a
+ * {@link GroupListModel}.
  */
 public final class GroupListLoader extends CursorLoader {
 
@@ -46,6 +53,19 @@ public final class GroupListLoader extends CursorLoader {
 
     private static final Uri GROUP_LIST_URI = Groups.CONTENT_SUMMARY_URI;
 
+    /**
+     * Actual returned class. The model is built on the loader thread, so that the list can be
+     * bound without reading the cursor on the UI thread.
+     */
+    public static final class GroupListCursor extends CursorWrapper {
+        public final GroupListModel model;
+
+        public GroupListCursor(Cursor cursor, GroupListModel model) {
+            super(cursor);
+            this.model = model;
+        }
+    }
+
     public GroupListLoader(Context context) {
         super(context, GROUP_LIST_URI, COLUMNS, Groups.ACCOUNT_TYPE + " NOT NULL AND "
                 + Groups.ACCOUNT_NAME + " NOT NULL AND " + Groups.AUTO_ADD + "=0 AND " +
@@ -53,4 +73,18 @@ public final class GroupListLoader extends CursorLoader {
                 Groups.ACCOUNT_TYPE + ", " + Groups.ACCOUNT_NAME + ", " + Groups.DATA_SET + ", " +
                 Groups.TITLE + " COLLATE LOCALIZED ASC");
     }
+
+    @Override
+    public Cursor loadInBackground() {
+        final Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return new GroupListCursor(cursor, GroupListModel.build(cursor));
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
 }
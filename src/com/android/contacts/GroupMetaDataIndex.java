@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.ContactsContract.Groups;
+
+import com.android.contacts.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An immutable snapshot of the rows loaded by {@link GroupMetaDataLoader} for all groups,
+ * indexed by account and by group ID, so that each raw contact editor can look up the groups
+ * of its account and the titles of its memberships without walking the whole cursor.
+ */
+public final class GroupMetaDataIndex {
+
+    /** The groups of one account and data set, in the order of the cursor. */
+    public static final class AccountGroups {
+        private final int mStart;
+        private final int mEnd;
+        private final long mFavoritesGroupId;
+        private final long mDefaultGroupId;
+        private final boolean mHasGroups;
+
+        AccountGroups(int start, int end, long favoritesGroupId, long defaultGroupId,
+                boolean hasGroups) {
+            mStart = start;
+            mEnd = end;
+            mFavoritesGroupId = favoritesGroupId;
+            mDefaultGroupId = defaultGroupId;
+            mHasGroups = hasGroups;
+        }
+
+        /** Returns the starred group of the account, or 0 if there is none. */
+        public long getFavoritesGroupId() {
+            return mFavoritesGroupId;
+        }
+
+        /**
+         * Returns the group new contacts of the account are added to (e.g. "My Contacts"), or 0
+         * if there is none.
+         */
+        public long getDefaultGroupId() {
+            return mDefaultGroupId;
+        }
+
+        /** Returns whether the account has groups other than the favorites and default ones. */
+        public boolean hasGroups() {
+            return mHasGroups;
+        }
+    }
+
+    private final long[] mGroupIds;
+    private final String[] mTitles;
+    /** Whether each group is the favorites or the default group of its account. */
+    private final boolean[] mSpecial;
+    /** The position of each group in the arrays above, by group ID. */
+    private final LongIntHashMap mPositions;
+    /** The groups of each account, by {@link #getAccountKey}. */
+    private final HashMap<String, AccountGroups> mAccounts;
+
+    private GroupMetaDataIndex(long[] groupIds, String[] titles, boolean[] special,
+            LongIntHashMap positions, HashMap<String, AccountGroups> accounts) {
+        mGroupIds = groupIds;
+        mTitles = titles;
+        mSpecial = special;
+        mPositions = positions;
+        mAccounts = accounts;
+    }
+
+    /**
+     * Builds the index from a cursor with the columns of {@link GroupMetaDataLoader}. The groups
+     * of each account keep their order in the cursor.
+     */
+    public static GroupMetaDataIndex build(Cursor cursor) {
+        // Bucket the rows by account first, so that each account's groups end up next to each
+        // other in the flat arrays.
+        final HashMap<String, ArrayList<Integer>> rowsByAccount =
+                new HashMap<String, ArrayList<Integer>>();
+        final ArrayList<String> accountKeys = new ArrayList<String>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final String key = getAccountKey(cursor.getString(GroupMetaDataLoader.ACCOUNT_TYPE),
+                    cursor.getString(GroupMetaDataLoader.ACCOUNT_NAME),
+                    cursor.getString(GroupMetaDataLoader.DATA_SET));
+            ArrayList<Integer> rows = rowsByAccount.get(key);
+            if (rows == null) {
+                rows = new ArrayList<Integer>();
+                rowsByAccount.put(key, rows);
+                accountKeys.add(key);
+            }
+            rows.add(cursor.getPosition());
+        }
+
+        final int count = cursor.getCount();
+        final long[] groupIds = new long[count];
+        final String[] titles = new String[count];
+        final boolean[] special = new boolean[count];
+        final LongIntHashMap positions = new LongIntHashMap(count);
+        final HashMap<String, AccountGroups> accounts = new HashMap<String, AccountGroups>();
+        int position = 0;
+        for (String key : accountKeys) {
+            final int start = position;
+            long favoritesGroupId = 0;
+            long defaultGroupId = 0;
+            boolean hasGroups = false;
+            for (int row : rowsByAccount.get(key)) {
+                cursor.moveToPosition(row);
+                final long groupId = cursor.getLong(GroupMetaDataLoader.GROUP_ID);
+                if (isSet(cursor, GroupMetaDataLoader.FAVORITES)) {
+                    favoritesGroupId = groupId;
+                } else if (isSet(cursor, GroupMetaDataLoader.AUTO_ADD)) {
+                    // New contacts are added to the first auto-add group of the account.
+                    if (defaultGroupId == 0) {
+                        defaultGroupId = groupId;
+                    }
+                } else {
+                    hasGroups = true;
+                }
+                groupIds[position] = groupId;
+                titles[position] = cursor.getString(GroupMetaDataLoader.TITLE);
+                positions.put(groupId, position, -1);
+                position++;
+            }
+            // Any other auto-add group is listed like a regular group.
+            for (int i = start; i < position; i++) {
+                special[i] = groupIds[i] == favoritesGroupId || groupIds[i] == defaultGroupId;
+            }
+            accounts.put(key, new AccountGroups(start, position, favoritesGroupId,
+                    defaultGroupId, hasGroups));
+        }
+        return new GroupMetaDataIndex(groupIds, titles, special, positions, accounts);
+    }
+
+    private static boolean isSet(Cursor cursor, int column) {
+        return !cursor.isNull(column) && cursor.getInt(column) != 0;
+    }
+
+    private static String getAccountKey(String accountType, String accountName, String dataSet) {
+        return accountType + "/" + accountName + "/" + dataSet;
+    }
+
+    /**
+     * Returns the groups of the given account, or null if it has none.
+     */
+    public AccountGroups getAccountGroups(String accountType, String accountName,
+            String dataSet) {
+        return mAccounts.get(getAccountKey(accountType, accountName, dataSet));
+    }
+
+    /** Returns the number of groups of the account. */
+    public int getGroupCount(AccountGroups account) {
+        return account.mEnd - account.mStart;
+    }
+
+    /** Returns the ID of the account's group at the given position. */
+    public long getGroupId(AccountGroups account, int position) {
+        return mGroupIds[account.mStart + position];
+    }
+
+    /** Returns the title of the account's group at the given position. */
+    public String getTitle(AccountGroups account, int position) {
+        return mTitles[account.mStart + position];
+    }
+
+    /**
+     * Returns the position of the given group among the groups of the account, or -1 if it
+     * belongs to another account or doesn't exist.
+     */
+    public int getPosition(AccountGroups account, long groupId) {
+        final int position = mPositions.get(groupId, -1);
+        if (position < account.mStart || position >= account.mEnd) {
+            return -1;
+        }
+        return position - account.mStart;
+    }
+
+    /**
+     * Returns whether the account's group at the given position is its favorites or default
+     * group, which are not listed with the other groups. Auto-add groups other than the default
+     * one are not special.
+     */
+    public boolean isSpecial(AccountGroups account, int position) {
+        return mSpecial[account.mStart + position];
+    }
+
+    /**
+     * Loads the {@link GroupMetaDataIndex} of all groups in the background, and again whenever
+     * the groups change.
+     */
+    public static class Loader extends AsyncTaskLoader<GroupMetaDataIndex> {
+        private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+        private GroupMetaDataIndex mIndex;
+        private boolean mObserverRegistered;
+
+        public Loader(Context context) {
+            super(context);
+        }
+
+        @Override
+        public GroupMetaDataIndex loadInBackground() {
+            final Cursor cursor = getContext().getContentResolver().query(Groups.CONTENT_URI,
+                    GroupMetaDataLoader.COLUMNS, GroupMetaDataLoader.SELECTION, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return build(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void deliverResult(GroupMetaDataIndex index) {
+            mIndex = index;
+            if (isStarted()) {
+                super.deliverResult(index);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (!mObserverRegistered) {
+                getContext().getContentResolver().registerContentObserver(
+                        Groups.CONTENT_URI, true, mObserver);
+                mObserverRegistered = true;
+            }
+            if (mIndex != null) {
+                deliverResult(mIndex);
+            }
+            if (takeContentChanged() || mIndex == null) {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            super.onReset();
+            cancelLoad();
+            if (mObserverRegistered) {
+                getContext().getContentResolver().unregisterContentObserver(mObserver);
+                mObserverRegistered = false;
+            }
+            mIndex = null;
+        }
+    }
+}
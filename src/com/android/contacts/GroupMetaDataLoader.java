@@ -26,7 +26,7 @@ import android.provider.ContactsContract.Groups;
  */
 public final class GroupMetaDataLoader extends CursorLoader {
 
-    private final static String[] COLUMNS = new String[] {
+    final static String[] COLUMNS = new String[] {
         Groups.ACCOUNT_NAME,
         Groups.ACCOUNT_TYPE,
         Groups.DATA_SET,
@@ -48,9 +48,11 @@ public final class GroupMetaDataLoader extends CursorLoader {
     public final static int IS_READ_ONLY = 7;
     public final static int DELETED = 8;
 
+    final static String SELECTION = Groups.ACCOUNT_TYPE + " NOT NULL AND "
+            + Groups.ACCOUNT_NAME + " NOT NULL";
+
     public GroupMetaDataLoader(Context context, Uri groupUri) {
-        super(context, ensureIsGroupUri(groupUri), COLUMNS, Groups.ACCOUNT_TYPE + " NOT NULL AND "
-                + Groups.ACCOUNT_NAME + " NOT NULL", null, null);
+        super(context, ensureIsGroupUri(groupUri), COLUMNS, SELECTION, null, null);
     }
 
     /**
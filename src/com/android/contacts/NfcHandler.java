@@ -17,21 +17,15 @@
 package com.android.contacts;
 
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.net.Uri;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
 import android.nfc.NfcEvent;
-import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.Profile;
 import android.util.Log;
 
 import com.android.contacts.detail.ContactDetailFragment;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import com.android.contacts.util.VCardCache;
 
 /**
   * This class implements sharing the currently displayed
@@ -44,7 +38,6 @@ import java.io.InputStream;
 public class NfcHandler implements NfcAdapter.CreateNdefMessageCallback {
 
     private static final String TAG = "ContactNfcHandler";
-    private static final String PROFILE_LOOKUP_KEY = "profile";
     private final ContactDetailFragment mContactFragment;
 
     public static void register(Activity activity, ContactDetailFragment contactFragment) {
@@ -63,37 +56,14 @@ public class NfcHandler implements NfcAdapter.CreateNdefMessageCallback {
     public NdefMessage createNdefMessage(NfcEvent event) {
         // Get the current contact URI
         Uri contactUri = mContactFragment.getUri();
-        ContentResolver resolver = mContactFragment.getActivity().getContentResolver();
         if (contactUri != null) {
-            final String lookupKey = Uri.encode(contactUri.getPathSegments().get(2));
-            final Uri shareUri;
-            // TODO find out where to get this constant from, or find another way
-            // of determining this.
-            if (lookupKey.equals(PROFILE_LOOKUP_KEY)) {
-                shareUri = Profile.CONTENT_VCARD_URI.buildUpon().
-                appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true").
-                build();
-            } else {
-                shareUri = Contacts.CONTENT_VCARD_URI.buildUpon().
-                appendPath(lookupKey).
-                appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true").
-                build();
-            }
-            ByteArrayOutputStream ndefBytes = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int r;
-            try {
-                InputStream vcardInputStream = resolver.openInputStream(shareUri);
-                while ((r = vcardInputStream.read(buffer)) > 0) {
-                    ndefBytes.write(buffer, 0, r);
-                }
-
-                NdefRecord record = NdefRecord.createMime("text/x-vcard", ndefBytes.toByteArray());
-                return new NdefMessage(record);
-            } catch (IOException e) {
-                Log.e(TAG, "IOException creating vcard.");
+            // Usually composed in the background when the contact was bound.
+            final byte[] vCard = VCardCache.getVCard(mContactFragment.getActivity(), contactUri);
+            if (vCard == null) {
                 return null;
             }
+            NdefRecord record = NdefRecord.createMime("text/x-vcard", vCard);
+            return new NdefMessage(record);
         } else {
             Log.w(TAG, "No contact URI to share.");
             return null;
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import java.io.PrintWriter;
+
+/**
+ * Counters describing how often contact saves in {@link ContactSaveService} run into version
+ * conflicts (typically caused by a sync adapter writing the same raw contacts), and how much the
+ * re-parenting of the user's changes costs.
+ */
+final class SaveConflictStats {
+    /** Number of saves, indexed by the number of attempts they needed. */
+    private final int[] mAttemptsHistogram;
+
+    private int mSaveCount;
+    private int mFailedCount;
+    private int mExhaustedCount;
+    private int mConflictCount;
+    private int mPartialRefetchCount;
+    private int mRefetchedRawContacts;
+    private long mTotalMergeMillis;
+    private long mMaxMergeMillis;
+    private long mTotalBackoffMillis;
+
+    public SaveConflictStats(int maxAttempts) {
+        mAttemptsHistogram = new int[maxAttempts + 1];
+    }
+
+    /**
+     * Records the cost of one re-parenting pass.
+     * @param refetched number of raw contacts that were re-read from the provider
+     * @param partial whether only the conflicting raw contacts were re-read
+     * @param mergeMillis time spent re-reading and merging
+     * @param backoffMillis time spent waiting before the next attempt
+     */
+    public synchronized void onConflict(int refetched, boolean partial, long mergeMillis,
+            long backoffMillis) {
+        mConflictCount++;
+        if (partial) {
+            mPartialRefetchCount++;
+        }
+        mRefetchedRawContacts += refetched;
+        mTotalMergeMillis += mergeMillis;
+        mMaxMergeMillis = Math.max(mMaxMergeMillis, mergeMillis);
+        mTotalBackoffMillis += backoffMillis;
+    }
+
+    /**
+     * Records the end of a save.
+     * @param attempts number of times the operations were applied
+     * @param succeeded whether the last attempt succeeded
+     * @param exhausted whether the save gave up because every attempt ran into a conflict, as
+     *     opposed to failing for another reason
+     */
+    public synchronized void onSaveFinished(int attempts, boolean succeeded, boolean exhausted) {
+        mSaveCount++;
+        mAttemptsHistogram[Math.min(attempts, mAttemptsHistogram.length - 1)]++;
+        if (exhausted) {
+            mExhaustedCount++;
+        } else if (!succeeded) {
+            mFailedCount++;
+        }
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("SaveConflictStats:");
+        writer.print(prefix);
+        writer.print("  saves=");
+        writer.print(mSaveCount);
+        writer.print(" failed=");
+        writer.print(mFailedCount);
+        writer.print(" exhausted=");
+        writer.print(mExhaustedCount);
+        writer.print(" conflicts=");
+        writer.print(mConflictCount);
+        writer.print(" partialRefetches=");
+        writer.print(mPartialRefetchCount);
+        writer.print(" refetchedRawContacts=");
+        writer.println(mRefetchedRawContacts);
+        writer.print(prefix);
+        writer.print("  mergeMs total=");
+        writer.print(mTotalMergeMillis);
+        writer.print(" max=");
+        writer.print(mMaxMergeMillis);
+        writer.print(" backoffMs total=");
+        writer.println(mTotalBackoffMillis);
+        writer.print(prefix);
+        writer.print("  attempts:");
+        for (int i = 1; i < mAttemptsHistogram.length; i++) {
+            writer.print(' ');
+            writer.print(i);
+            writer.print('=');
+            writer.print(mAttemptsHistogram[i]);
+        }
+        writer.println();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.android.contacts.util.MultiVCardExporter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A service that exports the vCards of all contacts to a file, composing them in chunks on all
+ * cores. Progress and completion are reported to the registered {@link Listener}s.
+ */
+public class VCardExportService extends IntentService {
+    private static final String TAG = "VCardExportService";
+
+    public static final String ACTION_EXPORT = "export";
+    public static final String ACTION_CANCEL = "cancel";
+    public static final String EXTRA_OUTPUT_URI = "outputUri";
+
+    /** Called on the main thread. */
+    public interface Listener {
+        public void onExportProgress(Uri outputUri, int exportedCount, int totalCount);
+        public void onExportFinished(Uri outputUri, boolean succeeded);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> sListeners =
+            new CopyOnWriteArrayList<Listener>();
+
+    /** The running export, if any. */
+    private static volatile MultiVCardExporter sExporter;
+
+    /** Set by {@link #ACTION_CANCEL} when it arrives before the export has started. */
+    private static volatile boolean sCancelRequested;
+
+    private Handler mMainHandler;
+
+    public VCardExportService() {
+        super(TAG);
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static void registerListener(Listener listener) {
+        sListeners.add(0, listener);
+    }
+
+    public static void unregisterListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Creates an intent that exports all contacts to the given uri, which must be writable
+     * through {@link android.content.ContentResolver#openFileDescriptor}.
+     */
+    public static Intent createExportIntent(Context context, Uri outputUri) {
+        final Intent serviceIntent = new Intent(context, VCardExportService.class);
+        serviceIntent.setAction(ACTION_EXPORT);
+        serviceIntent.putExtra(EXTRA_OUTPUT_URI, outputUri);
+        return serviceIntent;
+    }
+
+    /**
+     * Creates an intent that cancels the running export, and the ones queued before it.
+     */
+    public static Intent createCancelIntent(Context context) {
+        final Intent serviceIntent = new Intent(context, VCardExportService.class);
+        serviceIntent.setAction(ACTION_CANCEL);
+        return serviceIntent;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Runs on the main thread, while the worker thread may be busy exporting.
+        if (intent != null && ACTION_CANCEL.equals(intent.getAction())) {
+            sCancelRequested = true;
+            final MultiVCardExporter exporter = sExporter;
+            if (exporter != null) {
+                exporter.cancel();
+            }
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null) {
+            Log.d(TAG, "onHandleIntent: could not handle null intent");
+            return;
+        }
+        final String action = intent.getAction();
+        if (ACTION_EXPORT.equals(action)) {
+            exportContacts(intent);
+        } else if (ACTION_CANCEL.equals(action)) {
+            // Exports queued after the cancel intent go ahead.
+            sCancelRequested = false;
+        }
+    }
+
+    private void exportContacts(Intent intent) {
+        final Uri outputUri = intent.getParcelableExtra(EXTRA_OUTPUT_URI);
+        if (outputUri == null) {
+            Log.e(TAG, "Invalid arguments for export request");
+            return;
+        }
+
+        final MultiVCardExporter exporter = new MultiVCardExporter(
+                MultiVCardExporter.newProviderComposer(getContentResolver()),
+                MultiVCardExporter.DEFAULT_CHUNK_SIZE,
+                Runtime.getRuntime().availableProcessors());
+        sExporter = exporter;
+        if (sCancelRequested) {
+            exporter.cancel();
+        }
+
+        boolean succeeded = false;
+        ParcelFileDescriptor fd = null;
+        FileChannel channel = null;
+        try {
+            final String[] lookupKeys = MultiVCardExporter.queryLookupKeys(getContentResolver());
+            fd = getContentResolver().openFileDescriptor(outputUri, "wt");
+            channel = new FileOutputStream(fd.getFileDescriptor()).getChannel();
+            exporter.export(lookupKeys, channel, new MultiVCardExporter.ProgressListener() {
+                @Override
+                public void onProgress(int exportedCount, int totalCount) {
+                    deliverProgress(outputUri, exportedCount, totalCount);
+                }
+            });
+            succeeded = true;
+        } catch (CancellationException e) {
+            Log.i(TAG, "Export to " + outputUri + " canceled");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to export contacts to " + outputUri, e);
+        } catch (RuntimeException e) {
+            // E.g. a vCard that failed to compose, wrapped by MultiVCardExporter.
+            Log.e(TAG, "Failed to export contacts to " + outputUri, e);
+        } finally {
+            sExporter = null;
+            if (channel != null) {
+                try {
+                    if (!succeeded) {
+                        // Don't leave a partial export behind that looks like a complete one.
+                        channel.truncate(0);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to truncate " + outputUri, e);
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        deliverFinished(outputUri, succeeded);
+    }
+
+    private void deliverProgress(final Uri outputUri, final int exportedCount,
+            final int totalCount) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : sListeners) {
+                    listener.onExportProgress(outputUri, exportedCount, totalCount);
+                }
+            }
+        });
+    }
+
+    private void deliverFinished(final Uri outputUri, final boolean succeeded) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : sListeners) {
+                    listener.onExportFinished(outputUri, succeeded);
+                }
+            }
+        });
+    }
+}
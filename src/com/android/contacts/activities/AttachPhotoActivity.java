@@ -22,7 +22,6 @@ import android.content.Loader;
 import android.content.Loader.OnLoadCompleteListener;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
@@ -42,6 +41,8 @@ import com.android.contacts.common.ContactsUtils;
 import com.android.contacts.common.model.account.AccountType;
 import com.android.contacts.common.model.ValuesDelta;
 import com.android.contacts.util.ContactPhotoUtils;
+import com.android.contacts.util.PhotoIngest;
+import com.android.contacts.util.TempPhotoManager;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -159,7 +160,7 @@ public class AttachPhotoActivity extends ContactsActivity {
         } else if (requestCode == REQUEST_CROP_PHOTO) {
             // Delete the temporary photo from cache now that we have a cropped version.
             // We should do this even if the crop failed and we eventually bail
-            getContentResolver().delete(mTempPhotoUri, null, null);
+            TempPhotoManager.getInstance(this).delete(mTempPhotoUri);
             if (resultCode != RESULT_OK) {
                 finish();
                 return;
@@ -223,22 +224,17 @@ public class AttachPhotoActivity extends ContactsActivity {
             return;
         }
 
-        // Create a scaled, compressed bitmap to add to the entity-delta list.
+        // Create a scaled, compressed bitmap to add to the entity-delta list. The cropped photo
+        // is decoded directly at about the thumbnail size.
         final int size = ContactsUtils.getThumbnailSize(this);
-        Bitmap bitmap;
+        final byte[] compressed;
         try {
-            bitmap = ContactPhotoUtils.getBitmapFromUri(this, mCroppedPhotoUri);
+            compressed = PhotoIngest.ingestThumbnail(this, mCroppedPhotoUri, size,
+                    PhotoIngest.THUMBNAIL);
         } catch (FileNotFoundException e) {
             Log.w(TAG, "Could not find bitmap");
             return;
         }
-        if (bitmap == null) {
-            Log.w(TAG, "Could not decode bitmap");
-            return;
-        }
-
-        final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size, size, false);
-        final byte[] compressed = ContactPhotoUtils.compressBitmap(scaled);
         if (compressed == null) {
             Log.w(TAG, "could not create scaled and compressed Bitmap");
             return;
@@ -193,6 +193,8 @@ public class ContactDetailActivity extends ContactsActivity {
             if (result == null) {
                 return;
             }
+            final ContactDetailFragment.EntryModel entryModel =
+                    mLoaderFragment.getEntryModel(result);
             // Since {@link FragmentTransaction}s cannot be done in the onLoadFinished() of the
             // {@link LoaderCallbacks}, then post this {@link Runnable} to the {@link Handler}
             // on the main thread to execute later.
@@ -207,7 +209,7 @@ public class ContactDetailActivity extends ContactsActivity {
                     mLookupUri = result.getLookupUri();
                     invalidateOptionsMenu();
                     setupTitle();
-                    mContactDetailLayoutController.setContactData(mContactData);
+                    mContactDetailLayoutController.setContactData(mContactData, entryModel);
                 }
             });
         }
@@ -1179,6 +1179,11 @@ public class PeopleActivity extends ContactsActivity
             ContactDeletionInteraction.start(PeopleActivity.this, contactUri, false);
         }
 
+        @Override
+        public void onDeleteContactsAction(long[] contactIds) {
+            ContactDeletionInteraction.startForContacts(PeopleActivity.this, contactIds, false);
+        }
+
         @Override
         public void onFinishAction() {
             onBackPressed();
@@ -1217,6 +1222,8 @@ public class PeopleActivity extends ContactsActivity
                 mContactDetailLayoutController.showEmptyState();
                 return;
             }
+            final ContactDetailFragment.EntryModel entryModel =
+                    mContactDetailLoaderFragment.getEntryModel(result);
             // Since {@link FragmentTransaction}s cannot be done in the onLoadFinished() of the
             // {@link LoaderCallbacks}, then post this {@link Runnable} to the {@link Handler}
             // on the main thread to execute later.
@@ -1227,7 +1234,7 @@ public class PeopleActivity extends ContactsActivity
                     if (isFinishing()) {
                         return;
                     }
-                    mContactDetailLayoutController.setContactData(result);
+                    mContactDetailLayoutController.setContactData(result, entryModel);
                 }
             });
         }
@@ -29,7 +29,6 @@ import android.provider.ContactsContract.DisplayNameSources;
 import android.provider.ContactsContract.Preferences;
 import android.provider.ContactsContract.StreamItems;
 import android.text.Html;
-import android.text.Html.ImageGetter;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -350,7 +349,10 @@ public class ContactDetailDisplayUtils {
         TextView attributionView = (TextView) rootView.findViewById(
                 R.id.stream_item_attribution);
         TextView commentsView = (TextView) rootView.findViewById(R.id.stream_item_comments);
-        ImageGetter imageGetter = new DefaultImageGetter(context.getPackageManager());
+        if (!streamItem.isHtmlDecoded()) {
+            // Not decoded in the background yet; this is a cache hit if it was decoded before.
+            streamItem.decodeHtml(context);
+        }
 
         // Stream item text
         setDataOrHideIfNone(streamItem.getDecodedText(), htmlView);
@@ -422,7 +424,7 @@ public class ContactDetailDisplayUtils {
 
     private static Html.ImageGetter sImageGetter;
 
-    public static Html.ImageGetter getImageGetter(Context context) {
+    public static synchronized Html.ImageGetter getImageGetter(Context context) {
         if (sImageGetter == null) {
             sImageGetter = new DefaultImageGetter(context.getPackageManager());
         }
@@ -115,6 +115,7 @@ import com.android.contacts.common.model.dataitem.WebsiteDataItem;
 import com.android.contacts.util.PhoneCapabilityTester;
 import com.android.contacts.util.StructuredPostalUtils;
 import com.android.contacts.util.UiClosables;
+import com.android.contacts.util.VCardCache;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.collect.Iterables;
@@ -124,6 +125,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -183,22 +185,9 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
     private Parcelable mListState;
 
     /**
-     * Lists of specific types of entries to be shown in contact details.
+     * The entries of the contact currently shown, see {@link EntryModel}.
      */
-    private ArrayList<DetailViewEntry> mPhoneEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mSmsEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mEmailEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mPostalEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mImEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mNicknameEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mGroupEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mRelationEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mNoteEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mWebsiteEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mSipEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mEventEntries = new ArrayList<DetailViewEntry>();
-    private final Map<AccountType, List<DetailViewEntry>> mOtherEntriesMap =
-            new HashMap<AccountType, List<DetailViewEntry>>();
+    private EntryModel mEntryModel;
     private ArrayList<ViewEntry> mAllEntries = new ArrayList<ViewEntry>();
     private LayoutInflater mInflater;
 
@@ -357,8 +346,23 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
     }
 
     public void setData(Uri lookupUri, Contact result) {
+        setData(lookupUri, result, null);
+    }
+
+    /**
+     * @param entryModel the entries built for the contact by the loader, or null to build them
+     *     here
+     */
+    public void setData(Uri lookupUri, Contact result, EntryModel entryModel) {
         mLookupUri = lookupUri;
         mContactData = result;
+        if (entryModel != null) {
+            mEntryModel = entryModel;
+        }
+        if (result != null && mContext != null) {
+            // Have the vCard ready for when the contact is shared over NFC.
+            VCardCache.prepare(mContext, lookupUri);
+        }
         bindData();
     }
 
@@ -406,6 +410,7 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
                 mStaticPhotoContainer.setVisibility(View.GONE);
             }
             mAllEntries.clear();
+            mEntryModel = null;
             if (mAdapter != null) {
                 mAdapter.notifyDataSetChanged();
             }
@@ -438,23 +443,20 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
             }
         }
 
-        // Build up the contact entries
-        buildEntries();
-
-        // Collapse similar data items for select {@link DataKind}s.
-        Collapser.collapseList(mPhoneEntries);
-        Collapser.collapseList(mSmsEntries);
-        Collapser.collapseList(mEmailEntries);
-        Collapser.collapseList(mPostalEntries);
-        Collapser.collapseList(mImEntries);
-        Collapser.collapseList(mEventEntries);
-        Collapser.collapseList(mWebsiteEntries);
-
-        mIsUniqueNumber = mPhoneEntries.size() == 1;
-        mIsUniqueEmail = mEmailEntries.size() == 1;
+        // Use the entries built along with the contact by the loader if there are any, and
+        // only build them here otherwise.
+        if (mEntryModel == null || mEntryModel.getContactData() != mContactData) {
+            mEntryModel = EntryModel.build(mContext, mContactData);
+        }
+        mPrimaryPhoneUri = mEntryModel.getPrimaryPhoneUri();
+        mIsUniqueNumber = mEntryModel.isUniqueNumber();
+        mIsUniqueEmail = mEntryModel.isUniqueEmail();
 
-        // Make one aggregated list of all entries for display to the user.
-        setupFlattenedList();
+        mAllEntries.clear();
+        mAllEntries.addAll(mEntryModel.getEntries());
+        if (mEntryModel.getMoreNetworksPosition() >= 0) {
+            mAllEntries.add(mEntryModel.getMoreNetworksPosition(), createMoreNetworksEntry());
+        }
 
         if (mAdapter == null) {
             mAdapter = new ViewAdapter();
@@ -513,362 +515,10 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
     }
 
     /**
-     * Build up the entries to display on the screen.
-     */
-    private final void buildEntries() {
-        final boolean hasPhone = PhoneCapabilityTester.isPhone(mContext);
-        final ComponentName smsComponent = PhoneCapabilityTester.getSmsComponent(getContext());
-        final boolean hasSms = (smsComponent != null);
-        final boolean hasSip = PhoneCapabilityTester.isSipPhone(mContext);
-
-        // Clear out the old entries
-        mAllEntries.clear();
-
-        mPrimaryPhoneUri = null;
-
-        // Build up method entries
-        if (mContactData == null) {
-            return;
-        }
-
-        ArrayList<String> groups = new ArrayList<String>();
-        for (RawContact rawContact: mContactData.getRawContacts()) {
-            final long rawContactId = rawContact.getId();
-            final AccountType accountType = rawContact.getAccountType(mContext);
-            for (DataItem dataItem : rawContact.getDataItems()) {
-                dataItem.setRawContactId(rawContactId);
-
-                if (dataItem.getMimeType() == null) continue;
-
-                if (dataItem instanceof GroupMembershipDataItem) {
-                    GroupMembershipDataItem groupMembership =
-                            (GroupMembershipDataItem) dataItem;
-                    Long groupId = groupMembership.getGroupRowId();
-                    if (groupId != null) {
-                        handleGroupMembership(groups, mContactData.getGroupMetaData(), groupId);
-                    }
-                    continue;
-                }
-
-                final DataKind kind = AccountTypeManager.getInstance(mContext)
-                        .getKindOrFallback(accountType, dataItem.getMimeType());
-                if (kind == null) continue;
-
-                final DetailViewEntry entry = DetailViewEntry.fromValues(mContext, dataItem,
-                        mContactData.isDirectoryEntry(), mContactData.getDirectoryId(), kind);
-                entry.maxLines = kind.maxLinesForDisplay;
-
-                final boolean hasData = !TextUtils.isEmpty(entry.data);
-                final boolean isSuperPrimary = dataItem.isSuperPrimary();
-
-                if (dataItem instanceof StructuredNameDataItem) {
-                    // Always ignore the name. It is shown in the header if set
-                } else if (dataItem instanceof PhoneDataItem && hasData) {
-                    PhoneDataItem phone = (PhoneDataItem) dataItem;
-                    // Build phone entries
-                    entry.data = phone.getFormattedPhoneNumber();
-                    final Intent phoneIntent = hasPhone ?
-                            CallUtil.getCallIntent(entry.data) : null;
-                    Intent smsIntent = null;
-                    if (hasSms) {
-                        smsIntent = new Intent(Intent.ACTION_SENDTO,
-                                Uri.fromParts(CallUtil.SCHEME_SMSTO, entry.data, null));
-                        smsIntent.setComponent(smsComponent);
-                    }
-
-                    // Configure Icons and Intents.
-                    if (hasPhone && hasSms) {
-                        entry.intent = phoneIntent;
-                        entry.secondaryIntent = smsIntent;
-                        entry.secondaryActionIcon = kind.iconAltRes;
-                        entry.secondaryActionDescription =
-                            ContactDisplayUtils.getSmsLabelResourceId(entry.type);
-                    } else if (hasPhone) {
-                        entry.intent = phoneIntent;
-                    } else if (hasSms) {
-                        entry.intent = smsIntent;
-                    } else {
-                        entry.intent = null;
-                    }
-
-                    // Remember super-primary phone
-                    if (isSuperPrimary) mPrimaryPhoneUri = entry.uri;
-
-                    entry.isPrimary = isSuperPrimary;
-
-                    // If the entry is a primary entry, then render it first in the view.
-                    if (entry.isPrimary) {
-                        // add to beginning of list so that this phone number shows up first
-                        mPhoneEntries.add(0, entry);
-                    } else {
-                        // add to end of list
-                        mPhoneEntries.add(entry);
-                    }
-
-                    // Configure the text direction. Phone numbers should be displayed LTR
-                    // regardless of what locale the device is in.
-                    entry.textDirection = View.TEXT_DIRECTION_LTR;
-                } else if (dataItem instanceof EmailDataItem && hasData) {
-                    // Build email entries
-                    entry.intent = new Intent(Intent.ACTION_SENDTO,
-                            Uri.fromParts(CallUtil.SCHEME_MAILTO, entry.data, null));
-                    entry.isPrimary = isSuperPrimary;
-                    // If entry is a primary entry, then render it first in the view.
-                    if (entry.isPrimary) {
-                        mEmailEntries.add(0, entry);
-                    } else {
-                        mEmailEntries.add(entry);
-                    }
-
-                    // When Email rows have status, create additional Im row
-                    final DataStatus status = mContactData.getStatuses().get(entry.id);
-                    if (status != null) {
-                        EmailDataItem email = (EmailDataItem) dataItem;
-                        ImDataItem im = ImDataItem.createFromEmail(email);
-
-                        final DetailViewEntry imEntry = DetailViewEntry.fromValues(mContext, im,
-                                mContactData.isDirectoryEntry(), mContactData.getDirectoryId(),
-                                kind);
-                        buildImActions(mContext, imEntry, im);
-                        imEntry.setPresence(status.getPresence());
-                        imEntry.maxLines = kind.maxLinesForDisplay;
-                        mImEntries.add(imEntry);
-                    }
-                } else if (dataItem instanceof StructuredPostalDataItem && hasData) {
-                    // Build postal entries
-                    entry.intent = StructuredPostalUtils.getViewPostalAddressIntent(entry.data);
-                    mPostalEntries.add(entry);
-                } else if (dataItem instanceof ImDataItem && hasData) {
-                    // Build IM entries
-                    buildImActions(mContext, entry, (ImDataItem) dataItem);
-
-                    // Apply presence when available
-                    final DataStatus status = mContactData.getStatuses().get(entry.id);
-                    if (status != null) {
-                        entry.setPresence(status.getPresence());
-                    }
-                    mImEntries.add(entry);
-                } else if (dataItem instanceof OrganizationDataItem) {
-                    // Organizations are not shown. The first one is shown in the header
-                    // and subsequent ones are not supported anymore
-                } else if (dataItem instanceof NicknameDataItem && hasData) {
-                    // Build nickname entries
-                    final boolean isNameRawContact =
-                        (mContactData.getNameRawContactId() == rawContactId);
-
-                    final boolean duplicatesTitle =
-                        isNameRawContact
-                        && mContactData.getDisplayNameSource() == DisplayNameSources.NICKNAME;
-
-                    if (!duplicatesTitle) {
-                        entry.uri = null;
-                        mNicknameEntries.add(entry);
-                    }
-                } else if (dataItem instanceof NoteDataItem && hasData) {
-                    // Build note entries
-                    entry.uri = null;
-                    mNoteEntries.add(entry);
-                } else if (dataItem instanceof WebsiteDataItem && hasData) {
-                    // Build Website entries
-                    entry.uri = null;
-                    try {
-                        WebAddress webAddress = new WebAddress(entry.data);
-                        entry.intent = new Intent(Intent.ACTION_VIEW,
-                                Uri.parse(webAddress.toString()));
-                    } catch (ParseException e) {
-                        Log.e(TAG, "Couldn't parse website: " + entry.data);
-                    }
-                    mWebsiteEntries.add(entry);
-                } else if (dataItem instanceof SipAddressDataItem && hasData) {
-                    // Build SipAddress entries
-                    entry.uri = null;
-                    if (hasSip) {
-                        entry.intent = CallUtil.getCallIntent(
-                                Uri.fromParts(CallUtil.SCHEME_SIP, entry.data, null));
-                    } else {
-                        entry.intent = null;
-                    }
-                    mSipEntries.add(entry);
-                    // TODO: Now that SipAddress is in its own list of entries
-                    // (instead of grouped in mOtherEntries), consider
-                    // repositioning it right under the phone number.
-                    // (Then, we'd also update FallbackAccountType.java to set
-                    // secondary=false for this field, and tweak the weight
-                    // of its DataKind.)
-                } else if (dataItem instanceof EventDataItem && hasData) {
-                    final Calendar cal = DateUtils.parseDate(entry.data, false);
-                    if (cal != null) {
-                        final Date nextAnniversary =
-                                DateUtils.getNextAnnualDate(cal);
-                        final Uri.Builder builder = CalendarContract.CONTENT_URI.buildUpon();
-                        builder.appendPath("time");
-                        ContentUris.appendId(builder, nextAnniversary.getTime());
-                        entry.intent = new Intent(Intent.ACTION_VIEW).setData(builder.build());
-                    }
-                    entry.data = DateUtils.formatDate(mContext, entry.data);
-                    entry.uri = null;
-                    mEventEntries.add(entry);
-                } else if (dataItem instanceof RelationDataItem && hasData) {
-                    entry.intent = new Intent(Intent.ACTION_SEARCH);
-                    entry.intent.putExtra(SearchManager.QUERY, entry.data);
-                    entry.intent.setType(Contacts.CONTENT_TYPE);
-                    mRelationEntries.add(entry);
-                } else {
-                    // Handle showing custom rows
-                    entry.intent = new Intent(Intent.ACTION_VIEW);
-                    entry.intent.setDataAndType(entry.uri, entry.mimetype);
-
-                    entry.data = dataItem.buildDataString(getContext(), kind);
-
-                    if (!TextUtils.isEmpty(entry.data)) {
-                        // If the account type exists in the hash map, add it as another entry for
-                        // that account type
-                        if (mOtherEntriesMap.containsKey(accountType)) {
-                            List<DetailViewEntry> listEntries = mOtherEntriesMap.get(accountType);
-                            listEntries.add(entry);
-                        } else {
-                            // Otherwise create a new list with the entry and add it to the hash map
-                            List<DetailViewEntry> listEntries = new ArrayList<DetailViewEntry>();
-                            listEntries.add(entry);
-                            mOtherEntriesMap.put(accountType, listEntries);
-                        }
-                    }
-                }
-            }
-        }
-
-        if (!groups.isEmpty()) {
-            DetailViewEntry entry = new DetailViewEntry();
-            Collections.sort(groups);
-            StringBuilder sb = new StringBuilder();
-            int size = groups.size();
-            for (int i = 0; i < size; i++) {
-                if (i != 0) {
-                    sb.append(", ");
-                }
-                sb.append(groups.get(i));
-            }
-            entry.mimetype = GroupMembership.MIMETYPE;
-            entry.kind = mContext.getString(R.string.groupsLabel);
-            entry.data = sb.toString();
-            mGroupEntries.add(entry);
-        }
-    }
-
-    /**
-     * Collapse all contact detail entries into one aggregated list with a {@link HeaderViewEntry}
-     * at the top.
+     * Creates the "More networks" entry.  When clicked, show a popup containing a list of
+     * invitable account types.
      */
-    private void setupFlattenedList() {
-        // All contacts should have a header view (even if there is no data for the contact).
-        mAllEntries.add(new HeaderViewEntry());
-
-        addPhoneticName();
-
-        flattenList(mPhoneEntries);
-        flattenList(mSmsEntries);
-        flattenList(mEmailEntries);
-        flattenList(mImEntries);
-        flattenList(mNicknameEntries);
-        flattenList(mWebsiteEntries);
-
-        addNetworks();
-
-        flattenList(mSipEntries);
-        flattenList(mPostalEntries);
-        flattenList(mEventEntries);
-        flattenList(mGroupEntries);
-        flattenList(mRelationEntries);
-        flattenList(mNoteEntries);
-    }
-
-    /**
-     * Add phonetic name (if applicable) to the aggregated list of contact details. This has to be
-     * done manually because phonetic name doesn't have a mimetype or action intent.
-     */
-    private void addPhoneticName() {
-        String phoneticName = ContactDetailDisplayUtils.getPhoneticName(mContext, mContactData);
-        if (TextUtils.isEmpty(phoneticName)) {
-            return;
-        }
-
-        // Add a title
-        String phoneticNameKindTitle = mContext.getString(R.string.name_phonetic);
-        mAllEntries.add(new KindTitleViewEntry(phoneticNameKindTitle.toUpperCase()));
-
-        // Add the phonetic name
-        final DetailViewEntry entry = new DetailViewEntry();
-        entry.kind = phoneticNameKindTitle;
-        entry.data = phoneticName;
-        mAllEntries.add(entry);
-    }
-
-    /**
-     * Add attribution and other third-party entries (if applicable) under the "networks" section
-     * of the aggregated list of contact details. This has to be done manually because the
-     * attribution does not have a mimetype and the third-party entries don't have actually belong
-     * to the same {@link DataKind}.
-     */
-    private void addNetworks() {
-        String attribution = ContactDetailDisplayUtils.getAttribution(mContext, mContactData);
-        boolean hasAttribution = !TextUtils.isEmpty(attribution);
-        int networksCount = mOtherEntriesMap.keySet().size();
-
-        // Note: invitableCount will always be 0 for me profile.  (ContactLoader won't set
-        // invitable types for me profile.)
-        int invitableCount = mContactData.getInvitableAccountTypes().size();
-        if (!hasAttribution && networksCount == 0 && invitableCount == 0) {
-            return;
-        }
-
-        // Add a title
-        String networkKindTitle = mContext.getString(R.string.connections);
-        mAllEntries.add(new KindTitleViewEntry(networkKindTitle.toUpperCase()));
-
-        // Add the attribution if applicable
-        if (hasAttribution) {
-            final DetailViewEntry entry = new DetailViewEntry();
-            entry.kind = networkKindTitle;
-            entry.data = attribution;
-            mAllEntries.add(entry);
-
-            // Add a divider below the attribution if there are network details that will follow
-            if (networksCount > 0) {
-                mAllEntries.add(new SeparatorViewEntry());
-            }
-        }
-
-        // Add the other entries from third parties
-        for (AccountType accountType : mOtherEntriesMap.keySet()) {
-
-            // Add a title for each third party app
-            mAllEntries.add(new NetworkTitleViewEntry(mContext, accountType));
-
-            for (DetailViewEntry detailEntry : mOtherEntriesMap.get(accountType)) {
-                // Add indented separator
-                SeparatorViewEntry separatorEntry = new SeparatorViewEntry();
-                separatorEntry.setIsInSubSection(true);
-                mAllEntries.add(separatorEntry);
-
-                // Add indented detail
-                detailEntry.setIsInSubSection(true);
-                mAllEntries.add(detailEntry);
-            }
-        }
-
-        mOtherEntriesMap.clear();
-
-        // Add the "More networks" button, which opens the invitable account type list popup.
-        if (invitableCount > 0) {
-            addMoreNetworks();
-        }
-    }
-
-    /**
-     * Add the "More networks" entry.  When clicked, show a popup containing a list of invitable
-     * account types.
-     */
-    private void addMoreNetworks() {
+    private ViewEntry createMoreNetworksEntry() {
         // First, prepare for the popup.
 
         // Adapter for the list popup.
@@ -898,57 +548,7 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
         };
 
         // Finally create the entry.
-        mAllEntries.add(new AddConnectionViewEntry(mContext, onClickListener));
-    }
-
-    /**
-     * Iterate through {@link DetailViewEntry} in the given list and add it to a list of all
-     * entries. Add a {@link KindTitleViewEntry} at the start if the length of the list is not 0.
-     * Add {@link SeparatorViewEntry}s as dividers as appropriate. Clear the original list.
-     */
-    private void flattenList(ArrayList<DetailViewEntry> entries) {
-        int count = entries.size();
-
-        // Add a title for this kind by extracting the kind from the first entry
-        if (count > 0) {
-            String kind = entries.get(0).kind;
-            mAllEntries.add(new KindTitleViewEntry(kind.toUpperCase()));
-        }
-
-        // Add all the data entries for this kind
-        for (int i = 0; i < count; i++) {
-            // For all entries except the first one, add a divider above the entry
-            if (i != 0) {
-                mAllEntries.add(new SeparatorViewEntry());
-            }
-            mAllEntries.add(entries.get(i));
-        }
-
-        // Clear old list because it's not needed anymore.
-        entries.clear();
-    }
-
-    /**
-     * Maps group ID to the corresponding group name, collapses all synonymous groups.
-     * Ignores default groups (e.g. My Contacts) and favorites groups.
-     */
-    private void handleGroupMembership(
-            ArrayList<String> groups, List<GroupMetaData> groupMetaData, long groupId) {
-        if (groupMetaData == null) {
-            return;
-        }
-
-        for (GroupMetaData group : groupMetaData) {
-            if (group.getGroupId() == groupId) {
-                if (!group.isDefaultGroup() && !group.isFavorites()) {
-                    String title = group.getTitle();
-                    if (!TextUtils.isEmpty(title) && !groups.contains(title)) {
-                        groups.add(title);
-                    }
-                }
-                break;
-            }
-        }
+        return new AddConnectionViewEntry(mContext, onClickListener);
     }
 
     /**
@@ -1051,6 +651,511 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
         mPopup = null;
     }
 
+    /**
+     * The entries shown for a contact, as built from its data items: flattened into one list,
+     * with the similar items collapsed. Building the model may parse dates and look up data
+     * kinds for hundreds of rows, so {@link ContactLoaderFragment} builds it on the loader's
+     * thread, and the fragment only has to swap it in.
+     */
+    public static final class EntryModel {
+        private final Context mContext;
+        private final Contact mContactData;
+
+        /**
+         * Lists of specific types of entries to be shown in contact details. Only used while
+         * building the model.
+         */
+        private ArrayList<DetailViewEntry> mPhoneEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mSmsEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mEmailEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mPostalEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mImEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mNicknameEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mGroupEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mRelationEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mNoteEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mWebsiteEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mSipEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mEventEntries = new ArrayList<DetailViewEntry>();
+        private final Map<AccountType, List<DetailViewEntry>> mOtherEntriesMap =
+                new HashMap<AccountType, List<DetailViewEntry>>();
+
+        private final ArrayList<ViewEntry> mEntries = new ArrayList<ViewEntry>();
+        private int mMoreNetworksPosition = -1;
+        private Uri mPrimaryPhoneUri;
+        private boolean mIsUniqueNumber;
+        private boolean mIsUniqueEmail;
+
+        private EntryModel(Context context, Contact contactData) {
+            mContext = context;
+            mContactData = contactData;
+        }
+
+        /**
+         * Builds the model for the given contact.
+         */
+        public static EntryModel build(Context context, Contact contactData) {
+            final EntryModel model = new EntryModel(context, contactData);
+
+            // Build up the contact entries
+            model.buildEntries();
+
+            // Collapse similar data items for select {@link DataKind}s.
+            Collapser.collapseList(model.mPhoneEntries);
+            Collapser.collapseList(model.mSmsEntries);
+            Collapser.collapseList(model.mEmailEntries);
+            Collapser.collapseList(model.mPostalEntries);
+            Collapser.collapseList(model.mImEntries);
+            Collapser.collapseList(model.mEventEntries);
+            Collapser.collapseList(model.mWebsiteEntries);
+
+            model.mIsUniqueNumber = model.mPhoneEntries.size() == 1;
+            model.mIsUniqueEmail = model.mEmailEntries.size() == 1;
+
+            // Make one aggregated list of all entries for display to the user.
+            model.setupFlattenedList();
+            return model;
+        }
+
+        public Contact getContactData() {
+            return mContactData;
+        }
+
+        /**
+         * @return all the entries, without the "More networks" entry.
+         */
+        public List<ViewEntry> getEntries() {
+            return mEntries;
+        }
+
+        /**
+         * @return where the "More networks" entry goes in {@link #getEntries}, or -1 if the
+         *     contact has no invitable account types.
+         */
+        public int getMoreNetworksPosition() {
+            return mMoreNetworksPosition;
+        }
+
+        public Uri getPrimaryPhoneUri() {
+            return mPrimaryPhoneUri;
+        }
+
+        public boolean isUniqueNumber() {
+            return mIsUniqueNumber;
+        }
+
+        public boolean isUniqueEmail() {
+            return mIsUniqueEmail;
+        }
+
+        /**
+         * Build up the entries to display on the screen.
+         */
+        private void buildEntries() {
+            final boolean hasPhone = PhoneCapabilityTester.isPhone(mContext);
+            final ComponentName smsComponent = PhoneCapabilityTester.getSmsComponent(mContext);
+            final boolean hasSms = (smsComponent != null);
+            final boolean hasSip = PhoneCapabilityTester.isSipPhone(mContext);
+
+            final HashSet<String> groups = new HashSet<String>();
+            final HashMap<Long, GroupMetaData> groupMetaData = getGroupMetaDataById();
+            for (RawContact rawContact: mContactData.getRawContacts()) {
+                final long rawContactId = rawContact.getId();
+                final AccountType accountType = rawContact.getAccountType(mContext);
+                for (DataItem dataItem : rawContact.getDataItems()) {
+                    dataItem.setRawContactId(rawContactId);
+
+                    if (dataItem.getMimeType() == null) continue;
+
+                    if (dataItem instanceof GroupMembershipDataItem) {
+                        GroupMembershipDataItem groupMembership =
+                                (GroupMembershipDataItem) dataItem;
+                        Long groupId = groupMembership.getGroupRowId();
+                        if (groupId != null) {
+                            handleGroupMembership(groups, groupMetaData, groupId);
+                        }
+                        continue;
+                    }
+
+                    final DataKind kind = AccountTypeManager.getInstance(mContext)
+                            .getKindOrFallback(accountType, dataItem.getMimeType());
+                    if (kind == null) continue;
+
+                    final DetailViewEntry entry = DetailViewEntry.fromValues(mContext, dataItem,
+                            mContactData.isDirectoryEntry(), mContactData.getDirectoryId(), kind);
+                    entry.maxLines = kind.maxLinesForDisplay;
+
+                    final boolean hasData = !TextUtils.isEmpty(entry.data);
+                    final boolean isSuperPrimary = dataItem.isSuperPrimary();
+
+                    if (dataItem instanceof StructuredNameDataItem) {
+                        // Always ignore the name. It is shown in the header if set
+                    } else if (dataItem instanceof PhoneDataItem && hasData) {
+                        PhoneDataItem phone = (PhoneDataItem) dataItem;
+                        // Build phone entries
+                        entry.data = phone.getFormattedPhoneNumber();
+                        final Intent phoneIntent = hasPhone ?
+                                CallUtil.getCallIntent(entry.data) : null;
+                        Intent smsIntent = null;
+                        if (hasSms) {
+                            smsIntent = new Intent(Intent.ACTION_SENDTO,
+                                    Uri.fromParts(CallUtil.SCHEME_SMSTO, entry.data, null));
+                            smsIntent.setComponent(smsComponent);
+                        }
+
+                        // Configure Icons and Intents.
+                        if (hasPhone && hasSms) {
+                            entry.intent = phoneIntent;
+                            entry.secondaryIntent = smsIntent;
+                            entry.secondaryActionIcon = kind.iconAltRes;
+                            entry.secondaryActionDescription =
+                                ContactDisplayUtils.getSmsLabelResourceId(entry.type);
+                        } else if (hasPhone) {
+                            entry.intent = phoneIntent;
+                        } else if (hasSms) {
+                            entry.intent = smsIntent;
+                        } else {
+                            entry.intent = null;
+                        }
+
+                        // Remember super-primary phone
+                        if (isSuperPrimary) mPrimaryPhoneUri = entry.uri;
+
+                        entry.isPrimary = isSuperPrimary;
+
+                        // If the entry is a primary entry, then render it first in the view.
+                        if (entry.isPrimary) {
+                            // add to beginning of list so that this phone number shows up first
+                            mPhoneEntries.add(0, entry);
+                        } else {
+                            // add to end of list
+                            mPhoneEntries.add(entry);
+                        }
+
+                        // Configure the text direction. Phone numbers should be displayed LTR
+                        // regardless of what locale the device is in.
+                        entry.textDirection = View.TEXT_DIRECTION_LTR;
+                    } else if (dataItem instanceof EmailDataItem && hasData) {
+                        // Build email entries
+                        entry.intent = new Intent(Intent.ACTION_SENDTO,
+                                Uri.fromParts(CallUtil.SCHEME_MAILTO, entry.data, null));
+                        entry.isPrimary = isSuperPrimary;
+                        // If entry is a primary entry, then render it first in the view.
+                        if (entry.isPrimary) {
+                            mEmailEntries.add(0, entry);
+                        } else {
+                            mEmailEntries.add(entry);
+                        }
+
+                        // When Email rows have status, create additional Im row
+                        final DataStatus status = mContactData.getStatuses().get(entry.id);
+                        if (status != null) {
+                            EmailDataItem email = (EmailDataItem) dataItem;
+                            ImDataItem im = ImDataItem.createFromEmail(email);
+
+                            final DetailViewEntry imEntry = DetailViewEntry.fromValues(mContext, im,
+                                    mContactData.isDirectoryEntry(), mContactData.getDirectoryId(),
+                                    kind);
+                            buildImActions(mContext, imEntry, im);
+                            imEntry.setPresence(status.getPresence());
+                            imEntry.maxLines = kind.maxLinesForDisplay;
+                            mImEntries.add(imEntry);
+                        }
+                    } else if (dataItem instanceof StructuredPostalDataItem && hasData) {
+                        // Build postal entries
+                        entry.intent = StructuredPostalUtils.getViewPostalAddressIntent(entry.data);
+                        mPostalEntries.add(entry);
+                    } else if (dataItem instanceof ImDataItem && hasData) {
+                        // Build IM entries
+                        buildImActions(mContext, entry, (ImDataItem) dataItem);
+
+                        // Apply presence when available
+                        final DataStatus status = mContactData.getStatuses().get(entry.id);
+                        if (status != null) {
+                            entry.setPresence(status.getPresence());
+                        }
+                        mImEntries.add(entry);
+                    } else if (dataItem instanceof OrganizationDataItem) {
+                        // Organizations are not shown. The first one is shown in the header
+                        // and subsequent ones are not supported anymore
+                    } else if (dataItem instanceof NicknameDataItem && hasData) {
+                        // Build nickname entries
+                        final boolean isNameRawContact =
+                            (mContactData.getNameRawContactId() == rawContactId);
+
+                        final boolean duplicatesTitle =
+                            isNameRawContact
+                            && mContactData.getDisplayNameSource() == DisplayNameSources.NICKNAME;
+
+                        if (!duplicatesTitle) {
+                            entry.uri = null;
+                            mNicknameEntries.add(entry);
+                        }
+                    } else if (dataItem instanceof NoteDataItem && hasData) {
+                        // Build note entries
+                        entry.uri = null;
+                        mNoteEntries.add(entry);
+                    } else if (dataItem instanceof WebsiteDataItem && hasData) {
+                        // Build Website entries
+                        entry.uri = null;
+                        try {
+                            WebAddress webAddress = new WebAddress(entry.data);
+                            entry.intent = new Intent(Intent.ACTION_VIEW,
+                                    Uri.parse(webAddress.toString()));
+                        } catch (ParseException e) {
+                            Log.e(TAG, "Couldn't parse website: " + entry.data);
+                        }
+                        mWebsiteEntries.add(entry);
+                    } else if (dataItem instanceof SipAddressDataItem && hasData) {
+                        // Build SipAddress entries
+                        entry.uri = null;
+                        if (hasSip) {
+                            entry.intent = CallUtil.getCallIntent(
+                                    Uri.fromParts(CallUtil.SCHEME_SIP, entry.data, null));
+                        } else {
+                            entry.intent = null;
+                        }
+                        mSipEntries.add(entry);
+                        // TODO: Now that SipAddress is in its own list of entries
+                        // (instead of grouped in mOtherEntries), consider
+                        // repositioning it right under the phone number.
+                        // (Then, we'd also update FallbackAccountType.java to set
+                        // secondary=false for this field, and tweak the weight
+                        // of its DataKind.)
+                    } else if (dataItem instanceof EventDataItem && hasData) {
+                        final Calendar cal = DateUtils.parseDate(entry.data, false);
+                        if (cal != null) {
+                            final Date nextAnniversary =
+                                    DateUtils.getNextAnnualDate(cal);
+                            final Uri.Builder builder = CalendarContract.CONTENT_URI.buildUpon();
+                            builder.appendPath("time");
+                            ContentUris.appendId(builder, nextAnniversary.getTime());
+                            entry.intent = new Intent(Intent.ACTION_VIEW).setData(builder.build());
+                        }
+                        entry.data = DateUtils.formatDate(mContext, entry.data);
+                        entry.uri = null;
+                        mEventEntries.add(entry);
+                    } else if (dataItem instanceof RelationDataItem && hasData) {
+                        entry.intent = new Intent(Intent.ACTION_SEARCH);
+                        entry.intent.putExtra(SearchManager.QUERY, entry.data);
+                        entry.intent.setType(Contacts.CONTENT_TYPE);
+                        mRelationEntries.add(entry);
+                    } else {
+                        // Handle showing custom rows
+                        entry.intent = new Intent(Intent.ACTION_VIEW);
+                        entry.intent.setDataAndType(entry.uri, entry.mimetype);
+
+                        entry.data = dataItem.buildDataString(mContext, kind);
+
+                        if (!TextUtils.isEmpty(entry.data)) {
+                            // If the account type exists in the hash map, add it as another entry for
+                            // that account type
+                            if (mOtherEntriesMap.containsKey(accountType)) {
+                                List<DetailViewEntry> listEntries = mOtherEntriesMap.get(accountType);
+                                listEntries.add(entry);
+                            } else {
+                                // Otherwise create a new list with the entry and add it to the hash map
+                                List<DetailViewEntry> listEntries = new ArrayList<DetailViewEntry>();
+                                listEntries.add(entry);
+                                mOtherEntriesMap.put(accountType, listEntries);
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (!groups.isEmpty()) {
+                DetailViewEntry entry = new DetailViewEntry();
+                final ArrayList<String> sortedGroups = new ArrayList<String>(groups);
+                Collections.sort(sortedGroups);
+                StringBuilder sb = new StringBuilder();
+                int size = sortedGroups.size();
+                for (int i = 0; i < size; i++) {
+                    if (i != 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(sortedGroups.get(i));
+                }
+                entry.mimetype = GroupMembership.MIMETYPE;
+                entry.kind = mContext.getString(R.string.groupsLabel);
+                entry.data = sb.toString();
+                mGroupEntries.add(entry);
+            }
+        }
+
+        /**
+         * Collapse all contact detail entries into one aggregated list with a {@link HeaderViewEntry}
+         * at the top.
+         */
+        private void setupFlattenedList() {
+            // All contacts should have a header view (even if there is no data for the contact).
+            mEntries.add(new HeaderViewEntry());
+
+            addPhoneticName();
+
+            flattenList(mPhoneEntries);
+            flattenList(mSmsEntries);
+            flattenList(mEmailEntries);
+            flattenList(mImEntries);
+            flattenList(mNicknameEntries);
+            flattenList(mWebsiteEntries);
+
+            addNetworks();
+
+            flattenList(mSipEntries);
+            flattenList(mPostalEntries);
+            flattenList(mEventEntries);
+            flattenList(mGroupEntries);
+            flattenList(mRelationEntries);
+            flattenList(mNoteEntries);
+        }
+
+        /**
+         * Add phonetic name (if applicable) to the aggregated list of contact details. This has to be
+         * done manually because phonetic name doesn't have a mimetype or action intent.
+         */
+        private void addPhoneticName() {
+            String phoneticName = ContactDetailDisplayUtils.getPhoneticName(mContext, mContactData);
+            if (TextUtils.isEmpty(phoneticName)) {
+                return;
+            }
+
+            // Add a title
+            String phoneticNameKindTitle = mContext.getString(R.string.name_phonetic);
+            mEntries.add(new KindTitleViewEntry(phoneticNameKindTitle.toUpperCase()));
+
+            // Add the phonetic name
+            final DetailViewEntry entry = new DetailViewEntry();
+            entry.kind = phoneticNameKindTitle;
+            entry.data = phoneticName;
+            mEntries.add(entry);
+        }
+
+        /**
+         * Add attribution and other third-party entries (if applicable) under the "networks" section
+         * of the aggregated list of contact details. This has to be done manually because the
+         * attribution does not have a mimetype and the third-party entries don't have actually belong
+         * to the same {@link DataKind}.
+         */
+        private void addNetworks() {
+            String attribution = ContactDetailDisplayUtils.getAttribution(mContext, mContactData);
+            boolean hasAttribution = !TextUtils.isEmpty(attribution);
+            int networksCount = mOtherEntriesMap.keySet().size();
+
+            // Note: invitableCount will always be 0 for me profile.  (ContactLoader won't set
+            // invitable types for me profile.)
+            int invitableCount = mContactData.getInvitableAccountTypes().size();
+            if (!hasAttribution && networksCount == 0 && invitableCount == 0) {
+                return;
+            }
+
+            // Add a title
+            String networkKindTitle = mContext.getString(R.string.connections);
+            mEntries.add(new KindTitleViewEntry(networkKindTitle.toUpperCase()));
+
+            // Add the attribution if applicable
+            if (hasAttribution) {
+                final DetailViewEntry entry = new DetailViewEntry();
+                entry.kind = networkKindTitle;
+                entry.data = attribution;
+                mEntries.add(entry);
+
+                // Add a divider below the attribution if there are network details that will follow
+                if (networksCount > 0) {
+                    mEntries.add(new SeparatorViewEntry());
+                }
+            }
+
+            // Add the other entries from third parties
+            for (AccountType accountType : mOtherEntriesMap.keySet()) {
+
+                // Add a title for each third party app
+                mEntries.add(new NetworkTitleViewEntry(mContext, accountType));
+
+                for (DetailViewEntry detailEntry : mOtherEntriesMap.get(accountType)) {
+                    // Add indented separator
+                    SeparatorViewEntry separatorEntry = new SeparatorViewEntry();
+                    separatorEntry.setIsInSubSection(true);
+                    mEntries.add(separatorEntry);
+
+                    // Add indented detail
+                    detailEntry.setIsInSubSection(true);
+                    mEntries.add(detailEntry);
+                }
+            }
+
+            mOtherEntriesMap.clear();
+
+            // Leave room for the "More networks" button, which opens the invitable account type
+            // list popup. The fragment adds it, since it needs the fragment to show the popup.
+            if (invitableCount > 0) {
+                mMoreNetworksPosition = mEntries.size();
+            }
+        }
+
+        /**
+         * Iterate through {@link DetailViewEntry} in the given list and add it to a list of all
+         * entries. Add a {@link KindTitleViewEntry} at the start if the length of the list is not 0.
+         * Add {@link SeparatorViewEntry}s as dividers as appropriate. Clear the original list.
+         */
+        private void flattenList(ArrayList<DetailViewEntry> entries) {
+            int count = entries.size();
+
+            // Add a title for this kind by extracting the kind from the first entry
+            if (count > 0) {
+                String kind = entries.get(0).kind;
+                mEntries.add(new KindTitleViewEntry(kind.toUpperCase()));
+            }
+
+            // Add all the data entries for this kind
+            for (int i = 0; i < count; i++) {
+                // For all entries except the first one, add a divider above the entry
+                if (i != 0) {
+                    mEntries.add(new SeparatorViewEntry());
+                }
+                mEntries.add(entries.get(i));
+            }
+
+            // Clear old list because it's not needed anymore.
+            entries.clear();
+        }
+
+        /**
+         * Maps group ID to the corresponding group name, collapses all synonymous groups.
+         * Ignores default groups (e.g. My Contacts) and favorites groups.
+         */
+        private static void handleGroupMembership(HashSet<String> groups,
+                HashMap<Long, GroupMetaData> groupMetaData, long groupId) {
+            final GroupMetaData group = groupMetaData.get(groupId);
+            if (group == null) {
+                return;
+            }
+            if (!group.isDefaultGroup() && !group.isFavorites()) {
+                String title = group.getTitle();
+                if (!TextUtils.isEmpty(title)) {
+                    groups.add(title);
+                }
+            }
+        }
+
+        /**
+         * @return the contact's group metadata, keyed by group ID.
+         */
+        private HashMap<Long, GroupMetaData> getGroupMetaDataById() {
+            final List<GroupMetaData> groupMetaData = mContactData.getGroupMetaData();
+            final HashMap<Long, GroupMetaData> result = new HashMap<Long, GroupMetaData>();
+            if (groupMetaData != null) {
+                for (GroupMetaData group : groupMetaData) {
+                    // Keep the first one, as the linear scan did.
+                    if (!result.containsKey(group.getGroupId())) {
+                        result.put(group.getGroupId(), group);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
     /**
      * Base class for an item in the {@link ViewAdapter} list of data, which is
      * supplied to the {@link ListView}.
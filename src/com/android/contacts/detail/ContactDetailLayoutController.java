@@ -103,6 +103,8 @@ public class ContactDetailLayoutController {
     private final ContactDetailFragment.Listener mContactDetailFragmentListener;
 
     private Contact mContactData;
+    /** The entries built along with {@link #mContactData} by its loader, or null. */
+    private ContactDetailFragment.EntryModel mEntryModel;
     private Uri mContactUri;
 
     private boolean mTabCarouselIsAnimating;
@@ -270,7 +272,11 @@ public class ContactDetailLayoutController {
         }
     }
 
-    public void setContactData(Contact data) {
+    /**
+     * @param entryModel the entries built for the contact by its loader, or null to have the
+     *     detail fragment build them
+     */
+    public void setContactData(Contact data, ContactDetailFragment.EntryModel entryModel) {
         final boolean contactWasLoaded;
         final boolean contactHadUpdates;
         final boolean isDifferentContact;
@@ -285,6 +291,7 @@ public class ContactDetailLayoutController {
                     !UriUtils.areEqual(mContactData.getLookupUri(), data.getLookupUri());
         }
         mContactData = data;
+        mEntryModel = entryModel;
 
         if (PhoneCapabilityTester.isUsingTwoPanes(mActivity)) {
             // Tablet: If we already showed data before, we want to cross-fade from screen to screen
@@ -415,7 +422,7 @@ public class ContactDetailLayoutController {
             resetFragments();
         }
 
-        mDetailFragment.setData(mContactUri, mContactData);
+        mDetailFragment.setData(mContactUri, mContactData, mEntryModel);
         mUpdatesFragment.setData(mContactUri, mContactData);
     }
 
@@ -465,7 +472,7 @@ public class ContactDetailLayoutController {
             resetFragments();
         }
 
-        mDetailFragment.setData(mContactUri, mContactData);
+        mDetailFragment.setData(mContactUri, mContactData, mEntryModel);
     }
 
     private void resetTabCarousel() {
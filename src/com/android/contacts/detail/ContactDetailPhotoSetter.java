@@ -19,6 +19,7 @@ package com.android.contacts.detail;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.view.View;
@@ -38,29 +39,33 @@ import com.android.contacts.util.ImageViewDrawableSetter;
 public class ContactDetailPhotoSetter extends ImageViewDrawableSetter {
     public OnClickListener setupContactPhotoForClick(Context context, Contact contactData,
             ImageView photoView, boolean expandPhotoOnClick) {
-        Bitmap bitmap = setupContactPhoto(contactData, photoView);
-        return setupClickListener(context, contactData, bitmap, expandPhotoOnClick);
+        setupContactPhoto(contactData, photoView);
+        return setupClickListener(context, contactData, expandPhotoOnClick);
     }
 
     private static final class PhotoClickListener implements OnClickListener {
 
         private final Context mContext;
         private final Contact mContactData;
-        private final Bitmap mPhotoBitmap;
         private final byte[] mPhotoBytes;
         private final boolean mExpandPhotoOnClick;
 
-        public PhotoClickListener(Context context, Contact contactData, Bitmap photoBitmap,
-                byte[] photoBytes, boolean expandPhotoOnClick) {
+        public PhotoClickListener(Context context, Contact contactData, byte[] photoBytes,
+                boolean expandPhotoOnClick) {
             mContext = context;
             mContactData = contactData;
-            mPhotoBitmap = photoBitmap;
             mPhotoBytes = photoBytes;
             mExpandPhotoOnClick = expandPhotoOnClick;
         }
 
         @Override
         public void onClick(View v) {
+            // The photo shown is subsampled to the size of the view, so decode it at full
+            // resolution for the photo manager, which caches it with the full photo bytes.
+            // This only happens when the photo is clicked.
+            final Bitmap photoBitmap = mPhotoBytes == null ? null
+                    : BitmapFactory.decodeByteArray(mPhotoBytes, 0, mPhotoBytes.length);
+
             // Assemble the intent.
             RawContactDeltaList delta = mContactData.createRawContactDeltaList();
 
@@ -83,24 +88,24 @@ public class ContactDetailPhotoSetter extends ImageViewDrawableSetter {
                 photoUri = Uri.parse(mContactData.getPhotoUri());
             }
             Intent photoSelectionIntent = PhotoSelectionActivity.buildIntent(mContext,
-                    photoUri, mPhotoBitmap, mPhotoBytes, rect, delta, mContactData.isUserProfile(),
+                    photoUri, photoBitmap, mPhotoBytes, rect, delta, mContactData.isUserProfile(),
                     mContactData.isDirectoryEntry(), mExpandPhotoOnClick);
             // Cache the bitmap directly, so the activity can pull it from the
             // photo manager.
-            if (mPhotoBitmap != null) {
+            if (photoBitmap != null) {
                 ContactPhotoManager.getInstance(mContext).cacheBitmap(
-                        photoUri, mPhotoBitmap, mPhotoBytes);
+                        photoUri, photoBitmap, mPhotoBytes);
             }
             mContext.startActivity(photoSelectionIntent);
         }
     }
 
-    private OnClickListener setupClickListener(Context context, Contact contactData, Bitmap bitmap,
+    private OnClickListener setupClickListener(Context context, Contact contactData,
             boolean expandPhotoOnClick) {
         final ImageView target = getTarget();
         if (target == null) return null;
 
         return new PhotoClickListener(
-                context, contactData, bitmap, getCompressedImage(), expandPhotoOnClick);
+                context, contactData, getCompressedImage(), expandPhotoOnClick);
     }
 }
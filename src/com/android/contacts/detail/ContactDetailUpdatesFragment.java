@@ -35,6 +35,10 @@ import com.android.contacts.util.StreamItemEntry;
 import com.android.contacts.common.model.AccountTypeManager;
 import com.android.contacts.common.model.Contact;
 import com.android.contacts.common.model.account.AccountType;
+import com.android.contacts.common.util.UriUtils;
+import com.google.common.collect.Lists;
+
+import java.util.List;
 
 public class ContactDetailUpdatesFragment extends ListFragment implements FragmentKeyListener {
 
@@ -45,6 +49,7 @@ public class ContactDetailUpdatesFragment extends ListFragment implements Fragme
 
     private LayoutInflater mInflater;
     private StreamItemAdapter mStreamItemAdapter;
+    private StreamItemPager mStreamItemPager;
 
     private OnScrollListener mVerticalScrollListener;
 
@@ -109,16 +114,61 @@ public class ContactDetailUpdatesFragment extends ListFragment implements Fragme
         super.onViewCreated(view, savedInstanceState);
         mStreamItemAdapter = new StreamItemAdapter(getActivity(), mStreamItemClickListener,
                 mStreamItemPhotoItemClickListener);
+        mStreamItemAdapter.setOnLoadMoreListener(new StreamItemAdapter.OnLoadMoreListener() {
+            @Override
+            public void onLoadMore() {
+                if (mStreamItemPager != null) {
+                    mStreamItemPager.loadNextPage();
+                }
+            }
+        });
         setListAdapter(mStreamItemAdapter);
         getListView().setOnScrollListener(mVerticalScrollListener);
+        if (mContactData != null) {
+            startLoadingStreamItems();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (mStreamItemPager != null) {
+            mStreamItemPager.close();
+            mStreamItemPager = null;
+        }
+        super.onDestroyView();
     }
 
     public void setData(Uri lookupUri, Contact result) {
         if (result == null) {
             return;
         }
+        final boolean isDifferentContact = mContactData == null
+                || !UriUtils.areEqual(mContactData.getLookupUri(), result.getLookupUri());
         mLookupUri = lookupUri;
         mContactData = result;
+        if (mStreamItemAdapter != null && (isDifferentContact || mStreamItemPager == null)) {
+            startLoadingStreamItems();
+        }
+    }
+
+    /**
+     * Loads the newest stream items of the contact; older ones are loaded as the list is
+     * scrolled towards its end.
+     */
+    private void startLoadingStreamItems() {
+        if (mStreamItemPager != null) {
+            mStreamItemPager.close();
+        }
+        mStreamItemAdapter.setStreamItems(Lists.<StreamItemEntry>newArrayList());
+        mStreamItemPager = new StreamItemPager(getActivity(), mContactData.getLookupUri(),
+                mContactData.isUserProfile(), StreamItemPager.DEFAULT_PAGE_SIZE,
+                new StreamItemPager.Listener() {
+                    @Override
+                    public void onPageLoaded(List<StreamItemEntry> page, boolean hasMore) {
+                        mStreamItemAdapter.addStreamItems(page, hasMore);
+                    }
+                });
+        mStreamItemPager.loadNextPage();
     }
 
     /**
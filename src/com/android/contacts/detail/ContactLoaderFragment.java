@@ -153,6 +153,19 @@ public class ContactLoaderFragment extends Fragment implements FragmentKeyListen
         }
     }
 
+    /**
+     * @return the entries {@link ContactDetailFragment} shows for the given contact, if they were
+     *     built along with it by the loader, or null
+     */
+    public ContactDetailFragment.EntryModel getEntryModel(Contact contact) {
+        if (!isAdded()) {
+            return null;
+        }
+        final Loader<Contact> loader = getLoaderManager().getLoader(LOADER_DETAILS);
+        return loader instanceof DetailLoader
+                ? ((DetailLoader) loader).getEntryModel(contact) : null;
+    }
+
     public void loadUri(Uri lookupUri) {
         if (Objects.equal(lookupUri, mLookupUri)) {
             // Same URI, no need to load the data again
@@ -185,9 +198,7 @@ public class ContactLoaderFragment extends Fragment implements FragmentKeyListen
         @Override
         public Loader<Contact> onCreateLoader(int id, Bundle args) {
             Uri lookupUri = args.getParcelable(LOADER_ARG_CONTACT_URI);
-            return new ContactLoader(mContext, lookupUri, true /* loadGroupMetaData */,
-                    true /* load invitable account types */, true /* postViewNotification */,
-                    true /* computeFormattedPhoneNumber */);
+            return new DetailLoader(mContext, lookupUri);
         }
 
         @Override
@@ -467,4 +478,42 @@ public class ContactLoaderFragment extends Fragment implements FragmentKeyListen
                 mContext, mLookupUri, mCustomRingtone);
         mContext.startService(intent);
     }
+
+    /**
+     * {@link ContactLoader} that also builds the entries {@link ContactDetailFragment} shows for
+     * the contact, so that doesn't happen on the UI thread.
+     */
+    private static class DetailLoader extends ContactLoader {
+        /** The contact the entry model was built for, and the model. Guarded by this. */
+        private Contact mModelContact;
+        private ContactDetailFragment.EntryModel mEntryModel;
+
+        public DetailLoader(Context context, Uri lookupUri) {
+            super(context, lookupUri, true /* loadGroupMetaData */,
+                    true /* load invitable account types */, true /* postViewNotification */,
+                    true /* computeFormattedPhoneNumber */);
+        }
+
+        @Override
+        public Contact loadInBackground() {
+            final Contact contact = super.loadInBackground();
+            ContactDetailFragment.EntryModel model = null;
+            if (contact != null && contact.isLoaded()) {
+                model = ContactDetailFragment.EntryModel.build(getContext(), contact);
+            }
+            synchronized (this) {
+                mModelContact = contact;
+                mEntryModel = model;
+            }
+            return contact;
+        }
+
+        /**
+         * @return the entry model built along with the given contact, or null if the contact was
+         *     delivered without being loaded by this loader, for example from the cache.
+         */
+        public synchronized ContactDetailFragment.EntryModel getEntryModel(Contact contact) {
+            return contact == mModelContact ? mEntryModel : null;
+        }
+    }
 }
@@ -43,6 +43,7 @@ import com.android.contacts.common.model.ValuesDelta;
 import com.android.contacts.common.model.account.AccountType;
 import com.android.contacts.common.model.RawContactDeltaList;
 import com.android.contacts.util.ContactPhotoUtils;
+import com.android.contacts.util.TempPhotoManager;
 import com.android.contacts.util.UiClosables;
 
 import java.io.FileNotFoundException;
@@ -133,7 +134,7 @@ public abstract class PhotoSelectionHandler implements OnClickListener {
 
                     try {
                         // delete the original temporary photo if it exists
-                        mContext.getContentResolver().delete(mTempPhotoUri, null, null);
+                        TempPhotoManager.getInstance(mContext).delete(mTempPhotoUri);
                         listener.onPhotoSelected(uri);
                         return true;
                     } catch (FileNotFoundException e) {
@@ -17,6 +17,7 @@
 package com.android.contacts.detail;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -26,13 +27,18 @@ import com.android.contacts.R;
 import com.android.contacts.common.model.AccountTypeManager;
 import com.android.contacts.common.model.account.AccountType;
 import com.android.contacts.util.StreamItemEntry;
+import com.android.contacts.util.StreamItemTextCache;
 
 import com.google.common.collect.Lists;
 
+import java.util.HashMap;
 import java.util.List;
 
 /**
  * List adapter for stream items of a given contact.
+ *
+ * Stream items can be added a page at a time with {@link #addStreamItems}; the adapter asks
+ * for the next page through {@link OnLoadMoreListener} when the list nears its end.
  */
 public class StreamItemAdapter extends BaseAdapter {
     /** The header view, hidden under the tab carousel, if present. */
@@ -40,12 +46,38 @@ public class StreamItemAdapter extends BaseAdapter {
     /** The updates in the list. */
     private static final int ITEM_VIEW_TYPE_STREAM_ITEM = 1;
 
+    /** Number of items from the end of the list at which the next page is requested. */
+    private static final int LOAD_MORE_THRESHOLD = 5;
+
+    public interface OnLoadMoreListener {
+        /** Called when the list nears the end of the stream items loaded so far. */
+        void onLoadMore();
+    }
+
+    /** What the stream item views of an account type can do. */
+    private static final class AccountCapabilities {
+        public final boolean canViewStreamItem;
+        public final boolean canViewStreamItemPhoto;
+
+        public AccountCapabilities(AccountType accountType) {
+            canViewStreamItem = accountType.getViewStreamItemActivity() != null;
+            canViewStreamItemPhoto = accountType.getViewStreamItemPhotoActivity() != null;
+        }
+    }
+
     private final Context mContext;
     private final View.OnClickListener mItemClickListener;
     private final View.OnClickListener mPhotoClickListener;
     private final LayoutInflater mInflater;
 
     private List<StreamItemEntry> mStreamItems;
+    private AsyncTask<?, ?, ?> mDecodeTask;
+    private OnLoadMoreListener mOnLoadMoreListener;
+    private boolean mHasMore;
+
+    /** Capabilities by account type and data set. */
+    private final HashMap<String, AccountCapabilities> mAccountCapabilities =
+            new HashMap<String, AccountCapabilities>();
 
     public StreamItemAdapter(Context context, View.OnClickListener itemClickListener,
             View.OnClickListener photoClickListener) {
@@ -97,24 +129,29 @@ public class StreamItemAdapter extends BaseAdapter {
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         if (position == 0) {
+            if (convertView != null) {
+                return convertView;
+            }
             return mInflater.inflate(R.layout.updates_header_contact, null);
         }
+        if (mHasMore && mOnLoadMoreListener != null
+                && position >= getCount() - LOAD_MORE_THRESHOLD) {
+            mOnLoadMoreListener.onLoadMore();
+        }
         final StreamItemEntry streamItem = (StreamItemEntry) getItem(position);
-        final AccountTypeManager manager = AccountTypeManager.getInstance(mContext);
-        final AccountType accountType =
-                manager.getAccountType(streamItem.getAccountType(), streamItem.getDataSet());
+        final AccountCapabilities capabilities = getAccountCapabilities(streamItem);
 
         final View view = ContactDetailDisplayUtils.createStreamItemView(
                 mInflater, mContext, convertView, streamItem,
                 // Only pass the photo click listener if the account type has the photo
                 // view activity.
-                (accountType.getViewStreamItemPhotoActivity() == null) ? null : mPhotoClickListener
+                capabilities.canViewStreamItemPhoto ? mPhotoClickListener : null
                 );
         final View contentView = view.findViewById(R.id.stream_item_content);
 
         // If the account type has the stream item view activity, make the stream container
         // clickable.
-        if (accountType.getViewStreamItemActivity() != null) {
+        if (capabilities.canViewStreamItem) {
             contentView.setTag(streamItem);
             contentView.setFocusable(true);
             contentView.setOnClickListener(mItemClickListener);
@@ -144,8 +181,50 @@ public class StreamItemAdapter extends BaseAdapter {
         return ITEM_VIEW_TYPE_STREAM_ITEM;
     }
 
+    private AccountCapabilities getAccountCapabilities(StreamItemEntry streamItem) {
+        final String key = streamItem.getAccountType() + "/" + streamItem.getDataSet();
+        AccountCapabilities capabilities = mAccountCapabilities.get(key);
+        if (capabilities == null) {
+            final AccountType accountType = AccountTypeManager.getInstance(mContext)
+                    .getAccountType(streamItem.getAccountType(), streamItem.getDataSet());
+            capabilities = new AccountCapabilities(accountType);
+            mAccountCapabilities.put(key, capabilities);
+        }
+        return capabilities;
+    }
+
+    public void setOnLoadMoreListener(OnLoadMoreListener listener) {
+        mOnLoadMoreListener = listener;
+    }
+
+    /**
+     * Appends a page of stream items, older than the ones already in the list.
+     * @param hasMore whether more stream items can be loaded after these
+     */
+    public void addStreamItems(List<StreamItemEntry> streamItems, boolean hasMore) {
+        mHasMore = hasMore;
+        if (streamItems.isEmpty()) {
+            return;
+        }
+        mStreamItems.addAll(streamItems);
+        notifyDataSetChanged();
+    }
+
     public void setStreamItems(List<StreamItemEntry> streamItems) {
-        mStreamItems = streamItems;
+        mStreamItems = Lists.newArrayList(streamItems);
+        mHasMore = false;
+        if (mDecodeTask != null) {
+            mDecodeTask.cancel(false);
+        }
+        // Decode the HTML of the stream items ahead of binding them. Items bound before this is
+        // done are decoded when they are bound.
+        mDecodeTask = StreamItemTextCache.decodeInBackground(mContext, streamItems,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mDecodeTask = null;
+                    }
+                });
         notifyDataSetChanged();
     }
 }
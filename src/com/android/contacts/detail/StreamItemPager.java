@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.detail;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.StreamItemPhotos;
+import android.provider.ContactsContract.StreamItems;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.contacts.util.StreamItemEntry;
+import com.android.contacts.util.StreamItemPhotoEntry;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Loads the stream items of a contact a page at a time, newest first, along with their photos
+ * and decoded text. Pages are queried by timestamp rather than by offset, so loading a page
+ * costs the same no matter how many were loaded before it.
+ *
+ * At most {@link #MAX_ITEMS} stream items are loaded, so that contacts with thousands of
+ * updates don't use up the memory.
+ */
+public class StreamItemPager {
+    private static final String TAG = "StreamItemPager";
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_ITEMS = 500;
+
+    private static final String SORT_ORDER =
+            StreamItems.TIMESTAMP + " DESC, " + StreamItems._ID + " DESC";
+
+    /** Items older than the given timestamp, or as old but with a lower ID. */
+    private static final String OLDER_THAN_SELECTION =
+            StreamItems.TIMESTAMP + "<? OR (" + StreamItems.TIMESTAMP + "=? AND "
+            + StreamItems._ID + "<?)";
+
+    public interface Listener {
+        /**
+         * Called on the main thread when a page has been loaded.
+         * @param page the stream items, newest first; may be empty
+         * @param hasMore whether older stream items can be loaded
+         */
+        void onPageLoaded(List<StreamItemEntry> page, boolean hasMore);
+    }
+
+    private final Context mContext;
+    private final Uri mStreamItemsUri;
+    private final boolean mIsUserProfile;
+    private final int mPageSize;
+    private final Listener mListener;
+
+    private long mOldestTimestamp;
+    private long mOldestId;
+    private int mLoadedCount;
+    private boolean mHasMore = true;
+    private PageTask mTask;
+
+    public StreamItemPager(Context context, Uri lookupUri, boolean isUserProfile, int pageSize,
+            Listener listener) {
+        mContext = context.getApplicationContext();
+        mStreamItemsUri = Uri.withAppendedPath(lookupUri, Contacts.StreamItems.CONTENT_DIRECTORY);
+        mIsUserProfile = isUserProfile;
+        mPageSize = pageSize;
+        mListener = listener;
+    }
+
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    public boolean isLoading() {
+        return mTask != null;
+    }
+
+    /**
+     * Starts loading the next page, unless one is loading already or all were loaded.
+     */
+    public void loadNextPage() {
+        if (mTask != null || !mHasMore) {
+            return;
+        }
+        final int limit = Math.min(mPageSize, MAX_ITEMS - mLoadedCount);
+        mTask = new PageTask(limit, mLoadedCount == 0, mOldestTimestamp, mOldestId);
+        mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Stops loading. The listener won't be called anymore.
+     */
+    public void close() {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        mHasMore = false;
+    }
+
+    private class PageTask extends AsyncTask<Void, Void, List<StreamItemEntry>> {
+        private final int mLimit;
+        private final boolean mFirstPage;
+        private final long mBeforeTimestamp;
+        private final long mBeforeId;
+
+        public PageTask(int limit, boolean firstPage, long beforeTimestamp, long beforeId) {
+            mLimit = limit;
+            mFirstPage = firstPage;
+            mBeforeTimestamp = beforeTimestamp;
+            mBeforeId = beforeId;
+        }
+
+        @Override
+        protected List<StreamItemEntry> doInBackground(Void... params) {
+            final ContentResolver resolver = mContext.getContentResolver();
+            final Uri uri = mStreamItemsUri.buildUpon()
+                    .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY,
+                            String.valueOf(mLimit))
+                    .build();
+            final String selection;
+            final String[] selectionArgs;
+            if (mFirstPage) {
+                selection = null;
+                selectionArgs = null;
+            } else {
+                final String timestamp = String.valueOf(mBeforeTimestamp);
+                selection = OLDER_THAN_SELECTION;
+                selectionArgs = new String[] { timestamp, timestamp, String.valueOf(mBeforeId) };
+            }
+
+            final List<StreamItemEntry> page = Lists.newArrayList();
+            final Cursor cursor = resolver.query(uri, null, selection, selectionArgs, SORT_ORDER);
+            if (cursor == null) {
+                Log.w(TAG, "Stream items query failed for " + mStreamItemsUri);
+                return page;
+            }
+            try {
+                while (cursor.moveToNext() && page.size() < mLimit) {
+                    page.add(new StreamItemEntry(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            if (isCancelled() || page.isEmpty()) {
+                return page;
+            }
+
+            loadPhotos(resolver, page);
+
+            // Decode the text here, so that binding the items doesn't have to.
+            for (StreamItemEntry streamItem : page) {
+                if (isCancelled()) break;
+                streamItem.decodeHtml(mContext);
+            }
+            return page;
+        }
+
+        @Override
+        protected void onPostExecute(List<StreamItemEntry> page) {
+            if (mTask != this) {
+                return;
+            }
+            mTask = null;
+            mLoadedCount += page.size();
+            if (!page.isEmpty()) {
+                final StreamItemEntry oldest = page.get(page.size() - 1);
+                mOldestTimestamp = oldest.getTimestamp();
+                mOldestId = oldest.getId();
+            }
+            mHasMore = page.size() == mLimit && mLoadedCount < MAX_ITEMS;
+            mListener.onPageLoaded(page, mHasMore);
+        }
+    }
+
+    /**
+     * Adds the photos of the given stream items to them.
+     */
+    private void loadPhotos(ContentResolver resolver, List<StreamItemEntry> page) {
+        final HashMap<Long, StreamItemEntry> streamItemsById =
+                new HashMap<Long, StreamItemEntry>(page.size());
+        for (StreamItemEntry streamItem : page) {
+            streamItemsById.put(streamItem.getId(), streamItem);
+        }
+
+        if (mIsUserProfile) {
+            // The profile's stream item photos can't be queried all at once.
+            for (StreamItemEntry streamItem : page) {
+                final Uri photoUri = ContentUris.withAppendedId(StreamItems.CONTENT_URI,
+                        streamItem.getId()).buildUpon()
+                        .appendPath(StreamItems.StreamItemPhotos.CONTENT_DIRECTORY)
+                        .build();
+                addPhotos(resolver.query(photoUri, null, null, null, null), streamItemsById);
+            }
+            return;
+        }
+
+        final String[] ids = new String[page.size()];
+        final String[] placeholders = new String[page.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.valueOf(page.get(i).getId());
+        }
+        Arrays.fill(placeholders, "?");
+        final String selection = StreamItemPhotos.STREAM_ITEM_ID + " IN ("
+                + TextUtils.join(",", placeholders) + ")";
+        addPhotos(resolver.query(StreamItems.CONTENT_PHOTO_URI, null, selection, ids, null),
+                streamItemsById);
+    }
+
+    private static void addPhotos(Cursor cursor, HashMap<Long, StreamItemEntry> streamItemsById) {
+        if (cursor == null) {
+            return;
+        }
+        try {
+            final int streamItemIdColumn =
+                    cursor.getColumnIndex(StreamItemPhotos.STREAM_ITEM_ID);
+            while (cursor.moveToNext()) {
+                final StreamItemEntry streamItem =
+                        streamItemsById.get(cursor.getLong(streamItemIdColumn));
+                if (streamItem != null) {
+                    streamItem.addPhoto(new StreamItemPhotoEntry(cursor));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -21,14 +21,16 @@ import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.OperationCanceledException;
 import android.os.Process;
+import android.os.SystemClock;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Nickname;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
-import android.provider.ContactsContract.CommonDataKinds.Photo;
 import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Contacts.AggregationSuggestions;
@@ -36,12 +38,18 @@ import android.provider.ContactsContract.Contacts.AggregationSuggestions.Builder
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.RawContacts;
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.android.contacts.common.model.ValuesDelta;
 import com.google.common.collect.Lists;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -75,14 +83,18 @@ public class AggregationSuggestionEngine extends HandlerThread {
         public String phoneNumber;
         public String emailAddress;
         public String nickname;
-        public byte[] photo;
+        /**
+         * The ID of the contact's photo, or 0 if it has none. The photo itself is only loaded
+         * when the suggestion is shown.
+         */
+        public long photoId;
         public List<RawContact> rawContacts;
 
         @Override
         public String toString() {
             return "ID: " + contactId + " rawContacts: " + rawContacts + " name: " + name
             + " phone: " + phoneNumber + " email: " + emailAddress + " nickname: "
-            + nickname + (photo != null ? " [has photo]" : "");
+            + nickname + (photoId != 0 ? " [has photo]" : "");
         }
     }
 
@@ -93,15 +105,16 @@ public class AggregationSuggestionEngine extends HandlerThread {
 
         @Override
         public void onChange(boolean selfChange) {
+            // Runs on the engine's thread. The data of the cached suggestions may have changed.
+            mSuggestionCache.clear();
+            mSuggestedContactIds = new long[0];
             scheduleSuggestionLookup();
         }
     }
 
     private static final int MESSAGE_RESET = 0;
     private static final int MESSAGE_NAME_CHANGE = 1;
-    private static final int MESSAGE_DATA_CURSOR = 2;
-
-    private static final long SUGGESTION_LOOKUP_DELAY_MILLIS = 300;
+    private static final int MESSAGE_SUGGESTIONS = 2;
 
     private static final int MAX_SUGGESTION_COUNT = 3;
 
@@ -109,11 +122,23 @@ public class AggregationSuggestionEngine extends HandlerThread {
 
     private long[] mSuggestedContactIds = new long[0];
 
+    /**
+     * Suggestions for the currently suggested contacts, keyed by contact ID. Only accessed on
+     * the engine's thread. When the suggested set changes, only the data of newly suggested
+     * contacts is queried.
+     */
+    private final HashMap<Long, Suggestion> mSuggestionCache = new HashMap<Long, Suggestion>();
+
+    private final SuggestionLookupScheduler mScheduler = new SuggestionLookupScheduler();
+
+    /** Cancels the lookup running on the engine's thread, if any. */
+    private volatile CancellationSignal mLookupCancellationSignal;
+
     private Handler mMainHandler;
     private Handler mHandler;
     private long mContactId;
     private Listener mListener;
-    private Cursor mDataCursor;
+    private List<Suggestion> mSuggestions = Collections.emptyList();
     private ContentObserver mContentObserver;
     private Uri mSuggestionsUri;
 
@@ -123,7 +148,9 @@ public class AggregationSuggestionEngine extends HandlerThread {
         mMainHandler = new Handler() {
             @Override
             public void handleMessage(Message msg) {
-                AggregationSuggestionEngine.this.deliverNotification((Cursor) msg.obj);
+                @SuppressWarnings("unchecked")
+                final List<Suggestion> suggestions = (List<Suggestion>) msg.obj;
+                AggregationSuggestionEngine.this.deliverNotification(suggestions);
             }
         };
     }
@@ -153,10 +180,13 @@ public class AggregationSuggestionEngine extends HandlerThread {
 
     @Override
     public boolean quit() {
-        if (mDataCursor != null) {
-            mDataCursor.close();
+        cancelLookup();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            final StringWriter stats = new StringWriter();
+            mScheduler.dump("", new PrintWriter(stats));
+            Log.d(TAG, "Lookup stats:\n" + stats);
         }
-        mDataCursor = null;
+        mSuggestions = Collections.emptyList();
         if (mContentObserver != null) {
             mContext.getContentResolver().unregisterContentObserver(mContentObserver);
             mContentObserver = null;
@@ -165,12 +195,14 @@ public class AggregationSuggestionEngine extends HandlerThread {
     }
 
     public void reset() {
+        cancelLookup();
         Handler handler = getHandler();
         handler.removeMessages(MESSAGE_NAME_CHANGE);
         handler.sendEmptyMessage(MESSAGE_RESET);
     }
 
     public void onNameChange(ValuesDelta values) {
+        mScheduler.onInput(SystemClock.uptimeMillis());
         mSuggestionsUri = buildAggregationSuggestionUri(values);
         if (mSuggestionsUri != null) {
             if (mContentObserver == null) {
@@ -189,12 +221,22 @@ public class AggregationSuggestionEngine extends HandlerThread {
         Handler handler = getHandler();
         handler.removeMessages(MESSAGE_NAME_CHANGE);
 
+        // Whatever lookup is running now is for an outdated name.
+        cancelLookup();
+
         if (mSuggestionsUri == null) {
             return;
         }
 
         Message msg = handler.obtainMessage(MESSAGE_NAME_CHANGE, mSuggestionsUri);
-        handler.sendMessageDelayed(msg, SUGGESTION_LOOKUP_DELAY_MILLIS);
+        handler.sendMessageDelayed(msg, mScheduler.getDelayMillis());
+    }
+
+    private void cancelLookup() {
+        final CancellationSignal signal = mLookupCancellationSignal;
+        if (signal != null) {
+            signal.cancel();
+        }
     }
 
     private Uri buildAggregationSuggestionUri(ValuesDelta values) {
@@ -248,9 +290,10 @@ public class AggregationSuggestionEngine extends HandlerThread {
         switch (msg.what) {
             case MESSAGE_RESET:
                 mSuggestedContactIds = new long[0];
+                mSuggestionCache.clear();
                 break;
             case MESSAGE_NAME_CHANGE:
-                loadAggregationSuggestions((Uri) msg.obj);
+                runLookup((Uri) msg.obj);
                 break;
         }
     }
@@ -262,8 +305,7 @@ public class AggregationSuggestionEngine extends HandlerThread {
                     + Phone.CONTENT_ITEM_TYPE + "','"
                     + Email.CONTENT_ITEM_TYPE + "','"
                     + StructuredName.CONTENT_ITEM_TYPE + "','"
-                    + Nickname.CONTENT_ITEM_TYPE + "','"
-                    + Photo.CONTENT_ITEM_TYPE + "')"
+                    + Nickname.CONTENT_ITEM_TYPE + "')"
                 + " AND " + Data.CONTACT_ID + " IN (";
 
         public static final String[] COLUMNS = {
@@ -276,7 +318,6 @@ public class AggregationSuggestionEngine extends HandlerThread {
             Data.MIMETYPE,
             Data.DATA1,
             Data.IS_SUPER_PRIMARY,
-            Photo.PHOTO,
             RawContacts.ACCOUNT_TYPE,
             RawContacts.ACCOUNT_NAME,
             RawContacts.DATA_SET
@@ -291,48 +332,115 @@ public class AggregationSuggestionEngine extends HandlerThread {
         public static final int MIMETYPE = 6;
         public static final int DATA1 = 7;
         public static final int IS_SUPERPRIMARY = 8;
-        public static final int PHOTO = 9;
-        public static final int ACCOUNT_TYPE = 10;
-        public static final int ACCOUNT_NAME = 11;
-        public static final int DATA_SET = 12;
+        public static final int ACCOUNT_TYPE = 9;
+        public static final int ACCOUNT_NAME = 10;
+        public static final int DATA_SET = 11;
     }
 
-    private void loadAggregationSuggestions(Uri uri) {
+    /**
+     * Loads suggestions for the given uri, and records how long it took and whether the result
+     * was used.
+     */
+    private void runLookup(Uri uri) {
+        final CancellationSignal signal = new CancellationSignal();
+        mLookupCancellationSignal = signal;
+        final long start = SystemClock.uptimeMillis();
+        try {
+            final boolean used = loadAggregationSuggestions(uri, signal);
+            final long latency = SystemClock.uptimeMillis() - start;
+            if (used) {
+                mScheduler.onLookupCompleted(latency);
+            } else {
+                mScheduler.onLookupWasted(latency, false);
+            }
+        } catch (OperationCanceledException e) {
+            // The suggested contact IDs may have been updated without their data being loaded,
+            // make sure the next lookup doesn't mistake them for current.
+            mSuggestedContactIds = new long[0];
+            mScheduler.onLookupWasted(SystemClock.uptimeMillis() - start, true);
+        } finally {
+            mLookupCancellationSignal = null;
+        }
+    }
+
+    /**
+     * @return false if the results were thrown away because a newer request is pending.
+     */
+    private boolean loadAggregationSuggestions(Uri uri, CancellationSignal signal) {
         ContentResolver contentResolver = mContext.getContentResolver();
-        Cursor cursor = contentResolver.query(uri, new String[]{Contacts._ID}, null, null, null);
+        Cursor cursor = contentResolver.query(uri, new String[]{Contacts._ID}, null, null, null,
+                signal);
         if (cursor == null) {
-            return;
+            return true;
         }
         try {
             // If a new request is pending, chuck the result of the previous request
             if (getHandler().hasMessages(MESSAGE_NAME_CHANGE)) {
-                return;
+                return false;
             }
 
             boolean changed = updateSuggestedContactIds(cursor);
             if (!changed) {
-                return;
+                return true;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Drop the contacts that are no longer suggested, and only load the data of the
+        // contacts that weren't suggested before.
+        final HashSet<Long> suggestedIds = new HashSet<Long>(mSuggestedContactIds.length);
+        for (long contactId : mSuggestedContactIds) {
+            suggestedIds.add(contactId);
+        }
+        mSuggestionCache.keySet().retainAll(suggestedIds);
+
+        final ArrayList<Long> addedIds = Lists.newArrayList();
+        for (long contactId : mSuggestedContactIds) {
+            if (!mSuggestionCache.containsKey(contactId)) {
+                addedIds.add(contactId);
             }
+        }
 
+        if (!addedIds.isEmpty()) {
             StringBuilder sb = new StringBuilder(DataQuery.SELECTION_PREFIX);
-            int count = mSuggestedContactIds.length;
+            int count = addedIds.size();
             for (int i = 0; i < count; i++) {
                 if (i > 0) {
                     sb.append(',');
                 }
-                sb.append(mSuggestedContactIds[i]);
+                sb.append(addedIds.get(i));
             }
             sb.append(')');
-            sb.toString();
 
             Cursor dataCursor = contentResolver.query(Data.CONTENT_URI,
-                    DataQuery.COLUMNS, sb.toString(), null, Data.CONTACT_ID);
-            if (dataCursor != null) {
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(MESSAGE_DATA_CURSOR, dataCursor));
+                    DataQuery.COLUMNS, sb.toString(), null, Data.CONTACT_ID, signal);
+            if (dataCursor == null) {
+                return true;
+            }
+            // Read into a separate map, so that a lookup canceled halfway through the cursor
+            // doesn't leave incomplete suggestions in the cache.
+            final HashMap<Long, Suggestion> added = new HashMap<Long, Suggestion>(count);
+            try {
+                readSuggestions(dataCursor, added);
+            } finally {
+                dataCursor.close();
+            }
+            mSuggestionCache.putAll(added);
+        }
+
+        // Suggestions are delivered in contact ID order, like the data query used to return
+        // them. Contacts without any data rows are not suggested.
+        final ArrayList<Suggestion> suggestions = Lists.newArrayList();
+        for (long contactId : mSuggestedContactIds) {
+            final Suggestion suggestion = mSuggestionCache.get(contactId);
+            if (suggestion != null) {
+                suggestions.add(suggestion);
             }
-        } finally {
-            cursor.close();
         }
+        mMainHandler.sendMessage(mMainHandler.obtainMessage(MESSAGE_SUGGESTIONS,
+                Collections.unmodifiableList(suggestions)));
+        return true;
     }
 
     private boolean updateSuggestedContactIds(Cursor cursor) {
@@ -361,78 +469,74 @@ public class AggregationSuggestionEngine extends HandlerThread {
         return changed;
     }
 
-    protected void deliverNotification(Cursor dataCursor) {
-        if (mDataCursor != null) {
-            mDataCursor.close();
-        }
-        mDataCursor = dataCursor;
+    protected void deliverNotification(List<Suggestion> suggestions) {
+        mSuggestions = suggestions;
         if (mListener != null) {
             mListener.onAggregationSuggestionChange();
         }
     }
 
     public int getSuggestedContactCount() {
-        return mDataCursor != null ? mDataCursor.getCount() : 0;
+        return mSuggestions.size();
     }
 
     public List<Suggestion> getSuggestions() {
-        ArrayList<Suggestion> list = Lists.newArrayList();
-        if (mDataCursor != null) {
-            Suggestion suggestion = null;
-            long currentContactId = -1;
-            mDataCursor.moveToPosition(-1);
-            while (mDataCursor.moveToNext()) {
-                long contactId = mDataCursor.getLong(DataQuery.CONTACT_ID);
-                if (contactId != currentContactId) {
-                    suggestion = new Suggestion();
-                    suggestion.contactId = contactId;
-                    suggestion.name = mDataCursor.getString(DataQuery.DISPLAY_NAME);
-                    suggestion.lookupKey = mDataCursor.getString(DataQuery.LOOKUP_KEY);
-                    suggestion.rawContacts = Lists.newArrayList();
-                    list.add(suggestion);
-                    currentContactId = contactId;
-                }
+        return mSuggestions;
+    }
 
-                long rawContactId = mDataCursor.getLong(DataQuery.RAW_CONTACT_ID);
-                if (!containsRawContact(suggestion, rawContactId)) {
-                    RawContact rawContact = new RawContact();
-                    rawContact.rawContactId = rawContactId;
-                    rawContact.accountName = mDataCursor.getString(DataQuery.ACCOUNT_NAME);
-                    rawContact.accountType = mDataCursor.getString(DataQuery.ACCOUNT_TYPE);
-                    rawContact.dataSet = mDataCursor.getString(DataQuery.DATA_SET);
-                    suggestion.rawContacts.add(rawContact);
-                }
+    /**
+     * Builds suggestions from a {@link DataQuery} cursor sorted by contact ID and adds them to
+     * the given map.
+     */
+    private void readSuggestions(Cursor dataCursor, HashMap<Long, Suggestion> suggestions) {
+        Suggestion suggestion = null;
+        long currentContactId = -1;
+        dataCursor.moveToPosition(-1);
+        while (dataCursor.moveToNext()) {
+            long contactId = dataCursor.getLong(DataQuery.CONTACT_ID);
+            if (contactId != currentContactId) {
+                suggestion = new Suggestion();
+                suggestion.contactId = contactId;
+                suggestion.name = dataCursor.getString(DataQuery.DISPLAY_NAME);
+                suggestion.lookupKey = dataCursor.getString(DataQuery.LOOKUP_KEY);
+                suggestion.photoId = dataCursor.getLong(DataQuery.PHOTO_ID);
+                suggestion.rawContacts = Lists.newArrayList();
+                suggestions.put(contactId, suggestion);
+                currentContactId = contactId;
+            }
 
-                String mimetype = mDataCursor.getString(DataQuery.MIMETYPE);
-                if (Phone.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    String data = mDataCursor.getString(DataQuery.DATA1);
-                    int superprimary = mDataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
-                    if (!TextUtils.isEmpty(data)
-                            && (superprimary != 0 || suggestion.phoneNumber == null)) {
-                        suggestion.phoneNumber = data;
-                    }
-                } else if (Email.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    String data = mDataCursor.getString(DataQuery.DATA1);
-                    int superprimary = mDataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
-                    if (!TextUtils.isEmpty(data)
-                            && (superprimary != 0 || suggestion.emailAddress == null)) {
-                        suggestion.emailAddress = data;
-                    }
-                } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    String data = mDataCursor.getString(DataQuery.DATA1);
-                    if (!TextUtils.isEmpty(data)) {
-                        suggestion.nickname = data;
-                    }
-                } else if (Photo.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    long dataId = mDataCursor.getLong(DataQuery.ID);
-                    long photoId = mDataCursor.getLong(DataQuery.PHOTO_ID);
-                    if (dataId == photoId && !mDataCursor.isNull(DataQuery.PHOTO)) {
-                        suggestion.photo = mDataCursor.getBlob(DataQuery.PHOTO);
-                    }
+            long rawContactId = dataCursor.getLong(DataQuery.RAW_CONTACT_ID);
+            if (!containsRawContact(suggestion, rawContactId)) {
+                RawContact rawContact = new RawContact();
+                rawContact.rawContactId = rawContactId;
+                rawContact.accountName = dataCursor.getString(DataQuery.ACCOUNT_NAME);
+                rawContact.accountType = dataCursor.getString(DataQuery.ACCOUNT_TYPE);
+                rawContact.dataSet = dataCursor.getString(DataQuery.DATA_SET);
+                suggestion.rawContacts.add(rawContact);
+            }
+
+            String mimetype = dataCursor.getString(DataQuery.MIMETYPE);
+            if (Phone.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                String data = dataCursor.getString(DataQuery.DATA1);
+                int superprimary = dataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
+                if (!TextUtils.isEmpty(data)
+                        && (superprimary != 0 || suggestion.phoneNumber == null)) {
+                    suggestion.phoneNumber = data;
+                }
+            } else if (Email.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                String data = dataCursor.getString(DataQuery.DATA1);
+                int superprimary = dataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
+                if (!TextUtils.isEmpty(data)
+                        && (superprimary != 0 || suggestion.emailAddress == null)) {
+                    suggestion.emailAddress = data;
+                }
+            } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                String data = dataCursor.getString(DataQuery.DATA1);
+                if (!TextUtils.isEmpty(data)) {
+                    suggestion.nickname = data;
                 }
             }
         }
-        return list;
     }
 
     public boolean containsRawContact(Suggestion suggestion, long rawContactId) {
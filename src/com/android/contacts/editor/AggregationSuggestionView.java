@@ -17,7 +17,6 @@
 package com.android.contacts.editor;
 
 import android.content.Context;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.provider.ContactsContract.Contacts;
 import android.util.AttributeSet;
@@ -84,13 +83,8 @@ public class AggregationSuggestionView extends LinearLayout {
         mLookupKey = suggestion.lookupKey;
         mRawContacts = suggestion.rawContacts;
         ImageView photo = (ImageView) findViewById(R.id.aggregation_suggestion_photo);
-        if (suggestion.photo != null) {
-            photo.setImageBitmap(BitmapFactory.decodeByteArray(
-                    suggestion.photo, 0, suggestion.photo.length));
-        } else {
-            photo.setImageDrawable(ContactPhotoManager.getDefaultAvatarDrawableForContact(
-                    getResources(), false, null));
-        }
+        ContactPhotoManager.getInstance(getContext()).loadThumbnail(
+                photo, suggestion.photoId, false, null);
 
         TextView name = (TextView) findViewById(R.id.aggregation_suggestion_name);
         name.setText(suggestion.name);
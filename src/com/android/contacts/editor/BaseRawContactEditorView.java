@@ -17,7 +17,6 @@
 package com.android.contacts.editor;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
 import android.provider.ContactsContract.Data;
@@ -27,6 +26,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
+import com.android.contacts.GroupMetaDataIndex;
 import com.android.contacts.R;
 import com.android.contacts.common.model.RawContactDelta;
 import com.android.contacts.common.model.ValuesDelta;
@@ -72,7 +72,7 @@ public abstract class BaseRawContactEditorView extends LinearLayout {
         mPhoto.setEnabled(isEnabled());
     }
 
-    public void setGroupMetaData(Cursor groupMetaData) {
+    public void setGroupMetaData(GroupMetaDataIndex groupMetaData) {
     }
 
     /**
@@ -27,11 +27,9 @@ import android.app.LoaderManager.LoaderCallbacks;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -44,7 +42,6 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
 import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
 import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.Groups;
 import android.provider.ContactsContract.Intents;
 import android.provider.ContactsContract.RawContacts;
 import android.text.TextUtils;
@@ -63,11 +60,12 @@ import android.widget.ListPopupWindow;
 import android.widget.Toast;
 
 import com.android.contacts.ContactSaveService;
-import com.android.contacts.GroupMetaDataLoader;
+import com.android.contacts.GroupMetaDataIndex;
 import com.android.contacts.R;
 import com.android.contacts.activities.ContactEditorAccountsChangedActivity;
 import com.android.contacts.activities.ContactEditorActivity;
 import com.android.contacts.activities.JoinContactActivity;
+import com.android.contacts.common.ContactsUtils;
 import com.android.contacts.common.model.AccountTypeManager;
 import com.android.contacts.common.model.ValuesDelta;
 import com.android.contacts.common.model.account.AccountType;
@@ -84,8 +82,9 @@ import com.android.contacts.common.model.RawContact;
 import com.android.contacts.common.model.RawContactDelta;
 import com.android.contacts.common.model.RawContactDeltaList;
 import com.android.contacts.common.model.RawContactModifier;
-import com.android.contacts.util.ContactPhotoUtils;
 import com.android.contacts.util.HelpUtils;
+import com.android.contacts.util.PhotoIngest;
+import com.android.contacts.util.TempPhotoManager;
 import com.android.contacts.util.UiClosables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -219,7 +218,7 @@ public class ContactEditorFragment extends Fragment implements
 
     private final EntityDeltaComparator mComparator = new EntityDeltaComparator();
 
-    private Cursor mGroupMetaData;
+    private GroupMetaDataIndex mGroupMetaData;
 
     private Uri mCurrentPhotoUri;
     private Bundle mUpdatedPhotos = new Bundle();
@@ -1782,12 +1781,8 @@ public class ContactEditorFragment extends Fragment implements
                 } else {
                     final long rawContactId = entity.getRawContactId();
                     final Uri uri = mUpdatedPhotos.getParcelable(String.valueOf(rawContactId));
-                    if (uri != null) {
-                        try {
-                            mContext.getContentResolver().openInputStream(uri);
-                            countWithPicture++;
-                        } catch (FileNotFoundException e) {
-                        }
+                    if (uri != null && TempPhotoManager.getInstance(mContext).exists(uri)) {
+                        countWithPicture++;
                     }
                 }
 
@@ -1836,24 +1831,25 @@ public class ContactEditorFragment extends Fragment implements
     };
 
     /**
-     * The listener for the group meta data loader for all groups.
+     * The listener for the group meta data loader for all groups. The groups are indexed once
+     * per load, and the index is shared by all raw contact editors.
      */
-    private final LoaderManager.LoaderCallbacks<Cursor> mGroupLoaderListener =
-            new LoaderCallbacks<Cursor>() {
+    private final LoaderManager.LoaderCallbacks<GroupMetaDataIndex> mGroupLoaderListener =
+            new LoaderCallbacks<GroupMetaDataIndex>() {
 
         @Override
-        public CursorLoader onCreateLoader(int id, Bundle args) {
-            return new GroupMetaDataLoader(mContext, Groups.CONTENT_URI);
+        public Loader<GroupMetaDataIndex> onCreateLoader(int id, Bundle args) {
+            return new GroupMetaDataIndex.Loader(mContext);
         }
 
         @Override
-        public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        public void onLoadFinished(Loader<GroupMetaDataIndex> loader, GroupMetaDataIndex data) {
             mGroupMetaData = data;
             bindGroupMetaData();
         }
 
         @Override
-        public void onLoaderReset(Loader<Cursor> loader) {
+        public void onLoaderReset(Loader<GroupMetaDataIndex> loader) {
         }
     };
 
@@ -1957,7 +1953,10 @@ public class ContactEditorFragment extends Fragment implements
 
             @Override
             public void onPhotoSelected(Uri uri) throws FileNotFoundException {
-                final Bitmap bitmap = ContactPhotoUtils.getBitmapFromUri(mContext, uri);
+                // The editor only shows the photo at about the thumbnail size; the full
+                // resolution photo is saved from the uri.
+                final Bitmap bitmap = PhotoIngest.decodeSampled(mContext, uri,
+                        ContactsUtils.getThumbnailSize(mContext));
                 setPhoto(mRawContactId, bitmap, uri);
                 mCurrentPhotoHandler = null;
                 bindEditors();
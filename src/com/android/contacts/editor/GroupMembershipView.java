@@ -19,7 +19,6 @@ package com.android.contacts.editor;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -35,7 +34,8 @@ import android.widget.ListPopupWindow;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import com.android.contacts.GroupMetaDataLoader;
+import com.android.contacts.GroupMetaDataIndex;
+import com.android.contacts.GroupMetaDataIndex.AccountGroups;
 import com.android.contacts.R;
 import com.android.contacts.common.model.dataitem.DataKind;
 import com.android.contacts.interactions.GroupCreationDialogFragment;
@@ -43,10 +43,11 @@ import com.android.contacts.interactions.GroupCreationDialogFragment.OnGroupCrea
 import com.android.contacts.common.model.RawContactDelta;
 import com.android.contacts.common.model.ValuesDelta;
 import com.android.contacts.common.model.RawContactModifier;
+import com.android.contacts.util.LongHashSet;
 import com.android.contacts.util.UiClosables;
-import com.google.common.base.Objects;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * An editor for group membership.  Displays the current group membership list and
@@ -128,7 +129,8 @@ public class GroupMembershipView extends LinearLayout
     }
 
     private RawContactDelta mState;
-    private Cursor mGroupMetaData;
+    private GroupMetaDataIndex mGroupMetaData;
+    private AccountGroups mAccountGroups;
     private String mAccountName;
     private String mAccountType;
     private String mDataSet;
@@ -177,7 +179,7 @@ public class GroupMembershipView extends LinearLayout
         kindTitle.setText(getResources().getString(kind.titleRes).toUpperCase());
     }
 
-    public void setGroupMetaData(Cursor groupMetaData) {
+    public void setGroupMetaData(GroupMetaDataIndex groupMetaData) {
         this.mGroupMetaData = groupMetaData;
         updateView();
         // Open up the list of groups if a new group was just created.
@@ -208,53 +210,49 @@ public class GroupMembershipView extends LinearLayout
     }
 
     private void updateView() {
-        if (mGroupMetaData == null || mGroupMetaData.isClosed() || mAccountType == null
-                || mAccountName == null) {
+        if (mGroupMetaData == null || mAccountType == null || mAccountName == null) {
             setVisibility(GONE);
             return;
         }
 
-        boolean accountHasGroups = false;
-        mFavoritesGroupId = 0;
-        mDefaultGroupId = 0;
-
-        StringBuilder sb = new StringBuilder();
-        mGroupMetaData.moveToPosition(-1);
-        while (mGroupMetaData.moveToNext()) {
-            String accountName = mGroupMetaData.getString(GroupMetaDataLoader.ACCOUNT_NAME);
-            String accountType = mGroupMetaData.getString(GroupMetaDataLoader.ACCOUNT_TYPE);
-            String dataSet = mGroupMetaData.getString(GroupMetaDataLoader.DATA_SET);
-            if (accountName.equals(mAccountName) && accountType.equals(mAccountType)
-                    && Objects.equal(dataSet, mDataSet)) {
-                long groupId = mGroupMetaData.getLong(GroupMetaDataLoader.GROUP_ID);
-                if (!mGroupMetaData.isNull(GroupMetaDataLoader.FAVORITES)
-                        && mGroupMetaData.getInt(GroupMetaDataLoader.FAVORITES) != 0) {
-                    mFavoritesGroupId = groupId;
-                } else if (!mGroupMetaData.isNull(GroupMetaDataLoader.AUTO_ADD)
-                            && mGroupMetaData.getInt(GroupMetaDataLoader.AUTO_ADD) != 0) {
-                    mDefaultGroupId = groupId;
-                } else {
-                    accountHasGroups = true;
-                }
+        mAccountGroups = mGroupMetaData.getAccountGroups(mAccountType, mAccountName, mDataSet);
+        if (mAccountGroups == null) {
+            mFavoritesGroupId = 0;
+            mDefaultGroupId = 0;
+            setVisibility(GONE);
+            return;
+        }
+        mFavoritesGroupId = mAccountGroups.getFavoritesGroupId();
+        mDefaultGroupId = mAccountGroups.getDefaultGroupId();
+        if (!mAccountGroups.hasGroups()) {
+            setVisibility(GONE);
+            return;
+        }
 
-                // Exclude favorites from the list - they are handled with special UI (star)
-                // Also exclude the default group.
-                if (groupId != mFavoritesGroupId && groupId != mDefaultGroupId
-                        && hasMembership(groupId)) {
-                    String title = mGroupMetaData.getString(GroupMetaDataLoader.TITLE);
-                    if (!TextUtils.isEmpty(title)) {
-                        if (sb.length() != 0) {
-                            sb.append(", ");
-                        }
-                        sb.append(title);
-                    }
-                }
+        // Look up the groups of the memberships rather than checking each group of the account
+        // for membership. Favorites are handled with special UI (star) and the default group is
+        // implied, so neither is listed.
+        final long[] memberships = getMemberships().toArray();
+        final int[] positions = new int[memberships.length];
+        int count = 0;
+        for (long groupId : memberships) {
+            final int position = mGroupMetaData.getPosition(mAccountGroups, groupId);
+            if (position != -1 && !mGroupMetaData.isSpecial(mAccountGroups, position)) {
+                positions[count++] = position;
             }
         }
+        // List the groups in the order they were loaded in.
+        Arrays.sort(positions, 0, count);
 
-        if (!accountHasGroups) {
-            setVisibility(GONE);
-            return;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String title = mGroupMetaData.getTitle(mAccountGroups, positions[i]);
+            if (!TextUtils.isEmpty(title)) {
+                if (sb.length() != 0) {
+                    sb.append(", ");
+                }
+                sb.append(title);
+            }
         }
 
         if (mGroupList == null) {
@@ -274,7 +272,8 @@ public class GroupMembershipView extends LinearLayout
 
         if (!mDefaultGroupVisibilityKnown) {
             // Only show the default group (My Contacts) if the contact is NOT in it
-            mDefaultGroupVisible = mDefaultGroupId != 0 && !hasMembership(mDefaultGroupId);
+            mDefaultGroupVisible = mDefaultGroupId != 0
+                    && !hasMembership(mDefaultGroupId, getMemberships());
             mDefaultGroupVisibilityKnown = true;
         }
     }
@@ -289,20 +288,15 @@ public class GroupMembershipView extends LinearLayout
         mAdapter = new GroupMembershipAdapter<GroupSelectionItem>(
                 getContext(), R.layout.group_membership_list_item);
 
-        mGroupMetaData.moveToPosition(-1);
-        while (mGroupMetaData.moveToNext()) {
-            String accountName = mGroupMetaData.getString(GroupMetaDataLoader.ACCOUNT_NAME);
-            String accountType = mGroupMetaData.getString(GroupMetaDataLoader.ACCOUNT_TYPE);
-            String dataSet = mGroupMetaData.getString(GroupMetaDataLoader.DATA_SET);
-            if (accountName.equals(mAccountName) && accountType.equals(mAccountType)
-                    && Objects.equal(dataSet, mDataSet)) {
-                long groupId = mGroupMetaData.getLong(GroupMetaDataLoader.GROUP_ID);
-                if (groupId != mFavoritesGroupId
-                        && (groupId != mDefaultGroupId || mDefaultGroupVisible)) {
-                    String title = mGroupMetaData.getString(GroupMetaDataLoader.TITLE);
-                    boolean checked = hasMembership(groupId);
-                    mAdapter.add(new GroupSelectionItem(groupId, title, checked));
-                }
+        final LongHashSet memberships = getMemberships();
+        final int groupCount = mGroupMetaData.getGroupCount(mAccountGroups);
+        for (int i = 0; i < groupCount; i++) {
+            long groupId = mGroupMetaData.getGroupId(mAccountGroups, i);
+            if (groupId != mFavoritesGroupId
+                    && (groupId != mDefaultGroupId || mDefaultGroupVisible)) {
+                String title = mGroupMetaData.getTitle(mAccountGroups, i);
+                boolean checked = hasMembership(groupId, memberships);
+                mAdapter.add(new GroupSelectionItem(groupId, title, checked));
             }
         }
 
@@ -345,8 +339,13 @@ public class GroupMembershipView extends LinearLayout
             return;
         }
 
+        final LongHashSet checkedGroupIds = new LongHashSet(count);
         for (int i = 0; i < count; i++) {
-            mAdapter.getItem(i).setChecked(list.isItemChecked(i));
+            GroupSelectionItem item = mAdapter.getItem(i);
+            item.setChecked(list.isItemChecked(i));
+            if (item.isChecked()) {
+                checkedGroupIds.add(item.getGroupId());
+            }
         }
 
         // First remove the memberships that have been unchecked
@@ -357,7 +356,7 @@ public class GroupMembershipView extends LinearLayout
                     Long groupId = entry.getGroupRowId();
                     if (groupId != null && groupId != mFavoritesGroupId
                             && (groupId != mDefaultGroupId || mDefaultGroupVisible)
-                            && !isGroupChecked(groupId)) {
+                            && !checkedGroupIds.contains(groupId)) {
                         entry.markDeleted();
                     }
                 }
@@ -365,10 +364,11 @@ public class GroupMembershipView extends LinearLayout
         }
 
         // Now add the newly selected items
+        final LongHashSet memberships = getMemberships();
         for (int i = 0; i < count; i++) {
             GroupSelectionItem item = mAdapter.getItem(i);
             long groupId = item.getGroupId();
-            if (item.isChecked() && !hasMembership(groupId)) {
+            if (item.isChecked() && !hasMembership(groupId, memberships)) {
                 ValuesDelta entry = RawContactModifier.insertChild(mState, mKind);
                 if (entry != null) {
                     entry.setGroupRowId(groupId);
@@ -379,34 +379,31 @@ public class GroupMembershipView extends LinearLayout
         updateView();
     }
 
-    private boolean isGroupChecked(long groupId) {
-        int count = mAdapter.getCount();
-        for (int i = 0; i < count; i++) {
-            GroupSelectionItem item = mAdapter.getItem(i);
-            if (groupId == item.getGroupId()) {
-                return item.isChecked();
-            }
-        }
-        return false;
-    }
-
-    private boolean hasMembership(long groupId) {
+    private boolean hasMembership(long groupId, LongHashSet memberships) {
         if (groupId == mDefaultGroupId && mState.isContactInsert()) {
             return true;
         }
+        return memberships.contains(groupId);
+    }
 
+    /**
+     * Returns the IDs of the groups the raw contact is in, not counting deleted memberships.
+     */
+    private LongHashSet getMemberships() {
         ArrayList<ValuesDelta> entries = mState.getMimeEntries(GroupMembership.CONTENT_ITEM_TYPE);
-        if (entries != null) {
-            for (ValuesDelta values : entries) {
-                if (!values.isDelete()) {
-                    Long id = values.getGroupRowId();
-                    if (id != null && id == groupId) {
-                        return true;
-                    }
+        if (entries == null) {
+            return new LongHashSet();
+        }
+        final LongHashSet memberships = new LongHashSet(entries.size());
+        for (ValuesDelta values : entries) {
+            if (!values.isDelete()) {
+                Long id = values.getGroupRowId();
+                if (id != null) {
+                    memberships.add(id);
                 }
             }
         }
-        return false;
+        return memberships;
     }
 
     private void createNewGroup() {
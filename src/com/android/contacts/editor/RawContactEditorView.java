@@ -17,7 +17,6 @@
 package com.android.contacts.editor;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
@@ -38,7 +37,8 @@ import android.widget.ImageView;
 import android.widget.PopupMenu;
 import android.widget.TextView;
 
-import com.android.contacts.GroupMetaDataLoader;
+import com.android.contacts.GroupMetaDataIndex;
+import com.android.contacts.GroupMetaDataIndex.AccountGroups;
 import com.android.contacts.R;
 import com.android.contacts.common.model.account.AccountType;
 import com.android.contacts.common.model.account.AccountType.EditType;
@@ -46,7 +46,6 @@ import com.android.contacts.common.model.dataitem.DataKind;
 import com.android.contacts.common.model.RawContactDelta;
 import com.android.contacts.common.model.ValuesDelta;
 import com.android.contacts.common.model.RawContactModifier;
-import com.google.common.base.Objects;
 
 import java.util.ArrayList;
 
@@ -86,7 +85,7 @@ public class RawContactEditorView extends BaseRawContactEditorView {
 
     private long mRawContactId = -1;
     private boolean mAutoAddToDefaultGroup = true;
-    private Cursor mGroupMetaData;
+    private GroupMetaDataIndex mGroupMetaData;
     private DataKind mGroupMembershipKind;
     private RawContactDelta mState;
 
@@ -351,7 +350,7 @@ public class RawContactEditorView extends BaseRawContactEditorView {
     }
 
     @Override
-    public void setGroupMetaData(Cursor groupMetaData) {
+    public void setGroupMetaData(GroupMetaDataIndex groupMetaData) {
         mGroupMetaData = groupMetaData;
         addToDefaultGroupIfNeeded();
         if (mGroupMembershipView != null) {
@@ -370,8 +369,7 @@ public class RawContactEditorView extends BaseRawContactEditorView {
      * contacts that's "My Contacts").
      */
     private void addToDefaultGroupIfNeeded() {
-        if (!mAutoAddToDefaultGroup || mGroupMetaData == null || mGroupMetaData.isClosed()
-                || mState == null) {
+        if (!mAutoAddToDefaultGroup || mGroupMetaData == null || mState == null) {
             return;
         }
 
@@ -403,24 +401,12 @@ public class RawContactEditorView extends BaseRawContactEditorView {
      * account.  Returns -1 if there is no such group.
      */
     private long getDefaultGroupId() {
-        String accountType = mState.getAccountType();
-        String accountName = mState.getAccountName();
-        String accountDataSet = mState.getDataSet();
-        mGroupMetaData.moveToPosition(-1);
-        while (mGroupMetaData.moveToNext()) {
-            String name = mGroupMetaData.getString(GroupMetaDataLoader.ACCOUNT_NAME);
-            String type = mGroupMetaData.getString(GroupMetaDataLoader.ACCOUNT_TYPE);
-            String dataSet = mGroupMetaData.getString(GroupMetaDataLoader.DATA_SET);
-            if (name.equals(accountName) && type.equals(accountType)
-                    && Objects.equal(dataSet, accountDataSet)) {
-                long groupId = mGroupMetaData.getLong(GroupMetaDataLoader.GROUP_ID);
-                if (!mGroupMetaData.isNull(GroupMetaDataLoader.AUTO_ADD)
-                            && mGroupMetaData.getInt(GroupMetaDataLoader.AUTO_ADD) != 0) {
-                    return groupId;
-                }
-            }
+        final AccountGroups accountGroups = mGroupMetaData.getAccountGroups(
+                mState.getAccountType(), mState.getAccountName(), mState.getDataSet());
+        if (accountGroups == null || accountGroups.getDefaultGroupId() == 0) {
+            return -1;
         }
-        return -1;
+        return accountGroups.getDefaultGroupId();
     }
 
     public StructuredNameEditorView getNameEditor() {
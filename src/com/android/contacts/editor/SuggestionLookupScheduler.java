@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.editor;
+
+import java.io.PrintWriter;
+
+/**
+ * Decides how long {@link AggregationSuggestionEngine} waits after a name change before looking
+ * up suggestions, and keeps track of lookups whose results were thrown away.
+ *
+ * A lookup started between two keystrokes is wasted, so the delay follows the user's typing
+ * cadence: slightly longer than the typical interval between keystrokes. When lookups are cheap
+ * compared to that interval, wasting one costs little and the delay is shortened accordingly,
+ * so fast devices show suggestions sooner.
+ */
+final class SuggestionLookupScheduler {
+    static final long INITIAL_DELAY_MILLIS = 300;
+    static final long MIN_DELAY_MILLIS = 100;
+    static final long MAX_DELAY_MILLIS = 800;
+
+    /** Keystrokes further apart than this are a pause, not part of the typing cadence. */
+    static final long MAX_TYPING_INTERVAL_MILLIS = 2000;
+
+    /** Lookups taking at least this long get the full, cadence-based delay. */
+    static final long EXPENSIVE_LOOKUP_MILLIS = 100;
+
+    /** Upper bounds (exclusive) of the wasted lookup histogram buckets, in milliseconds. */
+    static final long[] WASTED_BUCKET_BOUNDS = { 25, 50, 100, 200, 400, 800 };
+
+    /** Weight of the newest sample in the moving averages. */
+    private static final float SMOOTHING = 0.25f;
+
+    private long mLastInputMillis = -1;
+    private float mTypingIntervalMillis = -1;
+    private float mLookupLatencyMillis = -1;
+
+    private int mCompletedCount;
+    private int mCancelledCount;
+    private int mDiscardedCount;
+    private long mWastedMillis;
+    private final int[] mWastedHistogram = new int[WASTED_BUCKET_BOUNDS.length + 1];
+
+    /**
+     * Records a name change at the given time.
+     */
+    public synchronized void onInput(long nowMillis) {
+        if (mLastInputMillis >= 0) {
+            final long interval = nowMillis - mLastInputMillis;
+            if (interval >= 0 && interval < MAX_TYPING_INTERVAL_MILLIS) {
+                mTypingIntervalMillis = average(mTypingIntervalMillis, interval);
+            }
+        }
+        mLastInputMillis = nowMillis;
+    }
+
+    /**
+     * Records a lookup whose results were used.
+     */
+    public synchronized void onLookupCompleted(long latencyMillis) {
+        mCompletedCount++;
+        mLookupLatencyMillis = average(mLookupLatencyMillis, latencyMillis);
+    }
+
+    /**
+     * Records a lookup whose results were not used because a newer name arrived.
+     * @param latencyMillis time spent on the lookup before it was abandoned
+     * @param cancelled true if the provider query was cancelled, false if it ran to completion
+     *     and its results were discarded
+     */
+    public synchronized void onLookupWasted(long latencyMillis, boolean cancelled) {
+        if (cancelled) {
+            mCancelledCount++;
+        } else {
+            mDiscardedCount++;
+            // Only complete lookups tell us how long a lookup takes.
+            mLookupLatencyMillis = average(mLookupLatencyMillis, latencyMillis);
+        }
+        mWastedMillis += latencyMillis;
+        int bucket = 0;
+        while (bucket < WASTED_BUCKET_BOUNDS.length
+                && latencyMillis >= WASTED_BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        mWastedHistogram[bucket]++;
+    }
+
+    /**
+     * @return how long to wait after the latest name change before looking up suggestions.
+     */
+    public synchronized long getDelayMillis() {
+        if (mTypingIntervalMillis < 0) {
+            return INITIAL_DELAY_MILLIS;
+        }
+        float delay = mTypingIntervalMillis * 1.2f;
+        if (mLookupLatencyMillis >= 0 && mLookupLatencyMillis < EXPENSIVE_LOOKUP_MILLIS) {
+            delay *= mLookupLatencyMillis / EXPENSIVE_LOOKUP_MILLIS;
+        }
+        return Math.max(MIN_DELAY_MILLIS, Math.min(MAX_DELAY_MILLIS, (long) delay));
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("delayMs=");
+        writer.print(getDelayMillis());
+        writer.print(" typingIntervalMs=");
+        writer.print((long) mTypingIntervalMillis);
+        writer.print(" lookupLatencyMs=");
+        writer.println((long) mLookupLatencyMillis);
+        writer.print(prefix);
+        writer.print("completed=");
+        writer.print(mCompletedCount);
+        writer.print(" cancelled=");
+        writer.print(mCancelledCount);
+        writer.print(" discarded=");
+        writer.print(mDiscardedCount);
+        writer.print(" wastedMs=");
+        writer.println(mWastedMillis);
+        writer.print(prefix);
+        writer.print("wasted:");
+        for (int i = 0; i < mWastedHistogram.length; i++) {
+            writer.print(i < WASTED_BUCKET_BOUNDS.length ? " <" + WASTED_BUCKET_BOUNDS[i] : " >="
+                    + WASTED_BUCKET_BOUNDS[WASTED_BUCKET_BOUNDS.length - 1]);
+            writer.print("ms=");
+            writer.print(mWastedHistogram[i]);
+        }
+        writer.println();
+    }
+
+    private static float average(float average, long sample) {
+        return average < 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+}
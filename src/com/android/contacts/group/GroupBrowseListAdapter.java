@@ -18,7 +18,6 @@ package com.android.contacts.group;
 
 import android.content.ContentUris;
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract.Groups;
 import android.view.LayoutInflater;
@@ -27,11 +26,9 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import com.android.contacts.GroupListLoader;
 import com.android.contacts.R;
 import com.android.contacts.common.model.account.AccountType;
 import com.android.contacts.common.model.AccountTypeManager;
-import com.google.common.base.Objects;
 
 /**
  * Adapter to populate the list of groups.
@@ -42,7 +39,7 @@ public class GroupBrowseListAdapter extends BaseAdapter {
     private final LayoutInflater mLayoutInflater;
     private final AccountTypeManager mAccountTypeManager;
 
-    private Cursor mCursor;
+    private GroupListModel mGroupList;
 
     private boolean mSelectionVisible;
     private Uri mSelectedGroupUri;
@@ -53,36 +50,34 @@ public class GroupBrowseListAdapter extends BaseAdapter {
         mAccountTypeManager = AccountTypeManager.getInstance(mContext);
     }
 
-    public void setCursor(Cursor cursor) {
-        mCursor = cursor;
+    public void setGroupList(GroupListModel groupList) {
+        mGroupList = groupList;
 
-        // If there's no selected group already and the cursor is valid, then by default, select the
-        // first group
-        if (mSelectedGroupUri == null && cursor != null && cursor.getCount() > 0) {
-            GroupListItem firstItem = getItem(0);
-            long groupId = (firstItem == null) ? 0 : firstItem.getGroupId();
-            mSelectedGroupUri = getGroupUriFromId(groupId);
+        // If there's no selected group already and the list is not empty, then by default, select
+        // the first group
+        if (mSelectedGroupUri == null && groupList != null && groupList.getCount() > 0) {
+            mSelectedGroupUri = getGroupUriFromId(groupList.getGroupId(0));
         }
 
         notifyDataSetChanged();
     }
 
     public int getSelectedGroupPosition() {
-        if (mSelectedGroupUri == null || mCursor == null || mCursor.getCount() == 0) {
+        if (mSelectedGroupUri == null || mGroupList == null || mGroupList.getCount() == 0) {
             return -1;
         }
 
-        int index = 0;
-        mCursor.moveToPosition(-1);
-        while (mCursor.moveToNext()) {
-            long groupId = mCursor.getLong(GroupListLoader.GROUP_ID);
-            Uri uri = getGroupUriFromId(groupId);
-            if (mSelectedGroupUri.equals(uri)) {
-                  return index;
-            }
-            index++;
+        final long groupId;
+        try {
+            groupId = ContentUris.parseId(mSelectedGroupUri);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        // Only plain group URIs are in the list.
+        if (!mSelectedGroupUri.equals(getGroupUriFromId(groupId))) {
+            return -1;
         }
-        return -1;
+        return mGroupList.getPosition(groupId);
     }
 
     public void setSelectionVisible(boolean flag) {
@@ -103,7 +98,7 @@ public class GroupBrowseListAdapter extends BaseAdapter {
 
     @Override
     public int getCount() {
-        return (mCursor == null || mCursor.isClosed()) ? 0 : mCursor.getCount();
+        return mGroupList == null ? 0 : mGroupList.getCount();
     }
 
     @Override
@@ -113,35 +108,13 @@ public class GroupBrowseListAdapter extends BaseAdapter {
 
     @Override
     public GroupListItem getItem(int position) {
-        if (mCursor == null || mCursor.isClosed() || !mCursor.moveToPosition(position)) {
+        if (mGroupList == null || position < 0 || position >= mGroupList.getCount()) {
             return null;
         }
-        String accountName = mCursor.getString(GroupListLoader.ACCOUNT_NAME);
-        String accountType = mCursor.getString(GroupListLoader.ACCOUNT_TYPE);
-        String dataSet = mCursor.getString(GroupListLoader.DATA_SET);
-        long groupId = mCursor.getLong(GroupListLoader.GROUP_ID);
-        String title = mCursor.getString(GroupListLoader.TITLE);
-        int memberCount = mCursor.getInt(GroupListLoader.MEMBER_COUNT);
-
-        // Figure out if this is the first group for this account name / account type pair by
-        // checking the previous entry. This is to determine whether or not we need to display an
-        // account header in this item.
-        int previousIndex = position - 1;
-        boolean isFirstGroupInAccount = true;
-        if (previousIndex >= 0 && mCursor.moveToPosition(previousIndex)) {
-            String previousGroupAccountName = mCursor.getString(GroupListLoader.ACCOUNT_NAME);
-            String previousGroupAccountType = mCursor.getString(GroupListLoader.ACCOUNT_TYPE);
-            String previousGroupDataSet = mCursor.getString(GroupListLoader.DATA_SET);
-
-            if (accountName.equals(previousGroupAccountName) &&
-                    accountType.equals(previousGroupAccountType) &&
-                    Objects.equal(dataSet, previousGroupDataSet)) {
-                isFirstGroupInAccount = false;
-            }
-        }
-
-        return new GroupListItem(accountName, accountType, dataSet, groupId, title,
-                isFirstGroupInAccount, memberCount);
+        return new GroupListItem(mGroupList.getAccountName(position),
+                mGroupList.getAccountType(position), mGroupList.getDataSet(position),
+                mGroupList.getGroupId(position), mGroupList.getTitle(position),
+                mGroupList.isFirstGroupInAccount(position), mGroupList.getMemberCount(position));
     }
 
     @Override
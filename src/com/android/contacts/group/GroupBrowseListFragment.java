@@ -43,6 +43,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.android.contacts.GroupListLoader;
+import com.android.contacts.GroupListLoader.GroupListCursor;
 import com.android.contacts.R;
 import com.android.contacts.group.GroupBrowseListAdapter.GroupListItemViewCache;
 import com.android.contacts.common.ContactsUtils;
@@ -73,7 +74,7 @@ public class GroupBrowseListFragment extends Fragment
     private static final int LOADER_GROUPS = 1;
 
     private Context mContext;
-    private Cursor mGroupListCursor;
+    private GroupListModel mGroupList;
 
     private boolean mSelectionToScreenRequested;
 
@@ -204,7 +205,7 @@ public class GroupBrowseListFragment extends Fragment
 
         @Override
         public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-            mGroupListCursor = data;
+            mGroupList = data == null ? null : ((GroupListCursor) data).model;
             bindGroupList();
         }
 
@@ -215,10 +216,10 @@ public class GroupBrowseListFragment extends Fragment
     private void bindGroupList() {
         mEmptyView.setText(R.string.noGroups);
         setAddAccountsVisibility(!ContactsUtils.areGroupWritableAccountsAvailable(mContext));
-        if (mGroupListCursor == null) {
+        if (mGroupList == null) {
             return;
         }
-        mAdapter.setCursor(mGroupListCursor);
+        mAdapter.setGroupList(mGroupList);
 
         if (mSelectionToScreenRequested) {
             mSelectionToScreenRequested = false;
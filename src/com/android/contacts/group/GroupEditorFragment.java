@@ -259,6 +259,14 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         }
     }
 
+    @Override
+    public void onDestroy() {
+        if (mAutoCompleteAdapter != null) {
+            mAutoCompleteAdapter.close();
+        }
+        super.onDestroy();
+    }
+
     private void startGroupMetaDataLoader() {
         mStatus = Status.LOADING;
         getLoaderManager().initLoader(LOADER_GROUP_METADATA, null,
@@ -391,6 +399,9 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
             }
             editorView = mLayoutInflater.inflate(newGroupEditorId, mRootView, false);
             editorView.setTag(CURRENT_EDITOR_TAG);
+            if (mAutoCompleteAdapter != null) {
+                mAutoCompleteAdapter.close();
+            }
             mAutoCompleteAdapter = null;
             mLastGroupEditorId = newGroupEditorId;
             isNewEditor = true;
@@ -426,17 +437,22 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         // account name and type. For groups that cannot have membership edited, there will be no
         // autocomplete text view.
         if (mAutoCompleteTextView != null) {
+            if (mAutoCompleteAdapter != null) {
+                mAutoCompleteAdapter.close();
+            }
             mAutoCompleteAdapter = new SuggestedMemberListAdapter(mContext,
                     android.R.layout.simple_dropdown_item_1line);
             mAutoCompleteAdapter.setContentResolver(mContentResolver);
             mAutoCompleteAdapter.setAccountType(mAccountType);
             mAutoCompleteAdapter.setAccountName(mAccountName);
             mAutoCompleteAdapter.setDataSet(mDataSet);
+            mAutoCompleteAdapter.startIndexing();
             mAutoCompleteTextView.setAdapter(mAutoCompleteAdapter);
             mAutoCompleteTextView.setOnItemClickListener(new OnItemClickListener() {
                 @Override
                 public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                    SuggestedMember member = (SuggestedMember) view.getTag();
+                    SuggestedMember member =
+                            (SuggestedMember) parent.getItemAtPosition(position);
                     if (member == null) {
                         return; // just in case
                     }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.group;
+
+import android.database.Cursor;
+
+import com.android.contacts.GroupListLoader;
+import com.android.contacts.util.LongIntHashMap;
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The rows loaded by {@link GroupListLoader}, copied into arrays so that the group list can be
+ * bound without moving a cursor back and forth. Built on the loader thread.
+ */
+public final class GroupListModel {
+
+    private final int mCount;
+    private final long[] mGroupIds;
+    private final String[] mTitles;
+    private final int[] mMemberCounts;
+    /** The index of each group's account in the account arrays below. */
+    private final int[] mAccounts;
+    /** The groups that start a new account, and so get an account header. */
+    private final BitSet mFirstGroupsInAccount;
+
+    private final String[] mAccountNames;
+    private final String[] mAccountTypes;
+    private final String[] mDataSets;
+
+    /** The position of each group, by group ID. */
+    private final LongIntHashMap mPositions;
+
+    private GroupListModel(int count, long[] groupIds, String[] titles, int[] memberCounts,
+            int[] accounts, BitSet firstGroupsInAccount, String[] accountNames,
+            String[] accountTypes, String[] dataSets, LongIntHashMap positions) {
+        mCount = count;
+        mGroupIds = groupIds;
+        mTitles = titles;
+        mMemberCounts = memberCounts;
+        mAccounts = accounts;
+        mFirstGroupsInAccount = firstGroupsInAccount;
+        mAccountNames = accountNames;
+        mAccountTypes = accountTypes;
+        mDataSets = dataSets;
+        mPositions = positions;
+    }
+
+    /**
+     * Reads all rows of a cursor with the columns of {@link GroupListLoader}, which are sorted
+     * by account.
+     */
+    public static GroupListModel build(Cursor cursor) {
+        final int count = cursor.getCount();
+        final long[] groupIds = new long[count];
+        final String[] titles = new String[count];
+        final int[] memberCounts = new int[count];
+        final int[] accounts = new int[count];
+        final BitSet firstGroupsInAccount = new BitSet(count);
+        final LongIntHashMap positions = new LongIntHashMap(count);
+        // Each account is stored once, however many groups it has.
+        String[] accountNames = new String[4];
+        String[] accountTypes = new String[4];
+        String[] dataSets = new String[4];
+        int accountCount = 0;
+
+        int position = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext() && position < count) {
+            final String accountName = cursor.getString(GroupListLoader.ACCOUNT_NAME);
+            final String accountType = cursor.getString(GroupListLoader.ACCOUNT_TYPE);
+            final String dataSet = cursor.getString(GroupListLoader.DATA_SET);
+            final int previous = accountCount - 1;
+            if (previous < 0 || !accountName.equals(accountNames[previous])
+                    || !accountType.equals(accountTypes[previous])
+                    || !Objects.equal(dataSet, dataSets[previous])) {
+                if (accountCount == accountNames.length) {
+                    accountNames = Arrays.copyOf(accountNames, accountCount * 2);
+                    accountTypes = Arrays.copyOf(accountTypes, accountCount * 2);
+                    dataSets = Arrays.copyOf(dataSets, accountCount * 2);
+                }
+                accountNames[accountCount] = accountName;
+                accountTypes[accountCount] = accountType;
+                dataSets[accountCount] = dataSet;
+                accountCount++;
+                firstGroupsInAccount.set(position);
+            }
+            accounts[position] = accountCount - 1;
+            groupIds[position] = cursor.getLong(GroupListLoader.GROUP_ID);
+            titles[position] = cursor.getString(GroupListLoader.TITLE);
+            memberCounts[position] = cursor.getInt(GroupListLoader.MEMBER_COUNT);
+            positions.put(groupIds[position], position, -1);
+            position++;
+        }
+        return new GroupListModel(position, groupIds, titles, memberCounts, accounts,
+                firstGroupsInAccount, accountNames, accountTypes, dataSets, positions);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getGroupId(int position) {
+        return mGroupIds[position];
+    }
+
+    public String getTitle(int position) {
+        return mTitles[position];
+    }
+
+    public int getMemberCount(int position) {
+        return mMemberCounts[position];
+    }
+
+    public boolean isFirstGroupInAccount(int position) {
+        return mFirstGroupsInAccount.get(position);
+    }
+
+    public String getAccountName(int position) {
+        return mAccountNames[mAccounts[position]];
+    }
+
+    public String getAccountType(int position) {
+        return mAccountTypes[mAccounts[position]];
+    }
+
+    public String getDataSet(int position) {
+        return mDataSets[mAccounts[position]];
+    }
+
+    /**
+     * Returns the position of the given group, or -1 if it is not in the list.
+     */
+    public int getPosition(long groupId) {
+        return mPositions.get(groupId, -1);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.group;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract.RawContacts;
+
+import com.android.contacts.util.LongHashSet;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Immutable, in-memory prefix index over the display names of the raw contacts in one account,
+ * used to suggest new group members without querying the provider on every keystroke.
+ *
+ * Both the primary and the alternative display name of each raw contact are indexed, after
+ * being lower-cased and stripped of accents. Raw contacts are ranked in localized display name
+ * order, so results come back in the same order as a {@code COLLATE LOCALIZED} query.
+ */
+public final class RawContactNameIndex {
+
+    private static final String[] PROJECTION = new String[] {
+        RawContacts._ID,
+        RawContacts.CONTACT_ID,
+        RawContacts.DISPLAY_NAME_PRIMARY,
+        RawContacts.DISPLAY_NAME_ALTERNATIVE,
+    };
+
+    private static final int RAW_CONTACT_ID_COLUMN_INDEX = 0;
+    private static final int CONTACT_ID_COLUMN_INDEX = 1;
+    private static final int DISPLAY_NAME_PRIMARY_COLUMN_INDEX = 2;
+    private static final int DISPLAY_NAME_ALTERNATIVE_COLUMN_INDEX = 3;
+
+    /** Raw contacts, ordered by localized display name. An entry's index is its rank. */
+    private final long[] mRawContactIds;
+    private final long[] mContactIds;
+    private final String[] mDisplayNames;
+
+    /** Normalized names, sorted, and the entry each of them belongs to. */
+    private final String[] mKeys;
+    private final int[] mKeyEntries;
+
+    private RawContactNameIndex(long[] rawContactIds, long[] contactIds, String[] displayNames,
+            String[] keys, int[] keyEntries) {
+        mRawContactIds = rawContactIds;
+        mContactIds = contactIds;
+        mDisplayNames = displayNames;
+        mKeys = keys;
+        mKeyEntries = keyEntries;
+    }
+
+    /**
+     * Loads the index for all raw contacts in the given account. Must not be called on the
+     * main thread.
+     * @return the index, or null if the query failed
+     */
+    public static RawContactNameIndex load(ContentResolver resolver, String accountName,
+            String accountType, String dataSet) {
+        String selection = RawContacts.ACCOUNT_NAME + "=? AND " + RawContacts.ACCOUNT_TYPE + "=?";
+        String[] args;
+        if (dataSet == null) {
+            selection += " AND " + RawContacts.DATA_SET + " IS NULL";
+            args = new String[] {accountName, accountType};
+        } else {
+            selection += " AND " + RawContacts.DATA_SET + "=?";
+            args = new String[] {accountName, accountType, dataSet};
+        }
+        selection += " AND " + RawContacts.DELETED + "=0";
+
+        final Cursor cursor = resolver.query(RawContacts.CONTENT_URI, PROJECTION, selection,
+                args, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            final int count = cursor.getCount();
+            final long[] rawContactIds = new long[count];
+            final long[] contactIds = new long[count];
+            final String[] primaryNames = new String[count];
+            final String[] alternativeNames = new String[count];
+            int i = 0;
+            while (cursor.moveToNext() && i < count) {
+                rawContactIds[i] = cursor.getLong(RAW_CONTACT_ID_COLUMN_INDEX);
+                contactIds[i] = cursor.getLong(CONTACT_ID_COLUMN_INDEX);
+                primaryNames[i] = cursor.getString(DISPLAY_NAME_PRIMARY_COLUMN_INDEX);
+                alternativeNames[i] = cursor.getString(DISPLAY_NAME_ALTERNATIVE_COLUMN_INDEX);
+                i++;
+            }
+            return build(rawContactIds, contactIds, primaryNames, alternativeNames);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Builds an index from parallel arrays describing the raw contacts. Names may be null.
+     */
+    public static RawContactNameIndex build(final long[] rawContactIds, long[] contactIds,
+            final String[] primaryNames, String[] alternativeNames) {
+        final int count = rawContactIds.length;
+
+        // Rank the raw contacts in localized display name order.
+        final Collator collator = Collator.getInstance();
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                final String left = primaryNames[lhs] == null ? "" : primaryNames[lhs];
+                final String right = primaryNames[rhs] == null ? "" : primaryNames[rhs];
+                final int result = collator.compare(left, right);
+                return result != 0 ? result : Long.compare(rawContactIds[lhs], rawContactIds[rhs]);
+            }
+        });
+
+        final long[] sortedRawContactIds = new long[count];
+        final long[] sortedContactIds = new long[count];
+        final String[] sortedNames = new String[count];
+        final String[] keys = new String[count * 2];
+        final int[] keyEntries = new int[count * 2];
+        int keyCount = 0;
+        for (int rank = 0; rank < count; rank++) {
+            final int i = order[rank];
+            sortedRawContactIds[rank] = rawContactIds[i];
+            sortedContactIds[rank] = contactIds[i];
+            sortedNames[rank] = primaryNames[i];
+
+            final String primaryKey = normalize(primaryNames[i]);
+            if (primaryKey != null) {
+                keys[keyCount] = primaryKey;
+                keyEntries[keyCount++] = rank;
+            }
+            final String alternativeKey = normalize(alternativeNames[i]);
+            if (alternativeKey != null && !alternativeKey.equals(primaryKey)) {
+                keys[keyCount] = alternativeKey;
+                keyEntries[keyCount++] = rank;
+            }
+        }
+
+        // Sort the keys, carrying their entries along.
+        final Integer[] keyOrder = new Integer[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keyOrder[i] = i;
+        }
+        Arrays.sort(keyOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return keys[lhs].compareTo(keys[rhs]);
+            }
+        });
+        final String[] sortedKeys = new String[keyCount];
+        final int[] sortedKeyEntries = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            sortedKeys[i] = keys[keyOrder[i]];
+            sortedKeyEntries[i] = keyEntries[keyOrder[i]];
+        }
+
+        return new RawContactNameIndex(sortedRawContactIds, sortedContactIds, sortedNames,
+                sortedKeys, sortedKeyEntries);
+    }
+
+    /**
+     * Finds raw contacts whose primary or alternative display name starts with the given
+     * prefix, ignoring case and accents.
+     *
+     * @param excludedContactIds contacts that must not be returned, may be null
+     * @param limit maximum number of results
+     * @return the matching entries, in localized display name order. Use
+     *     {@link #getRawContactId}, {@link #getContactId} and {@link #getDisplayName} to read them.
+     */
+    public int[] search(CharSequence prefix, LongHashSet excludedContactIds, int limit) {
+        final String key = normalize(prefix == null ? null : prefix.toString());
+        if (key == null || limit <= 0) {
+            return new int[0];
+        }
+
+        // Keep the best ranked matches in a small sorted array.
+        final int[] best = new int[limit];
+        int bestCount = 0;
+        for (int i = lowerBound(key); i < mKeys.length && mKeys[i].startsWith(key); i++) {
+            final int entry = mKeyEntries[i];
+            if (bestCount == limit && entry >= best[limit - 1]) {
+                continue;
+            }
+            if (excludedContactIds != null && excludedContactIds.contains(mContactIds[entry])) {
+                continue;
+            }
+            int position = Arrays.binarySearch(best, 0, bestCount, entry);
+            if (position >= 0) {
+                // Both names of this raw contact match.
+                continue;
+            }
+            position = -position - 1;
+            final int moved = Math.min(bestCount, limit - 1) - position;
+            if (moved > 0) {
+                System.arraycopy(best, position, best, position + 1, moved);
+            }
+            best[position] = entry;
+            if (bestCount < limit) {
+                bestCount++;
+            }
+        }
+        return Arrays.copyOf(best, bestCount);
+    }
+
+    public int size() {
+        return mRawContactIds.length;
+    }
+
+    public long getRawContactId(int entry) {
+        return mRawContactIds[entry];
+    }
+
+    public long getContactId(int entry) {
+        return mContactIds[entry];
+    }
+
+    public String getDisplayName(int entry) {
+        return mDisplayNames[entry];
+    }
+
+    /**
+     * @return the index of the first key that is not less than the given key.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = mKeys.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mKeys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Lower-cases the name and strips accents, or returns null for an empty name.
+     */
+    static String normalize(String name) {
+        if (name == null || name.length() == 0) {
+            return null;
+        }
+        final String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        final StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+}
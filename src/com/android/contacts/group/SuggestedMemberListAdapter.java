@@ -17,9 +17,11 @@ package com.android.contacts.group;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.os.Handler;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
@@ -27,6 +29,7 @@ import android.provider.ContactsContract.Contacts.Data;
 import android.provider.ContactsContract.RawContacts;
 import android.provider.ContactsContract.RawContactsEntity;
 import android.text.TextUtils;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -39,6 +42,7 @@ import android.widget.TextView;
 import com.android.contacts.R;
 import com.android.contacts.common.ContactPhotoManager;
 import com.android.contacts.group.SuggestedMemberListAdapter.SuggestedMember;
+import com.android.contacts.util.LongHashSet;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -76,20 +80,49 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
     private Filter mFilter;
     private ContentResolver mContentResolver;
     private LayoutInflater mInflater;
+    private final int mPhotoSize;
 
     private String mAccountType;
     private String mAccountName;
     private String mDataSet;
 
-    // TODO: Make this a Map for better performance when we check if a new contact is in the list
-    // or not
-    private final List<Long> mExistingMemberContactIds = new ArrayList<Long>();
+    /** Contact IDs of the group's members, guarded by itself. */
+    private final LongHashSet mExistingMemberContactIds = new LongHashSet();
 
     private static final int SUGGESTIONS_LIMIT = 5;
 
+    /** Delay before rebuilding the name index after the raw contacts changed. */
+    private static final long INDEX_REBUILD_DELAY_MILLIS = 1000;
+
+    /**
+     * Prefix index over the names of the account's raw contacts, or null while it hasn't been
+     * built yet, in which case suggestions are queried from the provider.
+     */
+    private volatile RawContactNameIndex mNameIndex;
+
+    /** Number of raw contacts whose extra info is kept between filter passes. */
+    private static final int MEMBER_DATA_CACHE_SIZE = 64;
+
+    /**
+     * The extra info and photo key of recently suggested raw contacts, by raw contact ID.
+     * Typing one more letter mostly suggests the same raw contacts again, which then don't need
+     * to be queried. The thumbnails themselves stay in {@link SuggestedMemberPhotoCache}.
+     * Cleared whenever the raw contacts change.
+     */
+    private final LruCache<Long, MemberData> mMemberDataCache =
+            new LruCache<Long, MemberData>(MEMBER_DATA_CACHE_SIZE);
+    /** Incremented whenever the cache is cleared, so that queries in flight don't refill it. */
+    private volatile int mMemberDataGeneration;
+
+    private final Handler mHandler = new Handler();
+    private ContentObserver mRawContactsObserver;
+    private AsyncTask<Void, Void, RawContactNameIndex> mIndexTask;
+
     public SuggestedMemberListAdapter(Context context, int textViewResourceId) {
         super(context, textViewResourceId);
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        mPhotoSize = context.getResources().getDimensionPixelSize(
+                R.dimen.group_member_suggestion_photo_size);
     }
 
     public void setAccountType(String accountType) {
@@ -109,48 +142,144 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
     }
 
     public void updateExistingMembersList(List<GroupEditorFragment.Member> list) {
-        mExistingMemberContactIds.clear();
-        for (GroupEditorFragment.Member member : list) {
-            mExistingMemberContactIds.add(member.getContactId());
+        synchronized (mExistingMemberContactIds) {
+            mExistingMemberContactIds.clear();
+            for (GroupEditorFragment.Member member : list) {
+                mExistingMemberContactIds.add(member.getContactId());
+            }
         }
     }
 
     public void addNewMember(long contactId) {
-        mExistingMemberContactIds.add(contactId);
+        synchronized (mExistingMemberContactIds) {
+            mExistingMemberContactIds.add(contactId);
+        }
     }
 
     public void removeMember(long contactId) {
-        if (mExistingMemberContactIds.contains(contactId)) {
+        synchronized (mExistingMemberContactIds) {
             mExistingMemberContactIds.remove(contactId);
         }
     }
 
+    /**
+     * Builds the name index for the account in the background, and keeps it up to date until
+     * {@link #close} is called. Must be called after the content resolver and account are set.
+     */
+    public void startIndexing() {
+        if (mRawContactsObserver != null || mContentResolver == null) {
+            return;
+        }
+        mRawContactsObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                clearMemberDataCache();
+                // Raw contacts tend to change in bursts during a sync.
+                mHandler.removeCallbacks(mRebuildIndexRunnable);
+                mHandler.postDelayed(mRebuildIndexRunnable, INDEX_REBUILD_DELAY_MILLIS);
+            }
+        };
+        mContentResolver.registerContentObserver(RawContacts.CONTENT_URI, true,
+                mRawContactsObserver);
+        rebuildIndex();
+    }
+
+    /**
+     * Stops keeping the name index up to date and releases it.
+     */
+    public void close() {
+        mHandler.removeCallbacks(mRebuildIndexRunnable);
+        if (mRawContactsObserver != null) {
+            mContentResolver.unregisterContentObserver(mRawContactsObserver);
+            mRawContactsObserver = null;
+        }
+        if (mIndexTask != null) {
+            mIndexTask.cancel(false);
+            mIndexTask = null;
+        }
+        mNameIndex = null;
+        clearMemberDataCache();
+    }
+
+    private void clearMemberDataCache() {
+        mMemberDataGeneration++;
+        mMemberDataCache.evictAll();
+    }
+
+    private final Runnable mRebuildIndexRunnable = new Runnable() {
+        @Override
+        public void run() {
+            rebuildIndex();
+        }
+    };
+
+    private void rebuildIndex() {
+        if (mIndexTask != null) {
+            mIndexTask.cancel(false);
+        }
+        final ContentResolver resolver = mContentResolver;
+        final String accountName = mAccountName;
+        final String accountType = mAccountType;
+        final String dataSet = mDataSet;
+        // Until the new index is ready, keep answering from the old one.
+        mIndexTask = new AsyncTask<Void, Void, RawContactNameIndex>() {
+            @Override
+            protected RawContactNameIndex doInBackground(Void... params) {
+                return RawContactNameIndex.load(resolver, accountName, accountType, dataSet);
+            }
+
+            @Override
+            protected void onPostExecute(RawContactNameIndex index) {
+                if (mIndexTask != this) {
+                    return;
+                }
+                if (index != null) {
+                    mNameIndex = index;
+                }
+                mIndexTask = null;
+            }
+        };
+        mIndexTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private static class ViewHolder {
+        public TextView text1;
+        public TextView text2;
+        public ImageView icon;
+    }
+
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         View result = convertView;
+        ViewHolder holder;
         if (result == null) {
             result = mInflater.inflate(R.layout.group_member_suggestion, parent, false);
+            holder = new ViewHolder();
+            holder.text1 = (TextView) result.findViewById(R.id.text1);
+            holder.text2 = (TextView) result.findViewById(R.id.text2);
+            holder.icon = (ImageView) result.findViewById(R.id.icon);
+            result.setTag(holder);
+        } else {
+            holder = (ViewHolder) result.getTag();
         }
-        // TODO: Use a viewholder
         SuggestedMember member = getItem(position);
-        TextView text1 = (TextView) result.findViewById(R.id.text1);
-        TextView text2 = (TextView) result.findViewById(R.id.text2);
-        ImageView icon = (ImageView) result.findViewById(R.id.icon);
-        text1.setText(member.getDisplayName());
+        holder.text1.setText(member.getDisplayName());
         if (member.hasExtraInfo()) {
-            text2.setText(member.getExtraInfo());
+            holder.text2.setText(member.getExtraInfo());
+            holder.text2.setVisibility(View.VISIBLE);
         } else {
-            text2.setVisibility(View.GONE);
+            holder.text2.setVisibility(View.GONE);
         }
-        byte[] byteArray = member.getPhotoByteArray();
-        if (byteArray == null) {
-            icon.setImageDrawable(ContactPhotoManager.getDefaultAvatarDrawableForContact(
-                    icon.getResources(), false, null));
+        // Thumbnails are decoded by the filter, so binding a row never decodes. The thumbnail
+        // may have been evicted since, in which case the default avatar is shown.
+        final String photoKey = member.getPhotoKey();
+        Bitmap photo = photoKey == null ? null : SuggestedMemberPhotoCache.get(photoKey);
+        if (photo == null) {
+            holder.icon.setImageDrawable(ContactPhotoManager.getDefaultAvatarDrawableForContact(
+                    holder.icon.getResources(), false, null));
         } else {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length);
-            icon.setImageBitmap(bitmap);
+            holder.icon.setImageBitmap(photo);
         }
-        result.setTag(member);
         return result;
     }
 
@@ -182,8 +311,143 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
             List<SuggestedMember> suggestionsList = new ArrayList<SuggestedMember>();
             HashMap<Long, SuggestedMember> suggestionsMap = new HashMap<Long, SuggestedMember>();
 
-            // First query for all the raw contacts that match the given search query
-            // and have the same account name and type as specified in this adapter
+            // First find all the raw contacts that match the given search query and have the
+            // same account name and type as specified in this adapter. Use the name index if it
+            // is ready, and fall back to querying the provider otherwise.
+            final RawContactNameIndex index = mNameIndex;
+            if (index != null) {
+                final int[] entries;
+                synchronized (mExistingMemberContactIds) {
+                    entries = index.search(prefix, mExistingMemberContactIds, SUGGESTIONS_LIMIT);
+                }
+                for (int entry : entries) {
+                    final long rawContactId = index.getRawContactId(entry);
+                    SuggestedMember member = new SuggestedMember(rawContactId,
+                            index.getDisplayName(entry), index.getContactId(entry));
+                    suggestionsList.add(member);
+                    suggestionsMap.put(rawContactId, member);
+                }
+            } else if (!querySuggestedMembers(prefix, suggestionsList, suggestionsMap)) {
+                return results;
+            }
+
+            if (suggestionsMap.isEmpty()) {
+                return results;
+            }
+
+            // Fill in the photo and extra info of the members seen in earlier passes, and only
+            // query the data of the others, or of those whose thumbnail has been evicted.
+            final HashMap<Long, SuggestedMember> uncachedMembers =
+                    new HashMap<Long, SuggestedMember>();
+            for (SuggestedMember member : suggestionsList) {
+                final MemberData data = mMemberDataCache.get(member.getRawContactId());
+                if (data != null && (data.photoKey == null
+                        || SuggestedMemberPhotoCache.get(data.photoKey) != null)) {
+                    member.setPhotoKey(data.photoKey);
+                    member.setExtraInfo(data.extraInfo);
+                } else {
+                    uncachedMembers.put(member.getRawContactId(), member);
+                }
+            }
+            if (!uncachedMembers.isEmpty()) {
+                queryMemberData(uncachedMembers);
+            }
+
+            results.values = suggestionsList;
+            return results;
+        }
+
+        /**
+         * Queries the photo and a phone number or email address of the given members, sets them
+         * and adds them to the cache.
+         */
+        private void queryMemberData(HashMap<Long, SuggestedMember> suggestionsMap) {
+            final int generation = mMemberDataGeneration;
+            // Create a part of the selection string for the next query with the pattern (?, ?, ?)
+            // where the number of comma-separated question marks represent the number of raw
+            // contact IDs found in the previous query (while respective the SUGGESTION_LIMIT)
+            final StringBuilder rawContactIdSelectionBuilder = new StringBuilder();
+            final String[] questionMarks = new String[suggestionsMap.size()];
+            Arrays.fill(questionMarks, "?");
+            rawContactIdSelectionBuilder.append(RawContacts._ID + " IN (")
+                    .append(TextUtils.join(",", questionMarks))
+                    .append(")");
+
+            // Construct the selection args based on the raw contact IDs we're interested in
+            // (as well as the photo, email, and phone mimetypes)
+            List<String> selectionArgs = new ArrayList<String>();
+            selectionArgs.add(Photo.CONTENT_ITEM_TYPE);
+            selectionArgs.add(Email.CONTENT_ITEM_TYPE);
+            selectionArgs.add(Phone.CONTENT_ITEM_TYPE);
+            for (Long rawContactId : suggestionsMap.keySet()) {
+                selectionArgs.add(String.valueOf(rawContactId));
+            }
+
+            // Perform a second query to retrieve a photo and possibly a phone number or email
+            // address for the suggested contact
+            Cursor memberDataCursor = mContentResolver.query(
+                    RawContactsEntity.CONTENT_URI, PROJECTION_MEMBER_DATA,
+                    "(" + Data.MIMETYPE + "=? OR " + Data.MIMETYPE + "=? OR " + Data.MIMETYPE +
+                    "=?) AND " + rawContactIdSelectionBuilder.toString(),
+                    selectionArgs.toArray(new String[0]), null);
+            if (memberDataCursor == null) {
+                // Leave them uncached, so that the next pass tries again.
+                return;
+            }
+
+            try {
+                memberDataCursor.moveToPosition(-1);
+                while (memberDataCursor.moveToNext()) {
+                    long rawContactId = memberDataCursor.getLong(RAW_CONTACT_ID_COLUMN_INDEX);
+                    SuggestedMember member = suggestionsMap.get(rawContactId);
+                    if (member == null) {
+                        continue;
+                    }
+                    String mimetype = memberDataCursor.getString(MIMETYPE_COLUMN_INDEX);
+                    if (Photo.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                        // Set photo, decoded here rather than when the row is bound
+                        byte[] bitmapArray = memberDataCursor.getBlob(PHOTO_COLUMN_INDEX);
+                        if (bitmapArray != null) {
+                            final String photoKey =
+                                    SuggestedMemberPhotoCache.getKey(rawContactId, bitmapArray);
+                            if (SuggestedMemberPhotoCache.getThumbnail(
+                                    photoKey, bitmapArray, mPhotoSize) != null) {
+                                member.setPhotoKey(photoKey);
+                            }
+                        }
+                    } else if (Email.CONTENT_ITEM_TYPE.equals(mimetype) ||
+                            Phone.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                        // Set at most 1 extra piece of contact info that can be a phone number or
+                        // email
+                        if (!member.hasExtraInfo()) {
+                            String info = memberDataCursor.getString(DATA_COLUMN_INDEX);
+                            member.setExtraInfo(info);
+                        }
+                    }
+                }
+            } finally {
+                memberDataCursor.close();
+            }
+
+            if (generation != mMemberDataGeneration) {
+                // The raw contacts changed while they were being queried.
+                return;
+            }
+            // Cache members without any data too, so that they aren't queried again.
+            for (SuggestedMember member : suggestionsMap.values()) {
+                mMemberDataCache.put(member.getRawContactId(),
+                        new MemberData(member.getPhotoKey(), member.getExtraInfo()));
+            }
+        }
+
+        /**
+         * Queries the provider for raw contacts whose name starts with the prefix, and adds
+         * those that aren't group members yet to the list and map.
+         * @return false if the query failed
+         */
+        private boolean querySuggestedMembers(CharSequence prefix,
+                List<SuggestedMember> suggestionsList,
+                HashMap<Long, SuggestedMember> suggestionsMap) {
             String searchQuery = prefix.toString() + "%";
             String accountClause = RawContacts.ACCOUNT_NAME + "=? AND " +
                     RawContacts.ACCOUNT_TYPE + "=?";
@@ -206,7 +470,7 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
                     args, RawContacts.DISPLAY_NAME_PRIMARY + " COLLATE LOCALIZED ASC");
 
             if (cursor == null) {
-                return results;
+                return false;
             }
 
             // Read back the results from the cursor and filter out existing group members.
@@ -217,8 +481,10 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
                     long rawContactId = cursor.getLong(RAW_CONTACT_ID_COLUMN_INDEX);
                     long contactId = cursor.getLong(CONTACT_ID_COLUMN_INDEX);
                     // Filter out contacts that have already been added to this group
-                    if (mExistingMemberContactIds.contains(contactId)) {
-                        continue;
+                    synchronized (mExistingMemberContactIds) {
+                        if (mExistingMemberContactIds.contains(contactId)) {
+                            continue;
+                        }
                     }
                     // Otherwise, add the contact as a suggested new group member
                     String displayName = cursor.getString(DISPLAY_NAME_PRIMARY_COLUMN_INDEX);
@@ -231,70 +497,7 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
             } finally {
                 cursor.close();
             }
-
-            int numSuggestions = suggestionsMap.keySet().size();
-            if (numSuggestions == 0) {
-                return results;
-            }
-
-            // Create a part of the selection string for the next query with the pattern (?, ?, ?)
-            // where the number of comma-separated question marks represent the number of raw
-            // contact IDs found in the previous query (while respective the SUGGESTION_LIMIT)
-            final StringBuilder rawContactIdSelectionBuilder = new StringBuilder();
-            final String[] questionMarks = new String[numSuggestions];
-            Arrays.fill(questionMarks, "?");
-            rawContactIdSelectionBuilder.append(RawContacts._ID + " IN (")
-                    .append(TextUtils.join(",", questionMarks))
-                    .append(")");
-
-            // Construct the selection args based on the raw contact IDs we're interested in
-            // (as well as the photo, email, and phone mimetypes)
-            List<String> selectionArgs = new ArrayList<String>();
-            selectionArgs.add(Photo.CONTENT_ITEM_TYPE);
-            selectionArgs.add(Email.CONTENT_ITEM_TYPE);
-            selectionArgs.add(Phone.CONTENT_ITEM_TYPE);
-            for (Long rawContactId : suggestionsMap.keySet()) {
-                selectionArgs.add(String.valueOf(rawContactId));
-            }
-
-            // Perform a second query to retrieve a photo and possibly a phone number or email
-            // address for the suggested contact
-            Cursor memberDataCursor = mContentResolver.query(
-                    RawContactsEntity.CONTENT_URI, PROJECTION_MEMBER_DATA,
-                    "(" + Data.MIMETYPE + "=? OR " + Data.MIMETYPE + "=? OR " + Data.MIMETYPE +
-                    "=?) AND " + rawContactIdSelectionBuilder.toString(),
-                    selectionArgs.toArray(new String[0]), null);
-
-            if (memberDataCursor != null) {
-                try {
-                    memberDataCursor.moveToPosition(-1);
-                    while (memberDataCursor.moveToNext()) {
-                        long rawContactId = memberDataCursor.getLong(RAW_CONTACT_ID_COLUMN_INDEX);
-                        SuggestedMember member = suggestionsMap.get(rawContactId);
-                        if (member == null) {
-                            continue;
-                        }
-                        String mimetype = memberDataCursor.getString(MIMETYPE_COLUMN_INDEX);
-                        if (Photo.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                            // Set photo
-                            byte[] bitmapArray = memberDataCursor.getBlob(PHOTO_COLUMN_INDEX);
-                            member.setPhotoByteArray(bitmapArray);
-                        } else if (Email.CONTENT_ITEM_TYPE.equals(mimetype) ||
-                                Phone.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                            // Set at most 1 extra piece of contact info that can be a phone number or
-                            // email
-                            if (!member.hasExtraInfo()) {
-                                String info = memberDataCursor.getString(DATA_COLUMN_INDEX);
-                                member.setExtraInfo(info);
-                            }
-                        }
-                    }
-                } finally {
-                    memberDataCursor.close();
-                }
-            }
-            results.values = suggestionsList;
-            return results;
+            return true;
         }
 
         @Override
@@ -317,6 +520,19 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
         }
     }
 
+    /**
+     * The photo key and extra info of a suggested raw contact, either of which may be null.
+     */
+    private static final class MemberData {
+        public final String photoKey;
+        public final String extraInfo;
+
+        public MemberData(String photoKey, String extraInfo) {
+            this.photoKey = photoKey;
+            this.extraInfo = extraInfo;
+        }
+    }
+
     /**
      * This represents a single contact that is a suggestion for the user to add to a group.
      */
@@ -328,7 +544,8 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
         private long mContactId;
         private String mDisplayName;
         private String mExtraInfo;
-        private byte[] mPhoto;
+        /** The key of the thumbnail in {@link SuggestedMemberPhotoCache}, if any. */
+        private String mPhotoKey;
 
         public SuggestedMember(long rawContactId, String displayName, long contactId) {
             mRawContactId = rawContactId;
@@ -352,8 +569,8 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
             return mContactId;
         }
 
-        public byte[] getPhotoByteArray() {
-            return mPhoto;
+        public String getPhotoKey() {
+            return mPhotoKey;
         }
 
         public boolean hasExtraInfo() {
@@ -367,8 +584,8 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
             mExtraInfo = info;
         }
 
-        public void setPhotoByteArray(byte[] photo) {
-            mPhoto = photo;
+        public void setPhotoKey(String photoKey) {
+            mPhotoKey = photoKey;
         }
 
         @Override
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.group;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.contacts.util.PhotoDecoder;
+
+/**
+ * Decoded thumbnails of the group member suggestions, shared by all
+ * {@link SuggestedMemberListAdapter}s. Thumbnails are keyed by raw contact ID and a
+ * fingerprint of the photo, so a changed photo is decoded again. Thread-safe.
+ */
+public final class SuggestedMemberPhotoCache {
+    private static final String TAG = "SuggestedMemberPhotoCache";
+
+    /** Enough for a few dozen thumbnails at xhdpi. */
+    private static final int MAX_SIZE_BYTES = 1024 * 1024;
+
+    private static final LruCache<String, Bitmap> sCache =
+            new LruCache<String, Bitmap>(MAX_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+
+    private SuggestedMemberPhotoCache() {
+    }
+
+    /**
+     * Returns the key the thumbnail of the given photo is cached under.
+     */
+    public static String getKey(long rawContactId, byte[] photo) {
+        return rawContactId + "/" + photo.length + "/"
+                + Long.toHexString(PhotoDecoder.fingerprint(photo));
+    }
+
+    /**
+     * Returns the cached thumbnail for the given key, or null if it was never decoded or has
+     * been evicted since.
+     */
+    public static Bitmap get(String key) {
+        return sCache.get(key);
+    }
+
+    /**
+     * Returns the thumbnail for the given photo, decoding and caching it if necessary. Must not
+     * be called on the main thread.
+     * @param key the key returned by {@link #getKey} for the photo
+     * @param size the size of the view the thumbnail is shown in, in pixels
+     * @return the thumbnail, or null if the photo could not be decoded
+     */
+    public static Bitmap getThumbnail(String key, byte[] photo, int size) {
+        Bitmap bitmap = sCache.get(key);
+        if (bitmap == null) {
+            bitmap = decode(photo, size);
+            if (bitmap != null) {
+                sCache.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Decodes the photo and scales it down to cover a square of the given size.
+     */
+    private static Bitmap decode(byte[] photo, int size) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(photo, 0, photo.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(TAG, "Could not decode photo");
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = PhotoDecoder.computeSampleSize(options.outWidth,
+                options.outHeight, size, size);
+        final Bitmap decoded = BitmapFactory.decodeByteArray(photo, 0, photo.length, options);
+        if (decoded == null) {
+            Log.w(TAG, "Could not decode photo");
+            return null;
+        }
+
+        final float scale = Math.max((float) size / decoded.getWidth(),
+                (float) size / decoded.getHeight());
+        if (scale >= 1) {
+            return decoded;
+        }
+        final Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+                Math.max(1, Math.round(decoded.getWidth() * scale)),
+                Math.max(1, Math.round(decoded.getHeight() * scale)), true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+}
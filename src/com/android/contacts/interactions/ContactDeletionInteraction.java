@@ -43,7 +43,7 @@ import com.google.common.collect.Sets;
 import java.util.HashSet;
 
 /**
- * An interaction invoked to delete a contact.
+ * An interaction invoked to delete a contact, or many contacts at once.
  */
 public class ContactDeletionInteraction extends Fragment
         implements LoaderCallbacks<Cursor>, OnDismissListener {
@@ -52,8 +52,10 @@ public class ContactDeletionInteraction extends Fragment
 
     private static final String KEY_ACTIVE = "active";
     private static final String KEY_CONTACT_URI = "contactUri";
+    private static final String KEY_CONTACT_IDS = "contactIds";
     private static final String KEY_FINISH_WHEN_DONE = "finishWhenDone";
     public static final String ARG_CONTACT_URI = "contactUri";
+    public static final String ARG_CONTACT_IDS = "contactIds";
 
     private static final String[] ENTITY_PROJECTION = new String[] {
         Entity.RAW_CONTACT_ID, //0
@@ -71,6 +73,8 @@ public class ContactDeletionInteraction extends Fragment
 
     private boolean mActive;
     private Uri mContactUri;
+    /** The contacts to delete in batch mode, or null when deleting {@link #mContactUri}. */
+    private long[] mContactIds;
     private boolean mFinishActivityWhenDone;
     private Context mContext;
     private AlertDialog mDialog;
@@ -132,6 +136,38 @@ public class ContactDeletionInteraction extends Fragment
         return fragment;
     }
 
+    /**
+     * Starts the interaction in batch mode, which confirms and deletes all the given contacts
+     * at once.
+     *
+     * @param activity the activity within which to start the interaction
+     * @param contactIds the IDs of the contacts to delete
+     * @param finishActivityWhenDone whether to finish the activity upon completion of the
+     *        interaction
+     * @return the newly created interaction
+     */
+    public static ContactDeletionInteraction startForContacts(
+            Activity activity, long[] contactIds, boolean finishActivityWhenDone) {
+        if (contactIds == null || contactIds.length == 0) {
+            return null;
+        }
+
+        FragmentManager fragmentManager = activity.getFragmentManager();
+        ContactDeletionInteraction fragment =
+                (ContactDeletionInteraction) fragmentManager.findFragmentByTag(FRAGMENT_TAG);
+        if (fragment == null) {
+            fragment = new ContactDeletionInteraction();
+            fragment.setContactIds(contactIds);
+            fragment.setFinishActivityWhenDone(finishActivityWhenDone);
+            fragmentManager.beginTransaction().add(fragment, FRAGMENT_TAG)
+                    .commitAllowingStateLoss();
+        } else {
+            fragment.setContactIds(contactIds);
+            fragment.setFinishActivityWhenDone(finishActivityWhenDone);
+        }
+        return fragment;
+    }
+
     @Override
     public LoaderManager getLoaderManager() {
         // Return the TestLoaderManager if one is set up.
@@ -168,6 +204,7 @@ public class ContactDeletionInteraction extends Fragment
 
     public void setContactUri(Uri contactUri) {
         mContactUri = contactUri;
+        mContactIds = null;
         mActive = true;
         if (isStarted()) {
             Bundle args = new Bundle();
@@ -176,6 +213,22 @@ public class ContactDeletionInteraction extends Fragment
         }
     }
 
+    public void setContactIds(long[] contactIds) {
+        mContactIds = contactIds;
+        mContactUri = null;
+        mActive = true;
+        if (isStarted()) {
+            getLoaderManager().restartLoader(R.id.dialog_delete_contacts_loader_id,
+                    createBatchArgs(), mSummaryLoaderCallbacks);
+        }
+    }
+
+    private Bundle createBatchArgs() {
+        Bundle args = new Bundle();
+        args.putLongArray(ARG_CONTACT_IDS, mContactIds);
+        return args;
+    }
+
     private void setFinishActivityWhenDone(boolean finishActivityWhenDone) {
         this.mFinishActivityWhenDone = finishActivityWhenDone;
 
@@ -188,7 +241,10 @@ public class ContactDeletionInteraction extends Fragment
 
     @Override
     public void onStart() {
-        if (mActive) {
+        if (mActive && mContactIds != null) {
+            getLoaderManager().initLoader(R.id.dialog_delete_contacts_loader_id,
+                    createBatchArgs(), mSummaryLoaderCallbacks);
+        } else if (mActive) {
             Bundle args = new Bundle();
             args.putParcelable(ARG_CONTACT_URI, mContactUri);
             getLoaderManager().initLoader(R.id.dialog_delete_contact_loader_id, args, this);
@@ -260,7 +316,7 @@ public class ContactDeletionInteraction extends Fragment
         }
 
         final Uri contactUri = Contacts.getLookupUri(contactId, lookupKey);
-        showDialog(mMessageId, contactUri);
+        showDialog(mMessageId, getPositiveButtonId(writableCount), contactUri);
 
         // We don't want onLoadFinished() calls any more, which may come when the database is
         // updating.
@@ -271,12 +327,12 @@ public class ContactDeletionInteraction extends Fragment
     public void onLoaderReset(Loader<Cursor> loader) {
     }
 
-    private void showDialog(int messageId, final Uri contactUri) {
+    private void showDialog(int messageId, int positiveButtonId, final Uri contactUri) {
         mDialog = new AlertDialog.Builder(getActivity())
                 .setIconAttribute(android.R.attr.alertDialogIcon)
                 .setMessage(messageId)
                 .setNegativeButton(android.R.string.cancel, null)
-                .setPositiveButton(android.R.string.ok,
+                .setPositiveButton(positiveButtonId,
                     new DialogInterface.OnClickListener() {
                         @Override
                         public void onClick(DialogInterface dialog, int whichButton) {
@@ -290,6 +346,76 @@ public class ContactDeletionInteraction extends Fragment
         mDialog.show();
     }
 
+    private final LoaderCallbacks<ContactDeletionSummary> mSummaryLoaderCallbacks =
+            new LoaderCallbacks<ContactDeletionSummary>() {
+        @Override
+        public Loader<ContactDeletionSummary> onCreateLoader(int id, Bundle args) {
+            return new ContactDeletionSummary.Loader(mContext, args.getLongArray(ARG_CONTACT_IDS));
+        }
+
+        @Override
+        public void onLoadFinished(Loader<ContactDeletionSummary> loader,
+                ContactDeletionSummary summary) {
+            if (mDialog != null) {
+                mDialog.dismiss();
+                mDialog = null;
+            }
+
+            if (!mActive || summary == null) {
+                return;
+            }
+
+            final String message;
+            if (summary.readOnlyCount > 0 && summary.writableCount > 0) {
+                message = getString(R.string.batchReadOnlyContactDeleteConfirmation);
+            } else if (summary.readOnlyCount > 0 && summary.writableCount == 0) {
+                message = getResources().getQuantityString(
+                        R.plurals.batchReadOnlyContactWarning,
+                        summary.contactCount, summary.contactCount);
+            } else {
+                message = getResources().getQuantityString(R.plurals.batchDeleteConfirmation,
+                        summary.contactCount, summary.contactCount);
+            }
+            showBatchDialog(message, getPositiveButtonId(summary.writableCount), mContactIds);
+
+            // As for a single contact, ignore updates while the dialog is showing.
+            getLoaderManager().destroyLoader(R.id.dialog_delete_contacts_loader_id);
+        }
+
+        @Override
+        public void onLoaderReset(Loader<ContactDeletionSummary> loader) {
+        }
+    };
+
+    private void showBatchDialog(String message, int positiveButtonId,
+            final long[] contactIds) {
+        mDialog = new AlertDialog.Builder(getActivity())
+                .setIconAttribute(android.R.attr.alertDialogIcon)
+                .setMessage(message)
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(positiveButtonId,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int whichButton) {
+                            doDeleteContacts(contactIds);
+                        }
+                    }
+                )
+                .create();
+
+        mDialog.setOnDismissListener(this);
+        mDialog.show();
+    }
+
+    /**
+     * @return the label of the confirm button: when nothing can actually be deleted, the
+     *     contacts are only hidden, so don't call it delete.
+     */
+    private static int getPositiveButtonId(int writableCount) {
+        return writableCount == 0 ? R.string.readOnlyContactWarning_positive_button
+                : R.string.deleteConfirmation_positive_button;
+    }
+
     @Override
     public void onDismiss(DialogInterface dialog) {
         mActive = false;
@@ -301,6 +427,7 @@ public class ContactDeletionInteraction extends Fragment
         super.onSaveInstanceState(outState);
         outState.putBoolean(KEY_ACTIVE, mActive);
         outState.putParcelable(KEY_CONTACT_URI, mContactUri);
+        outState.putLongArray(KEY_CONTACT_IDS, mContactIds);
         outState.putBoolean(KEY_FINISH_WHEN_DONE, mFinishActivityWhenDone);
     }
 
@@ -310,6 +437,7 @@ public class ContactDeletionInteraction extends Fragment
         if (savedInstanceState != null) {
             mActive = savedInstanceState.getBoolean(KEY_ACTIVE);
             mContactUri = savedInstanceState.getParcelable(KEY_CONTACT_URI);
+            mContactIds = savedInstanceState.getLongArray(KEY_CONTACT_IDS);
             mFinishActivityWhenDone = savedInstanceState.getBoolean(KEY_FINISH_WHEN_DONE);
         }
     }
@@ -320,4 +448,12 @@ public class ContactDeletionInteraction extends Fragment
             getActivity().finish();
         }
     }
+
+    protected void doDeleteContacts(long[] contactIds) {
+        mContext.startService(ContactSaveService.createDeleteMultipleContactsIntent(
+                mContext, contactIds, null, null));
+        if (isAdded() && mFinishActivityWhenDone) {
+            getActivity().finish();
+        }
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.interactions;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.ContactsContract.RawContacts;
+import android.text.TextUtils;
+
+import com.android.contacts.common.model.AccountTypeManager;
+import com.android.contacts.common.model.account.AccountType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The number of read-only and writable raw contacts behind a set of contacts, which decides
+ * how their deletion is confirmed. Only the raw contacts table is queried, in chunks of
+ * {@link #QUERY_BATCH_SIZE} contacts, rather than each contact's entities.
+ */
+public final class ContactDeletionSummary {
+
+    /** Stays below SQLite's limit of 999 bound arguments. */
+    private static final int QUERY_BATCH_SIZE = 500;
+
+    private static final String[] RAW_CONTACT_PROJECTION = new String[] {
+        RawContacts.ACCOUNT_TYPE, // 0
+        RawContacts.DATA_SET, // 1
+    };
+
+    private static final int COLUMN_INDEX_ACCOUNT_TYPE = 0;
+    private static final int COLUMN_INDEX_DATA_SET = 1;
+
+    public final int contactCount;
+    public final int readOnlyCount;
+    public final int writableCount;
+
+    ContactDeletionSummary(int contactCount, int readOnlyCount, int writableCount) {
+        this.contactCount = contactCount;
+        this.readOnlyCount = readOnlyCount;
+        this.writableCount = writableCount;
+    }
+
+    /**
+     * Counts the read-only and writable raw contacts of the given contacts. Must not be called
+     * on the main thread.
+     */
+    public static ContactDeletionSummary load(Context context, long[] contactIds) {
+        final ContentResolver resolver = context.getContentResolver();
+        final AccountTypeManager accountTypes = AccountTypeManager.getInstance(context);
+        // Most raw contacts come from a handful of accounts.
+        final HashMap<String, Boolean> writableByAccountType = new HashMap<String, Boolean>();
+        int readOnlyCount = 0;
+        int writableCount = 0;
+        for (int start = 0; start < contactIds.length; start += QUERY_BATCH_SIZE) {
+            final int end = Math.min(start + QUERY_BATCH_SIZE, contactIds.length);
+            final Cursor cursor = resolver.query(RawContacts.CONTENT_URI, RAW_CONTACT_PROJECTION,
+                    buildSelection(end - start), buildSelectionArgs(contactIds, start, end),
+                    null);
+            if (cursor == null) {
+                continue;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    final String accountType = cursor.getString(COLUMN_INDEX_ACCOUNT_TYPE);
+                    final String dataSet = cursor.getString(COLUMN_INDEX_DATA_SET);
+                    final String key = accountType + "/" + dataSet;
+                    Boolean writable = writableByAccountType.get(key);
+                    if (writable == null) {
+                        final AccountType type = accountTypes.getAccountType(accountType, dataSet);
+                        writable = type == null || type.areContactsWritable();
+                        writableByAccountType.put(key, writable);
+                    }
+                    if (writable) {
+                        writableCount++;
+                    } else {
+                        readOnlyCount++;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new ContactDeletionSummary(contactIds.length, readOnlyCount, writableCount);
+    }
+
+    private static String buildSelection(int count) {
+        final String[] placeholders = new String[count];
+        Arrays.fill(placeholders, "?");
+        return RawContacts.DELETED + "=0 AND " + RawContacts.CONTACT_ID + " IN ("
+                + TextUtils.join(",", placeholders) + ")";
+    }
+
+    private static String[] buildSelectionArgs(long[] contactIds, int start, int end) {
+        final String[] args = new String[end - start];
+        for (int i = start; i < end; i++) {
+            args[i - start] = String.valueOf(contactIds[i]);
+        }
+        return args;
+    }
+
+    /**
+     * Loads the {@link ContactDeletionSummary} of the given contacts in the background.
+     */
+    public static class Loader extends AsyncTaskLoader<ContactDeletionSummary> {
+        private final long[] mContactIds;
+        private ContactDeletionSummary mSummary;
+
+        public Loader(Context context, long[] contactIds) {
+            super(context);
+            mContactIds = contactIds;
+        }
+
+        @Override
+        public ContactDeletionSummary loadInBackground() {
+            return load(getContext(), mContactIds);
+        }
+
+        @Override
+        public void deliverResult(ContactDeletionSummary summary) {
+            mSummary = summary;
+            if (isStarted()) {
+                super.deliverResult(summary);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (mSummary != null) {
+                deliverResult(mSummary);
+            } else {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            super.onReset();
+            cancelLoad();
+            mSummary = null;
+        }
+    }
+}
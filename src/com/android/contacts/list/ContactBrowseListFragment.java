@@ -614,6 +614,10 @@ public abstract class ContactBrowseListFragment extends
         if (mListener != null) mListener.onDeleteContactAction(contactUri);
     }
 
+    public void deleteContacts(long[] contactIds) {
+        if (mListener != null) mListener.onDeleteContactsAction(contactIds);
+    }
+
     public void addToFavorites(Uri contactUri) {
         if (mListener != null) mListener.onAddToFavoritesAction(contactUri);
     }
@@ -15,18 +15,26 @@
  */
 package com.android.contacts.list;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
+import android.content.Loader;
 import android.database.Cursor;
+import android.os.Bundle;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Directory;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.ActionMode;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.view.accessibility.AccessibilityEvent;
+import android.widget.AbsListView.MultiChoiceModeListener;
 import android.widget.Button;
 import android.widget.FrameLayout;
 import android.widget.ListView;
@@ -38,9 +46,11 @@ import com.android.contacts.common.list.ContactListFilter;
 import com.android.contacts.common.list.ContactListFilterController;
 import com.android.contacts.common.list.ContactListItemView;
 import com.android.contacts.common.list.DefaultContactListAdapter;
+import com.android.contacts.common.list.DirectoryPartition;
 import com.android.contacts.common.list.ProfileAndContactsLoader;
 import com.android.contacts.editor.ContactEditorFragment;
 import com.android.contacts.common.util.AccountFilterUtil;
+import com.android.contacts.util.LongHashSet;
 
 /**
  * Fragment containing a contact list used for browsing (as compared to
@@ -51,6 +61,8 @@ public class DefaultContactBrowseListFragment extends ContactBrowseListFragment
 
     private static final int REQUEST_CODE_ACCOUNT_FILTER = 1;
 
+    private static final String KEY_SELECTED_CONTACT_IDS = "selectedContactIds";
+
     private TextView mCounterHeaderView;
     private View mSearchHeaderView;
     private View mAccountFilterHeader;
@@ -73,12 +85,172 @@ public class DefaultContactBrowseListFragment extends ContactBrowseListFragment
     }
     private OnClickListener mFilterHeaderClickListener = new FilterHeaderClickListener();
 
+    /**
+     * Lets the user select contacts with a long press and delete them all at once. Only
+     * contacts of the local directory can be selected.
+     */
+    private class SelectionModeListener implements MultiChoiceModeListener {
+        /** The IDs of the selected contacts, which stay valid if the list is reloaded. */
+        private final LongHashSet mContactIds = new LongHashSet();
+        private ActionMode mMode;
+        /** Whether the checked rows are being rebuilt from {@link #mContactIds}. */
+        private boolean mRestoring;
+
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            // A long press checks its row only after starting the mode. Rows are already checked
+            // only if the list view restarts the mode after a configuration change, in which
+            // case restoreSelection() brought back the selected IDs.
+            if (getListView().getCheckedItemCount() == 0) {
+                mContactIds.clear();
+            }
+            mMode = mode;
+            mode.getMenuInflater().inflate(R.menu.contact_list_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
+                boolean checked) {
+            if (mRestoring) {
+                return;
+            }
+            final long contactId =
+                    getLocalContactId(position - getListView().getHeaderViewsCount());
+            if (contactId == -1) {
+                if (checked) {
+                    // Calls back with checked set to false.
+                    getListView().setItemChecked(position, false);
+                    return;
+                }
+            } else if (checked) {
+                mContactIds.add(contactId);
+            } else {
+                mContactIds.remove(contactId);
+            }
+
+            if (mContactIds.isEmpty()) {
+                mode.finish();
+                return;
+            }
+            final int count = mContactIds.size();
+            mode.setTitle(getResources().getQuantityString(
+                    R.plurals.listSelectedContacts, count, count));
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case R.id.menu_delete: {
+                    deleteContacts(mContactIds.toArray());
+                    mode.finish();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            mMode = null;
+            mContactIds.clear();
+        }
+
+        public void finish() {
+            if (mMode != null) {
+                mMode.finish();
+            }
+        }
+
+        /**
+         * @return the IDs of the selected contacts, or null if the mode isn't active.
+         */
+        public long[] saveSelection() {
+            return mMode == null ? null : mContactIds.toArray();
+        }
+
+        public void restoreSelection(long[] contactIds) {
+            mContactIds.clear();
+            for (long contactId : contactIds) {
+                mContactIds.add(contactId);
+            }
+        }
+
+        /**
+         * Checks the rows that show the selected contacts after the list was reloaded, since
+         * the list view keeps the checked rows by position. Contacts that are no longer in the
+         * list are dropped from the selection, and the mode ends if none of them is left.
+         */
+        public void restoreCheckedItems() {
+            if (mMode == null) {
+                return;
+            }
+            final ListView listView = getListView();
+            final int headerCount = listView.getHeaderViewsCount();
+            final int count = getAdapter().getCount();
+            final LongHashSet found = new LongHashSet(mContactIds.size());
+            mRestoring = true;
+            try {
+                listView.clearChoices();
+                for (int position = 0; position < count; position++) {
+                    final long contactId = getLocalContactId(position);
+                    if (contactId != -1 && mContactIds.contains(contactId)) {
+                        found.add(contactId);
+                        listView.setItemChecked(position + headerCount, true);
+                    }
+                }
+            } finally {
+                mRestoring = false;
+            }
+
+            if (found.isEmpty()) {
+                mMode.finish();
+                return;
+            }
+            mContactIds.clear();
+            for (long contactId : found.toArray()) {
+                mContactIds.add(contactId);
+            }
+            final int selected = mContactIds.size();
+            mMode.setTitle(getResources().getQuantityString(
+                    R.plurals.listSelectedContacts, selected, selected));
+        }
+    }
+    private final SelectionModeListener mSelectionModeListener = new SelectionModeListener();
+
     public DefaultContactBrowseListFragment() {
         setPhotoLoaderEnabled(true);
         setSectionHeaderDisplayEnabled(true);
         setVisibleScrollbarEnabled(true);
     }
 
+    @Override
+    public void restoreSavedState(Bundle savedState) {
+        super.restoreSavedState(savedState);
+
+        if (savedState == null) {
+            return;
+        }
+
+        // The list view restores the checked rows and restarts the mode by itself; the rows are
+        // matched against these IDs once the list is loaded again.
+        final long[] contactIds = savedState.getLongArray(KEY_SELECTED_CONTACT_IDS);
+        if (contactIds != null) {
+            mSelectionModeListener.restoreSelection(contactIds);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLongArray(KEY_SELECTED_CONTACT_IDS, mSelectionModeListener.saveSelection());
+    }
+
     @Override
     public CursorLoader createCursorLoader(Context context) {
         return new ProfileAndContactsLoader(context);
@@ -130,10 +302,39 @@ public class DefaultContactBrowseListFragment extends ContactBrowseListFragment
 
         mSearchProgress = getView().findViewById(R.id.search_progress);
         mSearchProgressText = (TextView) mSearchHeaderView.findViewById(R.id.totalContactsText);
+
+        getListView().setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        getListView().setMultiChoiceModeListener(mSelectionModeListener);
+    }
+
+    /**
+     * Returns the ID of the contact at the given position of the adapter, or -1 if there is
+     * none or it is not a contact of the local directory, such as the user's profile.
+     */
+    private long getLocalContactId(int position) {
+        final ContactListAdapter adapter = getAdapter();
+        if (position < 0 || position >= adapter.getCount() || adapter.getItem(position) == null
+                || adapter.isUserProfile(position)) {
+            return -1;
+        }
+        final DirectoryPartition directory = (DirectoryPartition) adapter.getPartition(
+                adapter.getPartitionForPosition(position));
+        if (directory.getDirectoryId() != Directory.DEFAULT) {
+            return -1;
+        }
+        return ContentUris.parseId(adapter.getContactUri(position));
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        super.onLoadFinished(loader, data);
+        mSelectionModeListener.restoreCheckedItems();
     }
 
     @Override
     protected void setSearchMode(boolean flag) {
+        // The positions of the selected contacts are about to change.
+        mSelectionModeListener.finish();
         super.setSearchMode(flag);
         checkHeaderViewVisibility();
         if (!flag) showSearchProgress(false);
@@ -66,10 +66,11 @@ public class JoinContactListAdapter extends ContactListAdapter {
         this.mTargetContactId = targetContactId;
     }
 
-    @Override
-    public void configureLoader(CursorLoader cursorLoader, long directoryId) {
-        JoinContactLoader loader = (JoinContactLoader) cursorLoader;
-
+    /**
+     * Configures the loader of the suggestions partition, which is loaded alongside the
+     * loader configured by {@link #configureLoader} rather than before it.
+     */
+    public void configureSuggestionLoader(CursorLoader loader) {
         final Builder builder = Contacts.CONTENT_URI.buildUpon();
         builder.appendEncodedPath(String.valueOf(mTargetContactId));
         builder.appendEncodedPath(AggregationSuggestions.CONTENT_DIRECTORY);
@@ -81,10 +82,16 @@ public class JoinContactListAdapter extends ContactListAdapter {
 
         builder.appendQueryParameter("limit", String.valueOf(MAX_SUGGESTIONS));
 
-        loader.setSuggestionUri(builder.build());
+        loader.setUri(builder.build());
 
         // TODO simplify projection
         loader.setProjection(getProjection(false));
+    }
+
+    @Override
+    public void configureLoader(CursorLoader loader, long directoryId) {
+        final String filter = getQueryString();
+        loader.setProjection(getProjection(false));
         final Uri allContactsUri;
         if (!TextUtils.isEmpty(filter)) {
             allContactsUri = buildSectionIndexerUri(Contacts.CONTENT_FILTER_URI).buildUpon()
@@ -34,7 +34,6 @@ import android.widget.TextView;
 import com.android.contacts.R;
 import com.android.contacts.common.list.ContactEntryListFragment;
 import com.android.contacts.common.list.ContactListItemView;
-import com.android.contacts.list.JoinContactLoader.JoinContactLoaderResult;
 
 /**
  * Fragment for the Join Contact list.
@@ -59,8 +58,16 @@ public class JoinContactListFragment extends ContactEntryListFragment<JoinContac
                             ContentUris.withAppendedId(Contacts.CONTENT_URI, mTargetContactId),
                             new String[] { Contacts.DISPLAY_NAME }, null, null, null);
                 }
+                case JoinContactListAdapter.PARTITION_SUGGESTIONS: {
+                    CursorLoader loader = new CursorLoader(getActivity());
+                    JoinContactListAdapter adapter = getAdapter();
+                    if (adapter != null) {
+                        adapter.configureSuggestionLoader(loader);
+                    }
+                    return loader;
+                }
                 case JoinContactListAdapter.PARTITION_ALL_CONTACTS: {
-                    JoinContactLoader loader = new JoinContactLoader(getActivity());
+                    CursorLoader loader = new CursorLoader(getActivity());
                     JoinContactListAdapter adapter = getAdapter();
                     if (adapter != null) {
                         adapter.configureLoader(loader, 0);
@@ -80,9 +87,12 @@ public class JoinContactListFragment extends ContactEntryListFragment<JoinContac
                     }
                     break;
                 }
+                case JoinContactListAdapter.PARTITION_SUGGESTIONS: {
+                    getAdapter().setSuggestionsCursor(data);
+                    break;
+                }
                 case JoinContactListAdapter.PARTITION_ALL_CONTACTS: {
-                    Cursor suggestionsCursor = ((JoinContactLoaderResult) data).suggestionCursor;
-                    onContactListLoaded(suggestionsCursor, data);
+                    onContactListLoaded(data);
                     break;
                 }
             }
@@ -111,14 +121,16 @@ public class JoinContactListFragment extends ContactEntryListFragment<JoinContac
         getLoaderManager().initLoader(DISPLAY_NAME_LOADER, null, mLoaderCallbacks);
 
         // When this method is called, Uri to be used may be changed. We should use restartLoader()
-        // to load the parameter again.
+        // to load the parameter again. This also cancels queries for the previous parameters.
+        // The suggestions are loaded separately from the full list, so that they can be shown
+        // as soon as they arrive instead of waiting for the much larger query.
+        getLoaderManager().restartLoader(JoinContactListAdapter.PARTITION_SUGGESTIONS,
+                null, mLoaderCallbacks);
         getLoaderManager().restartLoader(JoinContactListAdapter.PARTITION_ALL_CONTACTS,
                 null, mLoaderCallbacks);
     }
 
-    private void onContactListLoaded(Cursor suggestionsCursor, Cursor allContactsCursor) {
-        JoinContactListAdapter adapter = getAdapter();
-        adapter.setSuggestionsCursor(suggestionsCursor);
+    private void onContactListLoaded(Cursor allContactsCursor) {
         setVisibleScrollbarEnabled(true);
         onPartitionLoaded(JoinContactListAdapter.PARTITION_ALL_CONTACTS, allContactsCursor);
     }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.quickcontact;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.SipAddress;
+import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
+import android.provider.ContactsContract.CommonDataKinds.Website;
+import android.text.TextUtils;
+
+import com.android.contacts.common.Collapser;
+import com.android.contacts.common.model.AccountTypeManager;
+import com.android.contacts.common.model.Contact;
+import com.android.contacts.common.model.RawContact;
+import com.android.contacts.common.model.account.AccountType;
+import com.android.contacts.common.model.dataitem.DataItem;
+import com.android.contacts.common.model.dataitem.DataKind;
+import com.android.contacts.common.model.dataitem.EmailDataItem;
+import com.android.contacts.common.model.dataitem.ImDataItem;
+import com.android.contacts.common.util.DataStatus;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable set of {@link Action}s shown by {@link QuickContactActivity} for one contact:
+ * resolved against the installed apps, collapsed and sorted by MIME-type, along with the icon
+ * and description of each MIME-type's button.
+ *
+ * Building the model queries the {@link ResolveCache} and may hit the package manager, so it is
+ * done on the loader's thread by {@link QuickContactLoader}, leaving only view inflation to the
+ * UI thread.
+ */
+final class ActionModel {
+    /**
+     * {@link #LEADING_MIMETYPES} and {@link #TRAILING_MIMETYPES} are used to sort MIME-types.
+     *
+     * <p>The MIME-types in {@link #LEADING_MIMETYPES} appear in the front of the dialog,
+     * in the order specified here.</p>
+     *
+     * <p>The ones in {@link #TRAILING_MIMETYPES} appear in the end of the dialog, in the order
+     * specified here.</p>
+     *
+     * <p>The rest go between them, in the order in the array.</p>
+     */
+    private static final List<String> LEADING_MIMETYPES = Lists.newArrayList(
+            Phone.CONTENT_ITEM_TYPE, SipAddress.CONTENT_ITEM_TYPE, Email.CONTENT_ITEM_TYPE);
+
+    /** See {@link #LEADING_MIMETYPES}. */
+    private static final List<String> TRAILING_MIMETYPES = Lists.newArrayList(
+            StructuredPostal.CONTENT_ITEM_TYPE, Website.CONTENT_ITEM_TYPE);
+
+    private final List<String> mSortedMimeTypes;
+    private final Map<String, List<Action>> mActions;
+    private final Map<String, Action> mDefaults;
+    private final Map<String, Drawable> mIcons;
+    private final Map<String, CharSequence> mDescriptions;
+
+    /** Time spent in each phase of {@link #build}, in milliseconds. */
+    private final long mResolveMillis;
+    private final long mCollapseMillis;
+    private final long mSortMillis;
+    private final boolean mBuiltOnMainThread;
+
+    private ActionModel(List<String> sortedMimeTypes, Map<String, List<Action>> actions,
+            Map<String, Action> defaults, Map<String, Drawable> icons,
+            Map<String, CharSequence> descriptions, long resolveMillis, long collapseMillis,
+            long sortMillis, boolean builtOnMainThread) {
+        mSortedMimeTypes = sortedMimeTypes;
+        mActions = actions;
+        mDefaults = defaults;
+        mIcons = icons;
+        mDescriptions = descriptions;
+        mResolveMillis = resolveMillis;
+        mCollapseMillis = collapseMillis;
+        mSortMillis = sortMillis;
+        mBuiltOnMainThread = builtOnMainThread;
+    }
+
+    /**
+     * Builds the model for the given contact.
+     * @param excludeMimes MIME-types the caller asked not to show, may be null
+     */
+    public static ActionModel build(Context context, Contact data, String[] excludeMimes) {
+        final boolean onMainThread = Looper.myLooper() == Looper.getMainLooper();
+        final ResolveCache cache = ResolveCache.getInstance(context);
+        final AccountTypeManager accountTypes = AccountTypeManager.getInstance(context);
+        final ActionMultiMap actions = new ActionMultiMap();
+        final HashMap<String, Action> defaults = new HashMap<String, Action>();
+
+        long start = SystemClock.elapsedRealtime();
+        for (RawContact rawContact : data.getRawContacts()) {
+            final AccountType accountType = rawContact.getAccountType(context);
+            for (DataItem dataItem : rawContact.getDataItems()) {
+                final String mimeType = dataItem.getMimeType();
+                final DataKind dataKind = accountTypes.getKindOrFallback(accountType, mimeType);
+
+                // Skip this data item if MIME-type excluded
+                if (isMimeExcluded(excludeMimes, mimeType)) continue;
+
+                final long dataId = dataItem.getId();
+                final boolean isPrimary = dataItem.isPrimary();
+                final boolean isSuperPrimary = dataItem.isSuperPrimary();
+
+                if (dataKind != null) {
+                    // Build an action for this data entry, find a mapping to a UI
+                    // element, build its summary from the cursor, and collect it
+                    // along with all others of this MIME-type.
+                    final Action action = new DataAction(context, dataItem, dataKind);
+                    final boolean wasAdded = considerAdd(actions, action, cache, isSuperPrimary);
+                    if (wasAdded) {
+                        // Remember the default
+                        if (isSuperPrimary || (isPrimary && (defaults.get(mimeType) == null))) {
+                            defaults.put(mimeType, action);
+                        }
+                    }
+                }
+
+                // Handle Email rows with presence data as Im entry
+                final DataStatus status = data.getStatuses().get(dataId);
+                if (status != null && dataItem instanceof EmailDataItem) {
+                    final EmailDataItem email = (EmailDataItem) dataItem;
+                    final ImDataItem im = ImDataItem.createFromEmail(email);
+                    if (dataKind != null) {
+                        final DataAction action = new DataAction(context, im, dataKind);
+                        action.setPresence(status.getPresence());
+                        considerAdd(actions, action, cache, isSuperPrimary);
+                    }
+                }
+            }
+        }
+        final long resolveMillis = SystemClock.elapsedRealtime() - start;
+
+        // Collapse Action Lists (remove e.g. duplicate e-mail addresses from different sources)
+        start = SystemClock.elapsedRealtime();
+        final HashMap<String, List<Action>> collapsed = new HashMap<String, List<Action>>();
+        for (Map.Entry<String, ArrayList<Action>> entry : actions.entrySet()) {
+            final ArrayList<Action> actionChildren = entry.getValue();
+            Collapser.collapseList(actionChildren);
+            collapsed.put(entry.getKey(), Collections.unmodifiableList(actionChildren));
+        }
+        final long collapseMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        final List<String> sortedMimeTypes = sortMimeTypes(collapsed.keySet());
+
+        // Resolve the icon and description of each MIME-type's button.
+        final String name = data.getDisplayName();
+        final HashMap<String, Drawable> icons = new HashMap<String, Drawable>();
+        final HashMap<String, CharSequence> descriptions = new HashMap<String, CharSequence>();
+        for (String mimeType : sortedMimeTypes) {
+            final Action firstInfo = collapsed.get(mimeType).get(0);
+            icons.put(mimeType, cache.getIcon(firstInfo));
+            descriptions.put(mimeType, cache.getDescription(firstInfo, name));
+        }
+        final long sortMillis = SystemClock.elapsedRealtime() - start;
+
+        return new ActionModel(Collections.unmodifiableList(sortedMimeTypes),
+                Collections.unmodifiableMap(collapsed), Collections.unmodifiableMap(defaults),
+                Collections.unmodifiableMap(icons), Collections.unmodifiableMap(descriptions),
+                resolveMillis, collapseMillis, sortMillis, onMainThread);
+    }
+
+    /**
+     * @return the MIME-types that have at least one action, in the order their buttons appear.
+     */
+    public List<String> getSortedMimeTypes() {
+        return mSortedMimeTypes;
+    }
+
+    /**
+     * @return the actions for the given MIME-type, or null if it has none.
+     */
+    public List<Action> getActions(String mimeType) {
+        return mActions.get(mimeType);
+    }
+
+    /**
+     * @return the default action for the given MIME-type, or null if none is set.
+     */
+    public Action getDefaultAction(String mimeType) {
+        return mDefaults.get(mimeType);
+    }
+
+    public Drawable getIcon(String mimeType) {
+        return mIcons.get(mimeType);
+    }
+
+    public CharSequence getDescription(String mimeType) {
+        return mDescriptions.get(mimeType);
+    }
+
+    public boolean isEmpty() {
+        return mSortedMimeTypes.isEmpty();
+    }
+
+    /**
+     * Adds the time spent building this model to the given report.
+     */
+    public void addTimingsTo(LaunchTimings timings) {
+        final boolean background = !mBuiltOnMainThread;
+        timings.addPhase("resolve", mResolveMillis, background);
+        timings.addPhase("collapse", mCollapseMillis, background);
+        timings.addPhase("sort", mSortMillis, background);
+    }
+
+    /**
+     * Check if the given MIME-type appears in the list of excluded MIME-types
+     * that the most-recent caller requested.
+     */
+    static boolean isMimeExcluded(String[] excludeMimes, String mimeType) {
+        if (excludeMimes == null) return false;
+        for (String excludedMime : excludeMimes) {
+            if (TextUtils.equals(excludedMime, mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consider adding the given {@link Action}, which will only happen if
+     * {@link android.content.pm.PackageManager} finds an application to handle
+     * {@link Action#getIntent()}.
+     * @param actions the actions collected so far
+     * @param action the action to handle
+     * @param resolveCache cache of applications that can handle actions
+     * @param front indicates whether to add the action to the front of the list
+     * @return true if action has been added
+     */
+    private static boolean considerAdd(ActionMultiMap actions, Action action,
+            ResolveCache resolveCache, boolean front) {
+        if (resolveCache.hasResolve(action)) {
+            actions.put(action.getMimeType(), action, front);
+            return true;
+        }
+        return false;
+    }
+
+    private static List<String> sortMimeTypes(Set<String> mimeTypes) {
+        // All the mime-types to add.
+        final Set<String> containedTypes = new HashSet<String>(mimeTypes);
+        final ArrayList<String> sorted = new ArrayList<String>(containedTypes.size());
+        // First, add LEADING_MIMETYPES, which are most common.
+        for (String mimeType : LEADING_MIMETYPES) {
+            if (containedTypes.contains(mimeType)) {
+                sorted.add(mimeType);
+                containedTypes.remove(mimeType);
+            }
+        }
+
+        // Add all the remaining ones that are not TRAILING
+        for (String mimeType : containedTypes.toArray(new String[containedTypes.size()])) {
+            if (!TRAILING_MIMETYPES.contains(mimeType)) {
+                sorted.add(mimeType);
+                containedTypes.remove(mimeType);
+            }
+        }
+
+        // Then, add TRAILING_MIMETYPES, which are least common.
+        for (String mimeType : TRAILING_MIMETYPES) {
+            if (containedTypes.contains(mimeType)) {
+                containedTypes.remove(mimeType);
+                sorted.add(mimeType);
+            }
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.quickcontact;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Timing report for the launch of {@link QuickContactActivity}. Phases on the UI thread are
+ * recorded as laps, phases that ran on another thread by their duration. The report logs each
+ * phase, and how much of the work was kept off the UI thread.
+ *
+ * A disabled instance records nothing, so calls can stay in place at no cost.
+ */
+final class LaunchTimings {
+    private static final int UI = 0;
+    private static final int BACKGROUND = 1;
+    private static final int WAIT = 2;
+
+    private static final class Phase {
+        public final String label;
+        public final long millis;
+        public final int kind;
+
+        public Phase(String label, long millis, int kind) {
+            this.label = label;
+            this.millis = millis;
+            this.kind = kind;
+        }
+    }
+
+    private final boolean mEnabled;
+    private final String mLabel;
+    private final long mStartMillis;
+    private long mLastLapMillis;
+    private final ArrayList<Phase> mPhases = new ArrayList<Phase>();
+
+    private LaunchTimings(boolean enabled, String label) {
+        mEnabled = enabled;
+        mLabel = label;
+        mStartMillis = enabled ? SystemClock.elapsedRealtime() : 0;
+        mLastLapMillis = mStartMillis;
+    }
+
+    public static LaunchTimings start(String label) {
+        return new LaunchTimings(true, label);
+    }
+
+    public static LaunchTimings getDisabled() {
+        return new LaunchTimings(false, null);
+    }
+
+    /**
+     * Ends a phase on the UI thread, which started with the previous lap.
+     */
+    public void lap(String label) {
+        lap(label, UI);
+    }
+
+    /**
+     * Ends a period during which the UI thread was idle, waiting for a result from another
+     * thread, which started with the previous lap.
+     */
+    public void lapWait(String label) {
+        lap(label, WAIT);
+    }
+
+    /**
+     * Records a phase that took the given time.
+     * @param background true if it ran on another thread than the UI thread
+     */
+    public void addPhase(String label, long millis, boolean background) {
+        if (!mEnabled) return;
+        mPhases.add(new Phase(label, millis, background ? BACKGROUND : UI));
+    }
+
+    /**
+     * Logs the report.
+     */
+    public void log(String tag) {
+        if (!mEnabled) return;
+        final long[] millis = new long[3];
+        final StringBuilder[] phases = new StringBuilder[] {
+                new StringBuilder(), new StringBuilder(), new StringBuilder() };
+        for (Phase phase : mPhases) {
+            phases[phase.kind].append(' ').append(phase.label).append('=').append(phase.millis);
+            millis[phase.kind] += phase.millis;
+        }
+        final long total = SystemClock.elapsedRealtime() - mStartMillis;
+        final long work = millis[UI] + millis[BACKGROUND];
+        Log.d(tag, mLabel + ": total=" + total + "ms ui=" + millis[UI] + "ms background="
+                + millis[BACKGROUND] + "ms wait=" + millis[WAIT] + "ms ("
+                + (work == 0 ? 0 : millis[BACKGROUND] * 100 / work) + "% of the work off the"
+                + " UI thread)");
+        Log.d(tag, "  ui:" + phases[UI]);
+        Log.d(tag, "  background:" + phases[BACKGROUND]);
+        Log.d(tag, "  wait:" + phases[WAIT]);
+    }
+
+    private void lap(String label, int kind) {
+        if (!mEnabled) return;
+        final long now = SystemClock.elapsedRealtime();
+        mPhases.add(new Phase(label, now - mLastLapMillis, kind));
+        mLastLapMillis = now;
+    }
+}
@@ -25,17 +25,10 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.content.pm.PackageManager;
 import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.provider.ContactsContract.CommonDataKinds.Email;
-import android.provider.ContactsContract.CommonDataKinds.Phone;
-import android.provider.ContactsContract.CommonDataKinds.SipAddress;
-import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
-import android.provider.ContactsContract.CommonDataKinds.Website;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.DisplayNameSources;
 import android.provider.ContactsContract.Intents.Insert;
@@ -60,30 +53,16 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.android.contacts.ContactSaveService;
-import com.android.contacts.common.Collapser;
 import com.android.contacts.R;
-import com.android.contacts.common.model.AccountTypeManager;
 import com.android.contacts.common.model.Contact;
 import com.android.contacts.common.model.ContactLoader;
-import com.android.contacts.common.model.RawContact;
-import com.android.contacts.common.model.account.AccountType;
-import com.android.contacts.common.model.dataitem.DataItem;
-import com.android.contacts.common.model.dataitem.DataKind;
-import com.android.contacts.common.model.dataitem.EmailDataItem;
-import com.android.contacts.common.model.dataitem.ImDataItem;
 import com.android.contacts.common.util.Constants;
-import com.android.contacts.common.util.DataStatus;
 import com.android.contacts.common.util.UriUtils;
 import com.android.contacts.util.ImageViewDrawableSetter;
 import com.android.contacts.util.SchedulingUtils;
-import com.android.contacts.common.util.StopWatch;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 // TODO: Save selected tab index during rotation
 
@@ -98,7 +77,7 @@ public class QuickContactActivity extends Activity {
     private static final boolean TRACE_LAUNCH = false;
     private static final String TRACE_TAG = "quickcontact";
     private static final int POST_DRAW_WAIT_DURATION = 60;
-    private static final boolean ENABLE_STOPWATCH = false;
+    private static final boolean ENABLE_TIMING_REPORT = false; // Don't submit with true
 
 
     @SuppressWarnings("deprecation")
@@ -106,7 +85,6 @@ public class QuickContactActivity extends Activity {
 
     private Uri mLookupUri;
     private String[] mExcludeMimes;
-    private List<String> mSortedActionMimeTypes = Lists.newArrayList();
 
     private FloatingChildLayout mFloatingLayout;
 
@@ -123,45 +101,22 @@ public class QuickContactActivity extends Activity {
     private ViewPagerAdapter mPagerAdapter;
 
     private Contact mContactData;
-    private ContactLoader mContactLoader;
+    private QuickContactLoader mContactLoader;
 
     private final ImageViewDrawableSetter mPhotoSetter = new ImageViewDrawableSetter();
 
     /**
-     * Keeps the default action per mimetype. Empty if no default actions are set
+     * The {@link Action}s associated with the aggregate currently displayed by this dialog,
+     * sorted by MIME-type. Built on the loader's thread.
      */
-    private HashMap<String, Action> mDefaultsMap = new HashMap<String, Action>();
-
-    /**
-     * Set of {@link Action} that are associated with the aggregate currently
-     * displayed by this dialog, represented as a map from {@link String}
-     * MIME-type to a list of {@link Action}.
-     */
-    private ActionMultiMap mActions = new ActionMultiMap();
-
-    /**
-     * {@link #LEADING_MIMETYPES} and {@link #TRAILING_MIMETYPES} are used to sort MIME-types.
-     *
-     * <p>The MIME-types in {@link #LEADING_MIMETYPES} appear in the front of the dialog,
-     * in the order specified here.</p>
-     *
-     * <p>The ones in {@link #TRAILING_MIMETYPES} appear in the end of the dialog, in the order
-     * specified here.</p>
-     *
-     * <p>The rest go between them, in the order in the array.</p>
-     */
-    private static final List<String> LEADING_MIMETYPES = Lists.newArrayList(
-            Phone.CONTENT_ITEM_TYPE, SipAddress.CONTENT_ITEM_TYPE, Email.CONTENT_ITEM_TYPE);
-
-    /** See {@link #LEADING_MIMETYPES}. */
-    private static final List<String> TRAILING_MIMETYPES = Lists.newArrayList(
-            StructuredPostal.CONTENT_ITEM_TYPE, Website.CONTENT_ITEM_TYPE);
+    private ActionModel mActionModel;
 
     /** Id for the background loader */
     private static final int LOADER_ID = 0;
 
-    private StopWatch mStopWatch = ENABLE_STOPWATCH
-            ? StopWatch.start("QuickContact") : StopWatch.getNullStopWatch();
+    private LaunchTimings mTimings = ENABLE_TIMING_REPORT
+            || Log.isLoggable(Constants.PERFORMANCE_TAG, Log.DEBUG)
+            ? LaunchTimings.start("QuickContact") : LaunchTimings.getDisabled();
 
     final OnClickListener mOpenDetailsClickHandler = new OnClickListener() {
         @Override
@@ -196,10 +151,10 @@ public class QuickContactActivity extends Activity {
 
     @Override
     protected void onCreate(Bundle icicle) {
-        mStopWatch.lap("c"); // create start
+        mTimings.lap("c"); // create start
         super.onCreate(icicle);
 
-        mStopWatch.lap("sc"); // super.onCreate
+        mTimings.lap("sc"); // super.onCreate
 
         if (TRACE_LAUNCH) android.os.Debug.startMethodTracing(TRACE_TAG);
 
@@ -219,12 +174,12 @@ public class QuickContactActivity extends Activity {
 
         mExcludeMimes = intent.getStringArrayExtra(QuickContact.EXTRA_EXCLUDE_MIMES);
 
-        mStopWatch.lap("i"); // intent parsed
+        mTimings.lap("i"); // intent parsed
 
-        mContactLoader = (ContactLoader) getLoaderManager().initLoader(
+        mContactLoader = (QuickContactLoader) getLoaderManager().initLoader(
                 LOADER_ID, null, mLoaderCallbacks);
 
-        mStopWatch.lap("ld"); // loader started
+        mTimings.lap("ld"); // loader started
 
         // Show QuickContact in front of soft input
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_ALT_FOCUSABLE_IM,
@@ -232,7 +187,7 @@ public class QuickContactActivity extends Activity {
 
         setContentView(R.layout.quickcontact_activity);
 
-        mStopWatch.lap("l"); // layout inflated
+        mTimings.lap("l"); // layout inflated
 
         mFloatingLayout = (FloatingChildLayout) findViewById(R.id.floating_layout);
         mTrack = (ViewGroup) findViewById(R.id.track);
@@ -270,7 +225,7 @@ public class QuickContactActivity extends Activity {
         mPhotoView = (ImageView) mPhotoContainer.findViewById(R.id.photo);
         mPhotoView.setOnClickListener(mOpenDetailsClickHandler);
 
-        mStopWatch.lap("v"); // view initialized
+        mTimings.lap("v"); // view initialized
 
         SchedulingUtils.doAfterLayout(mFloatingLayout, new Runnable() {
             @Override
@@ -279,7 +234,7 @@ public class QuickContactActivity extends Activity {
             }
         });
 
-        mStopWatch.lap("cf"); // onCreate finished
+        mTimings.lap("cf"); // onCreate finished
     }
 
     private void handleOutsideTouch() {
@@ -354,21 +309,14 @@ public class QuickContactActivity extends Activity {
      * that the most-recent caller requested.
      */
     private boolean isMimeExcluded(String mimeType) {
-        if (mExcludeMimes == null) return false;
-        for (String excludedMime : mExcludeMimes) {
-            if (TextUtils.equals(excludedMime, mimeType)) {
-                return true;
-            }
-        }
-        return false;
+        return ActionModel.isMimeExcluded(mExcludeMimes, mimeType);
     }
 
     /**
      * Handle the result from the ContactLoader
      */
-    private void bindData(Contact data) {
+    private void bindData(Contact data, ActionModel actionModel) {
         mContactData = data;
-        final ResolveCache cache = ResolveCache.getInstance(this);
         final Context context = this;
 
         mOpenDetailsOrAddContactImage.setVisibility(isMimeExcluded(Contacts.CONTENT_ITEM_TYPE) ?
@@ -422,130 +370,42 @@ public class QuickContactActivity extends Activity {
             });
         }
 
-        mDefaultsMap.clear();
-
-        mStopWatch.lap("sph"); // Start photo setting
+        mTimings.lap("sph"); // Start photo setting
 
         mPhotoSetter.setupContactPhoto(data, mPhotoView);
 
-        mStopWatch.lap("ph"); // Photo set
-
-        for (RawContact rawContact : data.getRawContacts()) {
-            for (DataItem dataItem : rawContact.getDataItems()) {
-                final String mimeType = dataItem.getMimeType();
-                final AccountType accountType = rawContact.getAccountType(this);
-                final DataKind dataKind = AccountTypeManager.getInstance(this)
-                        .getKindOrFallback(accountType, mimeType);
-
-                // Skip this data item if MIME-type excluded
-                if (isMimeExcluded(mimeType)) continue;
-
-                final long dataId = dataItem.getId();
-                final boolean isPrimary = dataItem.isPrimary();
-                final boolean isSuperPrimary = dataItem.isSuperPrimary();
-
-                if (dataKind != null) {
-                    // Build an action for this data entry, find a mapping to a UI
-                    // element, build its summary from the cursor, and collect it
-                    // along with all others of this MIME-type.
-                    final Action action = new DataAction(context, dataItem, dataKind);
-                    final boolean wasAdded = considerAdd(action, cache, isSuperPrimary);
-                    if (wasAdded) {
-                        // Remember the default
-                        if (isSuperPrimary || (isPrimary && (mDefaultsMap.get(mimeType) == null))) {
-                            mDefaultsMap.put(mimeType, action);
-                        }
-                    }
-                }
+        mTimings.lap("ph"); // Photo set
 
-                // Handle Email rows with presence data as Im entry
-                final DataStatus status = data.getStatuses().get(dataId);
-                if (status != null && dataItem instanceof EmailDataItem) {
-                    final EmailDataItem email = (EmailDataItem) dataItem;
-                    final ImDataItem im = ImDataItem.createFromEmail(email);
-                    if (dataKind != null) {
-                        final DataAction action = new DataAction(context, im, dataKind);
-                        action.setPresence(status.getPresence());
-                        considerAdd(action, cache, isSuperPrimary);
-                    }
-                }
-            }
+        if (actionModel == null) {
+            // The contact didn't come from the loader's thread, e.g. it was cached.
+            actionModel = ActionModel.build(context, data, mExcludeMimes);
+            mTimings.lap("am"); // Action model built
         }
-
-        mStopWatch.lap("e"); // Entities inflated
-
-        // Collapse Action Lists (remove e.g. duplicate e-mail addresses from different sources)
-        for (List<Action> actionChildren : mActions.values()) {
-            Collapser.collapseList(actionChildren);
-        }
-
-        mStopWatch.lap("c"); // List collapsed
+        actionModel.addTimingsTo(mTimings);
+        mActionModel = actionModel;
 
         setHeaderNameText(R.id.name, data.getDisplayName());
 
-        // All the mime-types to add.
-        final Set<String> containedTypes = new HashSet<String>(mActions.keySet());
-        mSortedActionMimeTypes.clear();
-        // First, add LEADING_MIMETYPES, which are most common.
-        for (String mimeType : LEADING_MIMETYPES) {
-            if (containedTypes.contains(mimeType)) {
-                mSortedActionMimeTypes.add(mimeType);
-                containedTypes.remove(mimeType);
-            }
-        }
-
-        // Add all the remaining ones that are not TRAILING
-        for (String mimeType : containedTypes.toArray(new String[containedTypes.size()])) {
-            if (!TRAILING_MIMETYPES.contains(mimeType)) {
-                mSortedActionMimeTypes.add(mimeType);
-                containedTypes.remove(mimeType);
-            }
-        }
-
-        // Then, add TRAILING_MIMETYPES, which are least common.
-        for (String mimeType : TRAILING_MIMETYPES) {
-            if (containedTypes.contains(mimeType)) {
-                containedTypes.remove(mimeType);
-                mSortedActionMimeTypes.add(mimeType);
-            }
-        }
         mPagerAdapter.notifyDataSetChanged();
 
-        mStopWatch.lap("mt"); // Mime types initialized
+        mTimings.lap("mt"); // Mime types initialized
 
         // Add buttons for each mimetype
         mTrack.removeAllViews();
-        for (String mimeType : mSortedActionMimeTypes) {
-            final View actionView = inflateAction(mimeType, cache, mTrack, data.getDisplayName());
+        for (String mimeType : actionModel.getSortedMimeTypes()) {
+            final View actionView = inflateAction(mimeType, mTrack);
             mTrack.addView(actionView);
         }
 
-        mStopWatch.lap("mt"); // Buttons added
+        mTimings.lap("bt"); // Buttons added
 
-        final boolean hasData = !mSortedActionMimeTypes.isEmpty();
+        final boolean hasData = !actionModel.isEmpty();
         mTrackScroller.setVisibility(hasData ? View.VISIBLE : View.GONE);
         mSelectedTabRectangle.setVisibility(hasData ? View.VISIBLE : View.GONE);
         mLineAfterTrack.setVisibility(hasData ? View.VISIBLE : View.GONE);
         mListPager.setVisibility(hasData ? View.VISIBLE : View.GONE);
     }
 
-    /**
-     * Consider adding the given {@link Action}, which will only happen if
-     * {@link PackageManager} finds an application to handle
-     * {@link Action#getIntent()}.
-     * @param action the action to handle
-     * @param resolveCache cache of applications that can handle actions
-     * @param front indicates whether to add the action to the front of the list
-     * @return true if action has been added
-     */
-    private boolean considerAdd(Action action, ResolveCache resolveCache, boolean front) {
-        if (resolveCache.hasResolve(action)) {
-            mActions.put(action.getMimeType(), action, front);
-            return true;
-        }
-        return false;
-    }
-
     /**
      * Bind the correct image resource and click handlers to the header views
      *
@@ -565,24 +425,19 @@ public class QuickContactActivity extends Activity {
     }
 
     /**
-     * Inflate the in-track view for the action of the given MIME-type, collapsing duplicate values.
-     * Will use the icon provided by the {@link DataKind}.
+     * Inflate the in-track view for the action of the given MIME-type, using the icon and
+     * description resolved in the {@link ActionModel}.
      */
-    private View inflateAction(String mimeType, ResolveCache resolveCache,
-                               ViewGroup root, String name) {
+    private View inflateAction(String mimeType, ViewGroup root) {
         final CheckableImageView typeView = (CheckableImageView) getLayoutInflater().inflate(
                 R.layout.quickcontact_track_button, root, false);
 
-        List<Action> children = mActions.get(mimeType);
         typeView.setTag(mimeType);
-        final Action firstInfo = children.get(0);
 
         // Set icon and listen for clicks
-        final CharSequence descrip = resolveCache.getDescription(firstInfo, name);
-        final Drawable icon = resolveCache.getIcon(firstInfo);
         typeView.setChecked(false);
-        typeView.setContentDescription(descrip);
-        typeView.setImageDrawable(icon);
+        typeView.setContentDescription(mActionModel.getDescription(mimeType));
+        typeView.setImageDrawable(mActionModel.getIcon(mimeType));
         typeView.setOnClickListener(mTypeViewClickListener);
 
         return typeView;
@@ -606,7 +461,7 @@ public class QuickContactActivity extends Activity {
 
         @Override
         public void onLoadFinished(Loader<Contact> loader, Contact data) {
-            mStopWatch.lap("lf"); // onLoadFinished
+            mTimings.lapWait("lf"); // onLoadFinished
             if (isFinishing()) {
                 close(false);
                 return;
@@ -624,9 +479,9 @@ public class QuickContactActivity extends Activity {
                 return;
             }
 
-            bindData(data);
+            bindData(data, mContactLoader.getActionModel(data));
 
-            mStopWatch.lap("bd"); // bindData finished
+            mTimings.lap("bd"); // bindData finished
 
             if (TRACE_LAUNCH) android.os.Debug.stopMethodTracing();
             if (Log.isLoggable(Constants.PERFORMANCE_TAG, Log.DEBUG)) {
@@ -646,8 +501,8 @@ public class QuickContactActivity extends Activity {
                     });
                 }
             });
-            mStopWatch.stopAndLog(TAG, 0);
-            mStopWatch = StopWatch.getNullStopWatch(); // We're done with it.
+            mTimings.log(TAG);
+            mTimings = LaunchTimings.getDisabled(); // We're done with it.
         }
 
         @Override
@@ -655,9 +510,7 @@ public class QuickContactActivity extends Activity {
             if (mLookupUri == null) {
                 Log.wtf(TAG, "Lookup uri wasn't initialized. Loader was started too early");
             }
-            return new ContactLoader(getApplicationContext(), mLookupUri,
-                    false /*loadGroupMetaData*/, false /*loadInvitableAccountTypes*/,
-                    false /*postViewNotification*/, true /*computeFormattedPhoneNumber*/);
+            return new QuickContactLoader(getApplicationContext(), mLookupUri, mExcludeMimes);
         }
     };
 
@@ -667,7 +520,7 @@ public class QuickContactActivity extends Activity {
         public void onClick(View view) {
             final CheckableImageView actionView = (CheckableImageView)view;
             final String mimeType = (String) actionView.getTag();
-            int index = mSortedActionMimeTypes.indexOf(mimeType);
+            int index = mActionModel.getSortedMimeTypes().indexOf(mimeType);
             mListPager.setCurrentItem(index, true);
         }
     };
@@ -679,28 +532,25 @@ public class QuickContactActivity extends Activity {
 
         @Override
         public Fragment getItem(int position) {
-            final String mimeType = mSortedActionMimeTypes.get(position);
+            final String mimeType = mActionModel.getSortedMimeTypes().get(position);
             QuickContactListFragment fragment = new QuickContactListFragment(mimeType);
-            final List<Action> actions = mActions.get(mimeType);
+            final List<Action> actions = mActionModel.getActions(mimeType);
             fragment.setActions(actions);
             return fragment;
         }
 
         @Override
         public int getCount() {
-            return mSortedActionMimeTypes.size();
+            return mActionModel == null ? 0 : mActionModel.getSortedMimeTypes().size();
         }
 
         @Override
         public int getItemPosition(Object object) {
             final QuickContactListFragment fragment = (QuickContactListFragment) object;
             final String mimeType = fragment.getMimeType();
-            for (int i = 0; i < mSortedActionMimeTypes.size(); i++) {
-                if (mimeType.equals(mSortedActionMimeTypes.get(i))) {
-                    return i;
-                }
-            }
-            return PagerAdapter.POSITION_NONE;
+            final int index = mActionModel == null ? -1
+                    : mActionModel.getSortedMimeTypes().indexOf(mimeType);
+            return index >= 0 ? index : PagerAdapter.POSITION_NONE;
         }
     }
 
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.quickcontact;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.android.contacts.common.model.Contact;
+import com.android.contacts.common.model.ContactLoader;
+
+/**
+ * {@link ContactLoader} that also builds the {@link ActionModel} of the loaded contact on the
+ * loader's thread.
+ */
+class QuickContactLoader extends ContactLoader {
+    private final String[] mExcludeMimes;
+
+    /** The contact the action model was built for, and the model. Guarded by this. */
+    private Contact mModelContact;
+    private ActionModel mActionModel;
+
+    public QuickContactLoader(Context context, Uri lookupUri, String[] excludeMimes) {
+        super(context, lookupUri, false /*loadGroupMetaData*/,
+                false /*loadInvitableAccountTypes*/, false /*postViewNotification*/,
+                true /*computeFormattedPhoneNumber*/);
+        mExcludeMimes = excludeMimes;
+    }
+
+    @Override
+    public Contact loadInBackground() {
+        final Contact contact = super.loadInBackground();
+        ActionModel model = null;
+        if (contact != null && contact.isLoaded()) {
+            model = ActionModel.build(getContext(), contact, mExcludeMimes);
+        }
+        synchronized (this) {
+            mModelContact = contact;
+            mActionModel = model;
+        }
+        return contact;
+    }
+
+    /**
+     * @return the action model built along with the given contact, or null if the contact was
+     *     delivered without being loaded by this loader, for example from the cache.
+     */
+    public synchronized ActionModel getActionModel(Contact contact) {
+        return contact == mModelContact ? mActionModel : null;
+    }
+}
@@ -17,29 +17,73 @@
 package com.android.contacts.quickcontact;
 
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Im;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.SipAddress;
+import android.provider.ContactsContract.CommonDataKinds.Website;
 import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
 
+import com.android.contacts.common.CallUtil;
+import com.android.contacts.common.ContactsUtils;
 import com.android.contacts.util.PhoneCapabilityTester;
 import com.google.common.collect.Sets;
 
-import java.lang.ref.SoftReference;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Internally hold a cache of scaled icons based on {@link PackageManager}
  * queries, keyed internally on MIME-type.
+ *
+ * <p>The cache is persisted to disk, so that {@link QuickContactActivity} doesn't have to query
+ * the {@link PackageManager} on the UI thread after the process was restarted. It is loaded and
+ * refreshed in the background by {@link #prewarm}. When a package is installed, removed or
+ * changed, only the entries that package can affect are recomputed.
  */
 public class ResolveCache {
+    private static final String TAG = "ResolveCache";
+
+    /** Name of the file the cache is persisted to, in the application's cache directory. */
+    private static final String CACHE_FILE_NAME = "quickcontact_resolve_cache";
+
+    /** Bump this whenever the file format changes; older files are then ignored. */
+    private static final int CACHE_FILE_VERSION = 2;
+
+    private static final int BACKGROUND_THREAD_KEEP_ALIVE_SECONDS = 10;
+
     /**
      * Specific list {@link ApplicationInfo#packageName} of apps that are
      * prefered <strong>only</strong> for the purposes of default icons when
@@ -62,6 +106,10 @@ public class ResolveCache {
 
     private final Context mContext;
     private final PackageManager mPackageManager;
+    private final AtomicFile mCacheFile;
+
+    /** Runs the disk I/O and the package manager queries that are off the UI thread. */
+    private final ExecutorService mBackgroundExecutor;
 
     private static ResolveCache sInstance;
 
@@ -74,7 +122,7 @@ public class ResolveCache {
             final Context applicationContext = context.getApplicationContext();
             sInstance = new ResolveCache(applicationContext);
 
-            // Register for package-changes so that we can flush our cache
+            // Register for package-changes so that we can update our cache
             final IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
             filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
             filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
@@ -85,35 +133,119 @@ public class ResolveCache {
         return sInstance;
     }
 
-    private synchronized static void flush() {
-        sInstance = null;
-    }
-
     /**
-     * Called anytime a package is installed, uninstalled etc, so that we can wipe our cache
+     * Called anytime a package is installed, uninstalled etc, so that we can update the entries
+     * that package may have an effect on.
      */
     private BroadcastReceiver mPackageIntentReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            flush();
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (TextUtils.isEmpty(packageName)) {
+                clear();
+                return;
+            }
+            mBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshPackage(packageName);
+                }
+            });
         }
     };
 
     /**
-     * Cached entry holding the best {@link ResolveInfo} for a specific
-     * MIME-type, along with a {@link SoftReference} to its icon.
+     * Cached entry holding the best resolved activity for a specific MIME-type, along with its
+     * label and icon.
      */
     private static class Entry {
-        public ResolveInfo bestResolve;
-        public Drawable icon;
+        public final String mimeType;
+
+        /**
+         * Intent used to refresh the entry, stripped of any personal data. Null if the
+         * MIME-type can't be handled on this device at all.
+         */
+        public final Intent intent;
+
+        /** The best activity, or null if there is none. */
+        public final ComponentName component;
+        public final CharSequence label;
+        public final Drawable icon;
+
+        public Entry(String mimeType, Intent intent, ComponentName component,
+                CharSequence label, Drawable icon) {
+            this.mimeType = mimeType;
+            this.intent = intent;
+            this.component = component;
+            this.label = label;
+            this.icon = icon;
+        }
     }
 
-    private HashMap<String, Entry> mCache = new HashMap<String, Entry>();
+    /** Entries keyed by MIME-type, guarded by itself. */
+    private final HashMap<String, Entry> mCache = new HashMap<String, Entry>();
+
+    /** Whether the persisted file is out of date, guarded by {@link #mCache}. */
+    private boolean mDirty;
 
+    /** Whether the persisted file was read, guarded by {@link #mCache}. */
+    private boolean mLoaded;
 
     private ResolveCache(Context context) {
         mContext = context;
         mPackageManager = context.getPackageManager();
+        mCacheFile = new AtomicFile(new File(context.getCacheDir(), CACHE_FILE_NAME));
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                BACKGROUND_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "ResolveCache");
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        mBackgroundExecutor = executor;
+    }
+
+    /**
+     * Loads the persisted cache and brings it up to date, so that a later
+     * {@link QuickContactActivity} can bind its actions without querying the
+     * {@link PackageManager}. Must not be called on the UI thread.
+     */
+    public void prewarm() {
+        load();
+
+        // Persisted entries may be stale if packages changed while the process was not running.
+        for (Entry entry : getEntries()) {
+            if (entry.intent != null) {
+                refresh(entry.mimeType, entry.intent);
+            }
+        }
+
+        // Seed the MIME-types whose intents don't depend on the data.
+        refreshIfMissing(Email.CONTENT_ITEM_TYPE,
+                new Intent(Intent.ACTION_SENDTO, Uri.fromParts(CallUtil.SCHEME_MAILTO, "", null)));
+        refreshIfMissing(Website.CONTENT_ITEM_TYPE,
+                new Intent(Intent.ACTION_VIEW, Uri.parse("http:")));
+        if (PhoneCapabilityTester.isPhone(mContext)) {
+            // Texting is only the alternate action of a phone number, which isn't resolved here.
+            refreshIfMissing(Phone.CONTENT_ITEM_TYPE,
+                    CallUtil.getCallIntent(Uri.fromParts(CallUtil.SCHEME_TEL, "", null)));
+        }
+        // Without SIP support the action has no intent at all, as in getEntry().
+        refreshIfMissing(SipAddress.CONTENT_ITEM_TYPE, PhoneCapabilityTester.isSipPhone(mContext)
+                ? CallUtil.getCallIntent(Uri.fromParts(CallUtil.SCHEME_SIP, "", null))
+                : null);
+        // Only the protocol is kept in the cached intent, so use the one of IM addresses that
+        // come from emails.
+        final String imHost = ContactsUtils.lookupProviderNameFromId(Im.PROTOCOL_GOOGLE_TALK);
+        refreshIfMissing(Im.CONTENT_ITEM_TYPE, new Intent(Intent.ACTION_SENDTO,
+                new Uri.Builder().scheme(CallUtil.SCHEME_IMTO).authority(imHost.toLowerCase())
+                        .build()));
+
+        save();
     }
 
     /**
@@ -122,9 +254,10 @@ public class ResolveCache {
      */
     protected Entry getEntry(Action action) {
         final String mimeType = action.getMimeType();
-        Entry entry = mCache.get(mimeType);
-        if (entry != null) return entry;
-        entry = new Entry();
+        synchronized (mCache) {
+            final Entry entry = mCache.get(mimeType);
+            if (entry != null) return entry;
+        }
 
         Intent intent = action.getIntent();
         if (SipAddress.CONTENT_ITEM_TYPE.equals(mimeType)
@@ -132,29 +265,41 @@ public class ResolveCache {
             intent = null;
         }
 
-        if (intent != null) {
-            final List<ResolveInfo> matches = mPackageManager.queryIntentActivities(intent,
-                    PackageManager.MATCH_DEFAULT_ONLY);
+        final Entry entry = resolve(mimeType, intent);
+        put(entry);
+        scheduleSave();
+        return entry;
+    }
 
-            // Pick first match, otherwise best found
-            ResolveInfo bestResolve = null;
-            final int size = matches.size();
-            if (size == 1) {
-                bestResolve = matches.get(0);
-            } else if (size > 1) {
-                bestResolve = getBestResolve(intent, matches);
-            }
+    /**
+     * Queries the {@link PackageManager} for the best activity handling the given intent.
+     */
+    private Entry resolve(String mimeType, Intent intent) {
+        if (intent == null) {
+            return new Entry(mimeType, null, null, null, null);
+        }
 
-            if (bestResolve != null) {
-                final Drawable icon = bestResolve.loadIcon(mPackageManager);
+        final List<ResolveInfo> matches = mPackageManager.queryIntentActivities(intent,
+                PackageManager.MATCH_DEFAULT_ONLY);
 
-                entry.bestResolve = bestResolve;
-                entry.icon = icon;
-            }
+        // Pick first match, otherwise best found
+        ResolveInfo bestResolve = null;
+        final int size = matches.size();
+        if (size == 1) {
+            bestResolve = matches.get(0);
+        } else if (size > 1) {
+            bestResolve = getBestResolve(intent, matches);
         }
 
-        mCache.put(mimeType, entry);
-        return entry;
+        final Intent refreshIntent = stripIntent(intent);
+        if (bestResolve == null) {
+            return new Entry(mimeType, refreshIntent, null, null, null);
+        }
+        return new Entry(mimeType, refreshIntent,
+                new ComponentName(bestResolve.activityInfo.packageName,
+                        bestResolve.activityInfo.name),
+                bestResolve.loadLabel(mPackageManager),
+                bestResolve.loadIcon(mPackageManager));
     }
 
     /**
@@ -199,7 +344,7 @@ public class ResolveCache {
      * given {@link Action}.
      */
     public boolean hasResolve(Action action) {
-        return getEntry(action).bestResolve != null;
+        return getEntry(action).component != null;
     }
 
     /**
@@ -207,8 +352,7 @@ public class ResolveCache {
      * for accessibility purposes.
      */
     public CharSequence getDescription(Action action, String name) {
-        final ResolveInfo info = getEntry(action).bestResolve;
-        final CharSequence infoStr = info != null ? info.loadLabel(mPackageManager) : null;
+        final CharSequence infoStr = getEntry(action).label;
         CharSequence actionDesc = action.getSubtitle();
         CharSequence strs[];
         if (!TextUtils.isEmpty(name) && !TextUtils.isEmpty(actionDesc)) {
@@ -230,6 +374,253 @@ public class ResolveCache {
     }
 
     public void clear() {
-        mCache.clear();
+        synchronized (mCache) {
+            mCache.clear();
+            mDirty = false;
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCacheFile.delete();
+            }
+        });
+    }
+
+    /**
+     * Recomputes the entries that the given package may have an effect on: those resolved to
+     * one of its activities, and those it has an activity for.
+     */
+    private void refreshPackage(String packageName) {
+        for (Entry entry : getEntries()) {
+            if (entry.intent == null) {
+                continue;
+            }
+            boolean affected = entry.component != null
+                    && packageName.equals(entry.component.getPackageName());
+            if (!affected) {
+                final Intent probe = new Intent(entry.intent);
+                probe.setPackage(packageName);
+                affected = !mPackageManager.queryIntentActivities(probe,
+                        PackageManager.MATCH_DEFAULT_ONLY).isEmpty();
+            }
+            if (affected) {
+                refresh(entry.mimeType, entry.intent);
+            }
+        }
+        save();
+    }
+
+    private void refresh(String mimeType, Intent intent) {
+        put(resolve(mimeType, intent));
+    }
+
+    private void refreshIfMissing(String mimeType, Intent intent) {
+        synchronized (mCache) {
+            if (mCache.containsKey(mimeType)) return;
+        }
+        refresh(mimeType, intent);
+    }
+
+    private void put(Entry entry) {
+        synchronized (mCache) {
+            mCache.put(entry.mimeType, entry);
+            mDirty = true;
+        }
+    }
+
+    private ArrayList<Entry> getEntries() {
+        synchronized (mCache) {
+            return new ArrayList<Entry>(mCache.values());
+        }
+    }
+
+    private void scheduleSave() {
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    /**
+     * Reads the persisted entries, without overwriting any entry that was computed already.
+     */
+    private void load() {
+        synchronized (mCache) {
+            if (mLoaded) return;
+            mLoaded = true;
+        }
+        if (!mCacheFile.getBaseFile().exists()) {
+            return;
+        }
+
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mCacheFile.openRead()));
+            if (in.readInt() != CACHE_FILE_VERSION) {
+                return;
+            }
+            // Labels and icons were resolved for the locale and density the file was written
+            // with. Entries whose packages changed meanwhile are refreshed by prewarm().
+            if (!getLocaleStamp().equals(in.readUTF()) || getDensityDpi() != in.readInt()) {
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                entries.add(readEntry(in));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mCacheFile.getBaseFile(), e);
+            return;
+        } catch (URISyntaxException e) {
+            Log.w(TAG, "Failed to read " + mCacheFile.getBaseFile(), e);
+            return;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        synchronized (mCache) {
+            for (Entry entry : entries) {
+                if (!mCache.containsKey(entry.mimeType)) {
+                    mCache.put(entry.mimeType, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entries to disk if they changed since they were last written.
+     */
+    private void save() {
+        final ArrayList<Entry> entries;
+        synchronized (mCache) {
+            if (!mDirty) return;
+            mDirty = false;
+            entries = new ArrayList<Entry>(mCache.values());
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = mCacheFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(CACHE_FILE_VERSION);
+            out.writeUTF(getLocaleStamp());
+            out.writeInt(getDensityDpi());
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                writeEntry(out, entry);
+            }
+            out.flush();
+            mCacheFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mCacheFile.getBaseFile(), e);
+            if (stream != null) {
+                mCacheFile.failWrite(stream);
+            }
+        }
+    }
+
+    private String getLocaleStamp() {
+        final Locale locale = mContext.getResources().getConfiguration().locale;
+        return locale != null ? locale.toString() : "";
+    }
+
+    private int getDensityDpi() {
+        return mContext.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    private Entry readEntry(DataInputStream in) throws IOException, URISyntaxException {
+        final String mimeType = in.readUTF();
+        final Intent intent = in.readBoolean() ? Intent.parseUri(in.readUTF(), 0) : null;
+        if (!in.readBoolean()) {
+            return new Entry(mimeType, intent, null, null, null);
+        }
+        final ComponentName component = new ComponentName(in.readUTF(), in.readUTF());
+        final String label = in.readUTF();
+        final byte[] iconBytes = new byte[in.readInt()];
+        in.readFully(iconBytes);
+
+        Drawable icon = null;
+        if (iconBytes.length > 0) {
+            final Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
+            if (bitmap != null) {
+                icon = new BitmapDrawable(mContext.getResources(), bitmap);
+            }
+        }
+        return new Entry(mimeType, intent, component, label, icon);
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeUTF(entry.mimeType);
+        out.writeBoolean(entry.intent != null);
+        if (entry.intent != null) {
+            out.writeUTF(entry.intent.toUri(0));
+        }
+        out.writeBoolean(entry.component != null);
+        if (entry.component == null) {
+            return;
+        }
+        out.writeUTF(entry.component.getPackageName());
+        out.writeUTF(entry.component.getClassName());
+        out.writeUTF(entry.label != null ? entry.label.toString() : "");
+        final byte[] iconBytes = compressIcon(entry.icon);
+        out.writeInt(iconBytes.length);
+        out.write(iconBytes);
+    }
+
+    private static byte[] compressIcon(Drawable icon) {
+        if (icon == null) {
+            return new byte[0];
+        }
+        final Bitmap bitmap;
+        if (icon instanceof BitmapDrawable) {
+            bitmap = ((BitmapDrawable) icon).getBitmap();
+        } else {
+            final int width = icon.getIntrinsicWidth();
+            final int height = icon.getIntrinsicHeight();
+            if (width <= 0 || height <= 0) {
+                return new byte[0];
+            }
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            final Drawable copy = icon.getConstantState() != null
+                    ? icon.getConstantState().newDrawable() : icon;
+            copy.setBounds(0, 0, width, height);
+            copy.draw(new Canvas(bitmap));
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a copy of the intent with only what intent filters match on, so that no phone
+     * numbers or addresses end up in the persisted cache.
+     */
+    private static Intent stripIntent(Intent intent) {
+        final Intent result = new Intent(intent.getAction());
+        final Uri data = intent.getData();
+        Uri strippedData = null;
+        if (data != null && data.getScheme() != null) {
+            strippedData = new Uri.Builder()
+                    .scheme(data.getScheme())
+                    .authority(data.getAuthority())
+                    .build();
+        }
+        result.setDataAndType(strippedData, intent.getType());
+        result.setComponent(intent.getComponent());
+        if (intent.getCategories() != null) {
+            for (String category : intent.getCategories()) {
+                result.addCategory(category);
+            }
+        }
+        return result;
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+
+/**
+ * A small pool of mutable bitmaps that are no longer displayed, to be passed to
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} so that decoding a photo doesn't
+ * allocate a new bitmap every time. Thread-safe.
+ */
+public final class BitmapPool {
+    private final int mMaxSize;
+    private final ArrayList<Bitmap> mBitmaps;
+
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+        mBitmaps = new ArrayList<Bitmap>(maxSize);
+    }
+
+    /**
+     * Returns a bitmap that {@link android.graphics.BitmapFactory} can decode an image of the
+     * given size into, removing it from the pool, or null if there is none.
+     *
+     * @param width width of the image before subsampling
+     * @param height height of the image before subsampling
+     * @param sampleSize the subsampling factor the image will be decoded with
+     */
+    public synchronized Bitmap get(int width, int height, int sampleSize, Bitmap.Config config) {
+        final boolean anySize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        if (!anySize && sampleSize != 1) {
+            // Before KitKat, inBitmap only works for images decoded at their full size.
+            return null;
+        }
+        final int scaledWidth = (width + sampleSize - 1) / sampleSize;
+        final int scaledHeight = (height + sampleSize - 1) / sampleSize;
+        final int bytes = scaledWidth * scaledHeight * getBytesPerPixel(config);
+        for (int i = 0; i < mBitmaps.size(); i++) {
+            final Bitmap bitmap = mBitmaps.get(i);
+            final boolean fits = anySize
+                    ? bitmap.getAllocationByteCount() >= bytes
+                    : bitmap.getWidth() == width && bitmap.getHeight() == height
+                            && bitmap.getConfig() == config;
+            if (fits) {
+                mBitmaps.remove(i);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a bitmap decoded with the given subsampling factor could be reused from
+     * the pool later on, i.e. whether it is worth decoding it as a mutable bitmap.
+     */
+    public synchronized boolean accepts(int sampleSize) {
+        final boolean anySize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        return (anySize || sampleSize == 1) && mBitmaps.size() < mMaxSize;
+    }
+
+    /**
+     * Returns a bitmap to the pool. The caller must not use the bitmap afterwards, and nothing
+     * else may still be drawing it.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()
+                || mBitmaps.contains(bitmap)) {
+            return;
+        }
+        if (mBitmaps.size() == mMaxSize) {
+            // Drop the oldest one.
+            mBitmaps.remove(0);
+        }
+        mBitmaps.add(bitmap);
+    }
+
+    public synchronized void clear() {
+        mBitmaps.clear();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -21,7 +21,6 @@ import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.MediaStore;
@@ -31,11 +30,12 @@ import android.util.Log;
 import com.google.common.io.Closeables;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -59,44 +59,25 @@ public class ContactPhotoUtils {
      */
     public static Uri generateTempImageUri(Context context) {
         return FileProvider.getUriForFile(context, FILE_PROVIDER_AUTHORITY,
-                new File(pathForTempPhoto(context, generateTempPhotoFileName())));
+                TempPhotoManager.getInstance(context).newTempFile(generateTempPhotoFileName()));
     }
 
     public static Uri generateTempCroppedImageUri(Context context) {
         return FileProvider.getUriForFile(context, FILE_PROVIDER_AUTHORITY,
-                new File(pathForTempPhoto(context, generateTempCroppedPhotoFileName())));
-    }
-
-    private static String pathForTempPhoto(Context context, String fileName) {
-        final File dir = context.getCacheDir();
-        dir.mkdirs();
-        final File f = new File(dir, fileName);
-        return f.getAbsolutePath();
+                TempPhotoManager.getInstance(context).newTempFile(
+                        generateTempCroppedPhotoFileName()));
     }
 
     private static String generateTempPhotoFileName() {
         final Date date = new Date(System.currentTimeMillis());
         SimpleDateFormat dateFormat = new SimpleDateFormat(PHOTO_DATE_FORMAT, Locale.US);
-        return "ContactPhoto-" + dateFormat.format(date) + ".jpg";
+        return TempPhotoManager.FILE_NAME_PREFIX + dateFormat.format(date) + ".jpg";
     }
 
     private static String generateTempCroppedPhotoFileName() {
         final Date date = new Date(System.currentTimeMillis());
         SimpleDateFormat dateFormat = new SimpleDateFormat(PHOTO_DATE_FORMAT, Locale.US);
-        return "ContactPhoto-" + dateFormat.format(date) + "-cropped.jpg";
-    }
-
-    /**
-     * Given a uri pointing to a bitmap, reads it into a bitmap and returns it.
-     * @throws FileNotFoundException
-     */
-    public static Bitmap getBitmapFromUri(Context context, Uri uri) throws FileNotFoundException {
-        final InputStream imageStream = context.getContentResolver().openInputStream(uri);
-        try {
-            return BitmapFactory.decodeStream(imageStream);
-        } finally {
-            Closeables.closeQuietly(imageStream);
-        }
+        return TempPhotoManager.FILE_NAME_PREFIX + dateFormat.format(date) + "-cropped.jpg";
     }
 
     /**
@@ -153,12 +134,12 @@ public class ContactPhotoUtils {
             inputStream = context.getContentResolver().openInputStream(
                     inputUri);
 
-            final byte[] buffer = new byte[16 * 1024];
-            int length;
-            int totalLength = 0;
-            while ((length = inputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, length);
-                totalLength += length;
+            long totalLength = -1;
+            if (inputStream instanceof FileInputStream) {
+                totalLength = transferFromFile((FileInputStream) inputStream, outputStream);
+            }
+            if (totalLength < 0) {
+                totalLength = copy(inputStream, outputStream);
             }
             Log.v(TAG, "Wrote " + totalLength + " bytes for photo " + inputUri.toString());
         } catch (IOException e) {
@@ -168,11 +149,68 @@ public class ContactPhotoUtils {
             Closeables.closeQuietly(inputStream);
             Closeables.closeQuietly(outputStream);
             if (deleteAfterSave) {
-                context.getContentResolver().delete(inputUri, null, null);
+                TempPhotoManager.getInstance(context).delete(inputUri);
             }
         }
         return true;
     }
+
+    /**
+     * Copies a regular file into the output stream using {@link FileChannel#transferTo}, which
+     * lets the kernel move the bytes without going through a heap buffer.
+     * @return the number of bytes written, or -1 if the input is not a regular file (for example
+     *     a pipe), in which case nothing has been written.
+     */
+    private static long transferFromFile(FileInputStream inputStream,
+            FileOutputStream outputStream) throws IOException {
+        final FileChannel in = inputStream.getChannel();
+        final long size;
+        try {
+            size = in.size() - in.position();
+        } catch (IOException e) {
+            return -1;
+        }
+        if (size <= 0) {
+            return -1;
+        }
+        final FileChannel out = outputStream.getChannel();
+        long position = in.position();
+        long written = 0;
+        while (written < size) {
+            long count;
+            try {
+                count = in.transferTo(position, size - written, out);
+            } catch (IOException e) {
+                if (written == 0) {
+                    // The output doesn't support transfers, nothing has been written yet.
+                    return -1;
+                }
+                throw e;
+            }
+            if (count <= 0) {
+                if (written == 0) {
+                    return -1;
+                }
+                // Can't fall back to a plain copy once some bytes have been written.
+                throw new IOException("Only transferred " + written + " of " + size + " bytes");
+            }
+            position += count;
+            written += count;
+        }
+        return written;
+    }
+
+    private static long copy(InputStream inputStream, OutputStream outputStream)
+            throws IOException {
+        final byte[] buffer = new byte[16 * 1024];
+        int length;
+        long totalLength = 0;
+        while ((length = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+            totalLength += length;
+        }
+        return totalLength;
+    }
 }
 
 
@@ -0,0 +1,620 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.contacts.common.GeoUtil;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds contacts that are likely duplicates of each other across the whole address book, as
+ * opposed to the as-you-type lookups of the aggregation suggestions.
+ *
+ * Names, phone numbers and email addresses of all raw contacts are normalized into 64-bit
+ * keys. Raw contacts sharing a key form a block, and only raw contacts within the same block are
+ * compared, so the work grows with the size of the blocks rather than with the square of the
+ * number of raw contacts. Blocks are compared in parallel.
+ *
+ * A phone number or email address only counts when a matching name corroborates it, since
+ * people share household and office lines. One shared by more than two contacts, such as a
+ * family's home number, counts less than one of only two contacts.
+ *
+ * Blocks of more than {@link #MAX_BLOCK_SIZE} raw contacts, such as a common name or a
+ * company's switchboard number, are too large to compare pairwise. Their raw contacts are
+ * sorted by another of their signals instead, a phone number or email address in a block of
+ * names and the name otherwise, and each is only compared with the raw contacts within
+ * {@link #MAX_BLOCK_SIZE} places of it. Raw contacts that share that other signal end up next
+ * to each other.
+ *
+ * The result is a list of {@link MergeCandidate}s, best first, whose contact IDs can be passed
+ * to {@link com.android.contacts.ContactSaveService#createJoinSeveralContactsIntent}.
+ */
+public final class DuplicateFinder {
+    private static final String TAG = "DuplicateFinder";
+
+    public static final int MATCH_NAME = 1;
+    public static final int MATCH_PHONE = 2;
+    public static final int MATCH_EMAIL = 4;
+
+    /** Bits of a signal key that hold its MATCH_* type. */
+    private static final int TYPE_BITS = 3;
+    private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+
+    /**
+     * Match flags are shifted by this much when the value is shared by more than two contacts.
+     */
+    private static final int SHARED_SHIFT = TYPE_BITS;
+
+    private static final int NAME_SCORE = 4;
+    private static final int PHONE_SCORE = 2;
+    private static final int EMAIL_SCORE = 2;
+    /** The score of a phone number or email address shared by more than two contacts. */
+    private static final int SHARED_SCORE = 1;
+
+    /**
+     * A name alone is not enough, and neither are phone numbers or email addresses without a
+     * matching name. A name with any phone number or email address is.
+     */
+    @VisibleForTesting
+    static final int MIN_SCORE = 5;
+
+    /**
+     * Blocks up to this size are compared pairwise. In larger ones, raw contacts are compared
+     * within a window of this size.
+     */
+    @VisibleForTesting
+    static final int MAX_BLOCK_SIZE = 32;
+
+    private static final int MIN_PHONE_DIGITS = 7;
+
+    /** Contacts that are likely to be duplicates of each other. */
+    public static final class MergeCandidate {
+        /** The contacts to join, oldest first. */
+        public final long[] contactIds;
+        /** The score of the best match between any two of the contacts. */
+        public final int score;
+        /** The MATCH_* flags of all matches between the contacts. */
+        public final int matches;
+
+        MergeCandidate(long[] contactIds, int score, int matches) {
+            this.contactIds = contactIds;
+            this.score = score;
+            this.matches = matches;
+        }
+
+        @Override
+        public String toString() {
+            return "MergeCandidate{" + Arrays.toString(contactIds) + ", score=" + score
+                    + ", matches=" + matches + "}";
+        }
+    }
+
+    private static final Comparator<MergeCandidate> RANKING = new Comparator<MergeCandidate>() {
+        @Override
+        public int compare(MergeCandidate lhs, MergeCandidate rhs) {
+            if (lhs.score != rhs.score) {
+                return rhs.score - lhs.score;
+            }
+            if (lhs.contactIds.length != rhs.contactIds.length) {
+                // Prefer the tighter group.
+                return lhs.contactIds.length - rhs.contactIds.length;
+            }
+            final long l = lhs.contactIds[0];
+            final long r = rhs.contactIds[0];
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+    };
+
+    private interface DataQuery {
+        String[] PROJECTION = new String[] {
+            Data.RAW_CONTACT_ID,
+            Data.CONTACT_ID,
+            Data.MIMETYPE,
+            Data.DATA1,
+            Phone.NORMALIZED_NUMBER,
+        };
+
+        String SELECTION = Data.MIMETYPE + " IN ('" + StructuredName.CONTENT_ITEM_TYPE + "','"
+                + Phone.CONTENT_ITEM_TYPE + "','" + Email.CONTENT_ITEM_TYPE + "')"
+                + " AND " + RawContacts.DELETED + "=0"
+                + " AND " + Data.CONTACT_ID + " IS NOT NULL";
+
+        int RAW_CONTACT_ID = 0;
+        int CONTACT_ID = 1;
+        int MIMETYPE = 2;
+        int DATA1 = 3;
+        int NORMALIZED_NUMBER = 4;
+    }
+
+    /** Index of each raw contact in {@link #mContactIds}, by raw contact ID. */
+    private final LongIntHashMap mRawContactIndex = new LongIntHashMap();
+    /** The contact ID of each raw contact. */
+    private long[] mContactIds = new long[16];
+    private int mRawContactCount;
+
+    /** The key of each signal, with its MATCH_* type in the lowest {@link #TYPE_BITS} bits. */
+    private long[] mSignalKeys = new long[16];
+    /** The index of the raw contact of each signal. */
+    private int[] mSignalRawContacts = new int[16];
+    private int mSignalCount;
+
+    /**
+     * The name key, and the smallest phone number or email address key, of each raw contact,
+     * or 0 if it has none. Large blocks are sorted by these.
+     */
+    private long[] mNameKeys;
+    private long[] mOtherKeys;
+
+    /**
+     * Loads the names, phone numbers and email addresses of all raw contacts and finds the
+     * duplicates among them. Must not be called on the main thread.
+     */
+    public static List<MergeCandidate> findDuplicates(Context context) {
+        final long start = SystemClock.elapsedRealtime();
+        final DuplicateFinder finder = new DuplicateFinder();
+        final String countryIso = GeoUtil.getCurrentCountryIso(context);
+        final ContentResolver resolver = context.getContentResolver();
+        final Cursor cursor = resolver.query(Data.CONTENT_URI, DataQuery.PROJECTION,
+                DataQuery.SELECTION, null, Data.RAW_CONTACT_ID);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final long rawContactId = cursor.getLong(DataQuery.RAW_CONTACT_ID);
+                final long contactId = cursor.getLong(DataQuery.CONTACT_ID);
+                final String mimeType = cursor.getString(DataQuery.MIMETYPE);
+                final String data = cursor.getString(DataQuery.DATA1);
+                if (StructuredName.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                    finder.addName(rawContactId, contactId, data);
+                } else if (Phone.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                    String e164Number = cursor.getString(DataQuery.NORMALIZED_NUMBER);
+                    if (e164Number == null && data != null) {
+                        e164Number = PhoneNumberUtils.formatNumberToE164(data, countryIso);
+                    }
+                    finder.addPhoneNumber(rawContactId, contactId, e164Number, data);
+                } else if (Email.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                    finder.addEmail(rawContactId, contactId, data);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        final long loaded = SystemClock.elapsedRealtime();
+        final List<MergeCandidate> candidates =
+                finder.find(Runtime.getRuntime().availableProcessors());
+        Log.i(TAG, "Found " + candidates.size() + " merge candidates among "
+                + finder.mRawContactCount + " raw contacts, loading took "
+                + (loaded - start) + "ms, matching " + (SystemClock.elapsedRealtime() - loaded)
+                + "ms");
+        return candidates;
+    }
+
+    public void addName(long rawContactId, long contactId, String displayName) {
+        final String name = normalizeName(displayName);
+        if (name != null) {
+            addSignal(rawContactId, contactId, hash(name), MATCH_NAME);
+        }
+    }
+
+    /**
+     * @param e164Number the number in E.164 format, or null if it couldn't be formatted, in
+     *     which case its digits are compared as they are
+     */
+    public void addPhoneNumber(long rawContactId, long contactId, String e164Number,
+            String number) {
+        final long key = phoneKey(e164Number != null ? e164Number : number);
+        if (key != 0) {
+            addSignal(rawContactId, contactId, key, MATCH_PHONE);
+        }
+    }
+
+    public void addEmail(long rawContactId, long contactId, String address) {
+        final String email = normalizeEmail(address);
+        if (email != null) {
+            addSignal(rawContactId, contactId, hash(email), MATCH_EMAIL);
+        }
+    }
+
+    /**
+     * Compares the raw contacts that share a block, on the given number of threads.
+     * @return the merge candidates, best first
+     */
+    public List<MergeCandidate> find(int threadCount) {
+        // Chain the signals of each block together: the map points at the last signal of each
+        // block, and each signal at the one before it.
+        final LongIntHashMap lastSignals = new LongIntHashMap(mSignalCount);
+        final int[] previousSignals = new int[mSignalCount];
+        for (int i = 0; i < mSignalCount; i++) {
+            previousSignals[i] = lastSignals.put(mSignalKeys[i], i, -1);
+        }
+        final long[] keys = lastSignals.keys();
+        final int[] blocks = new int[keys.length];
+        int blockCount = 0;
+        for (long key : keys) {
+            final int last = lastSignals.get(key, -1);
+            if (previousSignals[last] != -1) {
+                // Skip blocks of one.
+                blocks[blockCount++] = last;
+            }
+        }
+
+        mNameKeys = new long[mRawContactCount];
+        mOtherKeys = new long[mRawContactCount];
+        for (int i = 0; i < mSignalCount; i++) {
+            final int rawContact = mSignalRawContacts[i];
+            final long key = mSignalKeys[i];
+            if ((key & TYPE_MASK) == MATCH_NAME) {
+                if (mNameKeys[rawContact] == 0) {
+                    mNameKeys[rawContact] = key;
+                }
+            } else if (mOtherKeys[rawContact] == 0 || key < mOtherKeys[rawContact]) {
+                mOtherKeys[rawContact] = key;
+            }
+        }
+
+        final LongIntHashMap matches = compareBlocks(blocks, blockCount, previousSignals,
+                Math.max(1, threadCount));
+        return buildCandidates(matches);
+    }
+
+    private LongIntHashMap compareBlocks(final int[] blocks, final int blockCount,
+            final int[] previousSignals, final int threadCount) {
+        if (threadCount == 1 || blockCount < threadCount * 16) {
+            return compareBlocks(blocks, blockCount, previousSignals, 0, 1);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final ArrayList<Future<LongIntHashMap>> results =
+                    new ArrayList<Future<LongIntHashMap>>(threadCount);
+            for (int t = 0; t < threadCount; t++) {
+                final int first = t;
+                results.add(executor.submit(new Callable<LongIntHashMap>() {
+                    @Override
+                    public LongIntHashMap call() {
+                        return compareBlocks(blocks, blockCount, previousSignals, first,
+                                threadCount);
+                    }
+                }));
+            }
+            LongIntHashMap merged = null;
+            for (Future<LongIntHashMap> result : results) {
+                final LongIntHashMap matches = result.get();
+                if (merged == null) {
+                    merged = matches;
+                    continue;
+                }
+                for (long pair : matches.keys()) {
+                    merged.put(pair, merged.get(pair, 0) | matches.get(pair, 0), 0);
+                }
+            }
+            return merged;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LongIntHashMap();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Compares the raw contacts within every {@code stride}-th block, starting with
+     * {@code first}.
+     * @return the MATCH_* flags of each pair of raw contacts that matched, keyed by pair
+     */
+    private LongIntHashMap compareBlocks(int[] blocks, int blockCount, int[] previousSignals,
+            int first, int stride) {
+        final LongIntHashMap matches = new LongIntHashMap();
+        int[] members = new int[MAX_BLOCK_SIZE];
+        for (int b = first; b < blockCount; b += stride) {
+            final int type = (int) (mSignalKeys[blocks[b]] & TYPE_MASK);
+            int size = 0;
+            for (int s = blocks[b]; s != -1; s = previousSignals[s]) {
+                if (size == members.length) {
+                    members = Arrays.copyOf(members, size * 2);
+                }
+                members[size++] = mSignalRawContacts[s];
+            }
+            int flag = type;
+            if (type != MATCH_NAME && countContacts(members, size) > 2) {
+                flag = type << SHARED_SHIFT;
+            }
+            if (size > MAX_BLOCK_SIZE) {
+                compareNeighbors(matches, members, size, type == MATCH_NAME ? mOtherKeys
+                        : mNameKeys, flag);
+                continue;
+            }
+            for (int i = 0; i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    addMatch(matches, members[i], members[j], flag);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Sorts the raw contacts of a large block by the given keys, and compares each with those
+     * less than {@link #MAX_BLOCK_SIZE} places after it.
+     */
+    private void compareNeighbors(LongIntHashMap matches, int[] members, int size,
+            long[] sortKeys, int flag) {
+        // The upper half of the key is enough to bring equal keys together; the lower half
+        // holds the raw contact.
+        final long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = (sortKeys[members[i]] & 0xffffffff00000000L) | members[i];
+        }
+        Arrays.sort(sorted);
+        for (int i = 0; i < size; i++) {
+            final int end = Math.min(size, i + MAX_BLOCK_SIZE);
+            for (int j = i + 1; j < end; j++) {
+                addMatch(matches, (int) sorted[i], (int) sorted[j], flag);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct contacts of the given raw contacts, up to 3.
+     */
+    private int countContacts(int[] rawContacts, int size) {
+        final long first = mContactIds[rawContacts[0]];
+        long second = first;
+        for (int i = 1; i < size; i++) {
+            final long contactId = mContactIds[rawContacts[i]];
+            if (contactId == first || contactId == second) {
+                continue;
+            }
+            if (second != first) {
+                return 3;
+            }
+            second = contactId;
+        }
+        return second == first ? 1 : 2;
+    }
+
+    private void addMatch(LongIntHashMap matches, int rawContact1, int rawContact2, int type) {
+        if (mContactIds[rawContact1] == mContactIds[rawContact2]) {
+            // Already joined, or the same raw contact twice.
+            return;
+        }
+        final long pair = rawContact1 < rawContact2
+                ? ((long) rawContact1 << 32) | rawContact2
+                : ((long) rawContact2 << 32) | rawContact1;
+        matches.put(pair, matches.get(pair, 0) | type, 0);
+    }
+
+    /**
+     * Groups the contacts connected by good enough matches into merge candidates.
+     */
+    private List<MergeCandidate> buildCandidates(LongIntHashMap matches) {
+        // Union-find over the contacts that matched.
+        final LongIntHashMap contactIndex = new LongIntHashMap();
+        final ArrayList<Long> contactIds = new ArrayList<Long>();
+        int[] parents = new int[16];
+        int[] scores = new int[16];
+        int[] flags = new int[16];
+        for (long pair : matches.keys()) {
+            final int matchFlags = matches.get(pair, 0);
+            final int score = score(matchFlags);
+            if (score < MIN_SCORE) {
+                continue;
+            }
+            final int[] ends = new int[2];
+            for (int e = 0; e < 2; e++) {
+                final int rawContact = (int) (e == 0 ? pair >>> 32 : pair & 0xffffffffL);
+                final long contactId = mContactIds[rawContact];
+                int index = contactIndex.get(contactId, -1);
+                if (index == -1) {
+                    index = contactIds.size();
+                    contactIndex.put(contactId, index, -1);
+                    contactIds.add(contactId);
+                    if (index == parents.length) {
+                        parents = Arrays.copyOf(parents, index * 2);
+                        scores = Arrays.copyOf(scores, index * 2);
+                        flags = Arrays.copyOf(flags, index * 2);
+                    }
+                    parents[index] = index;
+                    scores[index] = 0;
+                    flags[index] = 0;
+                }
+                ends[e] = find(parents, index);
+            }
+            final int root = ends[0];
+            if (ends[1] != root) {
+                parents[ends[1]] = root;
+                scores[root] = Math.max(scores[root], scores[ends[1]]);
+                flags[root] |= flags[ends[1]];
+            }
+            scores[root] = Math.max(scores[root], score);
+            flags[root] |= matchFlags;
+        }
+
+        // Collect the contacts of each group.
+        final int count = contactIds.size();
+        final LongIntHashMap groupIndex = new LongIntHashMap();
+        final ArrayList<ArrayList<Long>> groups = new ArrayList<ArrayList<Long>>();
+        final ArrayList<Integer> roots = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            final int root = find(parents, i);
+            int group = groupIndex.get(root, -1);
+            if (group == -1) {
+                group = groups.size();
+                groupIndex.put(root, group, -1);
+                groups.add(new ArrayList<Long>());
+                roots.add(root);
+            }
+            groups.get(group).add(contactIds.get(i));
+        }
+
+        final ArrayList<MergeCandidate> candidates = new ArrayList<MergeCandidate>(groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            final ArrayList<Long> group = groups.get(g);
+            final long[] ids = new long[group.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = group.get(i);
+            }
+            Arrays.sort(ids);
+            final int root = roots.get(g);
+            final int matchFlags = (flags[root] | (flags[root] >> SHARED_SHIFT)) & TYPE_MASK;
+            candidates.add(new MergeCandidate(ids, scores[root], matchFlags));
+        }
+        Collections.sort(candidates, RANKING);
+        return candidates;
+    }
+
+    private static int find(int[] parents, int index) {
+        while (parents[index] != index) {
+            // Halve the path on the way up.
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
+    private static int score(int matchFlags) {
+        final int shared = matchFlags >> SHARED_SHIFT;
+        int score = 0;
+        if ((matchFlags & MATCH_NAME) != 0) score += NAME_SCORE;
+        if ((matchFlags & MATCH_PHONE) != 0) {
+            score += PHONE_SCORE;
+        } else if ((shared & MATCH_PHONE) != 0) {
+            score += SHARED_SCORE;
+        }
+        if ((matchFlags & MATCH_EMAIL) != 0) {
+            score += EMAIL_SCORE;
+        } else if ((shared & MATCH_EMAIL) != 0) {
+            score += SHARED_SCORE;
+        }
+        return score;
+    }
+
+    private void addSignal(long rawContactId, long contactId, long key, int type) {
+        int rawContact = mRawContactIndex.get(rawContactId, -1);
+        if (rawContact == -1) {
+            rawContact = mRawContactCount++;
+            mRawContactIndex.put(rawContactId, rawContact, -1);
+            if (rawContact == mContactIds.length) {
+                mContactIds = Arrays.copyOf(mContactIds, rawContact * 2);
+            }
+            mContactIds[rawContact] = contactId;
+        }
+        if (mSignalCount == mSignalKeys.length) {
+            mSignalKeys = Arrays.copyOf(mSignalKeys, mSignalCount * 2);
+            mSignalRawContacts = Arrays.copyOf(mSignalRawContacts, mSignalCount * 2);
+        }
+        mSignalKeys[mSignalCount] = (key << TYPE_BITS) | type;
+        mSignalRawContacts[mSignalCount] = rawContact;
+        mSignalCount++;
+    }
+
+    /**
+     * Lower-cases the name, strips accents and punctuation, and sorts its words, so that
+     * "Smith, John" and "john smith" are the same.
+     * @return the normalized name, or null if there is nothing left to compare
+     */
+    @VisibleForTesting
+    static String normalizeName(String displayName) {
+        if (TextUtils.isEmpty(displayName)) {
+            return null;
+        }
+        final String decomposed = Normalizer.normalize(displayName, Normalizer.Form.NFD);
+        final StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(' ');
+            }
+        }
+        final String[] words = sb.toString().toLowerCase(Locale.ROOT).trim().split(" +");
+        if (words.length == 0 || words[0].length() == 0) {
+            return null;
+        }
+        Arrays.sort(words);
+        return TextUtils.join(" ", words);
+    }
+
+    /**
+     * @return the address, lower-cased, or null if it doesn't look like an email address
+     */
+    @VisibleForTesting
+    static String normalizeEmail(String address) {
+        if (address == null) {
+            return null;
+        }
+        final String email = address.trim().toLowerCase(Locale.ROOT);
+        return email.indexOf('@') > 0 ? email : null;
+    }
+
+    /**
+     * @return a hash of the number without separators, which keeps its leading zeros and plus
+     *     sign, or 0 if it has too few digits
+     */
+    @VisibleForTesting
+    static long phoneKey(String number) {
+        final String stripped = PhoneNumberUtils.stripSeparators(number);
+        if (stripped == null) {
+            return 0;
+        }
+        int digits = 0;
+        for (int i = 0; i < stripped.length(); i++) {
+            if (Character.isDigit(stripped.charAt(i))) {
+                digits++;
+            }
+        }
+        return digits >= MIN_PHONE_DIGITS ? hash(stripped) : 0;
+    }
+
+    /** 64-bit FNV-1a. */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
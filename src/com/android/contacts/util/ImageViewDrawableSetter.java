@@ -19,13 +19,16 @@ package com.android.contacts.util;
 import android.content.res.Resources;
 import android.content.res.Resources.NotFoundException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.ContactsContract.DisplayNameSources;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import com.android.contacts.common.ContactPhotoManager;
@@ -33,20 +36,38 @@ import com.android.contacts.common.ContactPhotoManager.DefaultImageRequest;
 import com.android.contacts.common.lettertiles.LetterTileDrawable;
 import com.android.contacts.common.model.Contact;
 
-import java.util.Arrays;
-
 /**
  * Initialized with a target ImageView. When provided with a compressed image
  * (i.e. a byte[]), it appropriately updates the ImageView's Drawable.
+ *
+ * Photos are decoded by {@link PhotoDecoder} in the background, subsampled to the size of the
+ * target, and the new Drawable is only set once decoding has finished. Bitmaps that are no
+ * longer displayed are handed back to the decoder for reuse; they are never handed out to
+ * other components.
  */
 public class ImageViewDrawableSetter {
     private ImageView mTarget;
     private byte[] mCompressed;
+    private long mCompressedFingerprint;
     private Drawable mPreviousDrawable;
     private int mDurationInMillis = 0;
     private Contact mContact;
     private static final String TAG = "ImageViewDrawableSetter";
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Incremented for every new image, so that results of outdated decodes are dropped. */
+    private int mGeneration;
+    private boolean mDecodePending;
+
+    /** Bitmap the current transition started from; drawn until the Drawable is replaced. */
+    private Bitmap mRetiringBitmap;
+    /** Uptime at which the current transition finishes. */
+    private long mRetiringUntil;
+
+    /** Leaves the target time to draw a frame without a bitmap before it is reused. */
+    private static final long RELEASE_DELAY_MILLIS = 100;
+
     public ImageViewDrawableSetter() {
     }
 
@@ -54,10 +75,10 @@ public class ImageViewDrawableSetter {
         mTarget = target;
     }
 
-    public Bitmap setupContactPhoto(Contact contactData, ImageView photoView) {
+    public void setupContactPhoto(Contact contactData, ImageView photoView) {
         mContact = contactData;
         setTarget(photoView);
-        return setCompressedImage(contactData.getPhotoBinaryData());
+        setCompressedImage(contactData.getPhotoBinaryData());
     }
 
     public void setTransitionDuration(int durationInMillis) {
@@ -77,7 +98,13 @@ public class ImageViewDrawableSetter {
         if (mTarget != target) {
             mTarget = target;
             mCompressed = null;
+            mCompressedFingerprint = 0;
             mPreviousDrawable = null;
+            // Bitmaps still shown by the old target are left to it.
+            mRetiringBitmap = null;
+            mRetiringUntil = 0;
+            mDecodePending = false;
+            mGeneration++;
         }
     }
 
@@ -85,31 +112,79 @@ public class ImageViewDrawableSetter {
         return mCompressed;
     }
 
-    protected Bitmap setCompressedImage(byte[] compressed) {
-        if (mPreviousDrawable == null) {
+    protected void setCompressedImage(final byte[] compressed) {
+        final long fingerprint = PhotoDecoder.fingerprint(compressed);
+        if (mPreviousDrawable == null && !mDecodePending) {
             // If we don't already have a drawable, skip the exit-early test
             // below; otherwise we might not end up setting the default image.
-        } else if (mPreviousDrawable != null && Arrays.equals(mCompressed, compressed)) {
-            // TODO: the worst case is when the arrays are equal but not
-            // identical. This takes about 1ms (more with high-res photos). A
-            // possible optimization is to sparsely sample chunks of the arrays
-            // to compare.
-            return previousBitmap();
+        } else if (PhotoDecoder.isSameImage(mCompressed, mCompressedFingerprint, compressed,
+                fingerprint)) {
+            // Keep the new array, which click listeners are set up with.
+            mCompressed = compressed;
+            return;
         }
 
-        final Drawable newDrawable = (compressed == null)
-                ? defaultDrawable()
-                : decodedBitmapDrawable(compressed);
-
         // Remember this for next time, so that we can check if it changed.
         mCompressed = compressed;
+        mCompressedFingerprint = fingerprint;
+        final int generation = ++mGeneration;
+
+        if (compressed == null) {
+            mDecodePending = false;
+            setDrawable(defaultDrawable());
+            return;
+        }
+
+        mDecodePending = true;
+        final ImageView target = mTarget;
+        final int width = getTargetWidth();
+        final int height = getTargetHeight();
+        PhotoDecoder.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap decoded = null;
+                try {
+                    decoded = PhotoDecoder.decode(compressed, width, height);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to decode photo", e);
+                }
+                final Bitmap bitmap = decoded;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDecoded(generation, target, bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onDecoded(int generation, ImageView target, Bitmap bitmap) {
+        if (generation != mGeneration || target != mTarget) {
+            // A newer image was set in the meantime; this one was never shown.
+            PhotoDecoder.recycle(bitmap);
+            return;
+        }
+        mDecodePending = false;
+        if (bitmap == null) {
+            // Something went wrong... keep the previous Drawable.
+            Log.w(TAG, "Photo could not be decoded");
+            return;
+        }
+        setDrawable(new BitmapDrawable(mTarget.getResources(), bitmap));
+    }
 
+    private void setDrawable(Drawable newDrawable) {
         // If we don't have a new Drawable, something went wrong... bail out.
-        if (newDrawable == null) return previousBitmap();
+        if (newDrawable == null) return;
 
+        final Bitmap previous = previousBitmap();
         if (mPreviousDrawable == null || mDurationInMillis == 0) {
             // Set the new one immediately.
             mTarget.setImageDrawable(newDrawable);
+            releaseLater(mRetiringBitmap, mRetiringUntil);
+            releaseLater(previous, 0);
+            mRetiringBitmap = null;
         } else {
             // Set up a transition from the previous Drawable to the new one.
             final Drawable[] beforeAndAfter = new Drawable[2];
@@ -118,13 +193,62 @@ public class ImageViewDrawableSetter {
             final TransitionDrawable transition = new TransitionDrawable(beforeAndAfter);
             mTarget.setImageDrawable(transition);
             transition.startTransition(mDurationInMillis);
+
+            // The new transition keeps drawing the previous bitmap as its first layer, but the
+            // one the replaced transition started from is no longer drawn.
+            releaseLater(mRetiringBitmap, mRetiringUntil);
+            mRetiringBitmap = previous;
+            mRetiringUntil = SystemClock.uptimeMillis() + mDurationInMillis;
         }
 
         // Remember this for next time, so that we can transition from it to the
         // new one.
         mPreviousDrawable = newDrawable;
+    }
 
-        return previousBitmap();
+    /**
+     * @return the width to decode photos for, falling back to the layout parameters and then
+     *     the screen width if the target hasn't been laid out yet.
+     */
+    private int getTargetWidth() {
+        if (mTarget.getWidth() > 0) {
+            return mTarget.getWidth();
+        }
+        final ViewGroup.LayoutParams params = mTarget.getLayoutParams();
+        if (params != null && params.width > 0) {
+            return params.width;
+        }
+        return mTarget.getResources().getDisplayMetrics().widthPixels;
+    }
+
+    private int getTargetHeight() {
+        if (mTarget.getHeight() > 0) {
+            return mTarget.getHeight();
+        }
+        final ViewGroup.LayoutParams params = mTarget.getLayoutParams();
+        if (params != null && params.height > 0) {
+            return params.height;
+        }
+        // Let the width alone determine the sample size.
+        return 0;
+    }
+
+    /**
+     * Hands a bitmap the target no longer draws back to the decoder, once the transition that
+     * drew it would have finished and the target had the chance to draw a frame without it.
+     */
+    private void releaseLater(final Bitmap bitmap, long notBefore) {
+        if (bitmap == null) return;
+        final long when = Math.max(notBefore,
+                SystemClock.uptimeMillis() + RELEASE_DELAY_MILLIS);
+        mHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                if (bitmap != previousBitmap() && bitmap != mRetiringBitmap) {
+                    PhotoDecoder.recycle(bitmap);
+                }
+            }
+        }, when);
     }
 
     private Bitmap previousBitmap() {
@@ -156,10 +280,4 @@ public class ImageViewDrawableSetter {
         }
         return ContactPhotoManager.getDefaultAvatarDrawableForContact(resources, true, request);
     }
-
-    private BitmapDrawable decodedBitmapDrawable(byte[] compressed) {
-        Resources rsrc = mTarget.getResources();
-        Bitmap bitmap = BitmapFactory.decodeByteArray(compressed, 0, compressed.length);
-        return new BitmapDrawable(rsrc, bitmap);
-    }
 }
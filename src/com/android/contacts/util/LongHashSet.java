@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, such as contact or group IDs, backed by an open-addressing hash
+ * table. Unlike a {@code HashSet<Long>} it doesn't box its elements, so membership checks in tight
+ * loops don't allocate. Not thread-safe.
+ */
+public final class LongHashSet {
+    private static final int MIN_CAPACITY = 8;
+
+    /** Marks an empty slot; the value itself is tracked separately by {@link #mHasEmptyValue}. */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] mTable;
+    private int mSize;
+    private boolean mHasEmptyValue;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of elements the set can hold without growing
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        mTable = newTable(capacity);
+    }
+
+    public static LongHashSet of(long... values) {
+        final LongHashSet set = new LongHashSet(values.length);
+        for (long value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return mHasEmptyValue;
+        }
+        final long[] table = mTable;
+        final int mask = table.length - 1;
+        int index = hash(value) & mask;
+        while (true) {
+            final long current = table[index];
+            if (current == EMPTY) {
+                return false;
+            }
+            if (current == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * @return true if the value was not in the set before.
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (mHasEmptyValue) {
+                return false;
+            }
+            mHasEmptyValue = true;
+            mSize++;
+            return true;
+        }
+        if ((mSize + 1) > mTable.length * 3 / 4) {
+            rehash(mTable.length << 1);
+        }
+        if (!insert(mTable, value)) {
+            return false;
+        }
+        mSize++;
+        return true;
+    }
+
+    /**
+     * @return true if the value was in the set.
+     */
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            if (!mHasEmptyValue) {
+                return false;
+            }
+            mHasEmptyValue = false;
+            mSize--;
+            return true;
+        }
+        final long[] table = mTable;
+        final int mask = table.length - 1;
+        int index = hash(value) & mask;
+        while (true) {
+            final long current = table[index];
+            if (current == EMPTY) {
+                return false;
+            }
+            if (current == value) {
+                break;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // Shift back the entries that follow in the same run, so that lookups don't stop early
+        // at the slot we're emptying.
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (table[next] != EMPTY) {
+            final int home = hash(table[next]) & mask;
+            // Move the entry if its home slot is not cyclically between the hole and itself.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = EMPTY;
+        mSize--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(mTable, EMPTY);
+        mHasEmptyValue = false;
+        mSize = 0;
+    }
+
+    /**
+     * @return the elements of the set, in no particular order.
+     */
+    public long[] toArray() {
+        final long[] result = new long[mSize];
+        int i = 0;
+        if (mHasEmptyValue) {
+            result[i++] = EMPTY;
+        }
+        for (long value : mTable) {
+            if (value != EMPTY) {
+                result[i++] = value;
+            }
+        }
+        return result;
+    }
+
+    private void rehash(int capacity) {
+        final long[] table = newTable(capacity);
+        for (long value : mTable) {
+            if (value != EMPTY) {
+                insert(table, value);
+            }
+        }
+        mTable = table;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        final int mask = table.length - 1;
+        int index = hash(value) & mask;
+        while (true) {
+            final long current = table[index];
+            if (current == EMPTY) {
+                table[index] = value;
+                return true;
+            }
+            if (current == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static long[] newTable(int capacity) {
+        final long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int hash(long value) {
+        // Mix the bits, since IDs are mostly small and sequential.
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
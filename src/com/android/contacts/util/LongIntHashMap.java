@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive longs to primitive ints, backed by an open-addressing hash table like
+ * {@link LongHashSet}. Neither keys nor values are boxed. Entries can't be removed. Not
+ * thread-safe.
+ */
+public final class LongIntHashMap {
+    private static final int MIN_CAPACITY = 8;
+
+    /** Marks an empty slot; the key itself is tracked separately by {@link #mHasEmptyKey}. */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int mSize;
+    private boolean mHasEmptyKey;
+    private int mEmptyKeyValue;
+
+    public LongIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries the map can hold without growing
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        mKeys = newKeys(capacity);
+        mValues = new int[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return mHasEmptyKey;
+        }
+        return mKeys[indexOf(mKeys, key)] != EMPTY;
+    }
+
+    /**
+     * @return the value of the given key, or {@code defaultValue} if there is none.
+     */
+    public int get(long key, int defaultValue) {
+        if (key == EMPTY) {
+            return mHasEmptyKey ? mEmptyKeyValue : defaultValue;
+        }
+        final int index = indexOf(mKeys, key);
+        return mKeys[index] != EMPTY ? mValues[index] : defaultValue;
+    }
+
+    /**
+     * @return the previous value of the given key, or {@code defaultValue} if there was none.
+     */
+    public int put(long key, int value, int defaultValue) {
+        if (key == EMPTY) {
+            final int previous = mHasEmptyKey ? mEmptyKeyValue : defaultValue;
+            if (!mHasEmptyKey) {
+                mHasEmptyKey = true;
+                mSize++;
+            }
+            mEmptyKeyValue = value;
+            return previous;
+        }
+        if ((mSize + 1) > mKeys.length * 3 / 4) {
+            rehash(mKeys.length << 1);
+        }
+        final int index = indexOf(mKeys, key);
+        if (mKeys[index] != EMPTY) {
+            final int previous = mValues[index];
+            mValues[index] = value;
+            return previous;
+        }
+        mKeys[index] = key;
+        mValues[index] = value;
+        mSize++;
+        return defaultValue;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mHasEmptyKey = false;
+        mSize = 0;
+    }
+
+    /**
+     * @return the keys of the map, in no particular order.
+     */
+    public long[] keys() {
+        final long[] result = new long[mSize];
+        int i = 0;
+        if (mHasEmptyKey) {
+            result[i++] = EMPTY;
+        }
+        for (long key : mKeys) {
+            if (key != EMPTY) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    private void rehash(int capacity) {
+        final long[] keys = newKeys(capacity);
+        final int[] values = new int[capacity];
+        for (int i = 0; i < mKeys.length; i++) {
+            final long key = mKeys[i];
+            if (key != EMPTY) {
+                final int index = indexOf(keys, key);
+                keys[index] = key;
+                values[index] = mValues[i];
+            }
+        }
+        mKeys = keys;
+        mValues = values;
+    }
+
+    /**
+     * @return the slot of the given key, or the empty slot where it would go.
+     */
+    private static int indexOf(long[] keys, long key) {
+        final int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (true) {
+            final long current = keys[index];
+            if (current == EMPTY || current == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static long[] newKeys(int capacity) {
+        final long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int hash(long value) {
+        // Mix the bits, since IDs are mostly small and sequential.
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.ContactsContract.Contacts;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.common.io.Closeables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the vCards of many contacts to a channel. The contacts are split into chunks, which
+ * are composed in parallel and written in order as soon as they are ready. Only a few chunks
+ * are held in memory at any time, no matter how many contacts are exported.
+ */
+public class MultiVCardExporter {
+    private static final String TAG = "MultiVCardExporter";
+
+    /** Small enough for the uri of a chunk to stay well below the binder transaction limit. */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /** Composed chunks waiting to be written, per composing thread. */
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Composes the vCards of a chunk of contacts. Called on a background thread. */
+    public interface Composer {
+        byte[] compose(String[] lookupKeys) throws IOException;
+    }
+
+    /** Called on the exporting thread after each chunk has been written. */
+    public interface ProgressListener {
+        void onProgress(int exportedCount, int totalCount);
+    }
+
+    private final Composer mComposer;
+    private final int mChunkSize;
+    private final int mThreadCount;
+    private volatile boolean mCanceled;
+
+    public MultiVCardExporter(Composer composer, int chunkSize, int threadCount) {
+        mComposer = composer;
+        mChunkSize = chunkSize;
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Returns a {@link Composer} that has the contacts provider compose the vCards of each
+     * chunk through {@link Contacts#CONTENT_MULTI_VCARD_URI}.
+     */
+    public static Composer newProviderComposer(final ContentResolver resolver) {
+        return new Composer() {
+            @Override
+            public byte[] compose(String[] lookupKeys) throws IOException {
+                final Uri uri = Uri.withAppendedPath(Contacts.CONTENT_MULTI_VCARD_URI,
+                        Uri.encode(TextUtils.join(":", lookupKeys)));
+                final InputStream in = resolver.openInputStream(uri);
+                if (in == null) {
+                    throw new IOException("Could not open " + uri);
+                }
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int r;
+                    while ((r = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, r);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    Closeables.closeQuietly(in);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the lookup keys of all contacts, oldest first
+     */
+    public static String[] queryLookupKeys(ContentResolver resolver) {
+        final Cursor cursor = resolver.query(Contacts.CONTENT_URI,
+                new String[] { Contacts.LOOKUP_KEY }, null, null, Contacts._ID);
+        if (cursor == null) {
+            return new String[0];
+        }
+        try {
+            final ArrayList<String> lookupKeys = new ArrayList<String>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                final String lookupKey = cursor.getString(0);
+                if (!TextUtils.isEmpty(lookupKey)) {
+                    lookupKeys.add(lookupKey);
+                }
+            }
+            return lookupKeys.toArray(new String[lookupKeys.size()]);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stops a running export. {@link #export} throws a {@link CancellationException} once the
+     * chunks being composed are done.
+     */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Writes the vCards of the given contacts to the channel, in the given order.
+     * @return the number of bytes written
+     * @throws CancellationException if the export was canceled
+     */
+    public long export(String[] lookupKeys, WritableByteChannel out, ProgressListener listener)
+            throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+        final int total = lookupKeys.length;
+        final int maxInFlight = mThreadCount * CHUNKS_IN_FLIGHT_PER_THREAD;
+        final ExecutorService executor = createExecutor(mThreadCount);
+        final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>(maxInFlight);
+        int nextChunkStart = 0;
+        int exported = 0;
+        long bytes = 0;
+        try {
+            while (exported < total) {
+                while (inFlight.size() < maxInFlight && nextChunkStart < total) {
+                    final int end = Math.min(nextChunkStart + mChunkSize, total);
+                    final String[] chunk = Arrays.copyOfRange(lookupKeys, nextChunkStart, end);
+                    inFlight.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            if (mCanceled) {
+                                return null;
+                            }
+                            return mComposer.compose(chunk);
+                        }
+                    }));
+                    nextChunkStart = end;
+                }
+
+                final byte[] vCards = getChunk(inFlight.remove());
+                if (mCanceled) {
+                    throw new CancellationException("Export canceled after " + exported
+                            + " of " + total + " contacts");
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(vCards);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                bytes += vCards.length;
+                exported = Math.min(exported + mChunkSize, total);
+                if (listener != null) {
+                    listener.onProgress(exported, total);
+                }
+            }
+        } finally {
+            for (Future<byte[]> future : inFlight) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            logThroughput(exported, bytes, SystemClock.elapsedRealtime() - start);
+        }
+        return bytes;
+    }
+
+    private static byte[] getChunk(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void logThroughput(int contacts, long bytes, long millis) {
+        final long elapsed = Math.max(1, millis);
+        Log.i(TAG, "Exported " + contacts + " contacts, " + bytes + " bytes in " + millis
+                + "ms: " + (contacts * 1000L / elapsed) + " contacts/s, "
+                + (bytes * 1000L / elapsed) + " bytes/s");
+    }
+
+    private static ExecutorService createExecutor(int threadCount) {
+        return new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, TAG + " #" + mCount.incrementAndGet());
+                    }
+                });
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes compressed contact photos off the UI thread, subsampled to the size they are shown
+ * at and into bitmaps recycled through a {@link BitmapPool}.
+ */
+public final class PhotoDecoder {
+    private static final String TAG = "PhotoDecoder";
+
+    /** Arrays up to this size are hashed completely by {@link #fingerprint}. */
+    private static final int FULL_HASH_LIMIT = 1024;
+    private static final int SAMPLE_COUNT = 32;
+    private static final int SAMPLE_LENGTH = 16;
+
+    private static final int THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static final BitmapPool sPool = new BitmapPool(3);
+    private static Executor sExecutor;
+
+    private PhotoDecoder() {
+    }
+
+    /**
+     * Returns a hash of the length of the given array and of evenly spaced chunks of it. This
+     * tells photos apart in constant time, since a different JPEG or PNG photo differs almost
+     * everywhere once compressed, unlike {@link java.util.Arrays#equals(byte[], byte[])}
+     * which has to read both arrays entirely when they are equal.
+     */
+    public static long fingerprint(byte[] data) {
+        if (data == null) {
+            return 0;
+        }
+        final int length = data.length;
+        long hash = 0xcbf29ce484222325L ^ length;
+        if (length <= FULL_HASH_LIMIT) {
+            for (int i = 0; i < length; i++) {
+                hash = (hash ^ data[i]) * 0x100000001b3L;
+            }
+            return hash;
+        }
+        final int stride = (length - SAMPLE_LENGTH) / (SAMPLE_COUNT - 1);
+        for (int sample = 0; sample < SAMPLE_COUNT; sample++) {
+            // The last sample ends at the end of the array, where JPEG and PNG files differ
+            // even if their headers are identical.
+            final int start = sample == SAMPLE_COUNT - 1 ? length - SAMPLE_LENGTH
+                    : sample * stride;
+            for (int i = start; i < start + SAMPLE_LENGTH; i++) {
+                hash = (hash ^ data[i]) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if the two arrays, along with their {@link #fingerprint}s, are believed to
+     *     hold the same photo.
+     */
+    public static boolean isSameImage(byte[] lhs, long lhsFingerprint, byte[] rhs,
+            long rhsFingerprint) {
+        if (lhs == rhs) {
+            return true;
+        }
+        if (lhs == null || rhs == null) {
+            return false;
+        }
+        return lhs.length == rhs.length && lhsFingerprint == rhsFingerprint;
+    }
+
+    /**
+     * @return the largest power of two by which an image of the given size can be subsampled
+     *     while still covering the requested size. A requested size of 0 means no constraint.
+     */
+    public static int computeSampleSize(int width, int height, int requestedWidth,
+            int requestedHeight) {
+        if (requestedWidth <= 0 && requestedHeight <= 0) {
+            return 1;
+        }
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= requestedWidth
+                && height / (sampleSize * 2) >= requestedHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decodes the given photo so that it covers the requested size, reusing a pooled bitmap if
+     * possible. Must not be called on the main thread.
+     * @return the bitmap, or null if the photo could not be decoded
+     */
+    public static Bitmap decode(byte[] compressed, int requestedWidth, int requestedHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(compressed, 0, compressed.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(TAG, "Could not read the size of a " + compressed.length + " byte photo");
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight,
+                requestedWidth, requestedHeight);
+        options.inBitmap = sPool.get(options.outWidth, options.outHeight, options.inSampleSize,
+                options.inPreferredConfig);
+        // Only decode into a mutable bitmap if it is going to be reused.
+        options.inMutable = options.inBitmap != null || sPool.accepts(options.inSampleSize);
+        try {
+            return BitmapFactory.decodeByteArray(compressed, 0, compressed.length, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            // The pooled bitmap didn't fit after all; decode into a new one.
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(compressed, 0, compressed.length, options);
+        }
+    }
+
+    /**
+     * Makes a bitmap that is no longer displayed anywhere available for later decodes.
+     */
+    public static void recycle(Bitmap bitmap) {
+        sPool.put(bitmap);
+    }
+
+    /**
+     * Releases the pooled bitmaps, e.g. when the system is low on memory.
+     */
+    public static void trimMemory() {
+        sPool.clear();
+    }
+
+    /**
+     * @return the executor photos are decoded on.
+     */
+    public static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, TAG);
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Closeables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * Turns a picked or cropped photo into the compressed thumbnail stored with a raw contact,
+ * without holding the photo at its full resolution in memory.
+ *
+ * The photo's size is read first, so that it can be decoded with the largest
+ * {@link BitmapFactory.Options#inSampleSize} that still covers the thumbnail. The thumbnail is
+ * then encoded with the given {@link EncodeOptions} into a buffer that is reused across
+ * ingests. The time spent and the heap used by each ingest are logged when debug logging
+ * is enabled.
+ */
+public final class PhotoIngest {
+    private static final String TAG = "PhotoIngest";
+
+    /** Codec, quality and size budget of an encoded photo. */
+    public static final class EncodeOptions {
+        public final Bitmap.CompressFormat format;
+        public final int quality;
+        /**
+         * Lossy formats are re-encoded at lower quality, down to {@link #MIN_QUALITY}, until
+         * they fit into this many bytes. 0 means no budget.
+         */
+        public final int maxBytes;
+
+        public EncodeOptions(Bitmap.CompressFormat format, int quality, int maxBytes) {
+            this.format = format;
+            this.quality = quality;
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    /** Options used for contact thumbnails. */
+    public static final EncodeOptions THUMBNAIL =
+            new EncodeOptions(Bitmap.CompressFormat.JPEG, 90, 32 * 1024);
+
+    @VisibleForTesting
+    static final int MIN_QUALITY = 50;
+    private static final int QUALITY_STEP = 10;
+
+    private static final int INITIAL_BUFFER_SIZE = 32 * 1024;
+    /** Buffers whose capacity grew larger than this are not kept around. */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    /** The pooled buffer, guarded by {@link #sBufferLock}; null while in use. */
+    private static PooledBuffer sBuffer;
+    private static final Object sBufferLock = new Object();
+
+    private PhotoIngest() {
+    }
+
+    /**
+     * Decodes the image at the given uri, subsampled as much as possible while keeping both
+     * dimensions at least {@code minSize}.
+     * @return the bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeSampled(Context context, Uri uri, int minSize)
+            throws FileNotFoundException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(context, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = PhotoDecoder.computeSampleSize(options.outWidth,
+                options.outHeight, minSize, minSize);
+        return decodeStream(context, uri, options);
+    }
+
+    /**
+     * Decodes the image at the given uri into a square thumbnail of the given size, and encodes
+     * it with the given options.
+     * @return the encoded thumbnail, or null if the image could not be decoded or encoded
+     */
+    public static byte[] ingestThumbnail(Context context, Uri uri, int size,
+            EncodeOptions encodeOptions) throws FileNotFoundException {
+        final HeapSampler heap = new HeapSampler();
+        final long start = SystemClock.elapsedRealtime();
+
+        final Bitmap decoded = decodeSampled(context, uri, size);
+        heap.sample();
+        if (decoded == null) {
+            Log.w(TAG, "Could not decode " + uri);
+            return null;
+        }
+        final int decodedWidth = decoded.getWidth();
+        final int decodedHeight = decoded.getHeight();
+        final Bitmap scaled = Bitmap.createScaledBitmap(decoded, size, size, true);
+        heap.sample();
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        final long decodeMillis = SystemClock.elapsedRealtime() - start;
+
+        final long encodeStart = SystemClock.elapsedRealtime();
+        final byte[] encoded = encode(scaled, encodeOptions);
+        heap.sample();
+        scaled.recycle();
+        final long encodeMillis = SystemClock.elapsedRealtime() - encodeStart;
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Ingested " + decodedWidth + "x" + decodedHeight + " -> " + size + "x"
+                    + size + " " + encodeOptions.format + ": "
+                    + (encoded == null ? "failed" : encoded.length + " bytes")
+                    + ", decode " + decodeMillis + "ms, encode " + encodeMillis + "ms"
+                    + ", peak heap +" + heap.getPeakIncreaseKb() + "KB");
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes the bitmap with the given options.
+     * @return the encoded bitmap, or null if encoding failed
+     */
+    public static byte[] encode(Bitmap bitmap, EncodeOptions encodeOptions) {
+        final PooledBuffer buffer = obtainBuffer();
+        try {
+            int quality = encodeOptions.quality;
+            while (true) {
+                buffer.reset();
+                if (!bitmap.compress(encodeOptions.format, quality, buffer)) {
+                    Log.w(TAG, "Unable to encode photo as " + encodeOptions.format);
+                    return null;
+                }
+                if (encodeOptions.maxBytes <= 0 || buffer.size() <= encodeOptions.maxBytes
+                        || encodeOptions.format == Bitmap.CompressFormat.PNG
+                        || quality <= MIN_QUALITY) {
+                    break;
+                }
+                quality = Math.max(MIN_QUALITY, quality - QUALITY_STEP);
+            }
+            return buffer.toByteArray();
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static Bitmap decodeStream(Context context, Uri uri, BitmapFactory.Options options)
+            throws FileNotFoundException {
+        final InputStream stream = context.getContentResolver().openInputStream(uri);
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            Closeables.closeQuietly(stream);
+        }
+    }
+
+    private static PooledBuffer obtainBuffer() {
+        synchronized (sBufferLock) {
+            final PooledBuffer buffer = sBuffer;
+            if (buffer != null) {
+                sBuffer = null;
+                return buffer;
+            }
+        }
+        // In use by another thread.
+        return new PooledBuffer(INITIAL_BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(PooledBuffer buffer) {
+        // The size of the last encode attempt may be much smaller than the buffer grew to.
+        if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        buffer.reset();
+        synchronized (sBufferLock) {
+            sBuffer = buffer;
+        }
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} that exposes how much memory it holds on to.
+     */
+    private static final class PooledBuffer extends ByteArrayOutputStream {
+        PooledBuffer(int size) {
+            super(size);
+        }
+
+        /** Returns the length of the backing array, which {@link #reset} doesn't shrink. */
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * Tracks the highest heap usage seen between the stages of an ingest.
+     */
+    private static final class HeapSampler {
+        private final Runtime mRuntime = Runtime.getRuntime();
+        private final long mBaseline;
+        private long mPeak;
+
+        public HeapSampler() {
+            mBaseline = used();
+            mPeak = mBaseline;
+        }
+
+        public void sample() {
+            mPeak = Math.max(mPeak, used());
+        }
+
+        public long getPeakIncreaseKb() {
+            return (mPeak - mBaseline) / 1024;
+        }
+
+        private long used() {
+            return mRuntime.totalMemory() - mRuntime.freeMemory();
+        }
+    }
+}
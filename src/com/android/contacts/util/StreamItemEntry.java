@@ -19,10 +19,9 @@ package com.android.contacts.util;
 import android.content.Context;
 import android.database.Cursor;
 import android.provider.ContactsContract.StreamItems;
-import android.text.Html;
 
-import com.android.contacts.detail.ContactDetailDisplayUtils;
 import com.android.contacts.common.test.NeededForTesting;
+import com.android.contacts.util.StreamItemTextCache.DecodedText;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -55,8 +54,9 @@ public class StreamItemEntry implements Comparable<StreamItemEntry> {
     private final String mIconRes;
     private final String mLabelRes;
 
-    // Photos associated with this stream item.
+    // Photos associated with this stream item, sorted lazily once all of them are added.
     private List<StreamItemPhotoEntry> mPhotos;
+    private boolean mPhotosSorted = true;
 
     @NeededForTesting
     public static StreamItemEntry createForTest(long id, String text, String comments,
@@ -100,6 +100,7 @@ public class StreamItemEntry implements Comparable<StreamItemEntry> {
 
     public void addPhoto(StreamItemPhotoEntry photoEntry) {
         mPhotos.add(photoEntry);
+        mPhotosSorted = false;
     }
 
     @Override
@@ -148,7 +149,10 @@ public class StreamItemEntry implements Comparable<StreamItemEntry> {
     }
 
     public List<StreamItemPhotoEntry> getPhotos() {
-        Collections.sort(mPhotos);
+        if (!mPhotosSorted) {
+            Collections.sort(mPhotos);
+            mPhotosSorted = true;
+        }
         return mPhotos;
     }
 
@@ -157,19 +161,25 @@ public class StreamItemEntry implements Comparable<StreamItemEntry> {
      * before calling those.
      *
      * We can't do this automatically in the getters, because it'll require a {@link Context}.
+     * The decoded text is taken from {@link StreamItemTextCache} if possible; use
+     * {@link StreamItemTextCache#decodeInBackground} to decode a list of stream items ahead of
+     * time.
      */
     @VisibleForTesting
     public void decodeHtml(Context context) {
-        final Html.ImageGetter imageGetter = ContactDetailDisplayUtils.getImageGetter(context);
-        if (mText != null) {
-            mDecodedText = HtmlUtils.fromHtml(context, mText, imageGetter, null);
-        }
-        if (mComments != null) {
-            mDecodedComments = HtmlUtils.fromHtml(context, mComments, imageGetter, null);
-        }
+        setDecoded(StreamItemTextCache.decode(context, this));
+    }
+
+    void setDecoded(DecodedText decoded) {
+        mDecodedText = decoded.decodedText;
+        mDecodedComments = decoded.decodedComments;
         mDecoded = true;
     }
 
+    public boolean isHtmlDecoded() {
+        return mDecoded;
+    }
+
     public CharSequence getDecodedText() {
         checkDecoded();
         return mDecodedText;
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.text.Html;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.contacts.detail.ContactDetailDisplayUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide cache of the text and comments of stream items, decoded from HTML, keyed by
+ * stream item ID and timestamp. Decoding involves parsing the HTML, post-processing the spans
+ * and resolving embedded images, which is too slow to do for every bind of a stream item view.
+ *
+ * The cache is bounded by the number of characters it holds. Thread-safe.
+ */
+public final class StreamItemTextCache {
+
+    /** Roughly a few hundred stream items of typical length. */
+    private static final int MAX_SIZE_CHARS = 128 * 1024;
+
+    /** The decoded text and comments of a stream item, along with the HTML they come from. */
+    static final class DecodedText {
+        final String text;
+        final String comments;
+        final CharSequence decodedText;
+        final CharSequence decodedComments;
+
+        DecodedText(String text, String comments, CharSequence decodedText,
+                CharSequence decodedComments) {
+            this.text = text;
+            this.comments = comments;
+            this.decodedText = decodedText;
+            this.decodedComments = decodedComments;
+        }
+
+        int size() {
+            return 1 + (text == null ? 0 : text.length())
+                    + (comments == null ? 0 : comments.length());
+        }
+    }
+
+    private static final LruCache<String, DecodedText> sCache =
+            new LruCache<String, DecodedText>(MAX_SIZE_CHARS) {
+                @Override
+                protected int sizeOf(String key, DecodedText value) {
+                    return value.size();
+                }
+            };
+
+    private StreamItemTextCache() {
+    }
+
+    /**
+     * Returns the decoded text and comments of the given stream item, from the cache if
+     * possible. Does not modify the stream item, so it can be called on any thread.
+     */
+    static DecodedText decode(Context context, StreamItemEntry streamItem) {
+        final String key = streamItem.getId() + ":" + streamItem.getTimestamp();
+        final String text = streamItem.getText();
+        final String comments = streamItem.getComments();
+        DecodedText decoded = sCache.get(key);
+        if (decoded != null && TextUtils.equals(decoded.text, text)
+                && TextUtils.equals(decoded.comments, comments)) {
+            return decoded;
+        }
+
+        final Html.ImageGetter imageGetter = ContactDetailDisplayUtils.getImageGetter(context);
+        decoded = new DecodedText(text, comments,
+                text == null ? null : HtmlUtils.fromHtml(context, text, imageGetter, null),
+                comments == null ? null : HtmlUtils.fromHtml(context, comments, imageGetter, null));
+        sCache.put(key, decoded);
+        return decoded;
+    }
+
+    /**
+     * Decodes the stream items that haven't been decoded yet on a background thread, and then
+     * runs the given callback on the main thread.
+     * @return the task, which can be cancelled, or null if all items were already decoded
+     */
+    public static AsyncTask<?, ?, ?> decodeInBackground(Context context,
+            List<StreamItemEntry> streamItems, final Runnable onDecoded) {
+        final ArrayList<StreamItemEntry> pending = new ArrayList<StreamItemEntry>();
+        for (StreamItemEntry streamItem : streamItems) {
+            if (!streamItem.isHtmlDecoded()) {
+                pending.add(streamItem);
+            }
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final AsyncTask<Void, Void, DecodedText[]> task =
+                new AsyncTask<Void, Void, DecodedText[]>() {
+            @Override
+            protected DecodedText[] doInBackground(Void... params) {
+                final DecodedText[] result = new DecodedText[pending.size()];
+                for (int i = 0; i < result.length && !isCancelled(); i++) {
+                    result[i] = decode(appContext, pending.get(i));
+                }
+                return result;
+            }
+
+            @Override
+            protected void onPostExecute(DecodedText[] result) {
+                for (int i = 0; i < result.length; i++) {
+                    // Items may have been decoded on the main thread in the meantime.
+                    if (!pending.get(i).isHtmlDecoded()) {
+                        pending.get(i).setDecoded(result[i]);
+                    }
+                }
+                if (onDecoded != null) {
+                    onDecoded.run();
+                }
+            }
+        };
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return task;
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * Keeps track of the temporary photo files that are handed to the camera, gallery and cropper
+ * through {@link ContactPhotoUtils#FILE_PROVIDER_AUTHORITY}, and keeps them from piling up in
+ * the cache directory.
+ *
+ * Files handed out by this process and not released yet are never deleted. Other temporary
+ * photos, e.g. left behind by a cancelled crop or a process that died, are deleted once they are
+ * older than {@link #MAX_AGE_MILLIS}, or oldest first when all of them together take more than
+ * {@link #MAX_TOTAL_BYTES}. Cleanup runs in the background at startup and when memory is
+ * trimmed.
+ */
+public final class TempPhotoManager {
+    private static final String TAG = "TempPhotoManager";
+
+    /** Prefix of the names {@link ContactPhotoUtils} gives to temporary photo files. */
+    static final String FILE_NAME_PREFIX = "ContactPhoto-";
+
+    @VisibleForTesting
+    static final long MAX_TOTAL_BYTES = 16 * 1024 * 1024;
+    @VisibleForTesting
+    static final long MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static TempPhotoManager sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+
+    /** Names of the files handed out and not released yet, guarded by itself. */
+    private final HashSet<String> mOutstanding = new HashSet<String>();
+
+    public static synchronized TempPhotoManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TempPhotoManager(context.getApplicationContext(),
+                    context.getCacheDir());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TempPhotoManager(Context context, File directory) {
+        mContext = context;
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns a new temporary file with the given name, which won't be cleaned up until it is
+     * released.
+     */
+    public File newTempFile(String fileName) {
+        mDirectory.mkdirs();
+        synchronized (mOutstanding) {
+            mOutstanding.add(fileName);
+        }
+        return new File(mDirectory, fileName);
+    }
+
+    /**
+     * Marks the temporary file behind the given uri as no longer needed by this process, so
+     * that it can be cleaned up.
+     */
+    public void release(Uri uri) {
+        final File file = getTempFile(uri);
+        if (file != null) {
+            synchronized (mOutstanding) {
+                mOutstanding.remove(file.getName());
+            }
+        }
+    }
+
+    /**
+     * Deletes the photo at the given uri, and releases it if it is a temporary photo.
+     */
+    public void delete(Uri uri) {
+        mContext.getContentResolver().delete(uri, null, null);
+        release(uri);
+    }
+
+    /**
+     * Returns whether there is a photo at the given uri. For temporary photos this only looks
+     * at the file's metadata. Other uris are opened and closed right away.
+     */
+    public boolean exists(Uri uri) {
+        final File file = getTempFile(uri);
+        if (file != null) {
+            return file.length() > 0;
+        }
+        AssetFileDescriptor fd = null;
+        try {
+            fd = mContext.getContentResolver().openAssetFileDescriptor(uri, "r");
+            return fd != null;
+        } catch (FileNotFoundException e) {
+            return false;
+        } finally {
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes stale temporary photos on a background thread.
+     */
+    public void cleanUpInBackground() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                cleanUp();
+            }
+        });
+    }
+
+    /**
+     * Deletes stale temporary photos. Must not be called on the main thread.
+     * @return the number of files deleted
+     */
+    public int cleanUp() {
+        return cleanUp(System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the temporary photos that are not outstanding and either older than
+     * {@link #MAX_AGE_MILLIS} or, oldest first, over {@link #MAX_TOTAL_BYTES}.
+     */
+    @VisibleForTesting
+    int cleanUp(long nowMillis) {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        final long[] lastModified = new long[files.length];
+        final long[] lengths = new long[files.length];
+        final Integer[] order = new Integer[files.length];
+        long totalBytes = 0;
+        for (int i = 0; i < files.length; i++) {
+            order[i] = i;
+            if (files[i].getName().startsWith(FILE_NAME_PREFIX)) {
+                lastModified[i] = files[i].lastModified();
+                lengths[i] = files[i].length();
+                totalBytes += lengths[i];
+            }
+        }
+
+        // Oldest first.
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                final long l = lastModified[lhs];
+                final long r = lastModified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        int deleted = 0;
+        for (int i : order) {
+            final File file = files[i];
+            final String name = file.getName();
+            if (!name.startsWith(FILE_NAME_PREFIX)) {
+                continue;
+            }
+            final boolean stale = nowMillis - lastModified[i] > MAX_AGE_MILLIS;
+            if (!stale && totalBytes <= MAX_TOTAL_BYTES) {
+                // The remaining files are newer, and within the quota.
+                break;
+            }
+            synchronized (mOutstanding) {
+                if (mOutstanding.contains(name)) {
+                    continue;
+                }
+            }
+            if (file.delete()) {
+                totalBytes -= lengths[i];
+                deleted++;
+            } else {
+                Log.w(TAG, "Could not delete " + name);
+            }
+        }
+        if (deleted > 0) {
+            Log.i(TAG, "Deleted " + deleted + " temporary photos, " + totalBytes
+                    + " bytes left");
+        }
+        return deleted;
+    }
+
+    /**
+     * @return the temporary photo file behind the given uri, or null if the uri doesn't point
+     *     to one.
+     */
+    private File getTempFile(Uri uri) {
+        if (uri == null
+                || !ContactPhotoUtils.FILE_PROVIDER_AUTHORITY.equals(uri.getAuthority())) {
+            return null;
+        }
+        final String name = uri.getLastPathSegment();
+        if (name == null || !name.startsWith(FILE_NAME_PREFIX)) {
+            return null;
+        }
+        return new File(mDirectory, name);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Profile;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Closeables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+
+/**
+ * Process-wide cache of the vCards of contacts, without photos, keyed by lookup key and last
+ * updated timestamp. The vCard of the contact on screen is composed in the background by
+ * {@link #prepare}, so that NFC can hand it out right away when the phones touch, instead of
+ * waiting for the provider to compose it.
+ *
+ * The cache is bounded by the number of bytes it holds. Thread-safe.
+ */
+public final class VCardCache {
+    private static final String TAG = "VCardCache";
+
+    /** The lookup key of the user's profile. */
+    private static final String PROFILE_LOOKUP_KEY = "profile";
+
+    /** A few dozen vCards of typical size. */
+    private static final int MAX_SIZE_BYTES = 128 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final String[] TIMESTAMP_PROJECTION =
+            new String[] { Contacts.CONTACT_LAST_UPDATED_TIMESTAMP };
+
+    /** The vCard of a contact, along with the timestamp it was composed for. */
+    private static final class Entry {
+        final long timestamp;
+        final byte[] vCard;
+
+        Entry(long timestamp, byte[] vCard) {
+            this.timestamp = timestamp;
+            this.vCard = vCard;
+        }
+    }
+
+    private static final LruCache<String, Entry> sCache =
+            new LruCache<String, Entry>(MAX_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String key, Entry value) {
+                    return value.vCard.length;
+                }
+            };
+
+    /** Lookup keys whose vCards are being composed by {@link #prepare}, guarded by itself. */
+    private static final HashSet<String> sPending = new HashSet<String>();
+
+    /**
+     * Pending lookup keys that {@link #prepare} was called for again while their vCards were
+     * being composed, which may then be outdated. Guarded by {@link #sPending}.
+     */
+    private static final HashSet<String> sDirty = new HashSet<String>();
+
+    private VCardCache() {
+    }
+
+    /**
+     * Composes the vCard of the given contact in the background, unless the cached one is up
+     * to date.
+     */
+    public static void prepare(Context context, final Uri lookupUri) {
+        final String lookupKey = getLookupKey(lookupUri);
+        if (lookupKey == null) {
+            return;
+        }
+        synchronized (sPending) {
+            if (!sPending.add(lookupKey)) {
+                // The contact may have changed since the running compose read it; have it check
+                // again when it is done.
+                sDirty.add(lookupKey);
+                return;
+            }
+        }
+        final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean done = false;
+                try {
+                    while (!done) {
+                        final long timestamp =
+                                queryTimestamp(resolver, getTimestampUri(lookupKey, lookupUri));
+                        if (!isUpToDate(sCache.get(lookupKey), timestamp)) {
+                            // Don't let NFC send the outdated vCard in the meantime.
+                            sCache.remove(lookupKey);
+                            compose(resolver, lookupKey, timestamp);
+                        }
+                        synchronized (sPending) {
+                            done = !sDirty.remove(lookupKey);
+                            if (done) {
+                                sPending.remove(lookupKey);
+                            }
+                        }
+                    }
+                } finally {
+                    if (!done) {
+                        synchronized (sPending) {
+                            sDirty.remove(lookupKey);
+                            sPending.remove(lookupKey);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the vCard of the given contact, without photo. Composes it if it isn't cached,
+     * which may take a while.
+     * @return the vCard, or null if it couldn't be composed
+     */
+    public static byte[] getVCard(Context context, Uri lookupUri) {
+        final String lookupKey = getLookupKey(lookupUri);
+        if (lookupKey == null) {
+            return null;
+        }
+        final ContentResolver resolver = context.getContentResolver();
+        final long timestamp =
+                queryTimestamp(resolver, getTimestampUri(lookupKey, lookupUri));
+        final Entry cached = sCache.get(lookupKey);
+        if (isUpToDate(cached, timestamp)) {
+            return cached.vCard;
+        }
+        return compose(resolver, lookupKey, timestamp);
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Returns the provider uri of the vCard of the contact with the given lookup key, without
+     * photo.
+     */
+    @VisibleForTesting
+    static Uri getVCardUri(String lookupKey) {
+        // TODO find out where to get the profile's lookup key from, or find another way
+        // of determining this.
+        if (PROFILE_LOOKUP_KEY.equals(lookupKey)) {
+            return Profile.CONTENT_VCARD_URI.buildUpon()
+                    .appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true")
+                    .build();
+        }
+        return Contacts.CONTENT_VCARD_URI.buildUpon()
+                .appendPath(lookupKey)
+                .appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true")
+                .build();
+    }
+
+    /**
+     * Returns the uri to query the last updated timestamp of the contact with the given lookup
+     * key from. The profile's lookup uri doesn't have that column, but the profile uri does.
+     */
+    @VisibleForTesting
+    static Uri getTimestampUri(String lookupKey, Uri lookupUri) {
+        return PROFILE_LOOKUP_KEY.equals(lookupKey) ? Profile.CONTENT_URI : lookupUri;
+    }
+
+    @VisibleForTesting
+    static String getLookupKey(Uri lookupUri) {
+        if (lookupUri == null || lookupUri.getPathSegments().size() < 3) {
+            return null;
+        }
+        return Uri.encode(lookupUri.getPathSegments().get(2));
+    }
+
+    /**
+     * Returns whether the cached entry was composed for the given timestamp. Entries of
+     * contacts without a known timestamp are never up to date.
+     */
+    private static boolean isUpToDate(Entry cached, long timestamp) {
+        return cached != null && cached.timestamp == timestamp && timestamp != 0;
+    }
+
+    private static byte[] compose(ContentResolver resolver, String lookupKey, long timestamp) {
+        final byte[] vCard = read(resolver, getVCardUri(lookupKey));
+        if (vCard != null && vCard.length <= MAX_SIZE_BYTES / 4) {
+            sCache.put(lookupKey, new Entry(timestamp, vCard));
+        }
+        return vCard;
+    }
+
+    private static byte[] read(ContentResolver resolver, Uri vCardUri) {
+        InputStream in = null;
+        try {
+            in = resolver.openInputStream(vCardUri);
+            if (in == null) {
+                return null;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int r;
+            while ((r = in.read(buffer)) > 0) {
+                out.write(buffer, 0, r);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            Log.e(TAG, "IOException creating vcard.");
+            return null;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @return the last updated timestamp of the given contact, or 0 if unknown.
+     */
+    private static long queryTimestamp(ContentResolver resolver, Uri uri) {
+        final Cursor cursor;
+        try {
+            cursor = resolver.query(uri, TIMESTAMP_PROJECTION, null, null, null);
+        } catch (IllegalArgumentException e) {
+            // The uri doesn't have this column.
+            return 0;
+        }
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
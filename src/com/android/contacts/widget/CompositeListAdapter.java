@@ -29,6 +29,10 @@ import com.google.common.annotations.VisibleForTesting;
  * appends them in the order they are added. It listens to changes from all
  * sub-adapters and propagates them to its own listeners.
  *
+ * Positions are mapped to sub-adapters by binary search in a table of the sub-adapters' start
+ * positions. When a sub-adapter changes, only its own counts are queried again, and only the
+ * start positions after it are recomputed.
+ *
  * This class not used for now -- but let's keep running the test in case we want to revive it...
  * (So NeededForTesting)
  */
@@ -40,26 +44,50 @@ public class CompositeListAdapter extends BaseAdapter {
     private ListAdapter[] mAdapters;
     private int[] mCounts;
     private int[] mViewTypeCounts;
+    private boolean[] mAllItemsEnabled;
+
+    /**
+     * Position of the first item of each sub-adapter, and total count in the last slot. Only
+     * valid up to {@link #mFirstInvalid}.
+     */
+    private int[] mStarts;
+
+    /** First view type of each sub-adapter, same validity as {@link #mStarts}. */
+    private int[] mViewTypeStarts;
+
+    /** Sub-adapters whose counts have to be queried again. */
+    private boolean[] mChanged;
+
+    /** Index of the first sub-adapter that changed, or {@link #mSize} if none did. */
+    private int mFirstInvalid = 0;
+
     private int mSize = 0;
-    private int mCount = 0;
-    private int mViewTypeCount = 0;
-    private boolean mAllItemsEnabled = true;
-    private boolean mCacheValid = true;
 
-    private DataSetObserver mDataSetObserver = new DataSetObserver() {
+    /** Number of sub-adapters that don't have all of their items enabled. */
+    private int mPartiallyEnabledCount = 0;
+
+    /**
+     * Observes one sub-adapter, so that changes only invalidate what depends on it.
+     */
+    private final class ChildObserver extends DataSetObserver {
+        private final int mIndex;
+
+        public ChildObserver(int index) {
+            mIndex = index;
+        }
 
         @Override
         public void onChanged() {
-            invalidate();
+            invalidate(mIndex);
             notifyDataChanged();
         }
 
         @Override
         public void onInvalidated() {
-            invalidate();
+            invalidate(mIndex);
             notifyDataChanged();
         }
-    };
+    }
 
     public CompositeListAdapter() {
         this(INITIAL_CAPACITY);
@@ -69,37 +97,44 @@ public class CompositeListAdapter extends BaseAdapter {
         mAdapters = new ListAdapter[INITIAL_CAPACITY];
         mCounts = new int[INITIAL_CAPACITY];
         mViewTypeCounts = new int[INITIAL_CAPACITY];
+        mAllItemsEnabled = new boolean[INITIAL_CAPACITY];
+        mChanged = new boolean[INITIAL_CAPACITY];
+        mStarts = new int[INITIAL_CAPACITY + 1];
+        mViewTypeStarts = new int[INITIAL_CAPACITY + 1];
     }
 
     @VisibleForTesting
     /*package*/ void addAdapter(ListAdapter adapter) {
         if (mSize >= mAdapters.length) {
-            int newCapacity = mSize + 2;
+            // Grow geometrically, so that adding many partitions stays linear overall.
+            int newCapacity = Math.max(mSize + 2, mSize * 2);
             ListAdapter[] newAdapters = new ListAdapter[newCapacity];
             System.arraycopy(mAdapters, 0, newAdapters, 0, mSize);
             mAdapters = newAdapters;
 
-            int[] newCounts = new int[newCapacity];
-            System.arraycopy(mCounts, 0, newCounts, 0, mSize);
-            mCounts = newCounts;
+            mCounts = copyOf(mCounts, mSize, newCapacity);
+            mViewTypeCounts = copyOf(mViewTypeCounts, mSize, newCapacity);
+            mStarts = copyOf(mStarts, mSize + 1, newCapacity + 1);
+            mViewTypeStarts = copyOf(mViewTypeStarts, mSize + 1, newCapacity + 1);
 
-            int[] newViewTypeCounts = new int[newCapacity];
-            System.arraycopy(mViewTypeCounts, 0, newViewTypeCounts, 0, mSize);
-            mViewTypeCounts = newViewTypeCounts;
-        }
+            boolean[] newAllItemsEnabled = new boolean[newCapacity];
+            System.arraycopy(mAllItemsEnabled, 0, newAllItemsEnabled, 0, mSize);
+            mAllItemsEnabled = newAllItemsEnabled;
 
-        adapter.registerDataSetObserver(mDataSetObserver);
+            boolean[] newChanged = new boolean[newCapacity];
+            System.arraycopy(mChanged, 0, newChanged, 0, mSize);
+            mChanged = newChanged;
+        }
 
-        int count = adapter.getCount();
-        int viewTypeCount = adapter.getViewTypeCount();
+        final int index = mSize;
+        adapter.registerDataSetObserver(new ChildObserver(index));
 
-        mAdapters[mSize] = adapter;
-        mCounts[mSize] = count;
-        mCount += count;
-        mAllItemsEnabled &= adapter.areAllItemsEnabled();
-        mViewTypeCounts[mSize] = viewTypeCount;
-        mViewTypeCount += viewTypeCount;
+        mAdapters[index] = adapter;
+        mCounts[index] = 0;
+        mViewTypeCounts[index] = 0;
+        mAllItemsEnabled[index] = true;
         mSize++;
+        invalidate(index);
 
         notifyDataChanged();
     }
@@ -112,119 +147,128 @@ public class CompositeListAdapter extends BaseAdapter {
         }
     }
 
+    /**
+     * Invalidates the cached counts of all sub-adapters.
+     */
     protected void invalidate() {
-        mCacheValid = false;
+        for (int i = 0; i < mSize; i++) {
+            mChanged[i] = true;
+        }
+        mFirstInvalid = 0;
+    }
+
+    /**
+     * Invalidates the cached counts of the sub-adapter at the given index.
+     */
+    private void invalidate(int index) {
+        mChanged[index] = true;
+        if (index < mFirstInvalid) {
+            mFirstInvalid = index;
+        }
     }
 
     protected void ensureCacheValid() {
-        if (mCacheValid) {
+        if (mFirstInvalid >= mSize) {
             return;
         }
 
-        mCount = 0;
-        mAllItemsEnabled = true;
-        mViewTypeCount = 0;
-        for (int i = 0; i < mSize; i++) {
-            int count = mAdapters[i].getCount();
-            int viewTypeCount = mAdapters[i].getViewTypeCount();
-            mCounts[i] = count;
-            mCount += count;
-            mAllItemsEnabled &= mAdapters[i].areAllItemsEnabled();
-            mViewTypeCount += viewTypeCount;
+        for (int i = mFirstInvalid; i < mSize; i++) {
+            if (mChanged[i]) {
+                final ListAdapter adapter = mAdapters[i];
+                final boolean allItemsEnabled = adapter.areAllItemsEnabled();
+                if (allItemsEnabled != mAllItemsEnabled[i]) {
+                    mPartiallyEnabledCount += allItemsEnabled ? -1 : 1;
+                    mAllItemsEnabled[i] = allItemsEnabled;
+                }
+                mCounts[i] = adapter.getCount();
+                mViewTypeCounts[i] = adapter.getViewTypeCount();
+                mChanged[i] = false;
+            }
+            mStarts[i + 1] = mStarts[i] + mCounts[i];
+            mViewTypeStarts[i + 1] = mViewTypeStarts[i] + mViewTypeCounts[i];
+        }
+
+        mFirstInvalid = mSize;
+    }
+
+    /**
+     * @return the index of the sub-adapter containing the given position.
+     * @throws ArrayIndexOutOfBoundsException if the position is out of range
+     */
+    private int findAdapter(int position) {
+        if (position < 0 || position >= mStarts[mSize]) {
+            throw new ArrayIndexOutOfBoundsException(position);
         }
 
-        mCacheValid = true;
+        // Find the last sub-adapter starting at or before the position. Empty sub-adapters
+        // share their start with the next one, and are skipped that way.
+        int low = 0;
+        int high = mSize - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
     }
 
     public int getCount() {
         ensureCacheValid();
-        return mCount;
+        return mStarts[mSize];
     }
 
     public Object getItem(int position) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].getItem(position - start);
-            }
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        final int index = findAdapter(position);
+        return mAdapters[index].getItem(position - mStarts[index]);
     }
 
     public long getItemId(int position) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].getItemId(position - start);
-            }
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        final int index = findAdapter(position);
+        return mAdapters[index].getItemId(position - mStarts[index]);
     }
 
     @Override
     public int getViewTypeCount() {
         ensureCacheValid();
-        return mViewTypeCount;
+        return mViewTypeStarts[mSize];
     }
 
     @Override
     public int getItemViewType(int position) {
         ensureCacheValid();
-        int start = 0;
-        int viewTypeOffset = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return viewTypeOffset + mAdapters[i].getItemViewType(position - start);
-            }
-            viewTypeOffset += mViewTypeCounts[i];
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        final int index = findAdapter(position);
+        return mViewTypeStarts[index]
+                + mAdapters[index].getItemViewType(position - mStarts[index]);
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].getView(position - start, convertView, parent);
-            }
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        final int index = findAdapter(position);
+        return mAdapters[index].getView(position - mStarts[index], convertView, parent);
     }
 
     @Override
     public boolean areAllItemsEnabled() {
         ensureCacheValid();
-        return mAllItemsEnabled;
+        return mPartiallyEnabledCount == 0;
     }
 
     @Override
     public boolean isEnabled(int position) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].areAllItemsEnabled()
-                        || mAdapters[i].isEnabled(position - start);
-            }
-            start = end;
-        }
+        final int index = findAdapter(position);
+        return mAllItemsEnabled[index]
+                || mAdapters[index].isEnabled(position - mStarts[index]);
+    }
 
-        throw new ArrayIndexOutOfBoundsException(position);
+    private static int[] copyOf(int[] array, int length, int newCapacity) {
+        int[] result = new int[newCapacity];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
     }
 }
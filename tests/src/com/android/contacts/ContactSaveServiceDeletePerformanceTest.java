@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.RawContacts;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks deleting 1k and 10k contacts with {@link ContactSaveService#deleteContacts},
+ * against deleting them one at a time as {@link ContactSaveService#ACTION_DELETE_CONTACT}
+ * does. The contacts are created in a test account, and removed again afterwards.
+ *
+ * Run the test like this:
+ * <code>
+ * adb shell am instrument \
+ *     -e class com.android.contacts.ContactSaveServiceDeletePerformanceTest \
+ *     -w com.android.contacts.tests/android.test.InstrumentationTestRunner
+ * </code>
+ */
+@LargeTest
+public class ContactSaveServiceDeletePerformanceTest extends AndroidTestCase {
+    private static final String TAG = "ContactDeletePerf";
+
+    private static final String ACCOUNT_TYPE = "com.android.contacts.tests.deleteperf";
+    private static final String ACCOUNT_NAME = "deleteperf";
+
+    private static final int INSERT_BATCH_SIZE = 250;
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = getContext().getContentResolver();
+        removeTestContacts();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        removeTestContacts();
+        super.tearDown();
+    }
+
+    public void testDeleteOneByOne_1k() throws Exception {
+        final long[] contactIds = insertTestContacts(1000);
+        final long start = SystemClock.elapsedRealtime();
+        int deleted = 0;
+        for (long contactId : contactIds) {
+            deleted += mResolver.delete(
+                    ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId), null, null) > 0
+                    ? 1 : 0;
+        }
+        logTime("one by one", contactIds.length, SystemClock.elapsedRealtime() - start);
+        assertEquals(contactIds.length, deleted);
+    }
+
+    public void testDeleteBatch_1k() throws Exception {
+        runBatchDelete(1000);
+    }
+
+    public void testDeleteBatch_10k() throws Exception {
+        runBatchDelete(10000);
+    }
+
+    private void runBatchDelete(int count) throws Exception {
+        final long[] contactIds = insertTestContacts(count);
+        final long start = SystemClock.elapsedRealtime();
+        final int deleted = ContactSaveService.deleteContacts(mResolver, contactIds);
+        logTime("batch", contactIds.length, SystemClock.elapsedRealtime() - start);
+        assertEquals(contactIds.length, deleted);
+        assertEquals(0, queryTestContactIds().length);
+    }
+
+    private static void logTime(String mode, int count, long millis) {
+        Log.i(TAG, "Deleted " + count + " contacts " + mode + " in " + millis + "ms ("
+                + (count * 1000L / Math.max(1, millis)) + " contacts/s)");
+    }
+
+    private long[] insertTestContacts(int count) throws Exception {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(INSERT_BATCH_SIZE);
+        for (int i = 0; i < count; i++) {
+            operations.add(ContentProviderOperation.newInsert(RawContacts.CONTENT_URI)
+                    .withValue(RawContacts.ACCOUNT_TYPE, ACCOUNT_TYPE)
+                    .withValue(RawContacts.ACCOUNT_NAME, ACCOUNT_NAME)
+                    .withYieldAllowed(true)
+                    .build());
+            if (operations.size() == INSERT_BATCH_SIZE || i == count - 1) {
+                mResolver.applyBatch(ContactsContract.AUTHORITY, operations);
+                operations.clear();
+            }
+        }
+        final long[] contactIds = queryTestContactIds();
+        assertEquals(count, contactIds.length);
+        return contactIds;
+    }
+
+    private long[] queryTestContactIds() {
+        final Cursor cursor = mResolver.query(RawContacts.CONTENT_URI,
+                new String[] { RawContacts.CONTACT_ID },
+                RawContacts.ACCOUNT_TYPE + "=? AND " + RawContacts.DELETED + "=0",
+                new String[] { ACCOUNT_TYPE }, null);
+        try {
+            final long[] contactIds = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                contactIds[i++] = cursor.getLong(0);
+            }
+            return contactIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void removeTestContacts() {
+        final Uri uri = RawContacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true")
+                .build();
+        mResolver.delete(uri, RawContacts.ACCOUNT_TYPE + "=?", new String[] { ACCOUNT_TYPE });
+    }
+}
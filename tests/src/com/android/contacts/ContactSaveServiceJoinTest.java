@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.provider.ContactsContract.AggregationExceptions;
+import android.provider.ContactsContract.RawContacts;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests for the aggregation exceptions written by {@link ContactSaveService} to join contacts.
+ */
+@SmallTest
+public class ContactSaveServiceJoinTest extends TestCase {
+    private static final List<long[]> NO_PAIRS = Collections.emptyList();
+
+    public void testBuildJoinContactsDiff_connectsAllToAnchor() {
+        final long[] rawContactIds = new long[20];
+        for (int i = 0; i < rawContactIds.length; i++) {
+            rawContactIds[i] = 100 + i;
+        }
+        final ArrayList<ContentProviderOperation> operations = flatten(
+                ContactSaveService.buildJoinContactsDiff(rawContactIds, -1, NO_PAIRS));
+
+        // One exception per raw contact other than the anchor, instead of one per pair.
+        assertEquals(19, operations.size());
+        final HashSet<Long> joined = new HashSet<Long>();
+        for (ContentProviderOperation operation : operations) {
+            assertEquals(AggregationExceptions.CONTENT_URI, operation.getUri());
+            final ContentValues values = getValues(operation);
+            assertEquals(AggregationExceptions.TYPE_KEEP_TOGETHER,
+                    (int) values.getAsInteger(AggregationExceptions.TYPE));
+            assertEquals(100L, (long) values.getAsLong(AggregationExceptions.RAW_CONTACT_ID1));
+            joined.add(values.getAsLong(AggregationExceptions.RAW_CONTACT_ID2));
+        }
+        assertEquals(19, joined.size());
+        assertFalse(joined.contains(100L));
+    }
+
+    public void testBuildJoinContactsDiff_anchorsOnVerifiedName() {
+        final ArrayList<ContentProviderOperation> operations = flatten(
+                ContactSaveService.buildJoinContactsDiff(new long[] { 1, 2, 3 }, 2, NO_PAIRS));
+
+        assertEquals(3, operations.size());
+        for (int i = 0; i < 2; i++) {
+            final ContentValues values = getValues(operations.get(i));
+            assertEquals(2L, (long) values.getAsLong(AggregationExceptions.RAW_CONTACT_ID1));
+        }
+        final ContentProviderOperation nameVerified = operations.get(2);
+        assertEquals(ContentUris.withAppendedId(RawContacts.CONTENT_URI, 2),
+                nameVerified.getUri());
+        assertEquals(1, (int) getValues(nameVerified).getAsInteger(RawContacts.NAME_VERIFIED));
+    }
+
+    public void testBuildJoinContactsDiff_overwritesSplit() {
+        // Splitting 1, 2 and 3 kept every pair apart.
+        final ArrayList<long[]> keptApart = new ArrayList<long[]>();
+        keptApart.add(new long[] { 1, 2 });
+        keptApart.add(new long[] { 1, 3 });
+        keptApart.add(new long[] { 2, 3 });
+        final ArrayList<ContentProviderOperation> operations = flatten(
+                ContactSaveService.buildJoinContactsDiff(new long[] { 1, 2, 3 }, -1, keptApart));
+
+        final HashSet<String> together = new HashSet<String>();
+        for (ContentProviderOperation operation : operations) {
+            final ContentValues values = getValues(operation);
+            assertEquals(AggregationExceptions.TYPE_KEEP_TOGETHER,
+                    (int) values.getAsInteger(AggregationExceptions.TYPE));
+            final long id1 = values.getAsLong(AggregationExceptions.RAW_CONTACT_ID1);
+            final long id2 = values.getAsLong(AggregationExceptions.RAW_CONTACT_ID2);
+            together.add(Math.min(id1, id2) + "-" + Math.max(id1, id2));
+        }
+        // Each pair that was kept apart is written exactly once.
+        assertEquals(3, operations.size());
+        assertTrue(together.contains("1-2"));
+        assertTrue(together.contains("1-3"));
+        assertTrue(together.contains("2-3"));
+    }
+
+    public void testBuildJoinContactsDiff_splitsIntoBatches() {
+        final long[] rawContactIds = new long[ContactSaveService.JOIN_BATCH_SIZE * 2 + 11];
+        for (int i = 0; i < rawContactIds.length; i++) {
+            rawContactIds[i] = i + 1;
+        }
+        // 2 is joined in the first batch and the last raw contact in the last one.
+        final ArrayList<long[]> keptApart = new ArrayList<long[]>();
+        keptApart.add(new long[] { 2, rawContactIds.length });
+        final ArrayList<ArrayList<ContentProviderOperation>> batches =
+                ContactSaveService.buildJoinContactsDiff(rawContactIds, 1, keptApart);
+
+        assertEquals(3, batches.size());
+        // The first batch also marks the name as verified.
+        assertEquals(ContactSaveService.JOIN_BATCH_SIZE + 1, batches.get(0).size());
+        assertEquals(ContactSaveService.JOIN_BATCH_SIZE, batches.get(1).size());
+        // The pair kept apart is overwritten once both of its raw contacts are joined.
+        assertEquals(10 + 1, batches.get(2).size());
+        final ContentValues pair = getValues(batches.get(2).get(batches.get(2).size() - 1));
+        assertEquals(2L, (long) pair.getAsLong(AggregationExceptions.RAW_CONTACT_ID1));
+        for (ArrayList<ContentProviderOperation> batch : batches) {
+            for (ContentProviderOperation operation : batch) {
+                // Each batch commits as a whole.
+                assertFalse(operation.isYieldAllowed());
+            }
+        }
+    }
+
+    private static ArrayList<ContentProviderOperation> flatten(
+            ArrayList<ArrayList<ContentProviderOperation>> batches) {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (ArrayList<ContentProviderOperation> batch : batches) {
+            operations.addAll(batch);
+        }
+        return operations;
+    }
+
+    private static ContentValues getValues(ContentProviderOperation operation) {
+        return operation.resolveValueBackReferences(new ContentProviderResult[0], 0);
+    }
+}
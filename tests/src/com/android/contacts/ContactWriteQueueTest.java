@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the order in which {@link ContactSaveService} flushes its {@link ContactWriteQueue}.
+ */
+@SmallTest
+public class ContactWriteQueueTest extends TestCase {
+    private static final boolean WRITE = true;
+    private static final boolean OTHER = false;
+
+    public void testPollIntent_nothingPending() {
+        final ContactWriteQueue queue = new ContactWriteQueue();
+        assertFalse(queue.pollIntent());
+    }
+
+    public void testPollIntent_mixedOrder() {
+        final ContactWriteQueue queue = new ContactWriteQueue();
+        // Received while the worker thread is busy: two writes, a save, two writes, a delete and
+        // a last write.
+        final boolean[] received = { WRITE, WRITE, OTHER, WRITE, WRITE, OTHER, WRITE };
+        for (boolean write : received) {
+            queue.onIntentReceived(write);
+        }
+
+        // The worker defers the flush only while the next intent is a write, so every run of
+        // writes is applied before the request that follows it.
+        assertTrue(queue.pollIntent());
+        queue.setSuperPrimary(1);
+        assertFalse(queue.pollIntent());
+        queue.setSuperPrimary(2);
+        assertEquals(2, queue.getDepth());
+
+        // The save is followed by a write, which is not merged into anything before the save.
+        assertTrue(queue.pollIntent());
+
+        assertTrue(queue.pollIntent());
+        queue.clearPrimary(3);
+        assertFalse(queue.pollIntent());
+        queue.setSuperPrimary(3);
+        // Merged with the previous write to the same row.
+        assertEquals(3, queue.getDepth());
+
+        // The delete, and the last write which has nothing to wait for.
+        assertTrue(queue.pollIntent());
+        assertFalse(queue.pollIntent());
+        assertFalse(queue.pollIntent());
+    }
+
+    public void testPollIntent_writeReceivedLater() {
+        final ContactWriteQueue queue = new ContactWriteQueue();
+        queue.onIntentReceived(WRITE);
+        // The next write hasn't been received yet, so this one is flushed right away.
+        assertFalse(queue.pollIntent());
+
+        queue.onIntentReceived(WRITE);
+        queue.onIntentReceived(OTHER);
+        assertFalse(queue.pollIntent());
+        assertFalse(queue.pollIntent());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.database.MatrixCursor;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.contacts.GroupMetaDataIndex.AccountGroups;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link GroupMetaDataIndex}.
+ */
+@SmallTest
+public class GroupMetaDataIndexTest extends TestCase {
+    private static final String TYPE = "com.google";
+
+    private GroupMetaDataIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final MatrixCursor cursor = new MatrixCursor(GroupMetaDataLoader.COLUMNS);
+        addGroup(cursor, "a@gmail.com", null, 1, "Starred", 0, 1);
+        addGroup(cursor, "b@gmail.com", null, 2, "Family", 0, 0);
+        addGroup(cursor, "a@gmail.com", null, 3, "My Contacts", 1, 0);
+        addGroup(cursor, "a@gmail.com", null, 4, "Friends", 0, 0);
+        addGroup(cursor, "a@gmail.com", "plus", 5, "Circle", null, null);
+        addGroup(cursor, "a@gmail.com", null, 6, "Coworkers", 0, 0);
+        addGroup(cursor, "b@gmail.com", null, 7, "My Contacts", 1, 0);
+        addGroup(cursor, "b@gmail.com", null, 8, "Other Contacts", 1, 0);
+        mIndex = GroupMetaDataIndex.build(cursor);
+    }
+
+    public void testAccountGroups() {
+        final AccountGroups account = mIndex.getAccountGroups(TYPE, "a@gmail.com", null);
+        assertEquals(1, account.getFavoritesGroupId());
+        assertEquals(3, account.getDefaultGroupId());
+        assertTrue(account.hasGroups());
+        assertEquals(4, mIndex.getGroupCount(account));
+        // Groups keep the order of the cursor.
+        assertEquals(1, mIndex.getGroupId(account, 0));
+        assertEquals(3, mIndex.getGroupId(account, 1));
+        assertEquals("Friends", mIndex.getTitle(account, 2));
+        assertEquals("Coworkers", mIndex.getTitle(account, 3));
+    }
+
+    public void testAccountGroups_dataSet() {
+        final AccountGroups account = mIndex.getAccountGroups(TYPE, "a@gmail.com", "plus");
+        assertEquals(0, account.getFavoritesGroupId());
+        assertEquals(0, account.getDefaultGroupId());
+        assertEquals(1, mIndex.getGroupCount(account));
+        assertNull(mIndex.getAccountGroups(TYPE, "c@gmail.com", null));
+    }
+
+    public void testAccountGroups_severalAutoAddGroups() {
+        final AccountGroups account = mIndex.getAccountGroups(TYPE, "b@gmail.com", null);
+        // The first auto-add group is the default one, which new contacts are added to.
+        assertEquals(7, account.getDefaultGroupId());
+        assertTrue(mIndex.isSpecial(account, mIndex.getPosition(account, 7)));
+        // The others are listed like any other group.
+        assertFalse(mIndex.isSpecial(account, mIndex.getPosition(account, 8)));
+        assertFalse(mIndex.isSpecial(account, mIndex.getPosition(account, 2)));
+    }
+
+    public void testGetPosition() {
+        final AccountGroups account = mIndex.getAccountGroups(TYPE, "a@gmail.com", null);
+        assertEquals(2, mIndex.getPosition(account, 4));
+        assertTrue(mIndex.isSpecial(account, mIndex.getPosition(account, 1)));
+        assertTrue(mIndex.isSpecial(account, mIndex.getPosition(account, 3)));
+        assertFalse(mIndex.isSpecial(account, mIndex.getPosition(account, 6)));
+        // Groups of other accounts, and unknown groups.
+        assertEquals(-1, mIndex.getPosition(account, 2));
+        assertEquals(-1, mIndex.getPosition(account, 5));
+        assertEquals(-1, mIndex.getPosition(account, 100));
+    }
+
+    private static void addGroup(MatrixCursor cursor, String accountName, String dataSet,
+            long groupId, String title, Integer autoAdd, Integer favorites) {
+        cursor.addRow(new Object[] {
+                accountName, TYPE, dataSet, groupId, title, autoAdd, favorites, 0, 0 });
+    }
+}
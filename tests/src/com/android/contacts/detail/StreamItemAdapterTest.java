@@ -73,6 +73,22 @@ public class StreamItemAdapterTest extends AndroidTestCase {
         mView = mAdapter.getView(0, null, null);
     }
 
+    public void testGetView_HeaderIsRecycled() {
+        final View header = mAdapter.getView(0, null, null);
+        assertSame(header, mAdapter.getView(0, header, null));
+    }
+
+    public void testAddStreamItems() {
+        mAdapter.setStreamItems(createStreamItemList(0));
+        mAdapter.addStreamItems(createStreamItemList(3), true);
+        assertEquals(4, mAdapter.getCount());
+        mAdapter.addStreamItems(createStreamItemList(2), false);
+        assertEquals(6, mAdapter.getCount());
+        // An empty last page doesn't change anything.
+        mAdapter.addStreamItems(createStreamItemList(0), false);
+        assertEquals(6, mAdapter.getCount());
+    }
+
     /** Counter used by {@link #createStreamItemEntryBuilder()} to create unique builders. */
     private int mCreateStreamItemEntryBuilderCounter = 0;
 
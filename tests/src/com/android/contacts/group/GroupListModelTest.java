@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.group;
+
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.Groups;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link GroupListModel}.
+ */
+@SmallTest
+public class GroupListModelTest extends TestCase {
+    private static final String[] COLUMNS = new String[] {
+        Groups.ACCOUNT_NAME,
+        Groups.ACCOUNT_TYPE,
+        Groups.DATA_SET,
+        Groups._ID,
+        Groups.TITLE,
+        Groups.SUMMARY_COUNT,
+    };
+
+    public void testBuild() {
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[] { "a@gmail.com", "com.google", null, 10, "Family", 3 });
+        cursor.addRow(new Object[] { "a@gmail.com", "com.google", null, 11, "Friends", 0 });
+        cursor.addRow(new Object[] { "a@gmail.com", "com.google", "plus", 12, "Circle", 7 });
+        cursor.addRow(new Object[] { "b@corp.com", "com.exchange", null, 13, "Team", 1 });
+        final GroupListModel model = GroupListModel.build(cursor);
+
+        assertEquals(4, model.getCount());
+        assertTrue(model.isFirstGroupInAccount(0));
+        assertFalse(model.isFirstGroupInAccount(1));
+        // A different data set of the same account gets its own header.
+        assertTrue(model.isFirstGroupInAccount(2));
+        assertTrue(model.isFirstGroupInAccount(3));
+
+        assertEquals(11, model.getGroupId(1));
+        assertEquals("Friends", model.getTitle(1));
+        assertEquals(0, model.getMemberCount(1));
+        assertEquals("a@gmail.com", model.getAccountName(1));
+        assertEquals("plus", model.getDataSet(2));
+        assertNull(model.getDataSet(3));
+        assertEquals("com.exchange", model.getAccountType(3));
+    }
+
+    public void testGetPosition() {
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < 1000; i++) {
+            cursor.addRow(new Object[] { "a@corp.com", "com.exchange", null, 5000 - i, "G" + i, i });
+        }
+        final GroupListModel model = GroupListModel.build(cursor);
+
+        assertEquals(0, model.getPosition(5000));
+        assertEquals(999, model.getPosition(4001));
+        assertEquals(-1, model.getPosition(1));
+    }
+
+    public void testBuild_empty() {
+        final GroupListModel model = GroupListModel.build(new MatrixCursor(COLUMNS));
+        assertEquals(0, model.getCount());
+        assertEquals(-1, model.getPosition(1));
+    }
+}
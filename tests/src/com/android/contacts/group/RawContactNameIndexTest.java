@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.group;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.contacts.util.LongHashSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RawContactNameIndex}.
+ *
+ * adb shell am instrument -w -e class com.android.contacts.group.RawContactNameIndexTest \
+       com.android.contacts.tests/android.test.InstrumentationTestRunner
+ */
+@SmallTest
+public class RawContactNameIndexTest extends TestCase {
+    private RawContactNameIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = RawContactNameIndex.build(
+                new long[] {11, 12, 13, 14, 15},
+                new long[] {1, 2, 3, 4, 5},
+                new String[] {"John Smith", "Ann Jones", "Émile Zola", "john doe", null},
+                new String[] {"Smith, John", "Jones, Ann", "Zola, Émile", "doe, john", null});
+    }
+
+    public void testSearch_primaryName() {
+        assertEntries(new long[] {14, 11}, mIndex.search("john", null, 5));
+    }
+
+    public void testSearch_alternativeName() {
+        assertEntries(new long[] {12}, mIndex.search("Jones", null, 5));
+        assertEntries(new long[] {11}, mIndex.search("smi", null, 5));
+    }
+
+    public void testSearch_ignoresCaseAndAccents() {
+        assertEntries(new long[] {13}, mIndex.search("EMI", null, 5));
+        assertEntries(new long[] {13}, mIndex.search("émi", null, 5));
+    }
+
+    public void testSearch_bothNamesMatchOnce() {
+        final RawContactNameIndex index = RawContactNameIndex.build(
+                new long[] {1}, new long[] {1},
+                new String[] {"Jo Jo"}, new String[] {"Jo, Jo"});
+        assertEntries(index, new long[] {1}, index.search("jo", null, 5));
+    }
+
+    public void testSearch_excludesContacts() {
+        assertEntries(new long[] {11}, mIndex.search("john", LongHashSet.of(4), 5));
+    }
+
+    public void testSearch_limit() {
+        assertEntries(new long[] {14}, mIndex.search("john", null, 1));
+    }
+
+    public void testSearch_noMatch() {
+        assertEquals(0, mIndex.search("x", null, 5).length);
+        assertEquals(0, mIndex.search("", null, 5).length);
+    }
+
+    private void assertEntries(long[] expectedRawContactIds, int[] entries) {
+        assertEntries(mIndex, expectedRawContactIds, entries);
+    }
+
+    private static void assertEntries(RawContactNameIndex index, long[] expectedRawContactIds,
+            int[] entries) {
+        assertEquals(expectedRawContactIds.length, entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            assertEquals(expectedRawContactIds[i], index.getRawContactId(entries[i]));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.contacts.util.DuplicateFinder.MergeCandidate;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Benchmarks {@link DuplicateFinder} over 100k synthetic raw contacts, on one thread and on
+ * all cores.
+ *
+ * Run the test like this:
+ * <code>
+ * adb shell am instrument \
+ *     -e class com.android.contacts.util.DuplicateFinderPerformanceTest \
+ *     -w com.android.contacts.tests/android.test.InstrumentationTestRunner
+ * </code>
+ */
+@LargeTest
+public class DuplicateFinderPerformanceTest extends TestCase {
+    private static final String TAG = "DuplicateFinderPerf";
+
+    private static final int RAW_CONTACT_COUNT = 100000;
+
+    public void testFind_100k_singleThread() {
+        runFind(1);
+    }
+
+    public void testFind_100k_allCores() {
+        runFind(Runtime.getRuntime().availableProcessors());
+    }
+
+    private void runFind(int threadCount) {
+        long start = SystemClock.elapsedRealtime();
+        final DuplicateFinder finder = DuplicateFinderTest.newSyntheticFinder(RAW_CONTACT_COUNT);
+        final long built = SystemClock.elapsedRealtime();
+        final List<MergeCandidate> candidates = finder.find(threadCount);
+        final long found = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Indexed " + RAW_CONTACT_COUNT + " raw contacts in " + (built - start)
+                + "ms, matched on " + threadCount + " threads in " + (found - built) + "ms");
+        // Every tenth raw contact duplicates the one before it.
+        assertEquals(RAW_CONTACT_COUNT / 10, candidates.size());
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.contacts.util.DuplicateFinder.MergeCandidate;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link DuplicateFinder}.
+ */
+@SmallTest
+public class DuplicateFinderTest extends TestCase {
+
+    public void testNormalizeName() {
+        assertEquals("john smith", DuplicateFinder.normalizeName("Smith, John"));
+        assertEquals("jose smith", DuplicateFinder.normalizeName("  José   SMITH "));
+        assertNull(DuplicateFinder.normalizeName("..."));
+        assertNull(DuplicateFinder.normalizeName(null));
+    }
+
+    public void testNormalizeEmail() {
+        assertEquals("john@example.com", DuplicateFinder.normalizeEmail(" John@Example.com "));
+        assertNull(DuplicateFinder.normalizeEmail("john"));
+    }
+
+    public void testPhoneKey() {
+        assertEquals(DuplicateFinder.phoneKey("+16505551234"),
+                DuplicateFinder.phoneKey("+1 (650) 555-1234"));
+        // Leading zeros are significant.
+        assertFalse(DuplicateFinder.phoneKey("0123456789")
+                == DuplicateFinder.phoneKey("123456789"));
+        assertEquals(0, DuplicateFinder.phoneKey("911"));
+        assertEquals(0, DuplicateFinder.phoneKey(null));
+    }
+
+    public void testFind_samePhoneNumber() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        finder.addName(1, 10, "John Smith");
+        finder.addPhoneNumber(1, 10, "+16505551234", "650-555-1234");
+        finder.addName(2, 20, "John Smith");
+        finder.addPhoneNumber(2, 20, null, "+1 650 555 1234");
+        finder.addName(3, 30, "John Smith");
+        finder.addPhoneNumber(3, 30, "+16505550000", "650-555-0000");
+
+        final List<MergeCandidate> candidates = finder.find(1);
+        assertEquals(1, candidates.size());
+        assertTrue(Arrays.equals(new long[] { 10, 20 }, candidates.get(0).contactIds));
+        assertEquals(DuplicateFinder.MATCH_NAME | DuplicateFinder.MATCH_PHONE,
+                candidates.get(0).matches);
+    }
+
+    public void testFind_phoneNumberAloneIsNotEnough() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        // Two colleagues with the same office line.
+        finder.addName(1, 10, "John Smith");
+        finder.addPhoneNumber(1, 10, "+16505551234", null);
+        finder.addName(2, 20, "Jane Doe");
+        finder.addPhoneNumber(2, 20, "+16505551234", null);
+        assertTrue(finder.find(1).isEmpty());
+    }
+
+    public void testFind_nameAloneIsNotEnough() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        finder.addName(1, 10, "John Smith");
+        finder.addName(2, 20, "Smith, John");
+        assertTrue(finder.find(1).isEmpty());
+
+        finder.addEmail(1, 10, "john@example.com");
+        finder.addEmail(2, 20, "JOHN@example.com");
+        final List<MergeCandidate> candidates = finder.find(1);
+        assertEquals(1, candidates.size());
+        assertEquals(DuplicateFinder.MATCH_NAME | DuplicateFinder.MATCH_EMAIL,
+                candidates.get(0).matches);
+    }
+
+    public void testFind_skipsRawContactsOfSameContact() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        finder.addEmail(1, 10, "john@example.com");
+        finder.addEmail(2, 10, "john@example.com");
+        assertTrue(finder.find(1).isEmpty());
+    }
+
+    public void testFind_groupsTransitiveMatches() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        finder.addName(1, 30, "John Smith");
+        finder.addEmail(1, 30, "john@example.com");
+        finder.addName(2, 20, "Smith, John");
+        finder.addEmail(2, 20, "john@example.com");
+        finder.addPhoneNumber(2, 20, "+16505551234", null);
+        finder.addPhoneNumber(3, 10, "+16505551234", null);
+        finder.addName(3, 10, "John Smith");
+        finder.addName(4, 40, "Jane Doe");
+        finder.addEmail(4, 40, "jane@example.com");
+
+        final List<MergeCandidate> candidates = finder.find(1);
+        assertEquals(1, candidates.size());
+        // Oldest first, so that the join keeps its name.
+        assertTrue(Arrays.equals(new long[] { 10, 20, 30 }, candidates.get(0).contactIds));
+    }
+
+    public void testFind_ranksBestMatchFirst() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        finder.addName(1, 10, "John Smith");
+        finder.addPhoneNumber(1, 10, "+16505551234", null);
+        finder.addName(2, 20, "John Smith");
+        finder.addPhoneNumber(2, 20, "+16505551234", null);
+        finder.addName(3, 30, "Jane Doe");
+        finder.addName(4, 40, "Jane Doe");
+        finder.addEmail(3, 30, "jane@example.com");
+        finder.addEmail(4, 40, "jane@example.com");
+        finder.addPhoneNumber(3, 30, "+16505550000", null);
+        finder.addPhoneNumber(4, 40, "+16505550000", null);
+
+        final List<MergeCandidate> candidates = finder.find(1);
+        assertEquals(2, candidates.size());
+        assertTrue(Arrays.equals(new long[] { 30, 40 }, candidates.get(0).contactIds));
+        assertTrue(Arrays.equals(new long[] { 10, 20 }, candidates.get(1).contactIds));
+    }
+
+    public void testFind_largeBlockComparesNeighbors() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        final int count = DuplicateFinder.MAX_BLOCK_SIZE * 4;
+        for (int i = 0; i < count; i++) {
+            // A switchboard number shared by many unrelated contacts.
+            finder.addPhoneNumber(i, i, "+16505550000", null);
+            finder.addName(i, i, "Person " + i);
+        }
+        // Two of them with the same name end up next to each other.
+        finder.addName(count, count, "Person 7");
+        finder.addPhoneNumber(count, count, "+16505550000", null);
+
+        final List<MergeCandidate> candidates = finder.find(1);
+        assertEquals(1, candidates.size());
+        assertTrue(Arrays.equals(new long[] { 7, count }, candidates.get(0).contactIds));
+    }
+
+    public void testFind_commonNameComparesNeighbors() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        final int count = DuplicateFinder.MAX_BLOCK_SIZE * 4;
+        for (int i = 0; i < count - 1; i++) {
+            finder.addName(i, i, "John Smith");
+            finder.addEmail(i, i, "john" + i + "@example.com");
+        }
+        // The last John Smith has the address of the first one.
+        finder.addName(count - 1, count - 1, "John Smith");
+        finder.addEmail(count - 1, count - 1, "john0@example.com");
+
+        final List<MergeCandidate> candidates = finder.find(1);
+        assertEquals(1, candidates.size());
+        assertTrue(Arrays.equals(new long[] { 0, count - 1 }, candidates.get(0).contactIds));
+        assertEquals(DuplicateFinder.MATCH_NAME | DuplicateFinder.MATCH_EMAIL,
+                candidates.get(0).matches);
+    }
+
+    public void testFind_sharedNumberNeedsName() {
+        final DuplicateFinder finder = new DuplicateFinder();
+        // A family sharing their home number.
+        finder.addPhoneNumber(1, 10, "+16505551234", null);
+        finder.addName(1, 10, "Alice Smith");
+        finder.addPhoneNumber(2, 20, "+16505551234", null);
+        finder.addName(2, 20, "Bob Smith");
+        finder.addPhoneNumber(3, 30, "+16505551234", null);
+        finder.addName(3, 30, "Carol Smith");
+        assertTrue(finder.find(1).isEmpty());
+
+        // Bob again, with the home number.
+        finder.addPhoneNumber(4, 40, "+16505551234", null);
+        finder.addName(4, 40, "Smith, Bob");
+        final List<MergeCandidate> candidates = finder.find(1);
+        assertEquals(1, candidates.size());
+        assertTrue(Arrays.equals(new long[] { 20, 40 }, candidates.get(0).contactIds));
+        assertEquals(DuplicateFinder.MATCH_NAME | DuplicateFinder.MATCH_PHONE,
+                candidates.get(0).matches);
+    }
+
+    public void testFind_parallelMatchesSerial() {
+        final DuplicateFinder finder = newSyntheticFinder(5000);
+        final List<MergeCandidate> serial = finder.find(1);
+        final List<MergeCandidate> parallel = finder.find(4);
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertTrue(Arrays.equals(serial.get(i).contactIds, parallel.get(i).contactIds));
+            assertEquals(serial.get(i).score, parallel.get(i).score);
+            assertEquals(serial.get(i).matches, parallel.get(i).matches);
+        }
+    }
+
+    /**
+     * Builds a finder over the given number of raw contacts, where every tenth raw contact
+     * duplicates the one before it by phone number and every twentieth by email address.
+     */
+    static DuplicateFinder newSyntheticFinder(int count) {
+        final DuplicateFinder finder = new DuplicateFinder();
+        for (int i = 0; i < count; i++) {
+            final int person = i % 10 == 9 ? i - 1 : i;
+            finder.addName(i, i, "First" + (person % 500) + " Last" + person);
+            finder.addPhoneNumber(i, i, "+1650" + (5000000 + person), null);
+            if (i % 20 != 9) {
+                finder.addEmail(i, i, "user" + i + "@example.com");
+            } else {
+                finder.addEmail(i, i, "user" + person + "@example.com");
+            }
+        }
+        return finder;
+    }
+}
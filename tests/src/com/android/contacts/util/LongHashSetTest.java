@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Tests for {@link LongHashSet}.
+ *
+ * adb shell am instrument -w -e class com.android.contacts.util.LongHashSetTest \
+       com.android.contacts.tests/android.test.InstrumentationTestRunner
+ */
+@SmallTest
+public class LongHashSetTest extends TestCase {
+
+    public void testAddContainsRemove() {
+        final LongHashSet set = new LongHashSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(1));
+        assertTrue(set.add(-5));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertFalse(set.add(1));
+        assertEquals(3, set.size());
+
+        assertTrue(set.contains(1));
+        assertTrue(set.contains(-5));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertFalse(set.contains(2));
+
+        assertTrue(set.remove(Long.MIN_VALUE));
+        assertFalse(set.remove(Long.MIN_VALUE));
+        assertTrue(set.remove(1));
+        assertFalse(set.contains(1));
+        assertEquals(1, set.size());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(-5));
+    }
+
+    public void testToArray() {
+        final long[] values = LongHashSet.of(3, 1, 2, 3).toArray();
+        Arrays.sort(values);
+        assertTrue(Arrays.equals(new long[] {1, 2, 3}, values));
+    }
+
+    public void testMatchesHashSet() {
+        // Mix adds and removes over a small key range, so that removals have to shift back
+        // colliding entries, and compare against a HashSet.
+        final Random random = new Random(42);
+        final LongHashSet set = new LongHashSet();
+        final HashSet<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 20000; i++) {
+            final long value = random.nextInt(500);
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long value = 0; value < 500; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tests for {@link MultiVCardExporter}.
+ */
+@SmallTest
+public class MultiVCardExporterTest extends TestCase {
+
+    /** Composes "BEGIN:<key>\n" for each key, after a random delay. */
+    private static class FakeComposer implements MultiVCardExporter.Composer {
+        private final Random mRandom = new Random(1);
+
+        @Override
+        public byte[] compose(String[] lookupKeys) throws IOException {
+            final int delay;
+            synchronized (mRandom) {
+                delay = mRandom.nextInt(5);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new IOException(e.toString());
+            }
+            final StringBuilder sb = new StringBuilder();
+            for (String lookupKey : lookupKeys) {
+                sb.append("BEGIN:").append(lookupKey).append('\n');
+            }
+            return sb.toString().getBytes();
+        }
+    }
+
+    public void testExport_keepsOrder() throws IOException {
+        final String[] lookupKeys = createLookupKeys(1003);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ArrayList<Integer> progress = new ArrayList<Integer>();
+        final MultiVCardExporter exporter = new MultiVCardExporter(new FakeComposer(), 10, 4);
+        final long bytes = exporter.export(lookupKeys, Channels.newChannel(out),
+                new MultiVCardExporter.ProgressListener() {
+                    @Override
+                    public void onProgress(int exportedCount, int totalCount) {
+                        assertEquals(1003, totalCount);
+                        progress.add(exportedCount);
+                    }
+                });
+
+        final String[] lines = out.toString().split("\n");
+        assertEquals(lookupKeys.length, lines.length);
+        for (int i = 0; i < lookupKeys.length; i++) {
+            assertEquals("BEGIN:" + lookupKeys[i], lines[i]);
+        }
+        assertEquals(out.size(), bytes);
+        assertEquals(101, progress.size());
+        assertEquals(10, (int) progress.get(0));
+        assertEquals(1003, (int) progress.get(100));
+    }
+
+    public void testExport_empty() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MultiVCardExporter exporter = new MultiVCardExporter(new FakeComposer(), 10, 2);
+        assertEquals(0, exporter.export(new String[0], Channels.newChannel(out), null));
+        assertEquals(0, out.size());
+    }
+
+    public void testExport_canceled() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MultiVCardExporter exporter = new MultiVCardExporter(new FakeComposer(), 10, 2);
+        try {
+            exporter.export(createLookupKeys(1000), Channels.newChannel(out),
+                    new MultiVCardExporter.ProgressListener() {
+                        @Override
+                        public void onProgress(int exportedCount, int totalCount) {
+                            if (exportedCount == 50) {
+                                exporter.cancel();
+                            }
+                        }
+                    });
+            fail("Export should have been canceled");
+        } catch (CancellationException e) {
+            // Expected
+        }
+        assertEquals(50, out.toString().split("\n").length);
+    }
+
+    public void testExport_composerFailure() {
+        final MultiVCardExporter exporter = new MultiVCardExporter(
+                new MultiVCardExporter.Composer() {
+                    @Override
+                    public byte[] compose(String[] lookupKeys) throws IOException {
+                        throw new IOException("failed");
+                    }
+                }, 10, 2);
+        try {
+            exporter.export(createLookupKeys(100),
+                    Channels.newChannel(new ByteArrayOutputStream()), null);
+            fail("Export should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static String[] createLookupKeys(int count) {
+        final String[] lookupKeys = new String[count];
+        for (int i = 0; i < count; i++) {
+            lookupKeys[i] = "0r" + i;
+        }
+        return lookupKeys;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link PhotoDecoder}.
+ *
+ * adb shell am instrument -w -e class com.android.contacts.util.PhotoDecoderTest \
+       com.android.contacts.tests/android.test.InstrumentationTestRunner
+ */
+@SmallTest
+public class PhotoDecoderTest extends TestCase {
+
+    public void testFingerprintOfEqualArrays() {
+        final byte[] photo = randomBytes(100000, 1);
+        final byte[] copy = photo.clone();
+        final long fingerprint = PhotoDecoder.fingerprint(photo);
+        assertEquals(fingerprint, PhotoDecoder.fingerprint(copy));
+        assertTrue(PhotoDecoder.isSameImage(photo, fingerprint, copy,
+                PhotoDecoder.fingerprint(copy)));
+    }
+
+    public void testFingerprintOfDifferentArrays() {
+        final byte[] photo = randomBytes(100000, 1);
+        final byte[] other = randomBytes(100000, 2);
+        assertFalse(PhotoDecoder.isSameImage(photo, PhotoDecoder.fingerprint(photo), other,
+                PhotoDecoder.fingerprint(other)));
+
+        // Same content, but truncated.
+        final byte[] truncated = new byte[photo.length - 1];
+        System.arraycopy(photo, 0, truncated, 0, truncated.length);
+        assertFalse(PhotoDecoder.isSameImage(photo, PhotoDecoder.fingerprint(photo), truncated,
+                PhotoDecoder.fingerprint(truncated)));
+
+        // Same header, different ending.
+        final byte[] changedEnd = photo.clone();
+        changedEnd[changedEnd.length - 1]++;
+        assertFalse(PhotoDecoder.fingerprint(photo) == PhotoDecoder.fingerprint(changedEnd));
+    }
+
+    public void testSmallArraysAreHashedCompletely() {
+        final byte[] photo = randomBytes(500, 3);
+        for (int i = 0; i < photo.length; i++) {
+            final byte[] changed = photo.clone();
+            changed[i]++;
+            assertFalse("byte " + i,
+                    PhotoDecoder.fingerprint(photo) == PhotoDecoder.fingerprint(changed));
+        }
+    }
+
+    public void testIsSameImageWithNull() {
+        final byte[] photo = randomBytes(10, 4);
+        assertTrue(PhotoDecoder.isSameImage(null, 0, null, 0));
+        assertFalse(PhotoDecoder.isSameImage(photo, PhotoDecoder.fingerprint(photo), null, 0));
+        assertFalse(PhotoDecoder.isSameImage(null, 0, photo, PhotoDecoder.fingerprint(photo)));
+    }
+
+    public void testComputeSampleSize() {
+        // No constraint.
+        assertEquals(1, PhotoDecoder.computeSampleSize(2000, 1500, 0, 0));
+        // Smaller than the view.
+        assertEquals(1, PhotoDecoder.computeSampleSize(96, 96, 720, 400));
+        // Exactly twice the view.
+        assertEquals(2, PhotoDecoder.computeSampleSize(1440, 800, 720, 400));
+        // Subsampling must keep both dimensions covered.
+        assertEquals(2, PhotoDecoder.computeSampleSize(3000, 1000, 720, 400));
+        assertEquals(4, PhotoDecoder.computeSampleSize(3000, 2000, 720, 0));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        final byte[] result = new byte[length];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.MoreAsserts;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link PhotoIngest}.
+ *
+ * adb shell am instrument -w -e class com.android.contacts.util.PhotoIngestTest \
+       com.android.contacts.tests/android.test.InstrumentationTestRunner
+ */
+@SmallTest
+public class PhotoIngestTest extends TestCase {
+
+    public void testEncode_decodable() {
+        final Bitmap bitmap = createNoise(96, 96);
+        final byte[] encoded = PhotoIngest.encode(bitmap, PhotoIngest.THUMBNAIL);
+        assertNotNull(encoded);
+        final Bitmap decoded = BitmapFactory.decodeByteArray(encoded, 0, encoded.length);
+        assertEquals(96, decoded.getWidth());
+        assertEquals(96, decoded.getHeight());
+    }
+
+    public void testEncode_lowersQualityToFitBudget() {
+        final Bitmap bitmap = createNoise(256, 256);
+        // Encoding is deterministic, so a budget of exactly the size at quality 60 is met by
+        // stepping down from 100 to 60.
+        final byte[] atSixty = PhotoIngest.encode(bitmap,
+                new PhotoIngest.EncodeOptions(Bitmap.CompressFormat.JPEG, 60, 0));
+        final int budget = atSixty.length;
+        final byte[] bounded = PhotoIngest.encode(bitmap,
+                new PhotoIngest.EncodeOptions(Bitmap.CompressFormat.JPEG, 100, budget));
+        assertTrue(bounded.length <= budget);
+        MoreAsserts.assertEquals(atSixty, bounded);
+    }
+
+    public void testEncode_stopsAtMinQuality() {
+        // Noise doesn't compress, so no quality fits into this budget.
+        final Bitmap bitmap = createNoise(256, 256);
+        final byte[] atMin = PhotoIngest.encode(bitmap, new PhotoIngest.EncodeOptions(
+                Bitmap.CompressFormat.JPEG, PhotoIngest.MIN_QUALITY, 0));
+        final byte[] bounded = PhotoIngest.encode(bitmap,
+                new PhotoIngest.EncodeOptions(Bitmap.CompressFormat.JPEG, 100, 1024));
+        assertTrue(atMin.length > 1024);
+        MoreAsserts.assertEquals(atMin, bounded);
+    }
+
+    public void testEncode_reusesBufferAcrossCalls() {
+        final Bitmap first = createNoise(64, 64);
+        final Bitmap second = createNoise(32, 32);
+        final byte[] firstEncoded = PhotoIngest.encode(first, PhotoIngest.THUMBNAIL);
+        final byte[] secondEncoded = PhotoIngest.encode(second, PhotoIngest.THUMBNAIL);
+        // The second result must not contain leftovers of the first one.
+        final Bitmap decoded = BitmapFactory.decodeByteArray(secondEncoded, 0,
+                secondEncoded.length);
+        assertEquals(32, decoded.getWidth());
+        assertFalse(firstEncoded.length == secondEncoded.length);
+    }
+
+    private static Bitmap createNoise(int width, int height) {
+        final int[] pixels = new int[width * height];
+        final Random random = new Random(width);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+}
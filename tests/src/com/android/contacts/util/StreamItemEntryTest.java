@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.List;
+
+/**
+ * Tests for {@link StreamItemEntry} and {@link StreamItemTextCache}.
+ */
+@SmallTest
+public class StreamItemEntryTest extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        StreamItemTextCache.clear();
+    }
+
+    public void testDecodeHtml_reusesCachedText() {
+        final StreamItemEntry first = createEntry(1, 1000, "some <b>bold</b> text", "comment");
+        final StreamItemEntry second = createEntry(1, 1000, "some <b>bold</b> text", "comment");
+        first.decodeHtml(getContext());
+        second.decodeHtml(getContext());
+        assertEquals("some bold text", first.getDecodedText().toString());
+        assertSame(first.getDecodedText(), second.getDecodedText());
+        assertSame(first.getDecodedComments(), second.getDecodedComments());
+    }
+
+    public void testDecodeHtml_changedText() {
+        final StreamItemEntry first = createEntry(1, 1000, "old text", null);
+        final StreamItemEntry second = createEntry(1, 1000, "new text", null);
+        first.decodeHtml(getContext());
+        second.decodeHtml(getContext());
+        assertEquals("old text", first.getDecodedText().toString());
+        assertEquals("new text", second.getDecodedText().toString());
+        assertNull(second.getDecodedComments());
+    }
+
+    public void testIsHtmlDecoded() {
+        final StreamItemEntry entry = createEntry(2, 2000, "text", null);
+        assertFalse(entry.isHtmlDecoded());
+        entry.decodeHtml(getContext());
+        assertTrue(entry.isHtmlDecoded());
+    }
+
+    public void testGetPhotos_sorted() {
+        final StreamItemEntry entry = createEntry(3, 3000, "text", null);
+        entry.addPhoto(new StreamItemPhotoEntry(10, 2, 0, "content://photo/10", 0, 0, 0));
+        entry.addPhoto(new StreamItemPhotoEntry(11, 0, 0, "content://photo/11", 0, 0, 0));
+        entry.addPhoto(new StreamItemPhotoEntry(12, 1, 0, "content://photo/12", 0, 0, 0));
+        List<StreamItemPhotoEntry> photos = entry.getPhotos();
+        assertEquals(11, photos.get(0).getId());
+        assertEquals(12, photos.get(1).getId());
+        assertEquals(10, photos.get(2).getId());
+
+        // Photos added later are sorted in too.
+        entry.addPhoto(new StreamItemPhotoEntry(13, -1, 0, "content://photo/13", 0, 0, 0));
+        photos = entry.getPhotos();
+        assertEquals(4, photos.size());
+        assertEquals(13, photos.get(3).getId());
+        assertSame(photos, entry.getPhotos());
+    }
+
+    private static StreamItemEntry createEntry(long id, long timestamp, String text,
+            String comments) {
+        return StreamItemEntry.createForTest(id, text, comments, timestamp, null, null, null,
+                null, null, null);
+    }
+}
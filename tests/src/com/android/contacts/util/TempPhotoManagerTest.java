@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for {@link TempPhotoManager}.
+ */
+@SmallTest
+public class TempPhotoManagerTest extends AndroidTestCase {
+    private static final long NOW = 10L * TempPhotoManager.MAX_AGE_MILLIS;
+
+    private File mDirectory;
+    private TempPhotoManager mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "TempPhotoManagerTest");
+        deleteDirectory();
+        mDirectory.mkdirs();
+        mManager = new TempPhotoManager(getContext(), mDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testCleanUp_deletesStaleFiles() throws IOException {
+        final File stale = createFile("ContactPhoto-stale.jpg", 10,
+                NOW - TempPhotoManager.MAX_AGE_MILLIS - 1000);
+        final File recent = createFile("ContactPhoto-recent.jpg", 10, NOW - 1000);
+        assertEquals(1, mManager.cleanUp(NOW));
+        assertFalse(stale.exists());
+        assertTrue(recent.exists());
+    }
+
+    public void testCleanUp_keepsOutstandingAndUnrelatedFiles() throws IOException {
+        final long old = NOW - 2 * TempPhotoManager.MAX_AGE_MILLIS;
+        final File outstanding = mManager.newTempFile("ContactPhoto-outstanding.jpg");
+        writeFile(outstanding, 10, old);
+        final File unrelated = createFile("other.jpg", 10, old);
+        assertEquals(0, mManager.cleanUp(NOW));
+        assertTrue(outstanding.exists());
+        assertTrue(unrelated.exists());
+    }
+
+    public void testCleanUp_deletesOldestOverQuota() throws IOException {
+        final int size = (int) (TempPhotoManager.MAX_TOTAL_BYTES / 2);
+        final File oldest = createFile("ContactPhoto-1.jpg", size, NOW - 3000);
+        final File older = createFile("ContactPhoto-2.jpg", size, NOW - 2000);
+        final File newest = createFile("ContactPhoto-3.jpg", size, NOW - 1000);
+        assertEquals(1, mManager.cleanUp(NOW));
+        assertFalse(oldest.exists());
+        assertTrue(older.exists());
+        assertTrue(newest.exists());
+    }
+
+    private File createFile(String name, int length, long lastModified) throws IOException {
+        final File file = new File(mDirectory, name);
+        writeFile(file, length, lastModified);
+        return file;
+    }
+
+    private static void writeFile(File file, int length, long lastModified) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+    }
+
+    private void deleteDirectory() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
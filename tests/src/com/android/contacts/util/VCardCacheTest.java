@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.net.Uri;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Profile;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link VCardCache}.
+ */
+@SmallTest
+public class VCardCacheTest extends TestCase {
+
+    public void testGetLookupKey() {
+        final Uri lookupUri = Uri.withAppendedPath(Contacts.CONTENT_LOOKUP_URI, "0r1-2A3")
+                .buildUpon().appendPath("5").build();
+        assertEquals("0r1-2A3", VCardCache.getLookupKey(lookupUri));
+        assertNull(VCardCache.getLookupKey(Contacts.CONTENT_URI));
+        assertNull(VCardCache.getLookupKey(null));
+    }
+
+    public void testGetVCardUri() {
+        final Uri uri = VCardCache.getVCardUri("0r1-2A3");
+        assertEquals(Contacts.CONTENT_VCARD_URI.getAuthority(), uri.getAuthority());
+        assertEquals("0r1-2A3", uri.getLastPathSegment());
+        assertEquals("true", uri.getQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO));
+    }
+
+    public void testGetTimestampUri() {
+        final Uri lookupUri = Uri.withAppendedPath(Contacts.CONTENT_LOOKUP_URI, "0r1-2A3");
+        assertEquals(lookupUri, VCardCache.getTimestampUri("0r1-2A3", lookupUri));
+        final Uri profileLookupUri = Uri.withAppendedPath(Contacts.CONTENT_LOOKUP_URI, "profile");
+        assertEquals(Profile.CONTENT_URI, VCardCache.getTimestampUri("profile", profileLookupUri));
+    }
+
+    public void testGetVCardUri_profile() {
+        final Uri uri = VCardCache.getVCardUri("profile");
+        assertEquals(Profile.CONTENT_VCARD_URI.getPath(), uri.getPath());
+        assertEquals("true", uri.getQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO));
+    }
+}
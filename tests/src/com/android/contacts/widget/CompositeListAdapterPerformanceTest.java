@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.widget;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import java.util.Random;
+
+/**
+ * Benchmarks {@link CompositeListAdapter} with many partitions and rows, and checks that a
+ * change in one partition doesn't make the adapter query the others again.
+ *
+ * Run the test like this:
+ * <code>
+ * adb shell am instrument \
+ *     -e class com.android.contacts.widget.CompositeListAdapterPerformanceTest \
+ *     -w com.android.contacts.tests/android.test.InstrumentationTestRunner
+ * </code>
+ */
+@LargeTest
+public class CompositeListAdapterPerformanceTest extends AndroidTestCase {
+    private static final String TAG = "CompositeListAdapterPerf";
+
+    private static final int TOTAL_ROWS = 100000;
+    private static final int LOOKUPS = 200000;
+
+    /**
+     * Adapter with generated rows, counting how often its counts are queried.
+     */
+    private static final class PartitionAdapter extends BaseAdapter {
+        private final int mPartition;
+        private int mCount;
+        public int countQueries;
+
+        public PartitionAdapter(int partition, int count) {
+            mPartition = partition;
+            mCount = count;
+        }
+
+        public void setCount(int count) {
+            mCount = count;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            countQueries++;
+            return mCount;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return ((long) mPartition << 32) | position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            return null;
+        }
+    }
+
+    public void testLookupsWithManyPartitions() {
+        final int[] partitionCounts = { 1, 10, 100, 1000 };
+        for (int partitions : partitionCounts) {
+            final PartitionAdapter[] children = new PartitionAdapter[partitions];
+            final CompositeListAdapter adapter = createAdapter(children, TOTAL_ROWS / partitions);
+            assertEquals(TOTAL_ROWS, adapter.getCount());
+
+            // Random access, as when flinging through the list, and check the mapping.
+            final Random random = new Random(partitions);
+            final int rowsPerPartition = TOTAL_ROWS / partitions;
+            long checksum = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                checksum += adapter.getItemId(random.nextInt(TOTAL_ROWS));
+            }
+            final long elapsed = System.nanoTime() - start;
+            Log.i(TAG, partitions + " partitions, " + TOTAL_ROWS + " rows: "
+                    + (elapsed / LOOKUPS) + "ns per lookup (checksum " + checksum + ")");
+
+            for (int position = 0; position < TOTAL_ROWS; position += 997) {
+                final long id = adapter.getItemId(position);
+                assertEquals(position / rowsPerPartition, (int) (id >>> 32));
+                assertEquals(position % rowsPerPartition, (int) id);
+            }
+        }
+    }
+
+    public void testChangeInOnePartitionOnlyQueriesThatPartition() {
+        final int partitions = 200;
+        final PartitionAdapter[] children = new PartitionAdapter[partitions];
+        final CompositeListAdapter adapter = createAdapter(children, TOTAL_ROWS / partitions);
+        assertEquals(TOTAL_ROWS, adapter.getCount());
+
+        for (PartitionAdapter child : children) {
+            child.countQueries = 0;
+        }
+        children[150].setCount(10);
+
+        assertEquals(TOTAL_ROWS - TOTAL_ROWS / partitions + 10, adapter.getCount());
+        for (int i = 0; i < partitions; i++) {
+            assertEquals("partition " + i, i == 150 ? 1 : 0, children[i].countQueries);
+        }
+
+        // Positions after the changed partition are shifted accordingly.
+        final int firstAfter = 150 * (TOTAL_ROWS / partitions) + 10;
+        assertEquals(151L << 32, adapter.getItemId(firstAfter));
+        assertEquals((150L << 32) | 9, adapter.getItemId(firstAfter - 1));
+    }
+
+    private CompositeListAdapter createAdapter(PartitionAdapter[] children, int rowsPerPartition) {
+        final CompositeListAdapter adapter = new CompositeListAdapter();
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new PartitionAdapter(i, rowsPerPartition);
+            adapter.addAdapter(children[i]);
+        }
+        return adapter;
+    }
+}